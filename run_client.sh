@@ -23,4 +23,4 @@ if [[ "$HOST" == "" || "$PORT" == "" ]] ; then
 fi
 
 cd './bin'
-java codeu.chat.ClientMain "$HOST@$PORT"
\ No newline at end of file
+java $JAVA_OPTS codeu.chat.ClientMain "$HOST@$PORT"
\ No newline at end of file
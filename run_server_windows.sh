@@ -42,13 +42,13 @@ fi
 
 cd './bin'
 if [ "$RELAY_ADDRESS" == "" ] ; then
-  java -cp ".;sqlite-jdbc.jar" codeu.chat.ServerMain \
+  java $JAVA_OPTS -cp ".;sqlite-jdbc.jar" codeu.chat.ServerMain \
       "$TEAM_ID" \
       "$TEAM_SECRET" \
       "$PORT" \
       "$PERSISTENT_DB"
 else
-  java -cp ".;sqlite-jdbc.jar" codeu.chat.ServerMain \
+  java $JAVA_OPTS -cp ".;sqlite-jdbc.jar" codeu.chat.ServerMain \
       "$TEAM_ID" \
       "$TEAM_SECRET" \
       "$PORT" \
@@ -23,4 +23,4 @@ if [[ "$HOST" == "" || "$PORT" == "" ]] ; then
 fi
 
 cd './bin'
-java codeu.chat.SimpleGuiClientMain "$HOST@$PORT"
+java $JAVA_OPTS codeu.chat.SimpleGuiClientMain "$HOST@$PORT"
@@ -20,8 +20,12 @@ import java.util.Scanner;
 import codeu.chat.client.commandline.Chat;
 import codeu.chat.client.Controller;
 import codeu.chat.client.View;
+import codeu.chat.common.PipelineConnectionSource;
+import codeu.chat.common.SessionConnectionSource;
+import codeu.chat.common.VersionedConnectionSource;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.Wire;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.ConnectionSource;
 
@@ -43,7 +47,12 @@ final class ClientMain {
 
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
-    final ConnectionSource source = new ClientConnectionSource(address.host, address.port);
+    final ConnectionSource source = new VersionedConnectionSource(
+        Boolean.parseBoolean(System.getProperty("codeu.chat.client.pipeline", "true")) ?
+            new PipelineConnectionSource(new ClientConnectionSource(address.host, address.port)) :
+            new SessionConnectionSource(new ClientConnectionSource(address.host, address.port)),
+        Integer.getInteger("codeu.chat.client.wireVersion", Wire.LATEST),
+        Boolean.parseBoolean(System.getProperty("codeu.chat.client.deflate", "true")));
     final Controller controller = new Controller(source);
     final View view = new View(source);
 
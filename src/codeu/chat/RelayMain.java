@@ -17,11 +17,13 @@ package codeu.chat;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import codeu.chat.common.Secret;
 import codeu.chat.relay.Server;
 import codeu.chat.relay.ServerFrontEnd;
 import codeu.chat.util.Logger;
+import codeu.chat.util.ThreadPerTask;
 import codeu.chat.util.Timeline;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.Connection;
@@ -32,6 +34,16 @@ final class RelayMain {
 
   private static final Logger.Log LOG = Logger.newLog(RelayMain.class);
 
+  // Selects how the relay serves connections. Set with
+  // "-Dcodeu.chat.relay.transport=<value>" where the value is one of:
+  //
+  //   blocking : Connections are served one at a time on the relay's
+  //              timeline. This is the default.
+  //   threads  : Every connection is served on a thread of its own, a virtual
+  //              thread when the JVM has them (see ThreadPerTask).
+  private static final String TRANSPORT_PROPERTY = "codeu.chat.relay.transport";
+  private static final String TRANSPORT_THREADS = "threads";
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -86,6 +98,16 @@ final class RelayMain {
       }
     });
 
+    // Without threads every connection is served on the timeline.
+    final Executor executor = TRANSPORT_THREADS.equals(System.getProperty(TRANSPORT_PROPERTY)) ?
+        new ThreadPerTask() :
+        new Executor() {
+          @Override
+          public void execute(Runnable task) {
+            timeline.scheduleNow(task);
+          }
+        };
+
     LOG.info("Starting relay main loop...");
 
     while (true) {
@@ -95,11 +117,11 @@ final class RelayMain {
         final Connection connection = source.connect();
         LOG.info("Connection established.");
 
-        timeline.scheduleNow(new Runnable() {
+        executor.execute(new Runnable() {
           @Override
           public void run() {
-            try {
-              frontEnd.handleConnection(connection);
+            try (final Connection open = connection) {
+              frontEnd.handleConnection(open);
             } catch (Exception ex) {
               LOG.error(ex, "Exception handling connection.");
             }
@@ -19,12 +19,17 @@ import java.io.IOException;
 
 import codeu.chat.common.Relay;
 import codeu.chat.common.Secret;
+import codeu.chat.server.Admission;
 import codeu.chat.server.Database;
+import codeu.chat.server.EncodedCache;
+import codeu.chat.server.NioFrontEnd;
 import codeu.chat.server.NoOpRelay;
 import codeu.chat.server.RemoteRelay;
 import codeu.chat.server.Server;
+import codeu.chat.util.Deflation;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.ThreadPerTask;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.Connection;
@@ -35,6 +40,46 @@ final class ServerMain {
 
   private static final Logger.Log LOG = Logger.newLog(ServerMain.class);
 
+  // Selects how the server accepts connections and reads requests. Set with
+  // "-Dcodeu.chat.server.transport=<value>" where the value is one of:
+  //
+  //   blocking : One accept loop hands each connection to the server's
+  //              timeline. This is the default.
+  //   nio      : A single selector thread serves every connection without
+  //              blocking (see NioFrontEnd).
+  //   threads  : Every connection is served start to finish on a thread of its
+  //              own, a virtual thread when the JVM has them (see
+  //              ThreadPerTask).
+  private static final String TRANSPORT_PROPERTY = "codeu.chat.server.transport";
+  private static final String TRANSPORT_BLOCKING = "blocking";
+  private static final String TRANSPORT_NIO = "nio";
+  private static final String TRANSPORT_THREADS = "threads";
+
+  // The number of threads that serve read-only requests. Set with
+  // "-Dcodeu.chat.server.readers=<count>". Defaults to one per core.
+  private static final String READERS_PROPERTY = "codeu.chat.server.readers";
+
+  // Limits on how much work the server takes on before it answers SERVER_BUSY.
+  // Set with "-Dcodeu.chat.server.maxPending=<count>" and
+  // "-Dcodeu.chat.server.maxPerAddress=<count>" and
+  // "-Dcodeu.chat.server.maxWaitsPerAddress=<count>". See Admission for
+  // defaults.
+  private static final String MAX_PENDING_PROPERTY = "codeu.chat.server.maxPending";
+  private static final String MAX_PER_ADDRESS_PROPERTY = "codeu.chat.server.maxPerAddress";
+  private static final String MAX_WAITS_PER_ADDRESS_PROPERTY = "codeu.chat.server.maxWaitsPerAddress";
+
+  // How many encoded users, conversation summaries and messages the server
+  // keeps of each. Set with "-Dcodeu.chat.server.cacheSize=<count>". See
+  // EncodedCache for the default.
+  private static final String CACHE_SIZE_PROPERTY = "codeu.chat.server.cacheSize";
+
+  // How hard to deflate responses for clients that accept it (0 to 9) and how
+  // big a response must be before it is deflated. Set with
+  // "-Dcodeu.chat.server.deflateLevel=<level>" and
+  // "-Dcodeu.chat.server.deflateThreshold=<bytes>". See Deflation for defaults.
+  private static final String DEFLATE_LEVEL_PROPERTY = "codeu.chat.server.deflateLevel";
+  private static final String DEFLATE_THRESHOLD_PROPERTY = "codeu.chat.server.deflateThreshold";
+
   public static void main(String[] args) {
 
     Logger.enableConsoleOutput();
@@ -66,13 +111,28 @@ final class ServerMain {
                                        RemoteAddress.parse(args[4]) :
                                        null;
 
+    final String transport = System.getProperty(TRANSPORT_PROPERTY, TRANSPORT_BLOCKING);
+
     try (
-        final ConnectionSource serverSource = ServerConnectionSource.forPort(myPort);
         final ConnectionSource relaySource = relayAddress == null ? null : new ClientConnectionSource(relayAddress.host, relayAddress.port)
     ) {
 
       LOG.info("Starting server...");
-      runServer(id, secret, serverSource, relaySource, databaseFilename);
+      final Server server = createServer(id, secret, relaySource, databaseFilename);
+
+      if (TRANSPORT_NIO.equals(transport)) {
+        try (final NioFrontEnd frontEnd = new NioFrontEnd(server, myPort)) {
+          frontEnd.run();
+        }
+      } else if (TRANSPORT_THREADS.equals(transport)) {
+        try (final ConnectionSource serverSource = ServerConnectionSource.forPort(myPort)) {
+          runServerThreads(server, serverSource);
+        }
+      } else {
+        try (final ConnectionSource serverSource = ServerConnectionSource.forPort(myPort)) {
+          runServer(server, serverSource);
+        }
+      }
 
     } catch (IOException ex) {
 
@@ -81,11 +141,10 @@ final class ServerMain {
     }
   }
 
-  private static void runServer(Uuid id,
-                                byte[] secret,
-                                ConnectionSource serverSource,
-                                ConnectionSource relaySource,
-                                String databaseFilename) {
+  private static Server createServer(Uuid id,
+                                     byte[] secret,
+                                     ConnectionSource relaySource,
+                                     String databaseFilename) {
 
     final Relay relay = relaySource == null ?
                         new NoOpRelay() :
@@ -93,10 +152,33 @@ final class ServerMain {
 
     final Database database = new Database(databaseFilename);
 
-    final Server server = new Server(id, secret, relay, database);
+    final int readers = Integer.getInteger(READERS_PROPERTY,
+                                           Runtime.getRuntime().availableProcessors());
+
+    final Admission admission = new Admission(
+        Integer.getInteger(MAX_PENDING_PROPERTY, Admission.DEFAULT_MAX_PENDING),
+        Integer.getInteger(MAX_PER_ADDRESS_PROPERTY, Admission.DEFAULT_MAX_PER_ADDRESS),
+        Integer.getInteger(MAX_WAITS_PER_ADDRESS_PROPERTY, Admission.DEFAULT_MAX_WAITS_PER_ADDRESS));
+
+    final int cacheSize = Integer.getInteger(CACHE_SIZE_PROPERTY, EncodedCache.DEFAULT_MAX_SIZE);
+
+    final Deflation deflation = new Deflation(
+        Integer.getInteger(DEFLATE_LEVEL_PROPERTY, Deflation.DEFAULT_LEVEL),
+        Integer.getInteger(DEFLATE_THRESHOLD_PROPERTY, Deflation.DEFAULT_THRESHOLD));
+
+    final Server server = new Server(id, secret, relay, database, new Server.Options()
+        .readerThreads(readers)
+        .admission(admission)
+        .cacheSize(cacheSize)
+        .deflation(deflation));
 
     LOG.info("Created Server");
 
+    return server;
+  }
+
+  private static void runServer(Server server, ConnectionSource serverSource) {
+
     while (true) {
       try {
 
@@ -111,4 +193,30 @@ final class ServerMain {
       }
     }
   }
+
+  private static void runServerThreads(final Server server, ConnectionSource serverSource) {
+
+    final ThreadPerTask threads = new ThreadPerTask();
+    LOG.info("Serving each connection on its own %s thread.",
+             threads.isVirtual() ? "virtual" : "platform");
+
+    while (true) {
+      try {
+
+        LOG.info("Established connection...");
+        final Connection connection = serverSource.connect();
+        LOG.info("Connection established.");
+
+        threads.execute(new Runnable() {
+          @Override
+          public void run() {
+            server.serveConnection(connection);
+          }
+        });
+
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to establish connection.");
+      }
+    }
+  }
 }
@@ -19,8 +19,12 @@ import java.io.IOException;
 import codeu.chat.client.Controller;
 import codeu.chat.client.simplegui.ChatSimpleGui;
 import codeu.chat.client.View;
+import codeu.chat.common.PipelineConnectionSource;
+import codeu.chat.common.SessionConnectionSource;
+import codeu.chat.common.VersionedConnectionSource;
 import codeu.chat.util.Logger;
 import codeu.chat.util.RemoteAddress;
+import codeu.chat.util.Wire;
 import codeu.chat.util.connections.ClientConnectionSource;
 import codeu.chat.util.connections.ConnectionSource;
 
@@ -44,15 +48,22 @@ final class SimpleGuiClientMain {
 
     final RemoteAddress address = RemoteAddress.parse(args[0]);
 
+    final ConnectionSource pushSource = new ClientConnectionSource(address.host, address.port);
+
     try (
-      final ConnectionSource source = new ClientConnectionSource(address.host, address.port)
+      final ConnectionSource source = new VersionedConnectionSource(
+        Boolean.parseBoolean(System.getProperty("codeu.chat.client.pipeline", "true")) ?
+            new PipelineConnectionSource(new ClientConnectionSource(address.host, address.port)) :
+            new SessionConnectionSource(new ClientConnectionSource(address.host, address.port)),
+        Integer.getInteger("codeu.chat.client.wireVersion", Wire.LATEST),
+        Boolean.parseBoolean(System.getProperty("codeu.chat.client.deflate", "true")))
     ) {
       final Controller controller = new Controller(source);
       final View view = new View(source);
 
       LOG.info("Creating client...");
 
-      runClient(controller, view);
+      runClient(controller, view, pushSource);
 
     } catch (Exception ex) {
       System.out.println("ERROR: Exception setting up client. Check log for details.");
@@ -60,9 +71,9 @@ final class SimpleGuiClientMain {
     }
   }
 
-  private static void runClient(Controller controller, View view) {
+  private static void runClient(Controller controller, View view, ConnectionSource pushSource) {
 
-    final ChatSimpleGui chatSimpleGui = new ChatSimpleGui(controller, view);
+    final ChatSimpleGui chatSimpleGui = new ChatSimpleGui(controller, view, pushSource);
 
     LOG.info("Created client");
 
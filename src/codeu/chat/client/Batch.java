@@ -0,0 +1,374 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// BATCH
+//
+// Collects read-only calls so that they can all be sent to the server in one
+// BATCH_REQUEST. Each call takes a callback instead of returning its result.
+// Nothing is sent until "send" is called, at which point the callbacks are
+// called in the same order as the calls were added.
+//
+// "send" is "fetch", which is the only part that talks to the server, and
+// then "finish", which calls the callbacks. They can be called on different
+// threads, so that the callbacks run on the thread that owns what they change
+// without that thread waiting on the network.
+//
+// Get a batch from "View.batch". Sending a batch empties it so it can be filled
+// and sent again.
+//
+// Servers that do not know about batches answer a batch with NO_MESSAGE. Once
+// that has happened every batch from the same view sends its calls one at a
+// time straight away, without asking again.
+public final class Batch {
+
+  private final static Logger.Log LOG = Logger.newLog(Batch.class);
+
+  // CALLBACK
+  //
+  // Receives the result of one call in a batch.
+  public interface Callback<T> {
+    void done(T value);
+  }
+
+  // REQUEST
+  //
+  // A request kept as the values it is made of, so that it can be written in
+  // whichever wire version the connection it is sent on uses (see Wire).
+  private static final class Request {
+
+    private final List<Field<?>> fields = new ArrayList<>();
+
+    public Request(int type) {
+      with(Serializers.INTEGER, type);
+    }
+
+    public <T> Request with(Serializer<T> serializer, T value) {
+      fields.add(new Field<>(serializer, value));
+      return this;
+    }
+
+    public void write(OutputStream out) throws IOException {
+      for (final Field<?> field : fields) {
+        field.write(out);
+      }
+    }
+  }
+
+  private static final class Field<T> {
+
+    private final Serializer<T> serializer;
+    private final T value;
+
+    public Field(Serializer<T> serializer, T value) {
+      this.serializer = serializer;
+      this.value = value;
+    }
+
+    public void write(OutputStream out) throws IOException {
+      serializer.write(out, value);
+    }
+  }
+
+  private static final class Call<T> {
+
+    public final Request request;
+
+    private final int responseType;
+    private final Serializer<T> serializer;
+    private final Callback<T> callback;
+
+    // The result, once one has been read.
+    private boolean done = false;
+    private T value = null;
+
+    public Call(Request request, int responseType, Serializer<T> serializer, Callback<T> callback) {
+      this.request = request;
+      this.responseType = responseType;
+      this.serializer = serializer;
+      this.callback = callback;
+    }
+
+    public void read(InputStream in) throws IOException {
+      if (Serializers.readInt(in) == responseType) {
+        value = serializer.read(in);
+        done = true;
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    }
+
+    public void finish() {
+      if (done) {
+        callback.done(value);
+      }
+    }
+  }
+
+  private final ConnectionSource source;
+  private final List<Call<?>> calls = new ArrayList<>();
+
+  // Shared by every batch made by one view, false once the server has shown
+  // that it does not know about batches.
+  private final AtomicBoolean batchesSupported;
+
+  Batch(ConnectionSource source, AtomicBoolean batchesSupported) {
+    this.source = source;
+    this.batchesSupported = batchesSupported;
+  }
+
+  public void getUsers(Collection<Uuid> ids, Callback<Collection<User>> callback) {
+    add(new Request(NetworkCode.GET_USERS_BY_ID_REQUEST)
+            .with(Serializers.collection(Uuid.SERIALIZER), ids),
+        NetworkCode.GET_USERS_BY_ID_RESPONSE,
+        Serializers.collection(User.SERIALIZER),
+        callback);
+  }
+
+  public void getAllConversations(Callback<Collection<ConversationSummary>> callback) {
+    add(new Request(NetworkCode.GET_ALL_CONVERSATIONS_REQUEST),
+        NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE,
+        Serializers.collection(ConversationSummary.SERIALIZER),
+        callback);
+  }
+
+  public void getConversations(Collection<Uuid> ids, Callback<Collection<Conversation>> callback) {
+    add(new Request(NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST)
+            .with(Serializers.collection(Uuid.SERIALIZER), ids),
+        NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE,
+        Serializers.collection(Conversation.SERIALIZER),
+        callback);
+  }
+
+  public void getMessages(Collection<Uuid> ids, Callback<Collection<Message>> callback) {
+    add(new Request(NetworkCode.GET_MESSAGES_BY_ID_REQUEST)
+            .with(Serializers.collection(Uuid.SERIALIZER), ids),
+        NetworkCode.GET_MESSAGES_BY_ID_RESPONSE,
+        Serializers.collection(Message.SERIALIZER),
+        callback);
+  }
+
+  public void getUserGeneration(Callback<Uuid> callback) {
+    add(new Request(NetworkCode.GET_USER_GENERATION_REQUEST),
+        NetworkCode.GET_USER_GENERATION_RESPONSE,
+        Uuid.SERIALIZER,
+        callback);
+  }
+
+  public void getUsersExcluding(Collection<Uuid> ids, Callback<Collection<User>> callback) {
+    add(new Request(NetworkCode.GET_USERS_EXCLUDING_REQUEST)
+            .with(Serializers.collection(Uuid.SERIALIZER), ids),
+        NetworkCode.GET_USERS_EXCLUDING_RESPONSE,
+        Serializers.collection(User.SERIALIZER),
+        callback);
+  }
+
+  public void getConversations(Time start, Time end, Callback<Collection<Conversation>> callback) {
+    add(new Request(NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST)
+            .with(Time.SERIALIZER, start)
+            .with(Time.SERIALIZER, end),
+        NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE,
+        Serializers.collection(Conversation.SERIALIZER),
+        callback);
+  }
+
+  public void getConversations(String filter, Callback<Collection<Conversation>> callback) {
+    add(new Request(NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST)
+            .with(Serializers.STRING, filter),
+        NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE,
+        Serializers.collection(Conversation.SERIALIZER),
+        callback);
+  }
+
+  public void getMessages(Uuid conversation, Time start, Time end, Callback<Collection<Message>> callback) {
+    add(new Request(NetworkCode.GET_MESSAGES_BY_TIME_REQUEST)
+            .with(Uuid.SERIALIZER, conversation)
+            .with(Time.SERIALIZER, start)
+            .with(Time.SERIALIZER, end),
+        NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE,
+        Serializers.collection(Message.SERIALIZER),
+        callback);
+  }
+
+  public void getMessages(Uuid rootMessage, int range, Callback<Collection<Message>> callback) {
+    add(new Request(NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST)
+            .with(Uuid.SERIALIZER, rootMessage)
+            .with(Serializers.INTEGER, range),
+        NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE,
+        Serializers.collection(Message.SERIALIZER),
+        callback);
+  }
+
+  public void getMessages(Uuid conversation, int offset, int count, Callback<Collection<Message>> callback) {
+    add(new Request(NetworkCode.GET_MESSAGES_BY_INDEX_REQUEST)
+            .with(Uuid.SERIALIZER, conversation)
+            .with(Serializers.INTEGER, offset)
+            .with(Serializers.INTEGER, count),
+        NetworkCode.GET_MESSAGES_BY_INDEX_RESPONSE,
+        Serializers.collection(Message.SERIALIZER),
+        callback);
+  }
+
+  public void getMessageCount(Uuid conversation, Callback<Integer> callback) {
+    add(new Request(NetworkCode.GET_MESSAGE_COUNT_REQUEST)
+            .with(Uuid.SERIALIZER, conversation),
+        NetworkCode.GET_MESSAGE_COUNT_RESPONSE,
+        Serializers.INTEGER,
+        callback);
+  }
+
+  public void searchMessages(Uuid conversation, String query, int limit, Callback<Collection<Message>> callback) {
+    add(new Request(NetworkCode.SEARCH_MESSAGES_REQUEST)
+            .with(Uuid.SERIALIZER, conversation)
+            .with(Serializers.STRING, query)
+            .with(Serializers.INTEGER, limit),
+        NetworkCode.SEARCH_MESSAGES_RESPONSE,
+        Serializers.collection(Message.SERIALIZER),
+        callback);
+  }
+
+  // SEND
+  //
+  // Send every call in one round trip and hand each result to its callback
+  // (see "fetch" and "finish"). This is a blocking call.
+  public void send() {
+    fetch();
+    finish();
+  }
+
+  // FETCH
+  //
+  // Send every call in one round trip and keep each result. If the server does
+  // not know about batches, each call is sent on its own instead. If sending
+  // fails, the calls that did not get a result keep none. This is a blocking
+  // call.
+  public void fetch() {
+
+    if (calls.isEmpty()) {
+      return;
+    }
+
+    if (!batchesSupported.get()) {
+      sendEach();
+      return;
+    }
+
+    boolean batched = false;
+
+    try (final Connection connection = source.connect()) {
+
+      // Every request in the batch, and every response, is in the same wire
+      // version as the batch itself.
+      final int version = Wire.version(connection.out());
+
+      final Collection<byte[]> requests = new ArrayList<>();
+      for (final Call<?> call : calls) {
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        call.request.write(Wire.out(request, version));
+        requests.add(request.toByteArray());
+      }
+
+      Serializers.writeInt(connection.out(), NetworkCode.BATCH_REQUEST);
+      Serializers.collection(Serializers.BYTES).write(connection.out(), requests);
+      connection.out().flush();
+
+      final int type = Serializers.readInt(connection.in());
+
+      if (type == NetworkCode.BATCH_RESPONSE) {
+
+        batched = true;
+
+        final Iterator<Call<?>> pending = calls.iterator();
+        for (final byte[] response : Serializers.collection(Serializers.BYTES).read(connection.in())) {
+          if (pending.hasNext()) {
+            pending.next().read(Wire.in(new ByteArrayInputStream(response), version));
+          }
+        }
+
+      } else if (type != NetworkCode.NO_MESSAGE) {
+        batched = true;
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      batched = true;
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    if (!batched) {
+      LOG.info("Server does not support batches, sending calls one at a time.");
+      batchesSupported.set(false);
+      sendEach();
+    }
+  }
+
+  // FINISH
+  //
+  // Hand each result "fetch" kept to its callback, in the order the calls were
+  // added, and empty the batch. The callbacks of calls with no result are not
+  // called.
+  public void finish() {
+    for (final Call<?> call : calls) {
+      call.finish();
+    }
+    calls.clear();
+  }
+
+  private void sendEach() {
+    for (final Call<?> call : calls) {
+      try (final Connection connection = source.connect()) {
+        call.request.write(connection.out());
+        connection.out().flush();
+        call.read(connection.in());
+      } catch (Exception ex) {
+        System.out.println("ERROR: Exception during call on server. Check log for details.");
+        LOG.error(ex, "Exception during call on server.");
+      }
+    }
+  }
+
+  private <T> void add(Request request,
+                       int responseType,
+                       Serializer<T> serializer,
+                       Callback<T> callback) {
+    calls.add(new Call<>(request, responseType, serializer, callback));
+  }
+}
@@ -19,6 +19,8 @@ import codeu.chat.client.ClientMessage;
 import codeu.chat.client.ClientUser;
 import codeu.chat.client.Controller;
 import codeu.chat.client.View;
+import codeu.chat.common.Generations;
+import codeu.chat.util.Uuid;
 
 public final class ClientContext {
 
@@ -26,9 +28,76 @@ public final class ClientContext {
   public final ClientConversation conversation;
   public final ClientMessage message;
 
+  private final View view;
+
+  // The generations as of the last wait. Only touched by "waitForChange".
+  private Generations known = Generations.NONE;
+
   public ClientContext(Controller controller, View view) {
     user = new ClientUser(controller, view);
     conversation = new ClientConversation(controller, view, user);
     message = new ClientMessage(controller, view, user, conversation);
+    this.view = view;
+  }
+
+  // REFRESH
+  //
+  // Bring the users, the conversations and the messages of the current
+  // conversation up to date in one round trip to the server, or two if the
+  // messages have to be read again from the start. Talks to the server and
+  // changes the context on the calling thread.
+  public void refresh() {
+    Batch batch = startRefresh();
+    batch.fetch();
+    if (finishRefresh(batch)) {
+      batch = startRefresh();
+      batch.fetch();
+      finishRefresh(batch);
+    }
+  }
+
+  // START REFRESH
+  //
+  // The same as "refresh", in parts, for a caller that changes the context on
+  // one thread but must not wait on the server there (the GUI's event thread).
+  // "startRefresh" returns the batch that brings the context up to date. Only
+  // its "fetch" talks to the server, and it can be called on any thread. Then
+  // "finishRefresh" applies what was fetched. "startRefresh" and
+  // "finishRefresh" must be called on the thread that makes every other
+  // change to the context.
+  public Batch startRefresh() {
+    final Batch batch = view.batch();
+    user.updateUsers(batch);
+    conversation.updateAllConversations(batch);
+    message.updateMessages(batch);
+    return batch;
+  }
+
+  // FINISH REFRESH
+  //
+  // Apply what "batch", from "startRefresh", fetched. Returns true if the
+  // messages of the current conversation have to be read again from the
+  // start, in which case one more refresh reads them.
+  public boolean finishRefresh(Batch batch) {
+    batch.finish();
+    return message.needsReadAgain();
+  }
+
+  // WAIT FOR CHANGE
+  //
+  // Block until the users, the conversations or the messages of the current
+  // conversation change on the server, or until "timeoutMs" has passed.
+  // Returns false if the server could not be asked, in which case the caller
+  // should poll instead. The first call returns straight away so that the
+  // caller refreshes once before it starts waiting.
+  public boolean waitForChange(int timeoutMs) {
+    final Uuid current = conversation.getCurrentId();
+    final Generations generations =
+        view.waitForChange(known, current == null ? Uuid.NULL : current, timeoutMs);
+    if (generations == null) {
+      return false;
+    }
+    known = generations;
+    return true;
   }
 }
@@ -15,7 +15,9 @@
 package codeu.chat.client;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import codeu.chat.common.Conversation;
@@ -158,12 +160,8 @@ public final class ClientConversation {
   // the current Conversation, including its messages.
   public void updateAllConversations(boolean currentChanged) {
 
-    summariesByUuid.clear();
-    summariesSortedByTitle = new Store<>(String.CASE_INSENSITIVE_ORDER);
-
-    for (final ConversationSummary cs : view.getAllConversations()) {
-      summariesByUuid.put(cs.id, cs);
-      summariesSortedByTitle.insert(cs.title, cs);
+    try (final View.Stream<ConversationSummary> summaries = view.streamAllConversations()) {
+      updateAllConversations(summaries);
     }
 
     if (currentChanged) {
@@ -172,6 +170,38 @@ public final class ClientConversation {
     }
   }
 
+  // Add what "updateAllConversations(false)" needs to "batch". The list of
+  // known Conversations is updated when the batch is sent.
+  public void updateAllConversations(Batch batch) {
+    batch.getAllConversations(new Batch.Callback<Collection<ConversationSummary>>() {
+      @Override
+      public void done(Collection<ConversationSummary> summaries) {
+        updateAllConversations(summaries.iterator());
+      }
+    });
+  }
+
+  // Add a conversation the server told us about without being asked (see
+  // Subscription).
+  public void addConversation(ConversationSummary summary) {
+    if (!summariesByUuid.containsKey(summary.id)) {
+      summariesByUuid.put(summary.id, summary);
+      summariesSortedByTitle.insert(summary.title, summary);
+    }
+  }
+
+  private void updateAllConversations(Iterator<ConversationSummary> summaries) {
+
+    summariesByUuid.clear();
+    summariesSortedByTitle = new Store<>(String.CASE_INSENSITIVE_ORDER);
+
+    while (summaries.hasNext()) {
+      final ConversationSummary cs = summaries.next();
+      summariesByUuid.put(cs.id, cs);
+      summariesSortedByTitle.insert(cs.title, cs);
+    }
+  }
+
   // Print Conversation.  User context is used to map from owner UUID to name.
   public static void printConversation(ConversationSummary c, ClientUser userContext) {
     if (c == null) {
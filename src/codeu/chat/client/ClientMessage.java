@@ -15,9 +15,14 @@
 package codeu.chat.client;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
@@ -43,6 +48,10 @@ public final class ClientMessage {
   private Conversation conversationHead;
   private final List<Message> conversationContents = new ArrayList<>();
 
+  // Set when a batch found that the messages have to be read again from the
+  // start (see "readAgain").
+  private boolean readAgain = false;
+
   private final ClientUser userContext;
   private final ClientConversation conversationContext;
 
@@ -200,29 +209,302 @@ public final class ClientMessage {
           conversationHead.title, conversationHead.id, conversationHead.firstMessage,
           conversationHead.lastMessage);
 
-      Uuid nextMessageId = getCurrentMessageFetchId(replaceAll);
+      walkMessages(getCurrentMessageFetchId(replaceAll));
+
+      LOG.info("Retrieved %d messages for conversation %s (%s).\n",
+          conversationContents.size(), conversationHead.id, conversationHead.title);
+
+      // Set current to first message of conversation.
+      current = (conversationContents.size() > 0) ? conversationContents.get(0) : null;
+    }
+  }
+
+  // Add the messages from "from" to the conversation's last message to the end
+  // of the known ones. Each message only says which message comes next, so
+  // every read has to wait for the one before it. If the first read forward
+  // does not reach the last message, the chain is also walked back from the
+  // last message, with both reads on their way together (see View.Pending)
+  // until the two walks meet. That halves the reads the walk waits on, not the
+  // requests sent. Walking back needs each message's "previous", which older
+  // servers leave NULL, so it only starts once a read shows it filled in. An
+  // update that one read covers sends just that read.
+  //
+  // Only about the first MESSAGE_MAX_COUNT messages are kept. If the walks
+  // have not met by then, the backward one is dropped and the forward one goes
+  // on alone.
+  private void walkMessages(Uuid from) {
+
+    final List<Message> ahead = new ArrayList<>();
+    final LinkedList<Message> behind = new LinkedList<>();
+
+    // Every message in "ahead" or already known, and every message in "behind".
+    final Set<Uuid> aheadIds = new HashSet<>();
+    final Set<Uuid> behindIds = new HashSet<>();
+
+    for (final Message known : conversationContents) {
+      aheadIds.add(known.id);
+    }
 
-      //  Stay in loop until all messages read (up to safety limit)
-      while (!nextMessageId.equals(Uuid.NULL) && conversationContents.size() < MESSAGE_MAX_COUNT) {
+    Uuid next = from;
+    Uuid previous = Uuid.NULL;
+    boolean walkedBack = false;
 
-        for (final Message msg : view.getMessages(nextMessageId, MESSAGE_FETCH_COUNT)) {
+    boolean met = next.equals(Uuid.NULL);
+
+    //  Stay in loop until all messages read (up to safety limit)
+    while (!met && conversationContents.size() + ahead.size() < MESSAGE_MAX_COUNT) {
+
+      if (conversationContents.size() + ahead.size() + behind.size() >= MESSAGE_MAX_COUNT) {
+        behind.clear();
+        behindIds.clear();
+        previous = Uuid.NULL;
+      }
 
-          conversationContents.add(msg);
+      final View.Pending<Collection<Message>> forward =
+          view.getMessagesLater(next, MESSAGE_FETCH_COUNT);
+      final View.Pending<Collection<Message>> backward =
+          previous.equals(Uuid.NULL) ? null : view.getMessagesLater(previous, -MESSAGE_FETCH_COUNT);
 
-          // Race: message possibly added since conversation fetched.  If that occurs,
-          // pretend the newer messages do not exist - they'll get picked up next time).
-          if (msg.next.equals(Uuid.NULL) || msg.id.equals(conversationHead.lastMessage)) {
-            msg.next = Uuid.NULL;
-            break;
-          }
+      final Collection<Message> forwardMessages = forward.get();
+
+      if (forwardMessages.isEmpty()) {
+        // Stop with what the walk forward has, the walk back can not be joined.
+        LOG.warning("Failed to get messages from %s.", next);
+        behind.clear();
+        behindIds.clear();
+        met = true;
+      }
+
+      for (final Message msg : forwardMessages) {
+
+        if (behindIds.contains(msg.id)) {
+          met = true;
+          break;
+        }
+
+        ahead.add(msg);
+        aheadIds.add(msg.id);
+
+        // Race: message possibly added since conversation fetched.  If that occurs,
+        // pretend the newer messages do not exist - they'll get picked up next time).
+        if (msg.next.equals(Uuid.NULL) || msg.id.equals(conversationHead.lastMessage)) {
+          msg.next = Uuid.NULL;
+          met = true;
+          break;
         }
-        nextMessageId = conversationContents.get(conversationContents.size() - 1).next;
       }
-      LOG.info("Retrieved %d messages for conversation %s (%s).\n",
-          conversationContents.size(), conversationHead.id, conversationHead.title);
 
-      // Set current to first message of conversation.
-      current = (conversationContents.size() > 0) ? conversationContents.get(0) : null;
+      if (!ahead.isEmpty()) {
+        next = ahead.get(ahead.size() - 1).next;
+      }
+
+      if (backward == null) {
+        if (!met && !walkedBack && fillsPrevious(forwardMessages)) {
+          walkedBack = true;
+          previous = conversationHead.lastMessage;
+        }
+        continue;
+      }
+
+      // Read even once the walks have met, so that nothing is left waiting.
+      final List<Message> backwardMessages = new ArrayList<>(backward.get());
+
+      // The messages are oldest first, walk them newest first.
+      for (int i = backwardMessages.size() - 1; i >= 0 && !met; i--) {
+
+        final Message msg = backwardMessages.get(i);
+
+        if (aheadIds.contains(msg.id)) {
+          met = true;
+          break;
+        }
+
+        if (behind.isEmpty()) {
+          msg.next = Uuid.NULL;
+        }
+
+        behind.addFirst(msg);
+        behindIds.add(msg.id);
+      }
+
+      previous = behind.isEmpty() ? Uuid.NULL : behind.getFirst().previous;
+
+      if (!met && previous.equals(Uuid.NULL)) {
+        // The walk back reached the first message without meeting the walk
+        // forward, so "from" was not where it was expected.
+        behind.clear();
+        behindIds.clear();
+      }
+    }
+
+    conversationContents.addAll(ahead);
+
+    if (met) {
+      conversationContents.addAll(behind);
+    }
+  }
+
+  // Check if the server filled in "previous" for any of "messages". Only the
+  // first message of a conversation has none.
+  private static boolean fillsPrevious(Collection<Message> messages) {
+    for (final Message message : messages) {
+      if (!message.previous.equals(Uuid.NULL)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Add what "updateMessages(false)" needs to "batch" so that bringing the
+  // current conversation up to date does not cost any more round trips. The
+  // conversation and every message after the last known one are read together.
+  // If the new messages do not join onto the known ones (for example when the
+  // current conversation changed) the known messages are dropped and
+  // "needsReadAgain" says so, so that the next batch reads them from the start.
+  // Nothing here talks to the server, the batch does (see Batch.fetch).
+  public void updateMessages(Batch batch) {
+
+    final ConversationSummary conversation = conversationContext.getCurrent();
+
+    if (conversation == null) {
+      return;
+    }
+
+    final boolean known = conversationHead != null && conversationHead.id.equals(conversation.id);
+
+    // The message to walk forward from, it is included in the walk.
+    final Uuid from = walkStart(conversation);
+
+    final Conversation[] head = new Conversation[1];
+
+    batch.getConversations(Arrays.asList(conversation.id), new Batch.Callback<Collection<Conversation>>() {
+      @Override
+      public void done(Collection<Conversation> conversations) {
+        for (final Conversation c : conversations) {
+          head[0] = c;
+        }
+      }
+    });
+
+    batch.getMessages(from, MESSAGE_MAX_COUNT, new Batch.Callback<Collection<Message>>() {
+      @Override
+      public void done(Collection<Message> walk) {
+        final ConversationSummary now = conversationContext.getCurrent();
+        if (now == null || !now.id.equals(conversation.id) || !from.equals(walkStart(now))) {
+          // The messages changed while the batch was being sent, so what it
+          // read may not fit. The next batch reads from where they are now.
+          return;
+        }
+        if (known && head[0] != null) {
+          joinMessages(head[0], from, new ArrayList<>(walk));
+        } else {
+          readAgain(head[0]);
+        }
+      }
+    });
+  }
+
+  // NEEDS READ AGAIN
+  //
+  // True, once, after a batch from "updateMessages(Batch)" found that the
+  // messages have to be read from the start of "head". The next batch does.
+  public boolean needsReadAgain() {
+    final boolean needs = readAgain;
+    readAgain = false;
+    return needs;
+  }
+
+  // Where "updateMessages(Batch)" walks forward from for "conversation", or
+  // NULL if its messages are not the ones loaded.
+  private Uuid walkStart(ConversationSummary conversation) {
+    if (conversationHead == null || !conversationHead.id.equals(conversation.id)) {
+      return Uuid.NULL;
+    }
+    return conversationContents.isEmpty() ?
+           conversationHead.firstMessage :
+           conversationContents.get(conversationContents.size() - 1).id;
+  }
+
+  // READ AGAIN
+  //
+  // Drop the known messages so that the next batch reads every message from
+  // the first one of "head". Unlike "updateMessages(conversation, true)" this
+  // does not talk to the server, so it is safe wherever a batch is finished.
+  private void readAgain(Conversation head) {
+    if (head == null) {
+      LOG.error("Conversation could not be read, its messages are left as they are.");
+      return;
+    }
+    conversationHead = head;
+    conversationContents.clear();
+    current = null;
+    readAgain = true;
+  }
+
+  private void joinMessages(Conversation head, Uuid from, List<Message> walk) {
+
+    final boolean joins = !walk.isEmpty() && walk.get(0).id.equals(from);
+    final boolean empty = walk.isEmpty() && head.firstMessage.equals(Uuid.NULL);
+
+    if (!joins && !empty) {
+      LOG.info("New messages do not join onto known messages, refetching all messages.");
+      readAgain(head);
+      return;
+    }
+
+    conversationHead = head;
+
+    // The first message of the walk is already known unless nothing was.
+    final int start = conversationContents.isEmpty() ? 0 : 1;
+
+    for (int i = start; i < walk.size() && conversationContents.size() < MESSAGE_MAX_COUNT; i++) {
+
+      final Message msg = walk.get(i);
+      conversationContents.add(msg);
+
+      // Race: message possibly added since conversation fetched.  If that occurs,
+      // pretend the newer messages do not exist - they'll get picked up next time).
+      if (msg.next.equals(Uuid.NULL) || msg.id.equals(conversationHead.lastMessage)) {
+        msg.next = Uuid.NULL;
+        break;
+      }
+    }
+
+    current = (conversationContents.size() > 0) ? conversationContents.get(0) : null;
+  }
+
+  // Add a message the server told us about without being asked (see
+  // Subscription). It is only kept if it belongs to the conversation whose
+  // messages are loaded. Messages are pushed in the order they were added, so
+  // it goes on the end.
+  public void appendMessage(Uuid conversation, Message message) {
+
+    if (conversationHead == null || !conversationHead.id.equals(conversation)) {
+      return;
+    }
+
+    for (final Message known : conversationContents) {
+      if (known.id.equals(message.id)) {
+        return;
+      }
+    }
+
+    if (conversationContents.size() >= MESSAGE_MAX_COUNT) {
+      return;
+    }
+
+    if (conversationContents.isEmpty()) {
+      conversationHead.firstMessage = message.id;
+    } else {
+      conversationContents.get(conversationContents.size() - 1).next = message.id;
+    }
+
+    message.next = Uuid.NULL;
+    conversationHead.lastMessage = message.id;
+    conversationContents.add(message);
+
+    if (current == null) {
+      current = message;
     }
   }
 
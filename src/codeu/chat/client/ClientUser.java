@@ -128,10 +128,33 @@ public final class ClientUser {
   }
 
   public void updateUsers() {
+    updateUsers(view.getUsersExcluding(EMPTY));
+  }
+
+  // Add what "updateUsers" needs to "batch". The users are updated when the
+  // batch is sent.
+  public void updateUsers(Batch batch) {
+    batch.getUsersExcluding(EMPTY, new Batch.Callback<Collection<User>>() {
+      @Override
+      public void done(Collection<User> users) {
+        updateUsers(users);
+      }
+    });
+  }
+
+  // Add a user the server told us about without being asked (see Subscription).
+  public void addUser(User user) {
+    if (!usersById.containsKey(user.id)) {
+      usersById.put(user.id, user);
+      usersByName.insert(user.name, user);
+    }
+  }
+
+  private void updateUsers(Collection<User> users) {
     usersById.clear();
     usersByName = new Store<>(String.CASE_INSENSITIVE_ORDER);
 
-    for (final User user : view.getUsersExcluding(EMPTY)) {
+    for (final User user : users) {
       usersById.put(user.id, user);
       usersByName.insert(user.name, user);
     }
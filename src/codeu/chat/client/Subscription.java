@@ -0,0 +1,150 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.Frames;
+
+// SUBSCRIPTION
+//
+// A connection to the server that the server pushes changes down as they
+// happen, so that the client does not need to poll. A subscription follows one
+// conversation, or every conversation when it is opened with Uuid.NULL. Only
+// subscriptions to every conversation are told about new users and new
+// conversations.
+//
+// The connection must come from a source that gives plain connections (not
+// SessionConnectionSource) as the subscription keeps it open for as long as it
+// lasts.
+public final class Subscription implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscription.class);
+
+  // LISTENER
+  //
+  // Told about each push. Every call is made from the subscription's own
+  // thread, in the order the server made the changes.
+  public interface Listener {
+    void onNewUser(User user);
+    void onNewConversation(ConversationSummary conversation);
+    void onNewMessage(Uuid conversation, Message message);
+
+    // Called once, when the subscription has ended and nothing more will be
+    // pushed.
+    void onClosed();
+  }
+
+  private final Connection connection;
+
+  private Subscription(Connection connection) {
+    this.connection = connection;
+  }
+
+  // OPEN
+  //
+  // Subscribe to changes in "conversation". Returns null if the server could not
+  // be reached or does not support subscriptions.
+  public static Subscription open(ConnectionSource source, Uuid conversation, final Listener listener) {
+
+    Connection connection = null;
+
+    try {
+      connection = source.connect();
+
+      Serializers.writeInt(connection.out(), NetworkCode.SUBSCRIBE_CONVERSATION_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      connection.out().flush();
+
+      if (Serializers.readInt(connection.in()) != NetworkCode.SUBSCRIBE_CONVERSATION_RESPONSE) {
+        LOG.info("Server does not support subscriptions.");
+        connection.close();
+        return null;
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Failed to subscribe.");
+      close(connection);
+      return null;
+    }
+
+    final Subscription subscription = new Subscription(connection);
+    final Connection open = connection;
+
+    final Thread reader = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (byte[] push = Frames.read(open.in()); push != null; push = Frames.read(open.in())) {
+            dispatch(push, listener);
+          }
+        } catch (Exception ex) {
+          LOG.error(ex, "Subscription failed.");
+        }
+        LOG.info("Subscription ended.");
+        close(open);
+        listener.onClosed();
+      }
+    };
+
+    reader.setDaemon(true);
+    reader.start();
+
+    return subscription;
+  }
+
+  @Override
+  public void close() {
+    close(connection);
+  }
+
+  private static void dispatch(byte[] push, Listener listener) throws IOException {
+
+    final InputStream in = new ByteArrayInputStream(push);
+    final int type = Serializers.readInt(in);
+
+    if (type == NetworkCode.NEW_MESSAGE_PUSH) {
+      final Uuid conversation = Uuid.SERIALIZER.read(in);
+      listener.onNewMessage(conversation, Message.SERIALIZER.read(in));
+    } else if (type == NetworkCode.NEW_USER_PUSH) {
+      listener.onNewUser(User.SERIALIZER.read(in));
+    } else if (type == NetworkCode.NEW_CONVERSATION_PUSH) {
+      listener.onNewConversation(ConversationSummary.SERIALIZER.read(in));
+    } else {
+      LOG.warning("Skipping unknown push type %d.", type);
+    }
+  }
+
+  private static void close(Connection connection) {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception while closing subscription.");
+      }
+    }
+  }
+}
@@ -14,12 +14,18 @@
 
 package codeu.chat.client;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Generations;
 import codeu.chat.common.LogicalView;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
@@ -27,7 +33,9 @@ import codeu.chat.util.Time;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
+import codeu.chat.util.Streams;
 import codeu.chat.util.connections.Connection;
 import codeu.chat.util.connections.ConnectionSource;
 
@@ -35,39 +43,60 @@ import codeu.chat.util.connections.ConnectionSource;
 //
 // This is the view component of the Model-View-Controller pattern used by the
 // the client to reterive readonly data from the server. All methods are blocking
-// calls.
+// calls, apart from the ones that return a Pending answer.
 public final class View implements BasicView, LogicalView{
 
   private final static Logger.Log LOG = Logger.newLog(View.class);
 
   private final ConnectionSource source;
 
+  // See Batch. Shared by every batch so the server is only asked once.
+  private final AtomicBoolean batchesSupported = new AtomicBoolean(true);
+
   public View(ConnectionSource source) {
     this.source = source;
   }
 
+  // BATCH
+  //
+  // Start a batch of calls that will be sent to the server in one round trip.
+  public Batch batch() {
+    return new Batch(source, batchesSupported);
+  }
+
   @Override
   public Collection<User> getUsers(Collection<Uuid> ids) {
+    return getUsersLater(ids).get();
+  }
 
-    final Collection<User> users = new ArrayList<>();
+  // GET USERS LATER
+  //
+  // The same as "getUsers", but the request is sent without waiting for the
+  // answer (see Pending).
+  public Pending<Collection<User>> getUsersLater(Collection<Uuid> ids) {
 
-    try (final Connection connection = source.connect()) {
+    Connection connection = null;
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_BY_ID_REQUEST);
+    try {
+
+      connection = source.connect();
+
+      Serializers.writeInt(connection.out(), NetworkCode.GET_USERS_BY_ID_REQUEST);
       Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_BY_ID_RESPONSE) {
-        users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
-      }
+      return pending(connection,
+                     NetworkCode.GET_USERS_BY_ID_RESPONSE,
+                     Serializers.collection(User.SERIALIZER),
+                     new ArrayList<User>());
 
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
+      close(connection);
     }
 
-    return users;
+    return View.<Collection<User>>answered(new ArrayList<User>());
   }
 
   @Override
@@ -77,9 +106,10 @@ public final class View implements BasicView, LogicalView{
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.GET_ALL_CONVERSATIONS_REQUEST);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
+      if (Serializers.readInt(connection.in()) == NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE) {
         summaries.addAll(Serializers.collection(ConversationSummary.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -93,50 +123,107 @@ public final class View implements BasicView, LogicalView{
     return summaries;
   }
 
+  // STREAM ALL CONVERSATIONS
+  //
+  // The same as "getAllConversations", but each summary can be used as soon as
+  // it arrives rather than once they all have. Servers that can not stream
+  // them are asked for them all at once instead.
+  public Stream<ConversationSummary> streamAllConversations() {
+
+    Connection connection = null;
+
+    try {
+
+      connection = source.connect();
+
+      Serializers.writeInt(connection.out(), NetworkCode.STREAM_ALL_CONVERSATIONS_REQUEST);
+      connection.out().flush();
+
+      if (Serializers.readInt(connection.in()) == NetworkCode.STREAM_ALL_CONVERSATIONS_RESPONSE) {
+        return open(connection, ConversationSummary.SERIALIZER);
+      }
+
+      LOG.info("Server can not stream conversations, getting them all at once.");
+      close(connection);
+      return fixed(getAllConversations());
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+      close(connection);
+    }
+
+    return fixed(new ArrayList<ConversationSummary>());
+  }
+
   @Override
   public Collection<Conversation> getConversations(Collection<Uuid> ids) {
+    return getConversationsLater(ids).get();
+  }
 
-    final Collection<Conversation> conversations = new ArrayList<>();
+  // GET CONVERSATIONS LATER
+  //
+  // The same as "getConversations" for ids, but the request is sent without
+  // waiting for the answer (see Pending).
+  public Pending<Collection<Conversation>> getConversationsLater(Collection<Uuid> ids) {
 
-    try (final Connection connection = source.connect()) {
+    Connection connection = null;
+
+    try {
+
+      connection = source.connect();
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST);
       Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      connection.out().flush();
+
+      return pending(connection,
+                     NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE,
+                     Serializers.collection(Conversation.SERIALIZER),
+                     new ArrayList<Conversation>());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE) {
-        conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
-      }
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
+      close(connection);
     }
 
-    return conversations;
+    return View.<Collection<Conversation>>answered(new ArrayList<Conversation>());
   }
 
   @Override
   public Collection<Message> getMessages(Collection<Uuid> ids) {
+    return getMessagesLater(ids).get();
+  }
 
-    final Collection<Message> messages = new ArrayList<>();
+  // GET MESSAGES LATER
+  //
+  // The same as "getMessages" for ids, but the request is sent without
+  // waiting for the answer (see Pending).
+  public Pending<Collection<Message>> getMessagesLater(Collection<Uuid> ids) {
 
-    try (final Connection connection = source.connect()) {
+    Connection connection = null;
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
+    try {
+
+      connection = source.connect();
+
+      Serializers.writeInt(connection.out(), NetworkCode.GET_MESSAGES_BY_ID_REQUEST);
       Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      connection.out().flush();
+
+      return pending(connection,
+                     NetworkCode.GET_MESSAGES_BY_ID_RESPONSE,
+                     Serializers.collection(Message.SERIALIZER),
+                     new ArrayList<Message>());
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_ID_RESPONSE) {
-        messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
-      } else {
-        LOG.error("Response from server failed.");
-      }
     } catch (Exception ex) {
       System.out.println("ERROR: Exception during call on server. Check log for details.");
       LOG.error(ex, "Exception during call on server.");
+      close(connection);
     }
 
-    return messages;
+    return View.<Collection<Message>>answered(new ArrayList<Message>());
   }
 
   @Override
@@ -146,9 +233,10 @@ public final class View implements BasicView, LogicalView{
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USER_GENERATION_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.GET_USER_GENERATION_REQUEST);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USER_GENERATION_RESPONSE) {
+      if (Serializers.readInt(connection.in()) == NetworkCode.GET_USER_GENERATION_RESPONSE) {
         generation = Uuid.SERIALIZER.read(connection.in());
       } else {
         LOG.error("Response from server failed");
@@ -168,10 +256,11 @@ public final class View implements BasicView, LogicalView{
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_USERS_EXCLUDING_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.GET_USERS_EXCLUDING_REQUEST);
       Serializers.collection(Uuid.SERIALIZER).write(connection.out(), ids);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_USERS_EXCLUDING_RESPONSE) {
+      if (Serializers.readInt(connection.in()) == NetworkCode.GET_USERS_EXCLUDING_RESPONSE) {
         users.addAll(Serializers.collection(User.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -191,11 +280,12 @@ public final class View implements BasicView, LogicalView{
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST);
       Time.SERIALIZER.write(connection.out(), start);
       Time.SERIALIZER.write(connection.out(), end);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE) {
+      if (Serializers.readInt(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE) {
         conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -215,10 +305,11 @@ public final class View implements BasicView, LogicalView{
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST);
       Serializers.STRING.write(connection.out(), filter);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE) {
+      if (Serializers.readInt(connection.in()) == NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE) {
         conversations.addAll(Serializers.collection(Conversation.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -238,11 +329,13 @@ public final class View implements BasicView, LogicalView{
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
       Time.SERIALIZER.write(connection.out(), start);
       Time.SERIALIZER.write(connection.out(), end);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE) {
+      if (Serializers.readInt(connection.in()) == NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE) {
         messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -256,18 +349,154 @@ public final class View implements BasicView, LogicalView{
     return messages;
   }
 
+  // STREAM MESSAGES
+  //
+  // The same as "getMessages" for a conversation and a time range, but each
+  // message can be used as soon as it arrives rather than once they all have.
+  // Servers that can not stream them are asked for them all at once instead.
+  public Stream<Message> streamMessages(Uuid conversation, Time start, Time end) {
+
+    Connection connection = null;
+
+    try {
+
+      connection = source.connect();
+
+      Serializers.writeInt(connection.out(), NetworkCode.STREAM_MESSAGES_BY_TIME_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Time.SERIALIZER.write(connection.out(), start);
+      Time.SERIALIZER.write(connection.out(), end);
+      connection.out().flush();
+
+      if (Serializers.readInt(connection.in()) == NetworkCode.STREAM_MESSAGES_BY_TIME_RESPONSE) {
+        return open(connection, Message.SERIALIZER);
+      }
+
+      LOG.info("Server can not stream messages, getting them all at once.");
+      close(connection);
+      return fixed(getMessages(conversation, start, end));
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+      close(connection);
+    }
+
+    return fixed(new ArrayList<Message>());
+  }
+
   @Override
   public Collection<Message> getMessages(Uuid rootMessage, int range) {
+    return getMessagesLater(rootMessage, range).get();
+  }
+
+  // GET MESSAGES LATER
+  //
+  // The same as "getMessages" for a range around a message, but the request
+  // is sent without waiting for the answer (see Pending).
+  public Pending<Collection<Message>> getMessagesLater(Uuid rootMessage, int range) {
+
+    Connection connection = null;
+
+    try {
+
+      connection = source.connect();
+
+      Serializers.writeInt(connection.out(), NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), rootMessage);
+      Serializers.writeInt(connection.out(), range);
+      connection.out().flush();
+
+      return pending(connection,
+                     NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE,
+                     Serializers.collection(Message.SERIALIZER),
+                     new ArrayList<Message>());
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+      close(connection);
+    }
+
+    return View.<Collection<Message>>answered(new ArrayList<Message>());
+  }
+
+  @Override
+  public Collection<Message> getMessages(Uuid conversation, int offset, int count) {
+    return getMessagesLater(conversation, offset, count).get();
+  }
+
+  // GET MESSAGES LATER
+  //
+  // The same as "getMessages" for positions in a conversation, but the request
+  // is sent without waiting for the answer (see Pending).
+  public Pending<Collection<Message>> getMessagesLater(Uuid conversation, int offset, int count) {
+
+    Connection connection = null;
+
+    try {
+
+      connection = source.connect();
+
+      Serializers.writeInt(connection.out(), NetworkCode.GET_MESSAGES_BY_INDEX_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Serializers.writeInt(connection.out(), offset);
+      Serializers.writeInt(connection.out(), count);
+      connection.out().flush();
+
+      return pending(connection,
+                     NetworkCode.GET_MESSAGES_BY_INDEX_RESPONSE,
+                     Serializers.collection(Message.SERIALIZER),
+                     new ArrayList<Message>());
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+      close(connection);
+    }
+
+    return View.<Collection<Message>>answered(new ArrayList<Message>());
+  }
+
+  @Override
+  public int getMessageCount(Uuid conversation) {
+
+    int count = 0;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.writeInt(connection.out(), NetworkCode.GET_MESSAGE_COUNT_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      connection.out().flush();
+
+      if (Serializers.readInt(connection.in()) == NetworkCode.GET_MESSAGE_COUNT_RESPONSE) {
+        count = Serializers.readInt(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return count;
+  }
+
+  @Override
+  public Collection<Message> searchMessages(Uuid conversation, String query, int limit) {
 
     final Collection<Message> messages = new ArrayList<>();
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST);
-      Uuid.SERIALIZER.write(connection.out(), rootMessage);
-      Serializers.INTEGER.write(connection.out(), range);
+      Serializers.writeInt(connection.out(), NetworkCode.SEARCH_MESSAGES_REQUEST);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Serializers.STRING.write(connection.out(), query);
+      Serializers.writeInt(connection.out(), limit);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE) {
+      if (Serializers.readInt(connection.in()) == NetworkCode.SEARCH_MESSAGES_RESPONSE) {
         messages.addAll(Serializers.collection(Message.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Response from server failed.");
@@ -280,4 +509,211 @@ public final class View implements BasicView, LogicalView{
 
     return messages;
   }
+
+  // WAIT FOR CHANGE
+  //
+  // Wait until the users, the conversations or the messages in "conversation"
+  // are no longer the ones in "known", or until "timeoutMs" has passed, and
+  // return the current generations. The server will not wait for more than a
+  // minute. Returns null if the server could not be reached or does not
+  // support waiting, in which case the caller should fall back to polling.
+  public Generations waitForChange(Generations known, Uuid conversation, int timeoutMs) {
+
+    Generations current = null;
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.writeInt(connection.out(), NetworkCode.WAIT_FOR_CHANGE_REQUEST);
+      Generations.SERIALIZER.write(connection.out(), known);
+      Uuid.SERIALIZER.write(connection.out(), conversation);
+      Serializers.writeInt(connection.out(), timeoutMs);
+      connection.out().flush();
+
+      if (Serializers.readInt(connection.in()) == NetworkCode.WAIT_FOR_CHANGE_RESPONSE) {
+        current = Generations.SERIALIZER.read(connection.in());
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return current;
+  }
+
+  // GET SERVER STATS
+  //
+  // Get the numbers the server keeps on how it is coping (such as how many
+  // requests are waiting and how many it has turned away), by name.
+  public Map<String, Long> getServerStats() {
+
+    final Map<String, Long> stats = new LinkedHashMap<>();
+
+    try (final Connection connection = source.connect()) {
+
+      Serializers.writeInt(connection.out(), NetworkCode.GET_SERVER_STATS_REQUEST);
+      connection.out().flush();
+
+      if (Serializers.readInt(connection.in()) == NetworkCode.GET_SERVER_STATS_RESPONSE) {
+        stats.putAll(Serializers.map(Serializers.STRING, Serializers.LONG).read(connection.in()));
+      } else {
+        LOG.error("Response from server failed.");
+      }
+    } catch (Exception ex) {
+      System.out.println("ERROR: Exception during call on server. Check log for details.");
+      LOG.error(ex, "Exception during call on server.");
+    }
+
+    return stats;
+  }
+
+  // PENDING
+  //
+  // The answer to a request that has been sent but may not have been answered
+  // yet. "get" waits for the answer and can be called more than once. As with
+  // the blocking calls, a failure is logged and the answer is empty.
+  //
+  // Over a pipeline (see PipelineConnectionSource) every pending request is on
+  // its way to the server at the same time, so sending several before getting
+  // any of them costs one round trip rather than one each. The server may
+  // answer them in any order.
+  public interface Pending<T> {
+
+    T get();
+
+  }
+
+  // The answer to the request written to "connection", read as "responseType"
+  // and "serializer" the first time it is asked for. "empty" is the answer if
+  // anything goes wrong.
+  private static <T> Pending<T> pending(final Connection connection,
+                                        final int responseType,
+                                        final Serializer<T> serializer,
+                                        final T empty) {
+    return new Pending<T>() {
+
+      private boolean done = false;
+      private T value = empty;
+
+      @Override
+      public synchronized T get() {
+        if (!done) {
+          done = true;
+          try {
+            if (Serializers.readInt(connection.in()) == responseType) {
+              value = serializer.read(connection.in());
+            } else {
+              LOG.error("Response from server failed.");
+            }
+          } catch (Exception ex) {
+            System.out.println("ERROR: Exception during call on server. Check log for details.");
+            LOG.error(ex, "Exception during call on server.");
+          }
+          close(connection);
+        }
+        return value;
+      }
+    };
+  }
+
+  // An answer that is already here.
+  private static <T> Pending<T> answered(final T value) {
+    return new Pending<T>() {
+      @Override
+      public T get() {
+        return value;
+      }
+    };
+  }
+
+  // STREAM
+  //
+  // Values that are read from the server as they are used. The connection is
+  // held until the last value has been read, so a stream that is not read to
+  // the end must be closed. If the connection fails part way through, the
+  // error is logged and the stream ends early.
+  public interface Stream<T> extends Iterator<T>, AutoCloseable {
+
+    @Override
+    void close();
+
+  }
+
+  private static <T> Stream<T> open(final Connection connection, Serializer<T> serializer)
+      throws IOException {
+
+    final Streams.Reader<T> reader = Streams.read(connection.in(), serializer);
+
+    return new Stream<T>() {
+
+      private boolean closed = false;
+
+      @Override
+      public boolean hasNext() {
+        if (closed) {
+          return false;
+        }
+        if (reader.hasNext()) {
+          return true;
+        }
+        close();
+        return false;
+      }
+
+      @Override
+      public T next() {
+        return reader.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void close() {
+        if (!closed) {
+          closed = true;
+          View.close(connection);
+        }
+      }
+    };
+  }
+
+  // A stream of values that are already here.
+  private static <T> Stream<T> fixed(Collection<T> values) {
+
+    final Iterator<T> iterator = values.iterator();
+
+    return new Stream<T>() {
+
+      @Override
+      public boolean hasNext() {
+        return iterator.hasNext();
+      }
+
+      @Override
+      public T next() {
+        return iterator.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public void close() { }
+    };
+  }
+
+  private static void close(Connection connection) {
+    if (connection != null) {
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to close connection.");
+      }
+    }
+  }
 }
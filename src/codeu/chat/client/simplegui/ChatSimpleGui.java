@@ -23,16 +23,24 @@ import javax.swing.*;
 import javax.swing.Timer;
 import javax.swing.border.Border;
 
+import codeu.chat.client.Batch;
 import codeu.chat.client.ClientContext;
 import codeu.chat.client.Controller;
+import codeu.chat.client.Subscription;
 import codeu.chat.client.View;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
 import codeu.chat.util.Logger;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ConnectionSource;
 
 // Chat - top-level client application - Java Simple GUI (using Java Swing)
 public final class ChatSimpleGui {
 
   private final long POLLING_PERIOD_MS = 1000;
   private final long POLLING_DELAY_MS = 0;
+  private final int WAITING_TIMEOUT_MS = 30000;
 
   private final static Logger.Log LOG = Logger.newLog(ChatSimpleGui.class);
 
@@ -40,11 +48,24 @@ public final class ChatSimpleGui {
 
   private final ClientContext clientContext;
 
+  // Where to open a subscription so the server can push changes. When null,
+  // or when the server does not support subscriptions, the client polls.
+  private final ConnectionSource pushSource;
+
   /**
    * Constructor - sets up the Chat Application
    */
   public ChatSimpleGui(Controller controller, View view) {
+    this(controller, view, null);
+  }
+
+  /**
+   * Constructor - sets up the Chat Application to receive changes from the
+   * server over connections from pushSource instead of polling for them.
+   */
+  public ChatSimpleGui(Controller controller, View view, ConnectionSource pushSource) {
     clientContext = new ClientContext(controller, view);
+    this.pushSource = pushSource;
   }
 
   /**
@@ -168,16 +189,176 @@ public final class ChatSimpleGui {
     mainFrame.add(mainViewPanel);
     mainFrame.pack();
 
-    // Poll the server for updates
+    // Have the server push changes as they happen. If that is not possible,
+    // wait on the server for changes, and if even that is not possible, poll
+    // the server for them.
+    if (!subscribe(usersViewPanel, conversationsViewPanel, messagesViewPanel)) {
+      startWaiting(usersViewPanel, conversationsViewPanel, messagesViewPanel);
+    }
+  }
+
+  /**
+   * Subscribe to every change on the server. Each push is applied and the
+   * panels redrawn on the Swing event thread, the same thread every refresh
+   * changes the client's state on. If the subscription ends, the client goes
+   * back to polling. Returns false if no subscription was made.
+   */
+  private boolean subscribe(final UserPanel usersViewPanel,
+                            final ConversationPanel conversationsViewPanel,
+                            final MessagePanel messagesViewPanel) {
+
+    if (pushSource == null) {
+      return false;
+    }
+
+    final Subscription subscription = Subscription.open(pushSource, Uuid.NULL, new Subscription.Listener() {
+      @Override
+      public void onNewUser(final User user) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            clientContext.user.addUser(user);
+            usersViewPanel.showUsers();
+          }
+        });
+      }
+
+      @Override
+      public void onNewConversation(final ConversationSummary conversation) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            clientContext.conversation.addConversation(conversation);
+            conversationsViewPanel.showConversations();
+          }
+        });
+      }
+
+      @Override
+      public void onNewMessage(final Uuid conversation, final Message message) {
+        SwingUtilities.invokeLater(new Runnable() {
+          @Override
+          public void run() {
+            clientContext.message.appendMessage(conversation, message);
+            messagesViewPanel.showMessages();
+          }
+        });
+      }
+
+      @Override
+      public void onClosed() {
+        LOG.info("Lost subscription, polling for updates instead.");
+        startPolling(usersViewPanel, conversationsViewPanel, messagesViewPanel);
+      }
+    });
+
+    if (subscription == null) {
+      return false;
+    }
+
+    // Anything that changed before the subscription started has not been
+    // pushed, so catch up once. The server is asked off the event thread.
+    final Thread catchUp = new Thread() {
+      @Override
+      public void run() {
+        refreshOffEventThread(usersViewPanel, conversationsViewPanel, messagesViewPanel);
+      }
+    };
+
+    catchUp.setDaemon(true);
+    catchUp.start();
+
+    return true;
+  }
+
+  /**
+   * Wait on the server for changes and refresh whenever it answers. The
+   * server holds each wait open until something changes, so updates arrive
+   * without polling every second. If the server can not be asked, the client
+   * goes back to polling.
+   */
+  private void startWaiting(final UserPanel usersViewPanel,
+                            final ConversationPanel conversationsViewPanel,
+                            final MessagePanel messagesViewPanel) {
+
+    final Thread waiting = new Thread() {
+      @Override
+      public void run() {
+        while (clientContext.waitForChange(WAITING_TIMEOUT_MS)) {
+          refreshOffEventThread(usersViewPanel, conversationsViewPanel, messagesViewPanel);
+        }
+        LOG.info("Could not wait for changes, polling for updates instead.");
+        startPolling(usersViewPanel, conversationsViewPanel, messagesViewPanel);
+      }
+    };
+
+    waiting.setDaemon(true);
+    waiting.start();
+  }
+
+  /**
+   * Poll the server for updates. Everything is read in one round trip on the
+   * timer's thread and then applied and redrawn on the event thread.
+   */
+  private void startPolling(final UserPanel usersViewPanel,
+                            final ConversationPanel conversationsViewPanel,
+                            final MessagePanel messagesViewPanel) {
+
     java.util.Timer pollingTimer = new java.util.Timer();
     pollingTimer.schedule(new TimerTask() {
       @Override
       public void run() {
-        messagesViewPanel.getNewMessages();
-        usersViewPanel.getNewUsers();
-        conversationsViewPanel.getNewConversations();
+        refreshOffEventThread(usersViewPanel, conversationsViewPanel, messagesViewPanel);
       }
     }, POLLING_DELAY_MS, POLLING_PERIOD_MS);
   }
 
+  /**
+   * Bring the client up to date from a thread that is not the Swing event
+   * thread. Only the server is asked on the calling thread. The client's
+   * state is read and changed, and the panels redrawn, on the event thread,
+   * so the event thread never waits on the network.
+   */
+  private void refreshOffEventThread(final UserPanel usersViewPanel,
+                                     final ConversationPanel conversationsViewPanel,
+                                     final MessagePanel messagesViewPanel) {
+    try {
+      if (refreshRound(usersViewPanel, conversationsViewPanel, messagesViewPanel)) {
+        // The messages have to be read again from the start.
+        refreshRound(usersViewPanel, conversationsViewPanel, messagesViewPanel);
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while refreshing.");
+    }
+  }
+
+  private boolean refreshRound(final UserPanel usersViewPanel,
+                               final ConversationPanel conversationsViewPanel,
+                               final MessagePanel messagesViewPanel) throws Exception {
+
+    final Batch[] batch = new Batch[1];
+    final boolean[] again = new boolean[1];
+
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        batch[0] = clientContext.startRefresh();
+      }
+    });
+
+    batch[0].fetch();
+
+    SwingUtilities.invokeAndWait(new Runnable() {
+      @Override
+      public void run() {
+        again[0] = clientContext.finishRefresh(batch[0]);
+        messagesViewPanel.showMessages();
+        usersViewPanel.showUsers();
+        conversationsViewPanel.showConversations();
+      }
+    });
+
+    return again[0];
+  }
+
 }
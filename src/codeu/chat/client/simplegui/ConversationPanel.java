@@ -230,6 +230,14 @@ public final class ConversationPanel extends JPanel {
     // Get all of the conversations
     clientContext.conversation.updateAllConversations(false);
 
+    showConversations();
+  }
+
+  /**
+   * Update display objects from the conversations already read from the server.
+   */
+  public void showConversations() {
+
     // Store all of the titles that are received in a HashSet
     HashSet<String> titles = new HashSet<>();
     for (final ConversationSummary conv : clientContext.conversation.getConversationSummaries()) {
@@ -277,6 +277,14 @@ public final class MessagePanel extends JPanel {
     // Get new messages
     clientContext.message.updateMessages(false);
 
+    showMessages(conversation);
+  }
+
+  /**
+   * Update display objects from the messages already read from the server.
+   */
+  private void showMessages(ConversationSummary conversation) {
+
     // Get all of the messages and store them in an ArrayList
     HashSet<String> messages = new HashSet<>();
     for (final Message m : clientContext.message.getConversationContents(conversation)) {
@@ -320,6 +328,13 @@ public final class MessagePanel extends JPanel {
     getNewMessages(clientContext.conversation.getCurrent());
   }
 
+  /**
+   * Default conversation is current conversation
+   */
+  public void showMessages() {
+    showMessages(clientContext.conversation.getCurrent());
+  }
+
   private void getAllMessages() {
     getAllMessages(clientContext.conversation.getCurrent());
   }
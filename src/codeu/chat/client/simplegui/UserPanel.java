@@ -258,6 +258,12 @@ public final class UserPanel extends JPanel {
     // Get all of the users
     clientContext.user.updateUsers();
 
+    showUsers();
+  }
+
+  // Update display objects from the users already read from the server.
+  public void showUsers() {
+
     // Store all of the names that are received in a HashSet
     HashSet<String> names = new HashSet<>();
     for (final User u : clientContext.user.getUsers()) {
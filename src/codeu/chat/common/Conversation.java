@@ -15,53 +15,67 @@
 package codeu.chat.common;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashSet;
 
+import codeu.chat.util.Codec;
+import codeu.chat.util.Codecs;
 import codeu.chat.util.Serializer;
-import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
 
 public final class Conversation {
 
-  public static final Serializer<Conversation> SERIALIZER = new Serializer<Conversation>() {
+  private static final Codec<Collection<Uuid>> USERS = Codecs.collection(Uuid.CODEC);
+
+  public static final Codec<Conversation> CODEC = new Codec<Conversation>() {
 
     @Override
-    public void write(OutputStream out, Conversation value) throws IOException {
+    public void write(ByteBuffer out, Conversation value, Wire.Context context) throws IOException {
 
-      Uuid.SERIALIZER.write(out, value.id);
-      Uuid.SERIALIZER.write(out, value.owner);
-      Time.SERIALIZER.write(out, value.creation);
-      Serializers.STRING.write(out, value.title);
-      Serializers.collection(Uuid.SERIALIZER).write(out, value.users);
-      Uuid.SERIALIZER.write(out, value.firstMessage);
-      Uuid.SERIALIZER.write(out, value.lastMessage);
+      Uuid.CODEC.write(out, value.id, context);
+      Uuid.CODEC.write(out, value.owner, context);
+      Time.CODEC.write(out, value.creation, context);
+      Codecs.STRING.write(out, value.title, context);
+      USERS.write(out, value.users, context);
+      Uuid.CODEC.write(out, value.firstMessage, context);
+      Uuid.CODEC.write(out, value.lastMessage, context);
 
     }
 
     @Override
-    public Conversation read(InputStream in) throws IOException {
+    public Conversation read(ByteBuffer in, Wire.Context context) throws IOException {
 
       final Conversation value = new Conversation(
-        Uuid.SERIALIZER.read(in),
-        Uuid.SERIALIZER.read(in),
-        Time.SERIALIZER.read(in),
-        Serializers.STRING.read(in)
+        Uuid.CODEC.read(in, context),
+        Uuid.CODEC.read(in, context),
+        Time.CODEC.read(in, context),
+        Codecs.STRING.read(in, context)
       );
 
-      value.users.addAll(Serializers.collection(Uuid.SERIALIZER).read(in));
+      value.users.addAll(USERS.read(in, context));
 
-      value.firstMessage = Uuid.SERIALIZER.read(in);
-      value.lastMessage = Uuid.SERIALIZER.read(in);
+      value.firstMessage = Uuid.CODEC.read(in, context);
+      value.lastMessage = Uuid.CODEC.read(in, context);
 
       return value;
 
     }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+
+      return Codecs.length(in, context,
+                           Uuid.CODEC, Uuid.CODEC, Time.CODEC, Codecs.STRING,
+                           USERS, Uuid.CODEC, Uuid.CODEC);
+
+    }
   };
 
+  public static final Serializer<Conversation> SERIALIZER = Codecs.serializer(CODEC);
+
   public final ConversationSummary summary;
 
   public final Uuid id;
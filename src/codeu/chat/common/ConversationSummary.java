@@ -15,41 +15,57 @@
 package codeu.chat.common;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.Codec;
+import codeu.chat.util.Codecs;
 import codeu.chat.util.Serializer;
-import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
 
 public final class ConversationSummary implements ListViewable {
 
-  public static final Serializer<ConversationSummary> SERIALIZER = new Serializer<ConversationSummary>() {
+  public static final Codec<ConversationSummary> CODEC = new Codec<ConversationSummary>() {
 
     @Override
-    public void write(OutputStream out, ConversationSummary value) throws IOException {
+    public void write(ByteBuffer out, ConversationSummary value, Wire.Context context) throws IOException {
 
-      Uuid.SERIALIZER.write(out, value.id);
-      Uuid.SERIALIZER.write(out, value.owner);
-      Time.SERIALIZER.write(out, value.creation);
-      Serializers.STRING.write(out, value.title);
+      // See Wire.Context.alone.
+      final Wire.Context alone = context.alone();
+
+      Uuid.CODEC.write(out, value.id, alone);
+      Uuid.CODEC.write(out, value.owner, alone);
+      Time.CODEC.write(out, value.creation, alone);
+      Codecs.STRING.write(out, value.title, alone);
 
     }
 
     @Override
-    public ConversationSummary read(InputStream in) throws IOException {
+    public ConversationSummary read(ByteBuffer in, Wire.Context context) throws IOException {
+
+      // See Wire.Context.alone.
+      final Wire.Context alone = context.alone();
 
       return new ConversationSummary(
-        Uuid.SERIALIZER.read(in),
-        Uuid.SERIALIZER.read(in),
-        Time.SERIALIZER.read(in),
-        Serializers.STRING.read(in)
+        Uuid.CODEC.read(in, alone),
+        Uuid.CODEC.read(in, alone),
+        Time.CODEC.read(in, alone),
+        Codecs.STRING.read(in, alone)
       );
 
     }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+
+      return Codecs.length(in, context, Uuid.CODEC, Uuid.CODEC, Time.CODEC, Codecs.STRING);
+
+    }
   };
 
+  public static final Serializer<ConversationSummary> SERIALIZER = Codecs.serializer(CODEC);
+
   public final Uuid id;
   public final Uuid owner;
   public final Time creation;
@@ -0,0 +1,82 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Uuid;
+
+// GENERATIONS
+//
+// The generations of the users, of the conversations and of the messages in one
+// conversation. A generation changes every time something is added, so
+// comparing the generations a client last saw with the server's tells the
+// client what is worth fetching again.
+public final class Generations {
+
+  public static final Serializer<Generations> SERIALIZER = new Serializer<Generations>() {
+
+    @Override
+    public void write(OutputStream out, Generations value) throws IOException {
+      Uuid.SERIALIZER.write(out, value.users);
+      Uuid.SERIALIZER.write(out, value.conversations);
+      Uuid.SERIALIZER.write(out, value.messages);
+    }
+
+    @Override
+    public Generations read(InputStream in) throws IOException {
+      return new Generations(
+          Uuid.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in),
+          Uuid.SERIALIZER.read(in));
+    }
+  };
+
+  // Generations that have never been seen. Use these when nothing has been
+  // fetched yet.
+  public static final Generations NONE = new Generations(Uuid.NULL, Uuid.NULL, Uuid.NULL);
+
+  public final Uuid users;
+  public final Uuid conversations;
+  public final Uuid messages;
+
+  public Generations(Uuid users, Uuid conversations, Uuid messages) {
+    this.users = users;
+    this.conversations = conversations;
+    this.messages = messages;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+
+    if (!(other instanceof Generations)) {
+      return false;
+    }
+
+    final Generations generations = (Generations) other;
+
+    return Uuid.equals(users, generations.users) &&
+           Uuid.equals(conversations, generations.conversations) &&
+           Uuid.equals(messages, generations.messages);
+  }
+
+  @Override
+  public int hashCode() {
+    return (users.hashCode() * 31 + conversations.hashCode()) * 31 + messages.hashCode();
+  }
+}
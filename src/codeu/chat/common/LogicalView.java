@@ -69,4 +69,30 @@ public interface LogicalView {
   //   no messages will be returned.
   Collection<Message> getMessages(Uuid rootMessage, int range);
 
+  // GET MESSAGES
+  //
+  //   Get up to |count| messages from a single conversation by their position
+  //   in it. The first message is at offset zero. A negative offset counts back
+  //   from the end, so -1 is the last message. If the count is positive the
+  //   messages start at the offset and go forward, if it is negative they end
+  //   at the offset and go back. Either way they are returned in the order
+  //   they are in the conversation. Positions past either end are left out. If
+  //   the conversation is not found no messages will be returned.
+  Collection<Message> getMessages(Uuid conversation, int offset, int count);
+
+  // GET MESSAGE COUNT
+  //
+  //   Get the number of messages in a conversation. If the conversation is not
+  //   found, zero will be returned.
+  int getMessageCount(Uuid conversation);
+
+  // SEARCH MESSAGES
+  //
+  //   Get the newest messages, up to |limit| of them, that contain every word
+  //   in the query. Words are runs of letters and digits and case does not
+  //   matter. A word in the query that ends in "*" matches any word that
+  //   starts with it. Messages are returned newest first. If the conversation
+  //   is Uuid.NULL every conversation is searched, otherwise only that one.
+  Collection<Message> searchMessages(Uuid conversation, String query, int limit);
+
 }
\ No newline at end of file
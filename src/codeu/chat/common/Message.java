@@ -15,45 +15,62 @@
 package codeu.chat.common;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.Codec;
+import codeu.chat.util.Codecs;
 import codeu.chat.util.Serializer;
-import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
 
 public final class Message {
 
-  public static final Serializer<Message> SERIALIZER = new Serializer<Message>() {
+  public static final Codec<Message> CODEC = new Codec<Message>() {
 
     @Override
-    public void write(OutputStream out, Message value) throws IOException {
+    public void write(ByteBuffer out, Message value, Wire.Context context) throws IOException {
 
-      Uuid.SERIALIZER.write(out, value.id);
-      Uuid.SERIALIZER.write(out, value.next);
-      Uuid.SERIALIZER.write(out, value.previous);
-      Time.SERIALIZER.write(out, value.creation);
-      Uuid.SERIALIZER.write(out, value.author);
-      Serializers.STRING.write(out, value.content);
+      // See Wire.Context.alone.
+      final Wire.Context alone = context.alone();
+
+      Uuid.CODEC.write(out, value.id, alone);
+      Uuid.CODEC.write(out, value.next, alone);
+      Uuid.CODEC.write(out, value.previous, alone);
+      Time.CODEC.write(out, value.creation, alone);
+      Uuid.CODEC.write(out, value.author, alone);
+      Codecs.STRING.write(out, value.content, alone);
 
     }
 
     @Override
-    public Message read(InputStream in) throws IOException {
+    public Message read(ByteBuffer in, Wire.Context context) throws IOException {
+
+      // See Wire.Context.alone.
+      final Wire.Context alone = context.alone();
 
       return new Message(
-        Uuid.SERIALIZER.read(in),
-        Uuid.SERIALIZER.read(in),
-        Uuid.SERIALIZER.read(in),
-        Time.SERIALIZER.read(in),
-        Uuid.SERIALIZER.read(in),
-        Serializers.STRING.read(in)
+        Uuid.CODEC.read(in, alone),
+        Uuid.CODEC.read(in, alone),
+        Uuid.CODEC.read(in, alone),
+        Time.CODEC.read(in, alone),
+        Uuid.CODEC.read(in, alone),
+        Codecs.STRING.read(in, alone)
       );
 
     }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+
+      return Codecs.length(in, context,
+                           Uuid.CODEC, Uuid.CODEC, Uuid.CODEC, Time.CODEC, Uuid.CODEC, Codecs.STRING);
+
+    }
   };
 
+  public static final Serializer<Message> SERIALIZER = Codecs.serializer(CODEC);
+
   public final Uuid id;
   public final Uuid previous;
   public final Time creation;
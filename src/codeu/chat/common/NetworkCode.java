@@ -47,5 +47,35 @@ public final class NetworkCode {
       RELAY_READ_REQUEST = 27,
       RELAY_READ_RESPONSE = 28,
       RELAY_WRITE_REQUEST = 29,
-      RELAY_WRITE_RESPONSE = 30;
+      RELAY_WRITE_RESPONSE = 30,
+      SESSION_START_REQUEST = 31,
+      SESSION_START_RESPONSE = 32,
+      SESSION_END_REQUEST = 33,
+      BATCH_REQUEST = 34,
+      BATCH_RESPONSE = 35,
+      SUBSCRIBE_CONVERSATION_REQUEST = 36,
+      SUBSCRIBE_CONVERSATION_RESPONSE = 37,
+      NEW_MESSAGE_PUSH = 38,
+      NEW_USER_PUSH = 39,
+      NEW_CONVERSATION_PUSH = 40,
+      WAIT_FOR_CHANGE_REQUEST = 41,
+      WAIT_FOR_CHANGE_RESPONSE = 42,
+      SERVER_BUSY = 43,
+      GET_SERVER_STATS_REQUEST = 44,
+      GET_SERVER_STATS_RESPONSE = 45,
+      VERSIONED_REQUEST = 46,
+      VERSIONED_RESPONSE = 47,
+      STREAM_ALL_CONVERSATIONS_REQUEST = 48,
+      STREAM_ALL_CONVERSATIONS_RESPONSE = 49,
+      STREAM_MESSAGES_BY_TIME_REQUEST = 50,
+      STREAM_MESSAGES_BY_TIME_RESPONSE = 51,
+      DEFLATED_RESPONSE = 52,
+      PIPELINE_START_REQUEST = 53,
+      PIPELINE_START_RESPONSE = 54,
+      GET_MESSAGES_BY_INDEX_REQUEST = 55,
+      GET_MESSAGES_BY_INDEX_RESPONSE = 56,
+      GET_MESSAGE_COUNT_REQUEST = 57,
+      GET_MESSAGE_COUNT_RESPONSE = 58,
+      SEARCH_MESSAGES_REQUEST = 59,
+      SEARCH_MESSAGES_RESPONSE = 60;
 }
@@ -0,0 +1,438 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.Frames;
+
+// PIPELINE CONNECTION SOURCE
+//
+// Wraps another connection source so that many requests can be on their way
+// over one connection at the same time. The first connection asks the server
+// to start a pipeline. If it agrees, every request is sent as a frame that
+// starts with an id, and the server sends each response back in a frame with
+// the id of its request as soon as it is ready. Responses can come back in any
+// order. A reader thread matches each one up with its request.
+//
+// A request is sent when the caller flushes "out", or when it first reads
+// from "in" if it did not flush. Reading from "in" waits for the response to
+// that request only, so a caller can send many requests before it reads any
+// of the responses (see View.Pending). Requests that are on their way at the
+// same time may be run by the server in any order. A caller that closes its
+// connection without reading the response does not hold anything up, the
+// response is dropped when it arrives.
+//
+// At most "maxInFlight" requests are sent without an answer. Sending more
+// waits until one is answered.
+//
+// Servers that do not know about pipelines answer the start request with
+// NO_MESSAGE. When that happens the source falls back to sessions (see
+// SessionConnectionSource), which carry one request at a time.
+public final class PipelineConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(PipelineConnectionSource.class);
+
+  public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+
+  private final ConnectionSource source;
+  private final ConnectionSource fallback;
+  private final Semaphore inFlight;
+
+  private boolean pipelinesSupported = true;
+  private Pipeline pipeline = null;
+
+  public PipelineConnectionSource(ConnectionSource source) {
+    this(source, DEFAULT_MAX_IN_FLIGHT);
+  }
+
+  public PipelineConnectionSource(ConnectionSource source, int maxInFlight) {
+    this.source = source;
+    this.fallback = new SessionConnectionSource(source);
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    final Pipeline pipeline = pipeline();
+
+    return pipeline == null ? fallback.connect() : new Call(pipeline);
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    final Pipeline open;
+
+    synchronized (this) {
+      open = pipeline;
+      pipeline = null;
+    }
+
+    if (open != null) {
+      open.end();
+    }
+
+    // Closes "source" too.
+    fallback.close();
+  }
+
+  // PIPELINE
+  //
+  // The open pipeline, starting a new one if there is none or the last one
+  // failed. Returns null if the server does not support pipelines.
+  private synchronized Pipeline pipeline() throws IOException {
+
+    if (pipeline != null && !pipeline.isBroken()) {
+      return pipeline;
+    }
+
+    pipeline = null;
+
+    if (!pipelinesSupported) {
+      return null;
+    }
+
+    final Connection connection = source.connect();
+
+    if (startPipeline(connection)) {
+      pipeline = new Pipeline(connection);
+      return pipeline;
+    }
+
+    // The server does not support pipelines and will have closed the
+    // connection after answering the start request.
+    LOG.info("Server does not support pipelines, using sessions.");
+    connection.close();
+    pipelinesSupported = false;
+
+    return null;
+  }
+
+  private static boolean startPipeline(Connection connection) throws IOException {
+
+    try {
+      Serializers.writeInt(connection.out(), NetworkCode.PIPELINE_START_REQUEST);
+      connection.out().flush();
+      final int response = Serializers.readInt(connection.in());
+      if (response == NetworkCode.SERVER_BUSY) {
+        // The server does know about pipelines, it just can not take one on now.
+        throw new IOException("Server is busy.");
+      }
+      return response == NetworkCode.PIPELINE_START_RESPONSE;
+    } catch (IOException ex) {
+      connection.close();
+      throw ex;
+    }
+  }
+
+  // PIPELINE
+  //
+  // One connection that has agreed to carry requests with ids, and the calls
+  // that are waiting for their responses on it. Once anything fails the
+  // pipeline is broken: every waiting call fails and the next call to
+  // "connect" starts a new pipeline.
+  private final class Pipeline {
+
+    private final Connection connection;
+    private final Map<Integer, Call> waiting = new HashMap<>();
+
+    private int nextId = 0;
+    private boolean broken = false;
+    private boolean ended = false;
+
+    public Pipeline(Connection connection) {
+
+      this.connection = connection;
+
+      final Thread reader = new Thread() {
+        @Override
+        public void run() {
+          read();
+        }
+      };
+
+      reader.setDaemon(true);
+      reader.start();
+    }
+
+    public synchronized boolean isBroken() {
+      return broken;
+    }
+
+    // SEND
+    //
+    // Send "request" for "call". Waits if too many requests are already on
+    // their way.
+    public void send(Call call, byte[] request) throws IOException {
+
+      inFlight.acquireUninterruptibly();
+
+      final int id;
+
+      synchronized (this) {
+        if (broken) {
+          inFlight.release();
+          throw new IOException("Pipeline is closed.");
+        }
+        id = nextId++;
+        waiting.put(id, call);
+      }
+
+      try {
+        synchronized (connection) {
+          Frames.write(connection.out(), id, request);
+        }
+      } catch (IOException ex) {
+        fail(ex);
+        throw ex;
+      }
+    }
+
+    // END
+    //
+    // Tell the server that no more requests are coming and close the
+    // connection. Calls still waiting fail.
+    public void end() {
+
+      synchronized (this) {
+        ended = true;
+      }
+
+      try {
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        Serializers.writeInt(request, NetworkCode.SESSION_END_REQUEST);
+        synchronized (connection) {
+          Frames.write(connection.out(), 0, request.toByteArray());
+        }
+      } catch (IOException ex) {
+        // The server may have already gone away - nothing left to tell it.
+      }
+
+      fail(new IOException("Pipeline is closed."));
+    }
+
+    private void read() {
+      try {
+        for (byte[] frame = Frames.read(connection.in());
+             frame != null;
+             frame = Frames.read(connection.in())) {
+
+          if (frame.length < Frames.HEADER_SIZE) {
+            throw new IOException("Pipeline response frame has no id.");
+          }
+
+          final Call call;
+
+          synchronized (this) {
+            call = waiting.remove(Frames.header(frame, 0));
+          }
+
+          if (call == null) {
+            LOG.warning("Pipeline response for a request that is not waiting.");
+            continue;
+          }
+
+          inFlight.release();
+          call.answer(Arrays.copyOfRange(frame, Frames.HEADER_SIZE, frame.length));
+        }
+        fail(new EOFException("Pipeline ended before all responses were received."));
+      } catch (IOException ex) {
+        fail(ex);
+      }
+    }
+
+    private void fail(IOException ex) {
+
+      final Collection<Call> failed;
+      final boolean quiet;
+
+      synchronized (this) {
+        if (broken) {
+          return;
+        }
+        broken = true;
+        quiet = ended;
+        failed = new ArrayList<>(waiting.values());
+        waiting.clear();
+      }
+
+      if (!quiet) {
+        LOG.error(ex, "Pipeline failed.");
+      }
+
+      try {
+        connection.close();
+      } catch (IOException closeEx) {
+        LOG.error(closeEx, "Failed to close pipeline connection.");
+      }
+
+      for (final Call call : failed) {
+        inFlight.release();
+        call.fail(ex);
+      }
+    }
+  }
+
+  // CALL
+  //
+  // The connection handed out to callers. Each one carries a single request.
+  // Everything written to "out" is collected and sent as one frame when the
+  // caller flushes it or first reads from "in", and "in" then reads from the
+  // response frame once it has arrived.
+  private final class Call implements Connection {
+
+    private final Pipeline pipeline;
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+    private boolean sent = false;
+    private boolean closed = false;
+
+    // Set by the pipeline's reader thread.
+    private byte[] response = null;
+    private IOException failure = null;
+
+    private InputStream responseIn = null;
+
+    private final OutputStream out = new OutputStream() {
+
+      @Override
+      public void write(int b) {
+        request.write(b);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) {
+        request.write(bytes, offset, length);
+      }
+
+      @Override
+      public void flush() throws IOException {
+        send();
+      }
+    };
+
+    private final InputStream in = new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+        return response().read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        return response().read(buffer, offset, length);
+      }
+    };
+
+    public Call(Pipeline pipeline) {
+      this.pipeline = pipeline;
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public String remoteAddress() {
+      return pipeline.connection.remoteAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        // A request that was written but never flushed or read is still sent,
+        // its response is dropped when it arrives.
+        send();
+      }
+    }
+
+    public synchronized void answer(byte[] bytes) {
+      response = bytes;
+      notifyAll();
+    }
+
+    public synchronized void fail(IOException ex) {
+      failure = ex;
+      notifyAll();
+    }
+
+    private void send() throws IOException {
+      if (request.size() == 0) {
+        return;
+      }
+      if (sent) {
+        throw new IOException("Request was written to after it was sent.");
+      }
+      sent = true;
+      final byte[] bytes = request.toByteArray();
+      request.reset();
+      pipeline.send(this, bytes);
+    }
+
+    private InputStream response() throws IOException {
+
+      if (responseIn != null) {
+        return responseIn;
+      }
+
+      send();
+
+      if (!sent) {
+        throw new IOException("Nothing was sent to be answered.");
+      }
+
+      synchronized (this) {
+        while (response == null && failure == null) {
+          try {
+            wait();
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for response.", ex);
+          }
+        }
+        if (failure != null) {
+          throw failure;
+        }
+        responseIn = new ByteArrayInputStream(response);
+      }
+
+      return responseIn;
+    }
+  }
+}
@@ -14,10 +14,16 @@
 
 package codeu.chat.common;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 
+import codeu.chat.util.Codec;
+import codeu.chat.util.Codecs;
+import codeu.chat.util.Serializer;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
 
 // RELAY
 //
@@ -47,6 +53,44 @@ public interface Relay {
     // to make the Bundle interface easier to read.
     interface Component {
 
+      // CODEC
+      //
+      // How a component is sent between a server and the relay. Both ends use
+      // this so that they always agree on the format.
+      Codec<Component> CODEC = new Codec<Component>() {
+
+        @Override
+        public void write(ByteBuffer out, Component value, Wire.Context context) throws IOException {
+          Uuid.CODEC.write(out, value.id(), context);
+          Codecs.STRING.write(out, value.text(), context);
+          Time.CODEC.write(out, value.time(), context);
+        }
+
+        @Override
+        public Component read(ByteBuffer in, Wire.Context context) throws IOException {
+
+          final Uuid id = Uuid.CODEC.read(in, context);
+          final String text = Codecs.STRING.read(in, context);
+          final Time time = Time.CODEC.read(in, context);
+
+          return new Component() {
+            @Override
+            public Uuid id() { return id; }
+            @Override
+            public String text() { return text; }
+            @Override
+            public Time time() { return time; }
+          };
+        }
+
+        @Override
+        public int length(ByteBuffer in, Wire.Context context) throws IOException {
+          return Codecs.length(in, context, Uuid.CODEC, Codecs.STRING, Time.CODEC);
+        }
+      };
+
+      Serializer<Component> SERIALIZER = Codecs.serializer(CODEC);
+
       // ID
       //
       // The id for the component. As just about every piece of data has an ID, this
@@ -69,6 +113,57 @@ public interface Relay {
 
     }
 
+    // CODEC
+    //
+    // How a bundle is sent from the relay to a server.
+    Codec<Bundle> CODEC = new Codec<Bundle>() {
+
+      @Override
+      public void write(ByteBuffer out, Bundle value, Wire.Context context) throws IOException {
+        Uuid.CODEC.write(out, value.id(), context);
+        Time.CODEC.write(out, value.time(), context);
+        Uuid.CODEC.write(out, value.team(), context);
+        Component.CODEC.write(out, value.user(), context);
+        Component.CODEC.write(out, value.conversation(), context);
+        Component.CODEC.write(out, value.message(), context);
+      }
+
+      @Override
+      public Bundle read(ByteBuffer in, Wire.Context context) throws IOException {
+
+        final Uuid id = Uuid.CODEC.read(in, context);
+        final Time time = Time.CODEC.read(in, context);
+        final Uuid team = Uuid.CODEC.read(in, context);
+        final Component user = Component.CODEC.read(in, context);
+        final Component conversation = Component.CODEC.read(in, context);
+        final Component message = Component.CODEC.read(in, context);
+
+        return new Bundle() {
+          @Override
+          public Uuid id() { return id; }
+          @Override
+          public Time time() { return time; }
+          @Override
+          public Uuid team() { return team; }
+          @Override
+          public Component user() { return user; }
+          @Override
+          public Component conversation() { return conversation; }
+          @Override
+          public Component message() { return message; }
+        };
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return Codecs.length(in, context,
+                             Uuid.CODEC, Time.CODEC, Uuid.CODEC,
+                             Component.CODEC, Component.CODEC, Component.CODEC);
+      }
+    };
+
+    Serializer<Bundle> SERIALIZER = Codecs.serializer(CODEC);
+
     // ID
     //
     // The id for the bundle. This is the id of the bundle which can be used with read as the root.
@@ -0,0 +1,256 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.Frames;
+
+// SESSION CONNECTION SOURCE
+//
+// Wraps another connection source so that many requests can share one
+// connection. The first connection asks the server to start a session. If
+// the server agrees, closing the connection does not close the socket, it
+// hands the connection back to this source so that the next call to
+// "connect" can use it again. Inside a session every request and response
+// is sent as a frame (see Frames) so that both ends always know where one
+// request stops and the next one starts.
+//
+// Only one idle connection is kept. If a second caller needs a connection
+// while the idle one is in use, a new session is started for it and ended
+// when it is returned.
+//
+// Servers that do not know about sessions answer the start request with
+// NO_MESSAGE. When that happens the source falls back to opening a new
+// connection for every request.
+public final class SessionConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(SessionConnectionSource.class);
+
+  private final ConnectionSource source;
+
+  private boolean sessionsSupported = true;
+  private Connection idle = null;
+
+  public SessionConnectionSource(ConnectionSource source) {
+    this.source = source;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    synchronized (this) {
+      if (idle != null) {
+        final Connection connection = idle;
+        idle = null;
+        return new Session(connection);
+      }
+      if (!sessionsSupported) {
+        return source.connect();
+      }
+    }
+
+    final Connection connection = source.connect();
+
+    if (startSession(connection)) {
+      return new Session(connection);
+    }
+
+    // The server does not support sessions and will have closed the connection
+    // after answering the start request. Open a new one for this request and
+    // stop asking for sessions.
+    LOG.info("Server does not support sessions, using a connection per request.");
+    connection.close();
+
+    synchronized (this) {
+      sessionsSupported = false;
+    }
+
+    return source.connect();
+  }
+
+  @Override
+  public void close() throws IOException {
+
+    final Connection connection;
+
+    synchronized (this) {
+      connection = idle;
+      idle = null;
+    }
+
+    if (connection != null) {
+      endSession(connection);
+    }
+
+    source.close();
+  }
+
+  private static boolean startSession(Connection connection) throws IOException {
+
+    try {
+      Serializers.writeInt(connection.out(), NetworkCode.SESSION_START_REQUEST);
+      connection.out().flush();
+      final int response = Serializers.readInt(connection.in());
+      if (response == NetworkCode.SERVER_BUSY) {
+        // The server does know about sessions, it just can not take one on now.
+        throw new IOException("Server is busy.");
+      }
+      return response == NetworkCode.SESSION_START_RESPONSE;
+    } catch (IOException ex) {
+      connection.close();
+      throw ex;
+    }
+  }
+
+  private static void endSession(Connection connection) {
+
+    try {
+      final ByteArrayOutputStream request = new ByteArrayOutputStream();
+      Serializers.writeInt(request, NetworkCode.SESSION_END_REQUEST);
+      Frames.write(connection.out(), request.toByteArray());
+    } catch (IOException ex) {
+      // The server may have already gone away - nothing left to tell it.
+    }
+
+    try {
+      connection.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to close session connection.");
+    }
+  }
+
+  private void release(Connection connection, boolean broken) throws IOException {
+
+    if (broken) {
+      // After a failed read or write there is no way to know where the stream
+      // is, so the connection can not be used for another request.
+      connection.close();
+      return;
+    }
+
+    synchronized (this) {
+      if (idle == null) {
+        idle = connection;
+        return;
+      }
+    }
+
+    endSession(connection);
+  }
+
+  // SESSION
+  //
+  // The connection handed out to callers. Each one carries a single request.
+  // Everything written to "out" is collected and sent as one frame the first
+  // time the caller reads from "in", and "in" then reads from the response
+  // frame. Any failure marks the session as broken so that it is never reused.
+  private final class Session implements Connection {
+
+    private final Connection connection;
+    private final ByteArrayOutputStream request = new ByteArrayOutputStream();
+
+    private InputStream response = null;
+
+    private boolean broken = false;
+    private boolean closed = false;
+
+    private final InputStream in = new InputStream() {
+
+      @Override
+      public int read() throws IOException {
+        return response().read();
+      }
+
+      @Override
+      public int read(byte[] buffer, int offset, int length) throws IOException {
+        return response().read(buffer, offset, length);
+      }
+    };
+
+    public Session(Connection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public InputStream in() {
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return request;
+    }
+
+    @Override
+    public String remoteAddress() {
+      return connection.remoteAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!closed) {
+        closed = true;
+        if (response == null && request.size() > 0) {
+          // The caller did not wait for a response, but the request still
+          // needs to be sent and its response taken off of the connection
+          // so that it is not mistaken for the response to the next request.
+          try {
+            response();
+          } catch (IOException ex) {
+            LOG.error(ex, "Failed to send session request.");
+          }
+        }
+        release(connection, broken);
+      }
+    }
+
+    private InputStream response() throws IOException {
+      if (response == null) {
+        send();
+        try {
+          final byte[] bytes = Frames.read(connection.in());
+          if (bytes == null) {
+            throw new EOFException("Session ended before response was received.");
+          }
+          response = new ByteArrayInputStream(bytes);
+        } catch (IOException ex) {
+          broken = true;
+          throw ex;
+        }
+      }
+      return response;
+    }
+
+    private void send() throws IOException {
+      try {
+        Frames.write(connection.out(), request.toByteArray());
+        request.reset();
+      } catch (IOException ex) {
+        broken = true;
+        throw ex;
+      }
+    }
+  }
+}
@@ -15,39 +15,55 @@
 package codeu.chat.common;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
+import codeu.chat.util.Codec;
+import codeu.chat.util.Codecs;
 import codeu.chat.util.Serializer;
-import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
 
 public final class User {
 
-  public static final Serializer<User> SERIALIZER = new Serializer<User>() {
+  public static final Codec<User> CODEC = new Codec<User>() {
 
     @Override
-    public void write(OutputStream out, User value) throws IOException {
+    public void write(ByteBuffer out, User value, Wire.Context context) throws IOException {
 
-      Uuid.SERIALIZER.write(out, value.id);
-      Serializers.STRING.write(out, value.name);
-      Time.SERIALIZER.write(out, value.creation);
+      // See Wire.Context.alone.
+      final Wire.Context alone = context.alone();
+
+      Uuid.CODEC.write(out, value.id, alone);
+      Codecs.STRING.write(out, value.name, alone);
+      Time.CODEC.write(out, value.creation, alone);
 
     }
 
     @Override
-    public User read(InputStream in) throws IOException {
+    public User read(ByteBuffer in, Wire.Context context) throws IOException {
+
+      // See Wire.Context.alone.
+      final Wire.Context alone = context.alone();
 
       return new User(
-        Uuid.SERIALIZER.read(in),
-        Serializers.STRING.read(in),
-        Time.SERIALIZER.read(in)
+        Uuid.CODEC.read(in, alone),
+        Codecs.STRING.read(in, alone),
+        Time.CODEC.read(in, alone)
       );
 
     }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+
+      return Codecs.length(in, context, Uuid.CODEC, Codecs.STRING, Time.CODEC);
+
+    }
   };
 
+  public static final Serializer<User> SERIALIZER = Codecs.serializer(CODEC);
+
   public final Uuid id;
   public final String name;
   public final Time creation;
@@ -0,0 +1,237 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+
+import codeu.chat.util.Deflation;
+import codeu.chat.util.Limits;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Wire;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+// VERSIONED CONNECTION SOURCE
+//
+// Wraps another connection source so that requests and responses use the
+// newest wire version (see Wire) that both ends know about, up to the one the
+// source is given (Wire.LATEST unless it is told otherwise).
+//
+// The first call to "connect" asks the server which version to use by sending
+// it an empty request in the newest version. A server that knows about
+// versions answers with VERSIONED_RESPONSE and the version it will use. A
+// server that does not answers NO_MESSAGE, and from then on every connection
+// is handed out as it is and uses version 1.
+//
+// Once a version above 1 has been agreed on, every request starts with
+// VERSIONED_REQUEST and the version, and the rest of it is written in that
+// version. The response starts with VERSIONED_RESPONSE and the version. A
+// response without that header, such as SERVER_BUSY from a server that turned
+// the connection away before reading it, is read as version 1.
+//
+// From version 4 the header of a request also carries flags (see Wire). If
+// the source accepts deflated responses, a DEFLATED_RESPONSE is inflated
+// before it is handed over, so callers read the response they asked for.
+public final class VersionedConnectionSource implements ConnectionSource {
+
+  private final static Logger.Log LOG = Logger.newLog(VersionedConnectionSource.class);
+
+  private final ConnectionSource source;
+  private final int latest;
+  private final int flags;
+
+  // Zero until a version has been agreed on.
+  private int version = 0;
+
+  public VersionedConnectionSource(ConnectionSource source) {
+    this(source, Wire.LATEST);
+  }
+
+  // Never ask for a version above "latest".
+  public VersionedConnectionSource(ConnectionSource source, int latest) {
+    this(source, latest, true);
+  }
+
+  // Only let the server deflate responses if "acceptDeflate" is true.
+  public VersionedConnectionSource(ConnectionSource source, int latest, boolean acceptDeflate) {
+    this.source = source;
+    this.latest = latest;
+    this.flags = acceptDeflate ? Wire.ACCEPT_DEFLATE : 0;
+  }
+
+  @Override
+  public Connection connect() throws IOException {
+
+    final int version = version();
+    final Connection connection = source.connect();
+
+    if (version == Wire.V1) {
+      return connection;
+    }
+
+    try {
+      writeHeader(connection.out(), version);
+    } catch (IOException ex) {
+      connection.close();
+      throw ex;
+    }
+
+    return new VersionedConnection(connection, version);
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+  }
+
+  // VERSION
+  //
+  // The version every request from this source is written in. The first call
+  // asks the server. If asking fails, the next call asks again.
+  public synchronized int version() throws IOException {
+    if (version == 0) {
+      version = negotiate();
+      LOG.info("Using wire version %d.", version);
+    }
+    return version;
+  }
+
+  private int negotiate() throws IOException {
+
+    if (latest == Wire.V1) {
+      return Wire.V1;
+    }
+
+    try (final Connection connection = source.connect()) {
+
+      writeHeader(connection.out(), latest);
+      Serializers.writeInt(Wire.out(connection.out(), latest), NetworkCode.NO_MESSAGE);
+      connection.out().flush();
+
+      final int type = Serializers.readInt(connection.in());
+
+      if (type == NetworkCode.SERVER_BUSY) {
+        // The server may well know about versions, it just could not say so.
+        throw new IOException("Server is busy.");
+      }
+
+      if (type != NetworkCode.VERSIONED_RESPONSE) {
+        LOG.info("Server does not support wire versions, using version 1.");
+        return Wire.V1;
+      }
+
+      // A server that does not know "latest" answers with the newest version
+      // it does know.
+      final int offered = Serializers.readInt(connection.in());
+      return Wire.supports(offered) ? Math.min(offered, latest) : Wire.V1;
+    }
+  }
+
+  private void writeHeader(OutputStream out, int version) throws IOException {
+    Serializers.writeInt(out, NetworkCode.VERSIONED_REQUEST);
+    Serializers.writeInt(out, version);
+    if (version >= Wire.V4) {
+      Serializers.writeInt(out, flags);
+    }
+  }
+
+  // VERSIONED CONNECTION
+  //
+  // Writes the rest of the request in the agreed version and reads the
+  // response's header before handing the response over.
+  private static final class VersionedConnection implements Connection {
+
+    private final Connection connection;
+    private final int version;
+    private final OutputStream out;
+
+    private InputStream in = null;
+
+    public VersionedConnection(Connection connection, int version) throws IOException {
+      this.connection = connection;
+      this.version = version;
+      this.out = Wire.out(connection.out(), version);
+    }
+
+    @Override
+    public InputStream in() throws IOException {
+      if (in == null) {
+        in = readHeader(connection.in());
+      }
+      return in;
+    }
+
+    @Override
+    public OutputStream out() {
+      return out;
+    }
+
+    @Override
+    public String remoteAddress() {
+      return connection.remoteAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+      connection.close();
+    }
+
+    private InputStream readHeader(InputStream raw) throws IOException {
+
+      final int type = Serializers.readInt(raw);
+
+      if (type == NetworkCode.VERSIONED_RESPONSE) {
+        final int answered = Serializers.readInt(raw);
+        if (answered != version) {
+          throw new IOException(String.format("Server answered in wire version %d, not %d.", answered, version));
+        }
+        return version >= Wire.V4 ? readBody(raw) : Wire.in(raw, version);
+      }
+
+      // Put the type back for the caller to read.
+      final ByteArrayOutputStream header = new ByteArrayOutputStream();
+      Serializers.writeInt(header, type);
+      return new SequenceInputStream(new ByteArrayInputStream(header.toByteArray()), raw);
+    }
+
+    // Inflate the response if it was deflated.
+    private InputStream readBody(InputStream raw) throws IOException {
+
+      final InputStream in = Wire.in(raw, version);
+      final int type = Serializers.readInt(in);
+
+      if (type == NetworkCode.DEFLATED_RESPONSE) {
+        // Held in memory whole, like a frame.
+        final int length = Limits.RESPONSES.checkFrameSize(Serializers.readInt(in));
+        final int compressedLength = Limits.RESPONSES.checkFrameSize(Serializers.readInt(in));
+        final byte[] compressed = new byte[compressedLength];
+        Serializers.readFully(in, compressed);
+        return Wire.in(new ByteArrayInputStream(Deflation.inflate(compressed, length)), version);
+      }
+
+      // Put the type back for the caller to read. Ints do not depend on what
+      // came before them, so a new stream can read the rest.
+      final ByteArrayOutputStream header = new ByteArrayOutputStream();
+      Serializers.writeInt(Wire.out(header, version), type);
+      return Wire.in(new SequenceInputStream(new ByteArrayInputStream(header.toByteArray()), raw), version);
+    }
+  }
+}
@@ -132,6 +132,9 @@ public final class Server implements Relay {
   //   - Keep "maxHistory" small enough to avoid using too much memory.
   //   - Keep "maxRead" small enough to avoid any one client from connecting to
   //     the server for too long.
+  //
+  // The relay may serve each connection on its own thread, so every method that
+  // touches the history or the team secrets is synchronized.
   public Server(int maxHistory, int maxRead) {
     this.maxHistory = Math.max(0, maxHistory);
     this.maxRead = Math.max(0, maxRead);
@@ -142,7 +145,7 @@ public final class Server implements Relay {
   // Let the relay know of a team's secret so that it will accept messages from that
   // team. If there is already a team entry, the secret will NOT be updated and the
   // call will return false.
-  public boolean addTeam(Uuid id, byte[] secret) {
+  public synchronized boolean addTeam(Uuid id, byte[] secret) {
 
     LOG.info("Adding team to relay %s", id);
 
@@ -165,7 +168,7 @@ public final class Server implements Relay {
   }
 
   @Override
-  public boolean write(Uuid teamId,
+  public synchronized boolean write(Uuid teamId,
                        byte[] teamSecret,
                        Relay.Bundle.Component user,
                        Relay.Bundle.Component conversation,
@@ -205,7 +208,7 @@ public final class Server implements Relay {
   }
 
   @Override
-  public Collection<Relay.Bundle> read(Uuid teamId, byte[] teamSecret, Uuid root, int range) {
+  public synchronized Collection<Relay.Bundle> read(Uuid teamId, byte[] teamSecret, Uuid root, int range) {
 
     final Collection<Relay.Bundle> found = new ArrayList<>();
 
@@ -0,0 +1,322 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.connections.Connection;
+
+// ADMISSION
+//
+// Decides whether the server takes on more work. Without a limit, a burst of
+// clients queues up work without end and every request waits behind all of
+// it. With one, the server answers what it can not take on with SERVER_BUSY
+// straight away so that clients can back off.
+//
+// Three limits are kept:
+//
+//   - The number of requests that are pending (waiting for or holding a
+//     thread). Requests are sorted into writes, reads and bulk reads. Bulk
+//     reads are turned away once the server is half full and other reads once
+//     it is three quarters full, which leaves the rest for writes.
+//
+//   - The number of connections open from each remote address, so that one
+//     client can not take all of the server for itself.
+//
+//   - The number of requests from each remote address that are waiting for a
+//     change (see ChangeWaiters). A waiting request holds no thread, so it is
+//     not pending once it has been checked, but each one is kept and answered
+//     until it times out, and on a session or pipeline many can share one
+//     connection.
+public final class Admission {
+
+  private final static Logger.Log LOG = Logger.newLog(Admission.class);
+
+  public static final int DEFAULT_MAX_PENDING = 1024;
+  public static final int DEFAULT_MAX_PER_ADDRESS = 64;
+  public static final int DEFAULT_MAX_WAITS_PER_ADDRESS = 16;
+
+  private static final int WRITE = 0;
+  private static final int READ = 1;
+  private static final int BULK_READ = 2;
+  private static final int UNREAD = 3;
+
+  private static final String[] CLASS_NAMES = { "Writes", "Reads", "BulkReads", "Unread" };
+
+  private final int maxPending;
+  private final int maxPerAddress;
+  private final int maxWaitsPerAddress;
+
+  private final AtomicInteger pending = new AtomicInteger(0);
+  private final AtomicInteger peakPending = new AtomicInteger(0);
+  private final AtomicLong admitted = new AtomicLong(0);
+  private final AtomicLong[] shed = {
+      new AtomicLong(0), new AtomicLong(0), new AtomicLong(0), new AtomicLong(0) };
+  private final AtomicLong rejectedAddresses = new AtomicLong(0);
+  private final AtomicLong rejectedWaits = new AtomicLong(0);
+
+  // The number of open connections from each address. Addresses with no open
+  // connections are removed.
+  private final Map<String, Integer> open = new HashMap<>();
+
+  // The number of waiting requests from each address, in the same way.
+  private final Map<String, Integer> waiting = new HashMap<>();
+
+  public Admission() {
+    this(DEFAULT_MAX_PENDING, DEFAULT_MAX_PER_ADDRESS);
+  }
+
+  public Admission(int maxPending, int maxPerAddress) {
+    this(maxPending, maxPerAddress, DEFAULT_MAX_WAITS_PER_ADDRESS);
+  }
+
+  public Admission(int maxPending, int maxPerAddress, int maxWaitsPerAddress) {
+    this.maxPending = maxPending;
+    this.maxPerAddress = maxPerAddress;
+    this.maxWaitsPerAddress = maxWaitsPerAddress;
+  }
+
+  // ADMIT
+  //
+  // Count a request of type "type" as pending. Returns false, and counts
+  // nothing, if the server is too busy for that kind of request. Every
+  // request that is admitted must be followed by a call to "done".
+  //
+  // Use NetworkCode.NO_MESSAGE for work whose type is not yet known (a
+  // connection that has not been read from). It is held back by the same limit
+  // as writes so that a write is never turned away before it can be read.
+  public boolean admit(int type) {
+
+    final int requestClass = classOf(type);
+    final int limit = limitOf(requestClass);
+
+    while (true) {
+      final int now = pending.get();
+      if (now >= limit) {
+        shed[requestClass].incrementAndGet();
+        return false;
+      }
+      if (pending.compareAndSet(now, now + 1)) {
+        updatePeak(now + 1);
+        admitted.incrementAndGet();
+        return true;
+      }
+    }
+  }
+
+  // DONE
+  //
+  // Stop counting a request that was admitted.
+  public void done() {
+    pending.decrementAndGet();
+  }
+
+  // ENTER
+  //
+  // Count a connection against the limit for "address". Returns false, and
+  // counts nothing, if that address already has too many connections open.
+  // Every connection that enters must be followed by a call to "leave". A null
+  // address is never limited.
+  public boolean enter(String address) {
+
+    if (address == null) {
+      return true;
+    }
+
+    synchronized (open) {
+      final Integer count = open.get(address);
+      final int next = count == null ? 1 : count + 1;
+      if (next > maxPerAddress) {
+        rejectedAddresses.incrementAndGet();
+        LOG.warning("Too many connections from %s, turning one away.", address);
+        return false;
+      }
+      open.put(address, next);
+      return true;
+    }
+  }
+
+  public void leave(String address) {
+    if (address != null) {
+      decrement(open, address);
+    }
+  }
+
+  // PARK
+  //
+  // Count a request from "address" that is about to wait for a change against
+  // the limit on waiting requests for that address. Returns false, and counts
+  // nothing, if that address already has too many waiting. Every request that
+  // is parked must be followed by a call to "unpark" once it is answered. A
+  // null address is never limited.
+  public boolean park(String address) {
+
+    if (address == null) {
+      return true;
+    }
+
+    synchronized (waiting) {
+      final Integer count = waiting.get(address);
+      final int next = count == null ? 1 : count + 1;
+      if (next > maxWaitsPerAddress) {
+        rejectedWaits.incrementAndGet();
+        LOG.warning("Too many waiting requests from %s, turning one away.", address);
+        return false;
+      }
+      waiting.put(address, next);
+      return true;
+    }
+  }
+
+  public void unpark(String address) {
+    if (address != null) {
+      decrement(waiting, address);
+    }
+  }
+
+  private static void decrement(Map<String, Integer> counts, String address) {
+    synchronized (counts) {
+      final Integer count = counts.get(address);
+      if (count == null || count <= 1) {
+        counts.remove(address);
+      } else {
+        counts.put(address, count - 1);
+      }
+    }
+  }
+
+  // TRACK
+  //
+  // Count "connection" against the limit for its remote address. Returns a
+  // connection that stops being counted when it is closed, or null if the
+  // address already has too many connections open.
+  public Connection track(final Connection connection) {
+
+    final String address = connection.remoteAddress();
+
+    if (!enter(address)) {
+      return null;
+    }
+
+    final AtomicBoolean closed = new AtomicBoolean(false);
+
+    return new Connection() {
+
+      @Override
+      public InputStream in() throws IOException {
+        return connection.in();
+      }
+
+      @Override
+      public OutputStream out() throws IOException {
+        return connection.out();
+      }
+
+      @Override
+      public String remoteAddress() {
+        return address;
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+          leave(address);
+        }
+        connection.close();
+      }
+    };
+  }
+
+  public int pending() {
+    return pending.get();
+  }
+
+  // REPORT
+  //
+  // Add the queue depth and how much has been let in and turned away to
+  // "stats".
+  public void report(Map<String, Long> stats) {
+
+    stats.put("admission.pending", (long) pending.get());
+    stats.put("admission.peakPending", (long) peakPending.get());
+    stats.put("admission.admitted", admitted.get());
+
+    for (int i = 0; i < shed.length; i++) {
+      stats.put("admission.shed" + CLASS_NAMES[i], shed[i].get());
+    }
+
+    stats.put("admission.rejectedConnections", rejectedAddresses.get());
+    stats.put("admission.rejectedWaits", rejectedWaits.get());
+
+    synchronized (open) {
+      stats.put("admission.addresses", (long) open.size());
+    }
+  }
+
+  private void updatePeak(int now) {
+    for (int peak = peakPending.get(); now > peak; peak = peakPending.get()) {
+      if (peakPending.compareAndSet(peak, now)) {
+        return;
+      }
+    }
+  }
+
+  private int limitOf(int requestClass) {
+    if (requestClass == BULK_READ) {
+      return maxPending / 2;
+    }
+    if (requestClass == READ) {
+      return maxPending - maxPending / 4;
+    }
+    // Writes and work that may turn out to be a write.
+    return maxPending;
+  }
+
+  private static int classOf(int type) {
+
+    if (type == NetworkCode.NEW_MESSAGE_REQUEST ||
+        type == NetworkCode.NEW_USER_REQUEST ||
+        type == NetworkCode.NEW_CONVERSATION_REQUEST ||
+        type == NetworkCode.GET_SERVER_STATS_REQUEST) {
+      return WRITE;
+    }
+
+    if (type == NetworkCode.NO_MESSAGE) {
+      return UNREAD;
+    }
+
+    // Requests whose responses grow with everything on the server.
+    if (type == NetworkCode.GET_ALL_CONVERSATIONS_REQUEST ||
+        type == NetworkCode.GET_USERS_EXCLUDING_REQUEST ||
+        type == NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST ||
+        type == NetworkCode.GET_MESSAGES_BY_TIME_REQUEST ||
+        type == NetworkCode.GET_MESSAGES_BY_INDEX_REQUEST ||
+        type == NetworkCode.SEARCH_MESSAGES_REQUEST ||
+        type == NetworkCode.BATCH_REQUEST) {
+      return BULK_READ;
+    }
+
+    return READ;
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Streams;
+import codeu.chat.util.connections.Connection;
+
+// ANSWER
+//
+// A request that came on a connection of its own, answered so that the
+// dispatcher's lock is never held while reading from or writing to the
+// connection: a client that is slow to send or to read would hold up every
+// change. The request is already in memory (see Server.readRequest). Run
+// under the lock, it decodes the request and makes the response into the
+// exchange, which holds it back (see Exchange). "send" sends it once the lock
+// has been let go.
+//
+// A stream (see Streams) is made a chunk at a time instead of all at once, so
+// that it is not all held in memory. "send" takes the read lock again to make
+// each chunk after the first and lets it go to send it, so a stream holds the
+// lock for one chunk of values at a time. Streams are read-only.
+final class Answer implements Runnable {
+
+  private final Exchange exchange;
+  private final Handlers handlers;
+  private final Dispatcher dispatcher;
+
+  private Streams.Writer<?> rest = null;
+  private Exception failed = null;
+
+  public Answer(Exchange exchange, Handlers handlers, Dispatcher dispatcher) {
+    this.exchange = exchange;
+    this.handlers = handlers;
+    this.dispatcher = dispatcher;
+  }
+
+  @Override
+  public void run() {
+    try {
+      final Handler<?, ?> handler = handlers.handlerFor(exchange.type);
+      if (handler == null) {
+        // See Handlers.onMessage.
+        Serializers.writeInt(exchange.out, NetworkCode.NO_MESSAGE);
+      } else {
+        rest = handler.start(exchange.in, exchange.out);
+      }
+    } catch (Exception ex) {
+      failed = ex;
+    }
+  }
+
+  // SEND
+  //
+  // Send the response to "connection". The caller must not hold the lock.
+  public void send(Connection connection) throws Exception {
+
+    if (failed != null) {
+      throw failed;
+    }
+
+    exchange.finish();
+    connection.out().flush();
+
+    while (rest != null) {
+
+      dispatcher.readNow(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            if (!rest.writeChunk(exchange.out)) {
+              rest = null;
+            }
+          } catch (Exception ex) {
+            failed = ex;
+            rest = null;
+          }
+        }
+      });
+
+      if (failed != null) {
+        throw failed;
+      }
+
+      exchange.finish();
+      connection.out().flush();
+    }
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import codeu.chat.common.Generations;
+import codeu.chat.util.Timeline;
+import codeu.chat.util.Uuid;
+
+// CHANGE WAITERS
+//
+// Holds the requests that are waiting for something to change (long polls).
+// A waiting request does not hold a thread. It is answered as soon as a change
+// moves one of its generations on, or when its time runs out, whichever comes
+// first.
+//
+// "add" must be called while holding at least the read lock and "onChange"
+// while holding the write lock. That way no change can happen between a waiter
+// checking the generations and being added. The generations are found under
+// the lock but the callbacks are only run once it has been let go (see
+// Dispatcher.afterUnlock), as answering a client must not hold up changes.
+public final class ChangeWaiters {
+
+  // CALLBACK
+  //
+  // Receives the generations that a waiting request is answered with.
+  public interface Callback {
+    void done(Generations current);
+  }
+
+  private final class Waiter implements Runnable {
+
+    public final Generations known;
+    public final Uuid conversation;
+    public final Callback callback;
+
+    public Waiter(Generations known, Uuid conversation, Callback callback) {
+      this.known = known;
+      this.conversation = conversation;
+      this.callback = callback;
+    }
+
+    // Called by the timeline when the waiter's time is up. The answer is
+    // found on a reader thread so that it is not sent from the timeline.
+    @Override
+    public void run() {
+      dispatcher.read(new Runnable() {
+        @Override
+        public void run() {
+          if (remove(Waiter.this)) {
+            answer(callback, view.getGenerations(conversation));
+          }
+        }
+      });
+    }
+  }
+
+  private final View view;
+  private final Dispatcher dispatcher;
+  private final Timeline timeline;
+
+  private final Set<Waiter> waiters = new LinkedHashSet<>();
+
+  public ChangeWaiters(View view, Dispatcher dispatcher, Timeline timeline) {
+    this.view = view;
+    this.dispatcher = dispatcher;
+    this.timeline = timeline;
+  }
+
+  // ADD
+  //
+  // Answer "callback" once the generations for "conversation" are no longer
+  // "known", or after "timeoutMs". If they have already changed, "callback" is
+  // answered right away.
+  public void add(Generations known, Uuid conversation, long timeoutMs, Callback callback) {
+
+    final Generations current = view.getGenerations(conversation);
+
+    if (!current.equals(known)) {
+      answer(callback, current);
+      return;
+    }
+
+    final Waiter waiter = new Waiter(known, conversation, callback);
+
+    synchronized (waiters) {
+      waiters.add(waiter);
+    }
+
+    timeline.scheduleIn(timeoutMs, waiter);
+  }
+
+  // ON CHANGE
+  //
+  // Answer every waiter whose generations have moved on.
+  public void onChange() {
+
+    synchronized (waiters) {
+
+      final Iterator<Waiter> all = waiters.iterator();
+
+      while (all.hasNext()) {
+
+        final Waiter waiter = all.next();
+        final Generations current = view.getGenerations(waiter.conversation);
+
+        if (!current.equals(waiter.known)) {
+          all.remove();
+          answer(waiter.callback, current);
+        }
+      }
+    }
+  }
+
+  public int size() {
+    synchronized (waiters) {
+      return waiters.size();
+    }
+  }
+
+  // Run "callback" with "current" once the lock has been let go.
+  private void answer(final Callback callback, final Generations current) {
+    dispatcher.afterUnlock(new Runnable() {
+      @Override
+      public void run() {
+        callback.done(current);
+      }
+    });
+  }
+
+  private boolean remove(Waiter waiter) {
+    synchronized (waiters) {
+      return waiters.remove(waiter);
+    }
+  }
+}
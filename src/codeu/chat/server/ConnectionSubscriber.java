@@ -0,0 +1,156 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Frames;
+
+// CONNECTION SUBSCRIBER
+//
+// Sends pushes to a connection from a thread of its own so that a slow client
+// never holds up the changes that cause the pushes. If the client falls too
+// far behind, the connection is closed and the client will have to subscribe
+// again. "serve" runs a subscription that came on a connection of its own.
+final class ConnectionSubscriber implements Subscriptions.Subscriber {
+
+  private static final Logger.Log LOG = Logger.newLog(ConnectionSubscriber.class);
+
+  private static final int MAX_PENDING = 1024;
+
+  // Handed to the sender thread to tell it to stop.
+  private static final byte[] STOP = new byte[0];
+
+  private final Connection connection;
+  private final BlockingQueue<byte[]> pending = new LinkedBlockingQueue<>(MAX_PENDING);
+
+  public ConnectionSubscriber(final Connection connection) {
+
+    this.connection = connection;
+
+    final Thread sender = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (byte[] push = pending.take(); push != STOP; push = pending.take()) {
+            Frames.write(connection.out(), push);
+          }
+        } catch (Exception ex) {
+          LOG.error(ex, "Failed to push to subscriber.");
+          Server.close(connection);
+        }
+      }
+    };
+
+    sender.setDaemon(true);
+    sender.start();
+  }
+
+  @Override
+  public void push(byte[] push) {
+    if (!pending.offer(push)) {
+      LOG.warning("Subscriber is too far behind, closing its connection.");
+      Server.close(connection);
+    }
+  }
+
+  public void stop() {
+    pending.clear();
+    pending.offer(STOP);
+  }
+
+  // START
+  //
+  // Serve a subscription on a thread of its own so that it does not hold up
+  // the timeline.
+  public static void start(final Connection connection,
+                           final Uuid conversation,
+                           final Subscriptions subscriptions,
+                           final Dispatcher dispatcher) {
+
+    final Thread subscription = new Thread() {
+      @Override
+      public void run() {
+        serve(connection, conversation, subscriptions, dispatcher);
+      }
+    };
+
+    subscription.setDaemon(true);
+    subscription.start();
+  }
+
+  // SERVE
+  //
+  // Serve a connection that asked to be pushed changes to "conversation"
+  // instead of polling for them. Once the subscription is confirmed every push
+  // is sent as a frame by a sender thread. The calling thread waits for the
+  // client to close its end of the connection and then ends the subscription.
+  public static void serve(final Connection connection,
+                           final Uuid conversation,
+                           final Subscriptions subscriptions,
+                           Dispatcher dispatcher) {
+
+    ConnectionSubscriber subscriber = null;
+
+    try {
+      final ConnectionSubscriber added = new ConnectionSubscriber(connection);
+      final IOException[] failed = new IOException[1];
+
+      // Nothing is pushed while the read lock is held, so the subscriber is
+      // added and the subscription confirmed before any push can be sent and
+      // no change made after the client hears back can be missed.
+      dispatcher.readNow(new Runnable() {
+        @Override
+        public void run() {
+          subscriptions.add(added, conversation);
+          try {
+            Serializers.writeInt(connection.out(), NetworkCode.SUBSCRIBE_CONVERSATION_RESPONSE);
+            connection.out().flush();
+          } catch (IOException ex) {
+            failed[0] = ex;
+          }
+        }
+      });
+
+      subscriber = added;
+
+      if (failed[0] != null) {
+        throw failed[0];
+      }
+
+      // The client does not send anything else. Reading only stops when it
+      // closes its end or the connection fails.
+      while (connection.in().read() >= 0) { }
+
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while serving subscription.");
+    }
+
+    if (subscriber != null) {
+      subscriptions.remove(subscriber);
+      subscriber.stop();
+    }
+
+    LOG.info("Subscription ended.");
+    Server.close(connection);
+  }
+}
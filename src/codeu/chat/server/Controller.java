@@ -32,17 +32,49 @@ import codeu.chat.util.Uuid;
 public final class Controller implements RawController, BasicController {
   private final static Logger.Log LOG = Logger.newLog(Controller.class);
 
+  // LISTENER
+  //
+  // Told about every user, conversation and message once it has been saved and
+  // added to the model. It is called while the model is being changed, so it
+  // must not block.
+  public interface Listener {
+    void onNewUser(User user);
+    void onNewConversation(Conversation conversation);
+    void onNewMessage(Uuid conversation, Message message);
+
+    // Told when a message already in the model changes. The only thing that
+    // changes is "next", when a message is added after it.
+    void onChangedMessage(Message message);
+  }
+
+  private static final Listener NO_LISTENER = new Listener() {
+    @Override
+    public void onNewUser(User user) { }
+    @Override
+    public void onNewConversation(Conversation conversation) { }
+    @Override
+    public void onNewMessage(Uuid conversation, Message message) { }
+    @Override
+    public void onChangedMessage(Message message) { }
+  };
+
   private final Model model;
   private final Database database;
+  private final Listener listener;
 
   private final Uuid.Generator uuidGenerator;
   public final Uuid serverId;
 
   public Controller(Uuid serverId, Model model, Database database) {
+    this(serverId, model, database, NO_LISTENER);
+  }
+
+  public Controller(Uuid serverId, Model model, Database database, Listener listener) {
     this.model = model;
     this.serverId = serverId;
     this.uuidGenerator = new RandomUuidGenerator(serverId, System.currentTimeMillis());
     this.database = database;
+    this.listener = listener;
   }
 
   @Override
@@ -70,11 +102,12 @@ public final class Controller implements RawController, BasicController {
 
     if (foundUser != null && foundConversation != null && isIdFree(id)) {
 
-      message = new Message(id, Uuid.NULL, Uuid.NULL, creationTime, foundUser.id, body);
+      // The new message goes after the conversation's last message, if any.
+      message = new Message(id, Uuid.NULL, foundConversation.lastMessage, creationTime, foundUser.id, body);
 
       // If saving the message succeeds, add it to the model
       if (database.saveMessage(message, foundConversation.id)) {
-        model.add(message);
+        model.add(foundConversation.id, message);
         LOG.info("Message added: %s", message.id);
 
         // Find and update the previous "last" message so that it's "next" value
@@ -89,6 +122,7 @@ public final class Controller implements RawController, BasicController {
         } else {
           final Message lastMessage = model.messageById().first(foundConversation.lastMessage);
           lastMessage.next = message.id;
+          listener.onChangedMessage(lastMessage);
         }
 
         // If the first message points to NULL it means that the conversation was empty and that
@@ -107,6 +141,8 @@ public final class Controller implements RawController, BasicController {
         if (!foundConversation.users.contains(foundUser)) {
           foundConversation.users.add(foundUser.id);
         }
+
+        listener.onNewMessage(foundConversation.id, message);
       } else {
         message = null;
         LOG.info(
@@ -133,6 +169,7 @@ public final class Controller implements RawController, BasicController {
       // If saving the user succeeds, add it to the model
       if (database.saveUser(user)) {
         model.add(user);
+        listener.onNewUser(user);
 
         LOG.info(
           "newUser success (user.id=%s user.name=%s user.creation=%s)",
@@ -172,6 +209,7 @@ public final class Controller implements RawController, BasicController {
       // If saving the conversation succeeds, add it to the model
       if (database.saveConversation(conversation)) {
         model.add(conversation);
+        listener.onNewConversation(conversation);
 
         LOG.info("Conversation added: " + conversation.id);
       } else {
@@ -298,7 +336,8 @@ public final class Controller implements RawController, BasicController {
         // If the message has a valid user and conversation, add it to the model
         if (foundUser != null && foundConversation != null && isIdFree(messageID)) {
 
-          model.add(new Message(messageID, Uuid.NULL, Uuid.NULL, creation, foundUser.id, content));
+          model.add(foundConversation.id,
+                    new Message(messageID, Uuid.NULL, foundConversation.lastMessage, creation, foundUser.id, content));
 
           // Find and update the previous "last" message so that it's "next" value
           // will point to the new message.
@@ -313,6 +352,7 @@ public final class Controller implements RawController, BasicController {
 
             final Message lastMessage = model.messageById().first(foundConversation.lastMessage);
             lastMessage.next = messageID;
+            listener.onChangedMessage(lastMessage);
 
           }
 
@@ -0,0 +1,241 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import codeu.chat.util.Logger;
+import codeu.chat.util.Timeline;
+
+// DISPATCHER
+//
+// Decides where server work runs. Work that only reads the model runs on a
+// pool of reader threads, so many reads can run at once. Work that changes the
+// model runs on the timeline, so changes happen one at a time and in order.
+//
+// A read/write lock sits between the two. Readers share the lock and the
+// writer takes it for itself, so a reader never sees the model part-way
+// through a change (for example a new message that is in "messageById" but
+// not yet linked from its conversation).
+//
+// Callers that run work on their own threads can use "readNow" and "writeNow"
+// to take the same lock without handing the work off.
+//
+// Nothing that can wait on a client, such as writing to its connection,
+// should run under the lock: one slow client would hold up every change. Work
+// like that goes in the "then" of "read" and "write", or is given to
+// "afterUnlock", and runs once the lock has been let go.
+public final class Dispatcher {
+
+  private final static Logger.Log LOG = Logger.newLog(Dispatcher.class);
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // What each thread has put off with "afterUnlock" until it lets go of the
+  // lock.
+  private final ThreadLocal<List<Runnable>> deferred = new ThreadLocal<List<Runnable>>() {
+    @Override
+    protected List<Runnable> initialValue() {
+      return new ArrayList<>();
+    }
+  };
+
+  private final Timeline writer;
+  private final ExecutorService readers;
+
+  public Dispatcher(Timeline writer, int readerThreads) {
+
+    this.writer = writer;
+    this.readers = Executors.newFixedThreadPool(readerThreads, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        final Thread thread = new Thread(runnable, "reader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  // READ
+  //
+  // Run "task" on a reader thread. It may run at the same time as other reads
+  // but never at the same time as a write.
+  public void read(Runnable task) {
+    read(task, null);
+  }
+
+  // READ
+  //
+  // Run "task" as "read(task)" does, then run "then" on the same thread once
+  // the lock has been let go.
+  public void read(final Runnable task, final Runnable then) {
+    readers.execute(new Runnable() {
+      @Override
+      public void run() {
+        lock.readLock().lock();
+        try {
+          task.run();
+        } catch (Exception ex) {
+          LOG.error(ex, "Exception while reading.");
+        } finally {
+          lock.readLock().unlock();
+        }
+        runAll(takeDeferred(then));
+      }
+    });
+  }
+
+  // WRITE
+  //
+  // Run "task" on the timeline. No reads run while it is running.
+  public void write(Runnable task) {
+    write(task, null);
+  }
+
+  // WRITE
+  //
+  // Run "task" as "write(task)" does, then run "then" on a reader thread,
+  // without the lock, so that the timeline can go on to the next change.
+  public void write(final Runnable task, final Runnable then) {
+    writer.scheduleNow(new Runnable() {
+      @Override
+      public void run() {
+        lock.writeLock().lock();
+        try {
+          task.run();
+        } finally {
+          lock.writeLock().unlock();
+          runOnReader(takeDeferred(then));
+        }
+      }
+    });
+  }
+
+  // READ NOW
+  //
+  // Run "task" on the calling thread while holding the read lock. This is for
+  // callers that already have a thread of their own for the work.
+  public void readNow(Runnable task) {
+    lock.readLock().lock();
+    try {
+      task.run();
+    } finally {
+      lock.readLock().unlock();
+      runAll(takeDeferred(null));
+    }
+  }
+
+  // WRITE NOW
+  //
+  // Run "task" on the calling thread while holding the write lock. Writes from
+  // other threads and from the timeline wait until it is done.
+  public void writeNow(Runnable task) {
+    lock.writeLock().lock();
+    try {
+      task.run();
+    } finally {
+      lock.writeLock().unlock();
+      runAll(takeDeferred(null));
+    }
+  }
+
+  // AFTER UNLOCK
+  //
+  // Run "task" once the calling thread has let go of the lock, or straight
+  // away if it does not hold it. This is for work that is found under the lock
+  // but must not run under it (see ChangeWaiters). It runs on the same thread,
+  // except on the timeline where it runs on a reader thread.
+  public void afterUnlock(Runnable task) {
+    if (holdsLock()) {
+      deferred.get().add(task);
+    } else {
+      after(task);
+    }
+  }
+
+  private boolean holdsLock() {
+    return lock.getReadHoldCount() > 0 || lock.isWriteLockedByCurrentThread();
+  }
+
+  // What "afterUnlock" put off, followed by "then", once the calling thread no
+  // longer holds the lock at all. While it still does (the lock was taken
+  // more than once) nothing is taken.
+  private List<Runnable> takeDeferred(Runnable then) {
+
+    final List<Runnable> tasks = new ArrayList<>();
+
+    if (holdsLock()) {
+      if (then != null) {
+        deferred.get().add(then);
+      }
+      return tasks;
+    }
+
+    tasks.addAll(deferred.get());
+    deferred.get().clear();
+
+    if (then != null) {
+      tasks.add(then);
+    }
+
+    return tasks;
+  }
+
+  private static void runAll(List<Runnable> tasks) {
+    for (final Runnable task : tasks) {
+      after(task);
+    }
+  }
+
+  private void runOnReader(final List<Runnable> tasks) {
+
+    if (tasks.isEmpty()) {
+      return;
+    }
+
+    try {
+      readers.execute(new Runnable() {
+        @Override
+        public void run() {
+          runAll(tasks);
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      runAll(tasks);  // Stopped, so there are no other changes to hold up.
+    }
+  }
+
+  private static void after(Runnable task) {
+    try {
+      task.run();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception after letting go of the lock.");
+    }
+  }
+
+  // STOP
+  //
+  // Stop the reader threads. Reads that have not started will not run. The
+  // timeline is not stopped as it is owned by the caller.
+  public void stop() {
+    readers.shutdownNow();
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
+
+// ENCODED CACHE
+//
+// Keeps the encoded bytes of values that seldom change, by id, so that
+// sending one again is a copy of its bytes instead of encoding it field by
+// field. The least recently sent values are dropped once the cache is full.
+// Whoever changes a value that may be cached must call "invalidate" for it,
+// and must not do so while the value is being written. The server only
+// changes values while no request is being answered (see Dispatcher).
+//
+// The bytes are kept for each wire version (see Wire) a value is sent in, but
+// only for versions where a value stands on its own (see
+// Wire.Context.standsAlone): version 1 and version 5 on. In versions 2 to 4
+// how a value is written depends on what was written before it on the same
+// stream (times are deltas and Uuids refer back to earlier ones), so the same
+// value has different bytes in different responses. Those are written as
+// normal.
+//
+// Safe to use from many threads at once.
+public final class EncodedCache<T> {
+
+  public static final int DEFAULT_MAX_SIZE = 10000;
+
+  // KEY
+  //
+  // The id a value is cached under.
+  public interface Key<T> {
+    Uuid of(T value);
+  }
+
+  private final Serializer<T> serializer;
+  private final Key<T> key;
+  // The bytes of each value by id, then by version. A version the value has
+  // not been sent in yet is null.
+  private final Map<Uuid, byte[][]> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private final Serializer<T> cached = new Serializer<T>() {
+
+    @Override
+    public void write(OutputStream out, T value) throws IOException {
+
+      final int version = Wire.version(out);
+
+      if (!Wire.Context.standsAlone(version)) {
+        serializer.write(out, value);
+        return;
+      }
+
+      final Uuid id = key.of(value);
+
+      byte[] bytes;
+      synchronized (entries) {
+        final byte[][] versions = entries.get(id);
+        bytes = versions == null ? null : versions[version];
+      }
+
+      if (bytes == null) {
+        misses.incrementAndGet();
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        serializer.write(Wire.out(encoded, version), value);
+        bytes = encoded.toByteArray();
+        synchronized (entries) {
+          byte[][] versions = entries.get(id);
+          if (versions == null) {
+            versions = new byte[Wire.NEWEST + 1][];
+            entries.put(id, versions);
+          }
+          versions[version] = bytes;
+        }
+      } else {
+        hits.incrementAndGet();
+      }
+
+      out.write(bytes);
+    }
+
+    @Override
+    public T read(InputStream in) throws IOException {
+      return serializer.read(in);
+    }
+  };
+
+  public EncodedCache(Serializer<T> serializer, Key<T> key) {
+    this(serializer, key, DEFAULT_MAX_SIZE);
+  }
+
+  public EncodedCache(Serializer<T> serializer, Key<T> key, final int maxSize) {
+    this.serializer = serializer;
+    this.key = key;
+    this.entries = new LinkedHashMap<Uuid, byte[][]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Uuid, byte[][]> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  // SERIALIZER
+  //
+  // Writes the same bytes as the serializer the cache was made with, taking
+  // them from the cache when it can.
+  public Serializer<T> serializer() {
+    return cached;
+  }
+
+  // INVALIDATE
+  //
+  // Forget the bytes for the value with "id", in every version, as the value
+  // has changed.
+  public void invalidate(Uuid id) {
+    synchronized (entries) {
+      entries.remove(id);
+    }
+  }
+
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  // REPORT
+  //
+  // Add the hits, misses and size of the cache to "stats" under "name".
+  public void report(String name, Map<String, Long> stats) {
+    stats.put(name + ".hits", hits.get());
+    stats.put(name + ".misses", misses.get());
+    stats.put(name + ".size", (long) size());
+  }
+}
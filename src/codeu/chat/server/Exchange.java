@@ -0,0 +1,171 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Deflation;
+import codeu.chat.util.Limits;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Wire;
+
+// EXCHANGE
+//
+// The type of a request and the streams to read the rest of it from and to
+// write its response to, in the wire version the client asked for (see
+// Wire). A request that does not start with VERSIONED_REQUEST is version 1.
+//
+// If the client accepts deflated responses, the response is held back until
+// "finish" so that it can be deflated if it is big enough (see Deflation).
+// Responses that are streamed or that keep the connection open are never
+// deflated. An exchange can also hold back every response, so that it can be
+// made under the dispatcher's lock and sent once the lock has been let go.
+final class Exchange {
+
+  private static final Logger.Log LOG = Logger.newLog(Exchange.class);
+
+  public final int type;
+  public final InputStream in;
+  public final OutputStream out;
+
+  // Where a held back response goes once it is finished. Null if the
+  // response is not held back. "deflation" is null if it is not deflated.
+  private final OutputStream destination;
+  private final ByteArrayOutputStream held;
+  private final Deflation deflation;
+
+  private Exchange(int type, InputStream in, OutputStream out) {
+    this(type, in, out, null, null, null);
+  }
+
+  private Exchange(int type,
+                   InputStream in,
+                   OutputStream out,
+                   OutputStream destination,
+                   ByteArrayOutputStream held,
+                   Deflation deflation) {
+    this.type = type;
+    this.in = in;
+    this.out = out;
+    this.destination = destination;
+    this.held = held;
+    this.deflation = deflation;
+  }
+
+  // OPEN
+  //
+  // Read the start of a request from "in". For a versioned request, the
+  // header of the response is written to "out" straight away. If the client
+  // asked for a version this server does not know, the header carries the
+  // newest version it does know instead, that is the whole response and
+  // null is returned. Responses are only deflated if "deflation" is not
+  // null. What is read from the request is checked against Limits.REQUESTS.
+  public static Exchange open(InputStream in, OutputStream out, Deflation deflation)
+      throws IOException {
+    return open(in, out, deflation, false);
+  }
+
+  // OPEN
+  //
+  // The same as "open(in, out, deflation)", but if "hold" is set the
+  // response is always held back until "finish", even when it is not
+  // deflated.
+  public static Exchange open(InputStream in, OutputStream out, Deflation deflation, boolean hold)
+      throws IOException {
+
+    final int type = Serializers.readInt(in);
+
+    if (type != NetworkCode.VERSIONED_REQUEST) {
+      final InputStream limitedIn = Wire.in(in, Wire.V1, Limits.REQUESTS);
+      if (!hold) {
+        return new Exchange(type, limitedIn, out);
+      }
+      final ByteArrayOutputStream held = new ByteArrayOutputStream();
+      return new Exchange(type, limitedIn, held, out, held, null);
+    }
+
+    final int version = Serializers.readInt(in);
+
+    Serializers.writeInt(out, NetworkCode.VERSIONED_RESPONSE);
+
+    if (!Wire.supports(version)) {
+      LOG.warning("Client asked for wire version %d.", version);
+      Serializers.writeInt(out, Wire.NEWEST);
+      return null;
+    }
+
+    Serializers.writeInt(out, version);
+
+    final int flags = version >= Wire.V4 ? Serializers.readInt(in) : 0;
+
+    final InputStream versionedIn = Wire.in(in, version, Limits.REQUESTS);
+    final int versionedType = Serializers.readInt(versionedIn);
+
+    final boolean deflate =
+        deflation != null && (flags & Wire.ACCEPT_DEFLATE) != 0 && canHoldBack(versionedType);
+
+    if (!deflate && !hold) {
+      return new Exchange(versionedType, versionedIn, Wire.out(out, version));
+    }
+
+    final ByteArrayOutputStream held = new ByteArrayOutputStream();
+    return new Exchange(versionedType,
+                        versionedIn,
+                        Wire.out(held, version),
+                        Wire.out(out, version),
+                        held,
+                        deflate ? deflation : null);
+  }
+
+  private static boolean canHoldBack(int type) {
+    return type != NetworkCode.SESSION_START_REQUEST &&
+           type != NetworkCode.PIPELINE_START_REQUEST &&
+           type != NetworkCode.SUBSCRIBE_CONVERSATION_REQUEST &&
+           type != NetworkCode.WAIT_FOR_CHANGE_REQUEST &&
+           type != NetworkCode.STREAM_ALL_CONVERSATIONS_REQUEST &&
+           type != NetworkCode.STREAM_MESSAGES_BY_TIME_REQUEST;
+  }
+
+  // FINISH
+  //
+  // Send what has been held back of the response, deflated if that makes it
+  // smaller. A response that is not deflated can be sent in parts, calling
+  // "finish" after each one.
+  public void finish() throws IOException {
+
+    if (held == null) {
+      return;
+    }
+
+    final byte[] response = held.toByteArray();
+    held.reset();
+
+    final byte[] deflated = deflation == null ? null : deflation.deflate(response, 0, response.length);
+
+    if (deflated == null) {
+      destination.write(response);
+    } else {
+      Serializers.writeInt(destination, NetworkCode.DEFLATED_RESPONSE);
+      Serializers.writeInt(destination, response.length);
+      Serializers.writeInt(destination, deflated.length);
+      destination.write(deflated);
+    }
+  }
+}
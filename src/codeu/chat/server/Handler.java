@@ -0,0 +1,207 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.util.Codec;
+import codeu.chat.util.Codecs;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Streams;
+import codeu.chat.util.Wire;
+
+// HANDLER
+//
+// How the server answers one type of request: how the rest of the request is
+// read ("request"), what it does with it ("handle") and how the answer is
+// written ("response"). A handler is either read-only, and may run alongside
+// other read-only handlers, or mutating, and runs on its own (see Dispatcher).
+// The request is described by a codec so that its length can be found before
+// it is read (see "requestLength").
+//
+// Every handler counts how many times it has run and how long it took, from
+// reading the request to writing the last of the response it wrote itself (see
+// "start" for responses that are written in parts).
+abstract class Handler<Q, R> {
+
+  // For requests that have nothing after their type.
+  static final Codec<Void> NOTHING = new Codec<Void>() {
+
+    @Override
+    public void write(ByteBuffer out, Void value, Wire.Context context) { }
+
+    @Override
+    public Void read(ByteBuffer in, Wire.Context context) { return null; }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) { return 0; }
+  };
+
+  public static final boolean READ_ONLY = true;
+  public static final boolean MUTATING = false;
+
+  public final String name;
+  public final int requestType;
+  public final int responseType;
+  public final boolean readOnly;
+
+  private final Codec<Q> request;
+  private final Serializer<Q> requestReader;
+  private final Serializer<R> response;
+
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong nanos = new AtomicLong();
+
+  Handler(String name,
+          int requestType,
+          int responseType,
+          boolean readOnly,
+          Codec<Q> request,
+          Serializer<R> response) {
+    this.name = name;
+    this.requestType = requestType;
+    this.responseType = responseType;
+    this.readOnly = readOnly;
+    this.request = request;
+    this.requestReader = Codecs.serializer(request);
+    this.response = response;
+  }
+
+  // HANDLE
+  //
+  // Call the View or Controller with the request and return what should be
+  // sent back. The caller holds the dispatcher's lock that "readOnly" asks for.
+  abstract R handle(Q request);
+
+  // REQUEST LENGTH
+  //
+  // The length of the rest of the request at the position of "in", after its
+  // type, in the same way as Codec.length.
+  public final int requestLength(ByteBuffer in, Wire.Context context) throws IOException {
+    return request.length(in, context);
+  }
+
+  // RUN
+  //
+  // Read the request from "in", handle it and write the response to "out".
+  public final void run(InputStream in, OutputStream out) throws IOException {
+
+    final long start = System.nanoTime();
+
+    final Streams.Writer<?> rest = begin(in, out);
+
+    while (rest != null && rest.writeChunk(out)) {
+      // Every chunk goes to the same stream.
+    }
+
+    count.incrementAndGet();
+    nanos.addAndGet(System.nanoTime() - start);
+  }
+
+  // START
+  //
+  // The same as "run", except that a response that is a stream (see Streams)
+  // is only written up to the end of its first chunk. The rest is returned to
+  // be written a chunk at a time, or null if there is no rest. The caller must
+  // hold the dispatcher's lock while each chunk is written, but need not hold
+  // it between chunks (the View's streams see what was added in between). Only
+  // the time to the end of the first chunk is counted.
+  public final Streams.Writer<?> start(InputStream in, OutputStream out) throws IOException {
+
+    final long start = System.nanoTime();
+
+    final Streams.Writer<?> rest = begin(in, out);
+
+    count.incrementAndGet();
+    nanos.addAndGet(System.nanoTime() - start);
+
+    return rest;
+  }
+
+  private Streams.Writer<?> begin(InputStream in, OutputStream out) throws IOException {
+    return answer(requestReader.read(in), out);
+  }
+
+  // ANSWER
+  //
+  // Handle "request" and write the response to "out" in the same way as
+  // "start". Only handlers that write their answer themselves override it
+  // (see IntHandler).
+  @SuppressWarnings("unchecked")
+  Streams.Writer<?> answer(Q request, OutputStream out) throws IOException {
+
+    final R answer = handle(request);
+
+    Serializers.writeInt(out, responseType);
+
+    if (!(response instanceof Streams.StreamSerializer)) {
+      response.write(out, answer);
+      return null;
+    }
+
+    final Streams.Writer<?> rest =
+        ((Streams.StreamSerializer<Object>) response).writer((Iterator<Object>) answer);
+
+    return rest.writeChunk(out) ? rest : null;
+  }
+
+  // REPORT
+  //
+  // Add how many times the handler ran and how long it took in total to
+  // "stats".
+  public void report(Map<String, Long> stats) {
+    stats.put("requests." + name + ".count", count.get());
+    stats.put("requests." + name + ".micros", nanos.get() / 1000);
+  }
+
+  // INT HANDLER
+  //
+  // A handler whose answer is one int, written without boxing it.
+  abstract static class IntHandler<Q> extends Handler<Q, Void> {
+
+    IntHandler(String name,
+               int requestType,
+               int responseType,
+               boolean readOnly,
+               Codec<Q> request) {
+      super(name, requestType, responseType, readOnly, request, null);
+    }
+
+    // HANDLE INT
+    //
+    // The same as "handle", for the int that is sent back.
+    abstract int handleInt(Q request);
+
+    @Override
+    final Void handle(Q request) {
+      throw new UnsupportedOperationException("IntHandler answers with handleInt");
+    }
+
+    @Override
+    final Streams.Writer<?> answer(Q request, OutputStream out) throws IOException {
+      final int answer = handleInt(request);
+      Serializers.writeInt(out, responseType);
+      Serializers.writeInt(out, answer);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,471 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Codecs;
+import codeu.chat.util.Limits;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Streams;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
+
+// HANDLERS
+//
+// Every request the server answers through "onMessage", indexed by request
+// type. Requests that keep the connection open (sessions, pipelines,
+// subscriptions and waits) are not in it as the server answers them before
+// they get that far.
+final class Handlers {
+
+  private static final Logger.Log LOG = Logger.newLog(Handlers.class);
+
+  // LISTENER
+  //
+  // What the handlers hand back to the server.
+  interface Listener {
+
+    // ON NEW MESSAGE
+    //
+    // Called for every message a client adds, with its author and
+    // conversation. The caller holds the dispatcher's write lock.
+    void onNewMessage(User author, Conversation conversation, Message message);
+
+    // REPORT
+    //
+    // Add the server's own numbers to "stats" for GET_SERVER_STATS. The
+    // handlers' numbers are added after them.
+    void report(Map<String, Long> stats);
+
+  }
+
+  private final View view;
+  private final Controller controller;
+  private final EncodedCache<User> userCache;
+  private final EncodedCache<ConversationSummary> summaryCache;
+  private final EncodedCache<Message> messageCache;
+  private final Listener listener;
+
+  private final Handler<?, ?>[] handlers;
+
+  public Handlers(View view,
+                  Controller controller,
+                  EncodedCache<User> userCache,
+                  EncodedCache<ConversationSummary> summaryCache,
+                  EncodedCache<Message> messageCache,
+                  Listener listener) {
+    this.view = view;
+    this.controller = controller;
+    this.userCache = userCache;
+    this.summaryCache = summaryCache;
+    this.messageCache = messageCache;
+    this.listener = listener;
+    this.handlers = make();
+  }
+
+  public Handler<?, ?> handlerFor(int type) {
+    return type >= 0 && type < handlers.length ? handlers[type] : null;
+  }
+
+  // A type without a handler is answered with NO_MESSAGE, which changes
+  // nothing, but only NO_MESSAGE itself is run as a read.
+  public boolean isReadOnly(int type) {
+    final Handler<?, ?> handler = handlerFor(type);
+    return handler == null ? type == NetworkCode.NO_MESSAGE : handler.readOnly;
+  }
+
+  // ON MESSAGE
+  //
+  // Every request is read in full before anything is changed, so a request
+  // whose bytes run out part way through (a session or pipeline frame that is
+  // too short) fails to read and has had no effect.
+  public boolean onMessage(int type, InputStream in, OutputStream out) throws IOException {
+
+    final Handler<?, ?> handler = handlerFor(type);
+
+    if (handler == null) {
+      // In the case that the message was not handled make a dummy message with
+      // the type "NO_MESSAGE" so that the client still gets something.
+      Serializers.writeInt(out, NetworkCode.NO_MESSAGE);
+    } else {
+      handler.run(in, out);
+    }
+
+    return true;
+  }
+
+  // RESPOND IN BATCH
+  //
+  // Handle one request from a batch. A batch is handled as a read, so only
+  // read-only requests are allowed in it. Anything else, including a batch
+  // inside a batch or a request that is cut short, gets NO_MESSAGE. The
+  // request and its response are in wire version "version".
+  private byte[] respondInBatch(byte[] request, int version) {
+
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    final OutputStream out = Wire.out(response, version);
+
+    try {
+      final InputStream in = Wire.in(new RequestInputStream(request), version, Limits.REQUESTS);
+      final int type = Serializers.readInt(in);
+
+      if (type == NetworkCode.BATCH_REQUEST || !isReadOnly(type)) {
+        LOG.warning("Request type %d is not allowed in a batch.", type);
+        Serializers.writeInt(out, NetworkCode.NO_MESSAGE);
+      } else {
+        onMessage(type, in, out);
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while handling request in batch.");
+      response.reset();
+      try {
+        Serializers.writeInt(Wire.out(response, version), NetworkCode.NO_MESSAGE);
+      } catch (IOException writeEx) {
+        // Writing to memory can not fail.
+      }
+    }
+
+    return response.toByteArray();
+  }
+
+  // REPORT
+  //
+  // Add how many times each handler ran and how long it took to "stats".
+  private void report(Map<String, Long> stats) {
+    for (final Handler<?, ?> handler : handlers) {
+      if (handler != null) {
+        handler.report(stats);
+      }
+    }
+  }
+
+  // MAKE
+  //
+  // Make every handler and index them by request type.
+  private Handler<?, ?>[] make() {
+
+    final List<Handler<?, ?>> all = new ArrayList<>();
+
+    all.add(new Handler<Requests.NewMessage, Message>(
+        "newMessage",
+        NetworkCode.NEW_MESSAGE_REQUEST,
+        NetworkCode.NEW_MESSAGE_RESPONSE,
+        Handler.MUTATING,
+        Requests.NewMessage.CODEC,
+        Serializers.nullable(Message.SERIALIZER)) {
+      @Override
+      Message handle(Requests.NewMessage request) {
+
+        final Message message = controller.newMessage(request.author, request.conversation, request.content);
+
+        if (message != null) {
+          // Look everything up now, while the lock is held, as the listener
+          // may use them later when other threads may be changing the model.
+          listener.onNewMessage(
+              view.findUser(request.author),
+              view.findConversation(request.conversation),
+              message);
+        }
+
+        return message;
+      }
+    });
+
+    all.add(new Handler<String, User>(
+        "newUser",
+        NetworkCode.NEW_USER_REQUEST,
+        NetworkCode.NEW_USER_RESPONSE,
+        Handler.MUTATING,
+        Codecs.STRING,
+        Serializers.nullable(User.SERIALIZER)) {
+      @Override
+      User handle(String name) {
+        return controller.newUser(name);
+      }
+    });
+
+    all.add(new Handler<Requests.NewConversation, Conversation>(
+        "newConversation",
+        NetworkCode.NEW_CONVERSATION_REQUEST,
+        NetworkCode.NEW_CONVERSATION_RESPONSE,
+        Handler.MUTATING,
+        Requests.NewConversation.CODEC,
+        Serializers.nullable(Conversation.SERIALIZER)) {
+      @Override
+      Conversation handle(Requests.NewConversation request) {
+        return controller.newConversation(request.title, request.owner);
+      }
+    });
+
+    all.add(new Handler<Collection<Uuid>, Collection<User>>(
+        "getUsersById",
+        NetworkCode.GET_USERS_BY_ID_REQUEST,
+        NetworkCode.GET_USERS_BY_ID_RESPONSE,
+        Handler.READ_ONLY,
+        Codecs.collection(Uuid.CODEC),
+        Serializers.collection(userCache.serializer())) {
+      @Override
+      Collection<User> handle(Collection<Uuid> ids) {
+        return view.getUsers(ids);
+      }
+    });
+
+    all.add(new Handler<Void, Collection<ConversationSummary>>(
+        "getAllConversations",
+        NetworkCode.GET_ALL_CONVERSATIONS_REQUEST,
+        NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE,
+        Handler.READ_ONLY,
+        Handler.NOTHING,
+        Serializers.collection(summaryCache.serializer())) {
+      @Override
+      Collection<ConversationSummary> handle(Void request) {
+        return view.getAllConversations();
+      }
+    });
+
+    all.add(new Handler<Collection<Uuid>, Collection<Conversation>>(
+        "getConversationsById",
+        NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST,
+        NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE,
+        Handler.READ_ONLY,
+        Codecs.collection(Uuid.CODEC),
+        Serializers.collection(Conversation.SERIALIZER)) {
+      @Override
+      Collection<Conversation> handle(Collection<Uuid> ids) {
+        return view.getConversations(ids);
+      }
+    });
+
+    all.add(new Handler<Collection<Uuid>, Collection<Message>>(
+        "getMessagesById",
+        NetworkCode.GET_MESSAGES_BY_ID_REQUEST,
+        NetworkCode.GET_MESSAGES_BY_ID_RESPONSE,
+        Handler.READ_ONLY,
+        Codecs.collection(Uuid.CODEC),
+        Serializers.collection(messageCache.serializer())) {
+      @Override
+      Collection<Message> handle(Collection<Uuid> ids) {
+        return view.getMessages(ids);
+      }
+    });
+
+    all.add(new Handler<Void, Uuid>(
+        "getUserGeneration",
+        NetworkCode.GET_USER_GENERATION_REQUEST,
+        NetworkCode.GET_USER_GENERATION_RESPONSE,
+        Handler.READ_ONLY,
+        Handler.NOTHING,
+        Uuid.SERIALIZER) {
+      @Override
+      Uuid handle(Void request) {
+        return view.getUserGeneration();
+      }
+    });
+
+    all.add(new Handler<Collection<Uuid>, Collection<User>>(
+        "getUsersExcluding",
+        NetworkCode.GET_USERS_EXCLUDING_REQUEST,
+        NetworkCode.GET_USERS_EXCLUDING_RESPONSE,
+        Handler.READ_ONLY,
+        Codecs.collection(Uuid.CODEC),
+        Serializers.collection(userCache.serializer())) {
+      @Override
+      Collection<User> handle(Collection<Uuid> ids) {
+        return view.getUsersExcluding(ids);
+      }
+    });
+
+    all.add(new Handler<Requests.TimeRange, Collection<Conversation>>(
+        "getConversationsByTime",
+        NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST,
+        NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE,
+        Handler.READ_ONLY,
+        Requests.TimeRange.CODEC,
+        Serializers.collection(Conversation.SERIALIZER)) {
+      @Override
+      Collection<Conversation> handle(Requests.TimeRange request) {
+        return view.getConversations(request.start, request.end);
+      }
+    });
+
+    all.add(new Handler<String, Collection<Conversation>>(
+        "getConversationsByTitle",
+        NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST,
+        NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE,
+        Handler.READ_ONLY,
+        Codecs.STRING,
+        Serializers.collection(Conversation.SERIALIZER)) {
+      @Override
+      Collection<Conversation> handle(String filter) {
+        return view.getConversations(filter);
+      }
+    });
+
+    all.add(new Handler<Requests.MessagesByTime, Collection<Message>>(
+        "getMessagesByTime",
+        NetworkCode.GET_MESSAGES_BY_TIME_REQUEST,
+        NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE,
+        Handler.READ_ONLY,
+        Requests.MessagesByTime.CODEC,
+        Serializers.collection(messageCache.serializer())) {
+      @Override
+      Collection<Message> handle(Requests.MessagesByTime request) {
+        return view.getMessages(request.conversation, request.start, request.end);
+      }
+    });
+
+    all.add(new Handler<Requests.MessagesByRange, Collection<Message>>(
+        "getMessagesByRange",
+        NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST,
+        NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE,
+        Handler.READ_ONLY,
+        Requests.MessagesByRange.CODEC,
+        Serializers.collection(messageCache.serializer())) {
+      @Override
+      Collection<Message> handle(Requests.MessagesByRange request) {
+        return view.getMessages(request.root, request.range);
+      }
+    });
+
+    all.add(new Handler<Requests.MessagesByIndex, Collection<Message>>(
+        "getMessagesByIndex",
+        NetworkCode.GET_MESSAGES_BY_INDEX_REQUEST,
+        NetworkCode.GET_MESSAGES_BY_INDEX_RESPONSE,
+        Handler.READ_ONLY,
+        Requests.MessagesByIndex.CODEC,
+        Serializers.collection(messageCache.serializer())) {
+      @Override
+      Collection<Message> handle(Requests.MessagesByIndex request) {
+        return view.getMessages(request.conversation, request.offset, request.count);
+      }
+    });
+
+    all.add(new Handler.IntHandler<Uuid>(
+        "getMessageCount",
+        NetworkCode.GET_MESSAGE_COUNT_REQUEST,
+        NetworkCode.GET_MESSAGE_COUNT_RESPONSE,
+        Handler.READ_ONLY,
+        Uuid.CODEC) {
+      @Override
+      int handleInt(Uuid conversation) {
+        return view.getMessageCount(conversation);
+      }
+    });
+
+    all.add(new Handler<Requests.SearchMessages, Collection<Message>>(
+        "searchMessages",
+        NetworkCode.SEARCH_MESSAGES_REQUEST,
+        NetworkCode.SEARCH_MESSAGES_RESPONSE,
+        Handler.READ_ONLY,
+        Requests.SearchMessages.CODEC,
+        Serializers.collection(messageCache.serializer())) {
+      @Override
+      Collection<Message> handle(Requests.SearchMessages request) {
+        return view.searchMessages(request.conversation, request.query, request.limit);
+      }
+    });
+
+    // Streamed values are written straight out of the model. On a connection
+    // of its own the lock is only held while each chunk is made (see Answer);
+    // the View's streams go on from where they were after it is let go.
+
+    all.add(new Handler<Void, Iterator<ConversationSummary>>(
+        "streamAllConversations",
+        NetworkCode.STREAM_ALL_CONVERSATIONS_REQUEST,
+        NetworkCode.STREAM_ALL_CONVERSATIONS_RESPONSE,
+        Handler.READ_ONLY,
+        Handler.NOTHING,
+        Streams.serializer(summaryCache.serializer())) {
+      @Override
+      Iterator<ConversationSummary> handle(Void request) {
+        return view.streamAllConversations();
+      }
+    });
+
+    all.add(new Handler<Requests.MessagesByTime, Iterator<Message>>(
+        "streamMessagesByTime",
+        NetworkCode.STREAM_MESSAGES_BY_TIME_REQUEST,
+        NetworkCode.STREAM_MESSAGES_BY_TIME_RESPONSE,
+        Handler.READ_ONLY,
+        Requests.MessagesByTime.CODEC,
+        Streams.serializer(messageCache.serializer())) {
+      @Override
+      Iterator<Message> handle(Requests.MessagesByTime request) {
+        return view.streamMessages(request.conversation, request.start, request.end);
+      }
+    });
+
+    all.add(new Handler<Requests.Batch, Collection<byte[]>>(
+        "batch",
+        NetworkCode.BATCH_REQUEST,
+        NetworkCode.BATCH_RESPONSE,
+        Handler.READ_ONLY,
+        Requests.Batch.CODEC,
+        Serializers.collection(Serializers.BYTES)) {
+      @Override
+      Collection<byte[]> handle(Requests.Batch batch) {
+        final Collection<byte[]> responses = new ArrayList<>();
+        for (final byte[] request : batch.requests) {
+          responses.add(respondInBatch(request, batch.version));
+        }
+        return responses;
+      }
+    });
+
+    all.add(new Handler<Void, Map<String, Long>>(
+        "getServerStats",
+        NetworkCode.GET_SERVER_STATS_REQUEST,
+        NetworkCode.GET_SERVER_STATS_RESPONSE,
+        Handler.READ_ONLY,
+        Handler.NOTHING,
+        Serializers.map(Serializers.STRING, Serializers.LONG)) {
+      @Override
+      Map<String, Long> handle(Void request) {
+        final Map<String, Long> stats = new LinkedHashMap<>();
+        listener.report(stats);
+        report(stats);
+        return stats;
+      }
+    });
+
+    int size = 0;
+    for (final Handler<?, ?> handler : all) {
+      size = Math.max(size, handler.requestType + 1);
+    }
+
+    final Handler<?, ?>[] table = new Handler<?, ?>[size];
+    for (final Handler<?, ?> handler : all) {
+      table[handler.requestType] = handler;
+    }
+
+    return table;
+  }
+}
@@ -0,0 +1,158 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.Comparator;
+
+import codeu.chat.util.Uuid;
+import codeu.chat.util.store.Store;
+import codeu.chat.util.store.StoreAccessor;
+
+// ID STORE
+//
+// A store keyed by id that finds "first(id)" without walking a tree. Ids are
+// looked up many times for each one inserted - once for every message a
+// conversation walk passes - and comparing two Uuids in a tree means walking
+// both root chains each time.
+//
+// Besides the store, which keeps every value in id order for "all" and the
+// ranges, the first value of each id is kept in an open addressing hash table.
+// The table is probed on the id's own int (see Uuid.id), which is already
+// random for ids made by a server and is mixed for ids that count up. Only
+// when the int matches are the two Uuids compared in full, so ids from other
+// servers share the table with this server's ids. A lookup does not allocate.
+final class IdStore<VALUE> implements StoreAccessor<Uuid, VALUE> {
+
+  private static final int FIRST_CAPACITY = 16;
+
+  private final Store<Uuid, VALUE> store;
+
+  // The table. A slot is empty when its key is null. "ids" repeats the int of
+  // each key so that probing does not have to follow the key.
+  private int[] ids = new int[FIRST_CAPACITY];
+  private Uuid[] keys = new Uuid[FIRST_CAPACITY];
+  private Object[] values = new Object[FIRST_CAPACITY];
+  private int size = 0;
+
+  IdStore(Comparator<Uuid> comparator) {
+    this.store = new Store<>(comparator);
+  }
+
+  public void insert(Uuid key, VALUE value) {
+
+    store.insert(key, value);
+
+    // Like the store, the table only answers with the first value of an id.
+    if (key == null || find(key) >= 0) {
+      return;
+    }
+
+    // Keep the table at most half full so probes stay short.
+    if (2 * (size + 1) > keys.length) {
+      grow();
+    }
+
+    put(ids, keys, values, key, value);
+    size++;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public VALUE first(Uuid key) {
+    if (key == null) {
+      return store.first(null);
+    }
+    final int slot = find(key);
+    return slot < 0 ? null : (VALUE) values[slot];
+  }
+
+  @Override
+  public Iterable<VALUE> at(Uuid key) {
+    return store.at(key);
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return store.all();
+  }
+
+  @Override
+  public Iterable<VALUE> after(Uuid start) {
+    return store.after(start);
+  }
+
+  @Override
+  public Iterable<VALUE> before(Uuid end) {
+    return store.before(end);
+  }
+
+  @Override
+  public Iterable<VALUE> range(Uuid start, Uuid end) {
+    return store.range(start, end);
+  }
+
+  // The slot that holds "key", or -1 if it is not in the table.
+  private int find(Uuid key) {
+
+    final int id = key.id();
+    final int mask = keys.length - 1;
+
+    for (int slot = hash(id) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+      if (ids[slot] == id && Uuid.equals(keys[slot], key)) {
+        return slot;
+      }
+    }
+
+    return -1;
+  }
+
+  private void grow() {
+
+    final int[] oldIds = ids;
+    final Uuid[] oldKeys = keys;
+    final Object[] oldValues = values;
+
+    ids = new int[oldKeys.length * 2];
+    keys = new Uuid[oldKeys.length * 2];
+    values = new Object[oldKeys.length * 2];
+
+    for (int slot = 0; slot < oldKeys.length; slot++) {
+      if (oldKeys[slot] != null) {
+        put(ids, keys, values, oldKeys[slot], oldValues[slot]);
+      }
+    }
+  }
+
+  // Put "key" in the first empty slot of its probe sequence. The key must not
+  // already be in the table.
+  private static void put(int[] ids, Uuid[] keys, Object[] values, Uuid key, Object value) {
+
+    final int mask = keys.length - 1;
+
+    int slot = hash(key.id()) & mask;
+    while (keys[slot] != null) {
+      slot = (slot + 1) & mask;
+    }
+
+    ids[slot] = key.id();
+    keys[slot] = key;
+    values[slot] = value;
+  }
+
+  // Spread ids that count up (see LinearUuidGenerator) across the table.
+  private static int hash(int id) {
+    final int h = id * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
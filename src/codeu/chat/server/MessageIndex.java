@@ -0,0 +1,103 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+
+// MESSAGE INDEX
+//
+// The messages of one conversation in the order they were added, so that a
+// message can be found by its position, and an index of their creation times
+// so that the first message in a time range can be found without looking at
+// every message before it.
+//
+// Messages are usually added in the order they were created, but ones from a
+// relay or another server can be older than the messages before them. So the
+// index does not hold each message's own time, it holds the latest time of
+// any message up to and including it. That never goes down, so it can be
+// binary searched, and the first position where it reaches a time is the
+// first message created at or after that time - the message a walk from the
+// start of the conversation would stop at.
+final class MessageIndex {
+
+  private static final int FIRST_CAPACITY = 8;
+
+  private Message[] messages = new Message[FIRST_CAPACITY];
+  private long[] latest = new long[FIRST_CAPACITY];
+  private int size = 0;
+
+  // A view of the messages that does not copy them. It sees messages added
+  // after it was made.
+  private final List<Message> list = new AbstractList<Message>() {
+
+    @Override
+    public Message get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+      }
+      return messages[index];
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  };
+
+  public void add(Message message) {
+
+    if (size == messages.length) {
+      messages = Arrays.copyOf(messages, size * 2);
+      latest = Arrays.copyOf(latest, size * 2);
+    }
+
+    final long creation = message.creation.inMs();
+
+    messages[size] = message;
+    latest[size] = size == 0 ? creation : Math.max(latest[size - 1], creation);
+    size++;
+  }
+
+  public List<Message> messages() {
+    return list;
+  }
+
+  // FIRST FROM
+  //
+  // The position of the first message created at or after "start", or the
+  // number of messages if there is none.
+  public int firstFrom(Time start) {
+
+    final long ms = start.inMs();
+
+    int low = 0;
+    int high = size;
+
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (latest[middle] < ms) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+
+    return low;
+  }
+}
@@ -14,7 +14,11 @@
 
 package codeu.chat.server;
 
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.LinearUuidGenerator;
@@ -52,21 +56,39 @@ public final class Model {
 
   private static final Comparator<String> STRING_COMPARE = String.CASE_INSENSITIVE_ORDER;
 
-  private final Store<Uuid, User> userById = new Store<>(UUID_COMPARE);
+  private final IdStore<User> userById = new IdStore<>(UUID_COMPARE);
   private final Store<Time, User> userByTime = new Store<>(TIME_COMPARE);
   private final Store<String, User> userByText = new Store<>(STRING_COMPARE);
 
-  private final Store<Uuid, Conversation> conversationById = new Store<>(UUID_COMPARE);
+  private final IdStore<Conversation> conversationById = new IdStore<>(UUID_COMPARE);
   private final Store<Time, Conversation> conversationByTime = new Store<>(TIME_COMPARE);
   private final Store<String, Conversation> conversationByText = new Store<>(STRING_COMPARE);
 
-  private final Store<Uuid, Message> messageById = new Store<>(UUID_COMPARE);
+  private final IdStore<Message> messageById = new IdStore<>(UUID_COMPARE);
   private final Store<Time, Message> messageByTime = new Store<>(TIME_COMPARE);
-  private final Store<String, Message> messageByText = new Store<>(STRING_COMPARE);
+
+  // The words of each message, for searching. Messages are not kept by their
+  // whole content as users and conversations are, no one looks them up that
+  // way.
+  private final TextIndex messageText = new TextIndex();
 
   private final Uuid.Generator userGenerations = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
   private Uuid currentUserGeneration = userGenerations.make();
 
+  private final Uuid.Generator conversationGenerations = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
+  private Uuid currentConversationGeneration = conversationGenerations.make();
+
+  // The generation of the messages in each conversation. A conversation that
+  // has never had a message added is not in the map and its generation is
+  // Uuid.NULL.
+  private final Uuid.Generator messageGenerations = new LinearUuidGenerator(null, 1, Integer.MAX_VALUE);
+  private final Map<Uuid, Uuid> currentMessageGenerations = new HashMap<>();
+
+  // The messages of each conversation in the order they were added, which is
+  // the order of their links. A conversation that has never had a message
+  // added is not in the map.
+  private final Map<Uuid, MessageIndex> messagesByConversation = new HashMap<>();
+
   public void add(User user) {
     currentUserGeneration = userGenerations.make();
 
@@ -92,6 +114,8 @@ public final class Model {
   }
 
   public void add(Conversation conversation) {
+    currentConversationGeneration = conversationGenerations.make();
+
     conversationById.insert(conversation.id, conversation);
     conversationByTime.insert(conversation.creation, conversation);
     conversationByText.insert(conversation.title, conversation);
@@ -109,10 +133,57 @@ public final class Model {
     return conversationByText;
   }
 
+  public Uuid conversationGeneration() {
+    return currentConversationGeneration;
+  }
+
   public void add(Message message) {
     messageById.insert(message.id, message);
     messageByTime.insert(message.creation, message);
-    messageByText.insert(message.content, message);
+  }
+
+  // ADD
+  //
+  // Add a message that belongs to "conversation" after all of its other
+  // messages and move that conversation's message generation on.
+  public void add(Uuid conversation, Message message) {
+    currentMessageGenerations.put(conversation, messageGenerations.make());
+
+    MessageIndex messages = messagesByConversation.get(conversation);
+    if (messages == null) {
+      messages = new MessageIndex();
+      messagesByConversation.put(conversation, messages);
+    }
+    messages.add(message);
+
+    messageText.add(conversation, message);
+
+    add(message);
+  }
+
+  // MESSAGES
+  //
+  // The messages of "conversation" in the order they were added, so that a
+  // message can be found by its position without following the links from
+  // the first one. Empty if the conversation has no messages.
+  public List<Message> messages(Uuid conversation) {
+    final MessageIndex messages = messagesByConversation.get(conversation);
+    return messages == null ? Collections.<Message>emptyList() : messages.messages();
+  }
+
+  // FIRST MESSAGE FROM
+  //
+  // The position in "messages(conversation)" of the first message created at
+  // or after "start", found with a binary search. If there is none, this is
+  // the number of messages.
+  public int firstMessageFrom(Uuid conversation, Time start) {
+    final MessageIndex messages = messagesByConversation.get(conversation);
+    return messages == null ? 0 : messages.firstFrom(start);
+  }
+
+  public Uuid messageGeneration(Uuid conversation) {
+    final Uuid generation = currentMessageGenerations.get(conversation);
+    return generation == null ? Uuid.NULL : generation;
   }
 
   public StoreAccessor<Uuid, Message> messageById() {
@@ -123,7 +194,12 @@ public final class Model {
     return messageByTime;
   }
 
-  public StoreAccessor<String, Message> messageByText() {
-    return messageByText;
+  // SEARCH MESSAGES
+  //
+  // The newest "limit" messages whose words match "query", newest first (see
+  // TextIndex). If "conversation" is Uuid.NULL messages from every
+  // conversation are searched.
+  public List<Message> searchMessages(Uuid conversation, String query, int limit) {
+    return messageText.search(conversation, query, limit);
   }
 }
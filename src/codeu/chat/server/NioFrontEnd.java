@@ -0,0 +1,623 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Limits;
+import codeu.chat.util.Logger;
+import codeu.chat.util.connections.Frames;
+
+// NIO FRONT END
+//
+// A non-blocking transport for the server. A single thread uses a selector to
+// accept connections and to move bytes in and out of them. Every connection
+// has its own input and output buffers and a request is only handed to the
+// server once all of it has arrived. A slow or stalled client never holds up
+// anyone else and an idle connection does not cost a thread.
+//
+// Two kinds of connections are supported:
+//
+//   Sessions (see SessionConnectionSource) send every request as a frame, so a
+//   request is ready as soon as its whole frame has arrived.
+//
+//   Pipelines (see PipelineConnectionSource) send every request as a frame
+//   that starts with an id. Each request is handed to the server as soon as
+//   its frame has arrived, without waiting for the ones before it, and each
+//   response goes back with the request's id as soon as it is ready.
+//
+//   Single requests from clients that do not use sessions carry no length.
+//   Whether all of one has arrived is worked out on the selector thread from
+//   the bytes so far (see Server.requestLength), and it is handed to the
+//   server exactly once, when it has.
+//
+// A connection may also subscribe to changes (see Subscriptions). It then
+// stays open and every push is sent to it as a frame.
+public final class NioFrontEnd implements Closeable {
+
+  private final static Logger.Log LOG = Logger.newLog(NioFrontEnd.class);
+
+  private static final int BUFFER_SIZE = 4096;
+
+  // What a connection has told us about itself so far.
+  private static final int
+      MODE_UNKNOWN = 0,
+      MODE_SINGLE = 1,
+      MODE_SESSION = 2,
+      MODE_SUBSCRIBER = 3,
+      MODE_PIPELINE = 4;
+
+  // The most bytes a subscriber may have waiting to be sent before it is
+  // considered too far behind and closed.
+  private static final int MAX_SUBSCRIBER_BACKLOG = 1 << 20;
+
+  private final Server server;
+  private final Selector selector;
+  private final ServerSocketChannel acceptor;
+
+  // Work handed to the selector thread by other threads. Channels may only be
+  // touched by the selector thread, so finished responses are queued here.
+  private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+  public NioFrontEnd(Server server, int port) throws IOException {
+
+    this.server = server;
+    this.selector = Selector.open();
+    this.acceptor = ServerSocketChannel.open();
+
+    acceptor.socket().bind(new InetSocketAddress(port));
+    acceptor.configureBlocking(false);
+    acceptor.register(selector, SelectionKey.OP_ACCEPT);
+  }
+
+  // RUN
+  //
+  // Serve connections until the calling thread is interrupted. This is a
+  // blocking call.
+  public void run() throws IOException {
+
+    LOG.info("Non-blocking front end started.");
+
+    while (!Thread.currentThread().isInterrupted()) {
+
+      selector.select();
+
+      for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+        task.run();
+      }
+
+      final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+      while (keys.hasNext()) {
+
+        final SelectionKey key = keys.next();
+        keys.remove();
+
+        if (!key.isValid()) {
+          continue;
+        }
+
+        if (key.isAcceptable()) {
+          accept();
+          continue;
+        }
+
+        final Client client = (Client) key.attachment();
+
+        try {
+          if (key.isReadable()) {
+            client.onReadable();
+          }
+          if (key.isValid() && key.isWritable()) {
+            client.onWritable();
+          }
+        } catch (IOException ex) {
+          LOG.error(ex, "Exception while serving connection.");
+          client.close();
+        }
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    acceptor.close();
+    selector.close();
+  }
+
+  private void accept() {
+    try {
+      final SocketChannel channel = acceptor.accept();
+      if (channel != null) {
+        final String address = channel.socket().getInetAddress().getHostAddress();
+        if (!server.admission().enter(address)) {
+          turnAway(channel);
+          return;
+        }
+        channel.configureBlocking(false);
+        final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Client(channel, key, address));
+        LOG.info("Connection established.");
+      }
+    } catch (IOException ex) {
+      LOG.error(ex, "Failed to establish connection.");
+    }
+  }
+
+  // TURN AWAY
+  //
+  // Tell a connection that the server is busy and close it. The channel is
+  // still blocking, and four bytes always fit in a new socket's buffer, so this
+  // never waits on the client.
+  private static void turnAway(SocketChannel channel) {
+    try {
+      final ByteBuffer busy = ByteBuffer.allocate(4);
+      busy.putInt(NetworkCode.SERVER_BUSY);
+      busy.flip();
+      channel.write(busy);
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while turning connection away.");
+    }
+    try {
+      channel.close();
+    } catch (IOException ex) {
+      LOG.error(ex, "Exception while closing connection.");
+    }
+  }
+
+  private void post(Runnable task) {
+    tasks.add(task);
+    selector.wakeup();
+  }
+
+  // CLIENT
+  //
+  // The state of one connection. Only ever touched by the selector thread.
+  private final class Client {
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+
+    // Where the connection came from. Set to null once the connection is no
+    // longer counted against its address.
+    private String address;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Queue<ByteBuffer> output = new ArrayDeque<>();
+
+    private byte[] input = new byte[BUFFER_SIZE];
+    private int inputSize = 0;
+
+    private int mode = MODE_UNKNOWN;
+
+    // Set while the server is working on a request from this connection. Only
+    // one request per connection is handled at a time so that responses go out
+    // in the same order as the requests came in.
+    private boolean busy = false;
+
+    // The number of pipelined requests the server is working on or that are
+    // waiting to be written.
+    private int pipelined = 0;
+
+    // Set when the client will not send anything else.
+    private boolean ended = false;
+
+    // Set when the connection should close once all output is written.
+    private boolean closing = false;
+
+    // Set once the connection has subscribed to changes.
+    private Subscriptions.Subscriber subscriber = null;
+    private int backlog = 0;
+
+    public Client(SocketChannel channel, SelectionKey key, String address) {
+      this.channel = channel;
+      this.key = key;
+      this.address = address;
+    }
+
+    public void onReadable() throws IOException {
+
+      readBuffer.clear();
+
+      if (channel.read(readBuffer) < 0) {
+        ended = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+      } else {
+        readBuffer.flip();
+        append(readBuffer);
+      }
+
+      process();
+    }
+
+    public void onWritable() throws IOException {
+
+      while (!output.isEmpty()) {
+        final ByteBuffer next = output.peek();
+        channel.write(next);
+        if (next.hasRemaining()) {
+          return;  // The socket is full, wait until it can take more.
+        }
+        output.poll();
+        backlog -= next.capacity();
+        if (mode == MODE_PIPELINE) {
+          pipelined--;
+        }
+      }
+
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+      if (closing) {
+        close();
+      } else if (mode == MODE_PIPELINE) {
+        // Requests may have been left unread while too many were in flight.
+        process();
+      }
+    }
+
+    public void close() {
+      if (subscriber != null) {
+        server.unsubscribe(subscriber);
+        subscriber = null;
+      }
+      if (address != null) {
+        server.admission().leave(address);
+        address = null;
+      }
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException ex) {
+        LOG.error(ex, "Exception while closing connection.");
+      }
+    }
+
+    private void process() {
+
+      if (busy || closing || !channel.isOpen()) {
+        return;
+      }
+
+      if (mode == MODE_UNKNOWN) {
+
+        if (inputSize < Frames.HEADER_SIZE) {
+          closeIfEnded();
+          return;
+        }
+
+        if (Frames.header(input, 0) == NetworkCode.SESSION_START_REQUEST) {
+          consume(Frames.HEADER_SIZE);
+          mode = MODE_SESSION;
+          send(header(NetworkCode.SESSION_START_RESPONSE));
+          LOG.info("Session started.");
+        } else if (Frames.header(input, 0) == NetworkCode.PIPELINE_START_REQUEST) {
+          consume(Frames.HEADER_SIZE);
+          mode = MODE_PIPELINE;
+          send(header(NetworkCode.PIPELINE_START_RESPONSE));
+          pipelined++;  // Counted as it is written, like every other response.
+          LOG.info("Pipeline started.");
+        } else if (Frames.header(input, 0) == NetworkCode.SUBSCRIBE_CONVERSATION_REQUEST) {
+          mode = MODE_SUBSCRIBER;
+        } else {
+          mode = MODE_SINGLE;
+        }
+      }
+
+      if (mode == MODE_SINGLE) {
+        processSingle();
+      } else if (mode == MODE_SUBSCRIBER) {
+        processSubscriber();
+      } else if (mode == MODE_PIPELINE) {
+        processPipeline();
+      } else {
+        processSession();
+      }
+    }
+
+    private void processSubscriber() {
+
+      if (subscriber == null) {
+
+        final int length = requestLength();
+
+        if (length < 0 || !withinLimit(length)) {
+          return;
+        }
+
+        if (length > inputSize) {
+          closeIfEnded();
+          return;
+        }
+
+        final Subscriptions.Subscriber pushes = new Subscriptions.Subscriber() {
+          @Override
+          public void push(final byte[] push) {
+            post(new Runnable() {
+              @Override
+              public void run() {
+                if (backlog > MAX_SUBSCRIBER_BACKLOG) {
+                  LOG.warning("Subscriber is too far behind, closing its connection.");
+                  close();
+                } else {
+                  send(frame(push));
+                }
+              }
+            });
+          }
+        };
+
+        final byte[] response = server.subscribe(Arrays.copyOf(input, length), pushes);
+
+        if (response == null) {
+          LOG.error("Subscribe request could not be read, closing connection.");
+          close();
+          return;
+        }
+
+        subscriber = pushes;
+        send(ByteBuffer.wrap(response));
+        LOG.info("Subscription started.");
+      }
+
+      if (subscriber != null) {
+        // Nothing else is expected from a subscriber.
+        consume(inputSize);
+      }
+
+      closeIfEnded();
+    }
+
+    private void processSingle() {
+
+      final int length = requestLength();
+
+      if (length < 0 || !withinLimit(length)) {
+        return;
+      }
+
+      if (length > inputSize) {
+        // Not all of the request is here yet.
+        closeIfEnded();
+        return;
+      }
+
+      final byte[] request = Arrays.copyOf(input, length);
+      // Nothing after the request is read, a single request is all there is.
+      consume(inputSize);
+      busy = true;
+
+      server.handleRequest(request, address, new Server.Response() {
+        @Override
+        public void done(final byte[] response) {
+          post(new Runnable() {
+            @Override
+            public void run() {
+              busy = false;
+              if (response == null) {
+                LOG.error("Request did not hold as much as its length said.");
+                close();
+              } else {
+                send(ByteBuffer.wrap(response));
+                closeWhenWritten();
+              }
+            }
+          });
+        }
+      });
+    }
+
+    // The length of the request at the start of the input (see
+    // Server.requestLength), or -1 if it can not be read, in which case the
+    // connection is closed.
+    private int requestLength() {
+      try {
+        return server.requestLength(ByteBuffer.wrap(input, 0, inputSize));
+      } catch (IOException ex) {
+        LOG.error(ex, "Request can not be read, closing connection.");
+        close();
+        return -1;
+      }
+    }
+
+    // Close the connection if a request of "length" bytes is over the limit
+    // (see Limits), without waiting for the rest of it.
+    private boolean withinLimit(int length) {
+      try {
+        Limits.REQUESTS.checkFrameSize(length);
+        return true;
+      } catch (IOException ex) {
+        LOG.error(ex, "Request is too big, closing connection.");
+        close();
+        return false;
+      }
+    }
+
+    private void processSession() {
+
+      if (inputSize < Frames.HEADER_SIZE) {
+        closeIfEnded();
+        return;
+      }
+
+      final int length = Frames.header(input, 0);
+
+      if (!withinLimit(length)) {
+        return;
+      }
+
+      if (inputSize - Frames.HEADER_SIZE < length) {
+        closeIfEnded();
+        return;
+      }
+
+      final byte[] request = Arrays.copyOfRange(input, Frames.HEADER_SIZE, Frames.HEADER_SIZE + length);
+      consume(Frames.HEADER_SIZE + length);
+
+      if (Server.isSessionEnd(request)) {
+        LOG.info("Session ended.");
+        closeWhenWritten();
+        return;
+      }
+
+      busy = true;
+
+      server.handleRequest(request, address, new Server.Response() {
+        @Override
+        public void done(final byte[] response) {
+          post(new Runnable() {
+            @Override
+            public void run() {
+              busy = false;
+              if (response == null) {
+                LOG.error("Session request frame did not hold a whole request.");
+                close();
+              } else {
+                send(frame(response));
+                process();
+              }
+            }
+          });
+        }
+      });
+    }
+
+    // Hand every whole request frame that has arrived to the server, up to
+    // MAX_PIPELINED at once (see Pipelines).
+    private void processPipeline() {
+
+      while (pipelined < Pipelines.MAX_PIPELINED && inputSize >= Frames.HEADER_SIZE) {
+
+        final int length = Frames.header(input, 0);
+
+        if (!withinLimit(length)) {
+          return;
+        }
+
+        if (inputSize - Frames.HEADER_SIZE < length) {
+          break;
+        }
+
+        if (length < Frames.HEADER_SIZE) {
+          LOG.error("Pipeline request frame has no id.");
+          close();
+          return;
+        }
+
+        final int id = Frames.header(input, Frames.HEADER_SIZE);
+        final byte[] request = Arrays.copyOfRange(input, 2 * Frames.HEADER_SIZE, Frames.HEADER_SIZE + length);
+        consume(Frames.HEADER_SIZE + length);
+
+        if (Server.isSessionEnd(request)) {
+          // Nothing after the end is read, the same as when the client closes
+          // its end of the connection.
+          LOG.info("Pipeline ended.");
+          ended = true;
+          consume(inputSize);
+          key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+          break;
+        }
+
+        pipelined++;
+
+        server.handleRequest(request, address, new Server.Response() {
+          @Override
+          public void done(final byte[] response) {
+            post(new Runnable() {
+              @Override
+              public void run() {
+                if (response == null) {
+                  LOG.error("Pipeline request frame did not hold a whole request.");
+                  close();
+                } else {
+                  send(ByteBuffer.wrap(Frames.tagged(id, response)));
+                  process();
+                }
+              }
+            });
+          }
+        });
+      }
+
+      if (ended && pipelined == 0) {
+        closeWhenWritten();
+      }
+    }
+
+    private void send(ByteBuffer bytes) {
+      if (key.isValid()) {
+        output.add(bytes);
+        backlog += bytes.capacity();
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+      }
+    }
+
+    private void closeWhenWritten() {
+      closing = true;
+      if (output.isEmpty()) {
+        close();
+      }
+    }
+
+    private void closeIfEnded() {
+      if (ended) {
+        closeWhenWritten();
+      }
+    }
+
+    private void append(ByteBuffer bytes) {
+      final int needed = inputSize + bytes.remaining();
+      if (needed > input.length) {
+        input = Arrays.copyOf(input, Math.max(needed, input.length * 2));
+      }
+      bytes.get(input, inputSize, bytes.remaining());
+      inputSize = needed;
+    }
+
+    private void consume(int count) {
+      System.arraycopy(input, count, input, 0, inputSize - count);
+      inputSize -= count;
+    }
+  }
+
+  private static ByteBuffer header(int value) {
+    final ByteBuffer header = ByteBuffer.allocate(Frames.HEADER_SIZE);
+    header.putInt(value);
+    header.flip();
+    return header;
+  }
+
+  // The length and the response go out in one buffer so that the socket does
+  // not send the length on its own and wait for it to be acknowledged.
+  private static ByteBuffer frame(byte[] response) {
+    final ByteBuffer frame = ByteBuffer.allocate(Frames.HEADER_SIZE + response.length);
+    frame.putInt(response.length);
+    frame.put(response);
+    frame.flip();
+    return frame;
+  }
+}
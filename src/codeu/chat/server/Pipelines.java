@@ -0,0 +1,154 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import codeu.chat.util.Limits;
+import codeu.chat.util.Logger;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Frames;
+
+// PIPELINES
+//
+// Serves connections that send requests without waiting for the responses to
+// the ones before them (see PipelineConnectionSource). The requests are
+// dispatched by the server like every other request.
+final class Pipelines {
+
+  private static final Logger.Log LOG = Logger.newLog(Pipelines.class);
+
+  // Handed to a pipeline's sender thread to tell it to stop.
+  private static final byte[] END = new byte[0];
+
+  // The most requests from one pipeline that are worked on or waiting to be
+  // sent back at once. Past that the server stops reading from the pipeline
+  // until one of them has been sent.
+  static final int MAX_PIPELINED = 32;
+
+  private final Server server;
+
+  public Pipelines(Server server) {
+    this.server = server;
+  }
+
+  // START
+  //
+  // Serve a pipeline on a thread of its own so that it does not hold up the
+  // timeline.
+  public void start(final Connection connection) {
+
+    final Thread pipeline = new Thread() {
+      @Override
+      public void run() {
+        serve(connection);
+      }
+    };
+
+    pipeline.setDaemon(true);
+    pipeline.start();
+  }
+
+  // SERVE
+  //
+  // Each request frame starts with an id. The calling thread reads the frames
+  // and dispatches each request as soon as it has arrived, and a sender thread
+  // writes each response back in a frame with the request's id as soon as it
+  // is ready, so the responses can go out in any order. Requests are always
+  // dispatched, even for transports that give every connection a thread of its
+  // own, so that they can run at the same time. The pipeline ends when the
+  // client sends SESSION_END_REQUEST or closes its end of the connection, once
+  // every request already read has been answered.
+  public void serve(final Connection connection) {
+
+    final Semaphore inFlight = new Semaphore(MAX_PIPELINED);
+    final BlockingQueue<byte[]> responses = new LinkedBlockingQueue<>();
+
+    final Thread sender = new Thread() {
+      @Override
+      public void run() {
+        boolean failed = false;
+        try {
+          for (byte[] response = responses.take(); response != END; response = responses.take()) {
+            try {
+              if (!failed) {
+                connection.out().write(response);
+                connection.out().flush();
+              }
+            } catch (IOException ex) {
+              LOG.error(ex, "Exception while answering pipeline.");
+              failed = true;
+              Server.close(connection);  // Stops the reader too.
+            } finally {
+              inFlight.release();
+            }
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+
+    sender.setDaemon(true);
+    sender.start();
+
+    try {
+      for (byte[] frame = Frames.read(connection.in(), Limits.REQUESTS);
+           frame != null;
+           frame = Frames.read(connection.in(), Limits.REQUESTS)) {
+
+        if (frame.length < Frames.HEADER_SIZE) {
+          LOG.error("Pipeline request frame has no id.");
+          break;
+        }
+
+        final int id = Frames.header(frame, 0);
+        final byte[] request = Arrays.copyOfRange(frame, Frames.HEADER_SIZE, frame.length);
+
+        if (Server.isSessionEnd(request)) {
+          break;
+        }
+
+        inFlight.acquire();
+
+        server.handleRequest(request, connection.remoteAddress(), new Server.Response() {
+          @Override
+          public void done(byte[] response) {
+            if (response == null) {
+              LOG.error("Pipeline request frame did not hold a whole request.");
+              inFlight.release();
+              Server.close(connection);
+            } else {
+              responses.offer(Frames.tagged(id, response));
+            }
+          }
+        });
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while handling pipeline.");
+    }
+
+    // Let every request that was read be answered before closing.
+    inFlight.acquireUninterruptibly(MAX_PIPELINED);
+    responses.offer(END);
+
+    LOG.info("Pipeline ended.");
+    Server.close(connection);
+  }
+}
@@ -15,15 +15,12 @@
 package codeu.chat.server;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 
 import codeu.chat.common.NetworkCode;
 import codeu.chat.common.Relay;
 import codeu.chat.util.Logger;
-import codeu.chat.util.Serializer;
 import codeu.chat.util.Serializers;
 import codeu.chat.util.Time;
 import codeu.chat.util.Uuid;
@@ -56,67 +53,6 @@ public final class RemoteRelay implements Relay {
     public String text() { return text; }
   }
 
-  private static final Serializer<Relay.Bundle.Component> COMPONENT_SERIALIZER =
-    new Serializer<Relay.Bundle.Component>() {
-
-      @Override
-      public Relay.Bundle.Component read(InputStream in) throws IOException {
-
-        final Uuid id = Uuid.SERIALIZER.read(in);
-        final String text = Serializers.STRING.read(in);
-        final Time time = Time.SERIALIZER.read(in);
-
-        return new Component(id, time, text);
-      }
-
-      @Override
-      public void write(OutputStream out, Relay.Bundle.Component value) throws IOException {
-        Uuid.SERIALIZER.write(out, value.id());
-        Serializers.STRING.write(out, value.text());
-        Time.SERIALIZER.write(out, value.time());
-      }
-    };
-
-  private static final Serializer<Relay.Bundle> BUNDLE_SERIALIZER =
-    new Serializer<Relay.Bundle>() {
-
-      @Override
-      public Relay.Bundle read(InputStream in) throws IOException {
-
-        final Uuid id = Uuid.SERIALIZER.read(in);
-        final Time time = Time.SERIALIZER.read(in);
-        final Uuid team = Uuid.SERIALIZER.read(in);
-        final Relay.Bundle.Component user = COMPONENT_SERIALIZER.read(in);
-        final Relay.Bundle.Component conversation = COMPONENT_SERIALIZER.read(in);
-        final Relay.Bundle.Component message = COMPONENT_SERIALIZER.read(in);
-
-        return new Relay.Bundle() {
-          @Override
-          public Uuid id() { return id; }
-          @Override
-          public Time time() { return time; }
-          @Override
-          public Uuid team() { return team; }
-          @Override
-          public Relay.Bundle.Component user() { return user; }
-          @Override
-          public Relay.Bundle.Component conversation() { return conversation; }
-          @Override
-          public Relay.Bundle.Component message() { return message; }
-        };
-      }
-
-      @Override
-      public void write(OutputStream out, Relay.Bundle value) throws IOException {
-        Uuid.SERIALIZER.write(out, value.id());
-        Time.SERIALIZER.write(out, value.time());
-        Uuid.SERIALIZER.write(out, value.team());
-        COMPONENT_SERIALIZER.write(out, value.user());
-        COMPONENT_SERIALIZER.write(out, value.conversation());
-        COMPONENT_SERIALIZER.write(out, value.message());
-      }
-    };
-
   private final ConnectionSource source;
 
   public RemoteRelay(ConnectionSource source) {
@@ -139,14 +75,15 @@ public final class RemoteRelay implements Relay {
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_WRITE_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.RELAY_WRITE_REQUEST);
       Uuid.SERIALIZER.write(connection.out(), teamId);
       Serializers.BYTES.write(connection.out(), teamSecret);
-      COMPONENT_SERIALIZER.write(connection.out(), user);
-      COMPONENT_SERIALIZER.write(connection.out(), conversation);
-      COMPONENT_SERIALIZER.write(connection.out(), message);
+      Relay.Bundle.Component.SERIALIZER.write(connection.out(), user);
+      Relay.Bundle.Component.SERIALIZER.write(connection.out(), conversation);
+      Relay.Bundle.Component.SERIALIZER.write(connection.out(), message);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_WRITE_RESPONSE) {
+      if (Serializers.readInt(connection.in()) == NetworkCode.RELAY_WRITE_RESPONSE) {
         result = Serializers.BOOLEAN.read(connection.in());
       } else {
         LOG.error("Server did not handle RELAY_WRITE_REQUEST");
@@ -165,14 +102,15 @@ public final class RemoteRelay implements Relay {
 
     try (final Connection connection = source.connect()) {
 
-      Serializers.INTEGER.write(connection.out(), NetworkCode.RELAY_READ_REQUEST);
+      Serializers.writeInt(connection.out(), NetworkCode.RELAY_READ_REQUEST);
       Uuid.SERIALIZER.write(connection.out(), teamId);
       Serializers.BYTES.write(connection.out(), teamSecret);
       Uuid.SERIALIZER.write(connection.out(), root);
-      Serializers.INTEGER.write(connection.out(), range);
+      Serializers.writeInt(connection.out(), range);
+      connection.out().flush();
 
-      if (Serializers.INTEGER.read(connection.in()) == NetworkCode.RELAY_READ_RESPONSE) {
-        result.addAll(Serializers.collection(BUNDLE_SERIALIZER).read(connection.in()));
+      if (Serializers.readInt(connection.in()) == NetworkCode.RELAY_READ_RESPONSE) {
+        result.addAll(Serializers.collection(Relay.Bundle.SERIALIZER).read(connection.in()));
       } else {
         LOG.error("Server did not handle RELAY_READ_REQUEST");
       }
@@ -0,0 +1,72 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// REQUEST INPUT STREAM
+//
+// Reads a request that is already in memory. Unlike ByteArrayInputStream,
+// running out of bytes throws an EOFException rather than returning -1 so that
+// a partial request can not be mistaken for a whole one.
+final class RequestInputStream extends InputStream {
+
+  private final byte[] bytes;
+  private int position = 0;
+  private int marked = 0;
+
+  public RequestInputStream(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (position >= bytes.length) {
+      throw new EOFException();
+    }
+    return bytes[position++] & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] buffer, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (position >= bytes.length) {
+      throw new EOFException();
+    }
+    final int count = Math.min(length, bytes.length - position);
+    System.arraycopy(bytes, position, buffer, offset, count);
+    position += count;
+    return count;
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public void mark(int limit) {
+    marked = position;
+  }
+
+  @Override
+  public void reset() {
+    position = marked;
+  }
+}
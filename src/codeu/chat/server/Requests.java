@@ -0,0 +1,321 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import codeu.chat.util.Codec;
+import codeu.chat.util.Codecs;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
+
+// REQUESTS
+//
+// The bodies of requests that carry more than one value, as read by the
+// handlers (see Handler). Each is written field by field in the order the
+// fields are declared. Each has a codec as well as a serializer so that the
+// length of a request can be found before it is read (see Codec.length).
+final class Requests {
+
+  private Requests() { }
+
+  static final class NewMessage {
+
+    public final Uuid author;
+    public final Uuid conversation;
+    public final String content;
+
+    NewMessage(Uuid author, Uuid conversation, String content) {
+      this.author = author;
+      this.conversation = conversation;
+      this.content = content;
+    }
+
+    static final Codec<NewMessage> CODEC = new Codec<NewMessage>() {
+
+      @Override
+      public void write(ByteBuffer out, NewMessage value, Wire.Context context) throws IOException {
+        Uuid.CODEC.write(out, value.author, context);
+        Uuid.CODEC.write(out, value.conversation, context);
+        Codecs.STRING.write(out, value.content, context);
+      }
+
+      @Override
+      public NewMessage read(ByteBuffer in, Wire.Context context) throws IOException {
+        return new NewMessage(Uuid.CODEC.read(in, context),
+                              Uuid.CODEC.read(in, context),
+                              Codecs.STRING.read(in, context));
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return Codecs.length(in, context, Uuid.CODEC, Uuid.CODEC, Codecs.STRING);
+      }
+    };
+
+    static final Serializer<NewMessage> SERIALIZER = Codecs.serializer(CODEC);
+  }
+
+  static final class NewConversation {
+
+    public final String title;
+    public final Uuid owner;
+
+    NewConversation(String title, Uuid owner) {
+      this.title = title;
+      this.owner = owner;
+    }
+
+    static final Codec<NewConversation> CODEC = new Codec<NewConversation>() {
+
+      @Override
+      public void write(ByteBuffer out, NewConversation value, Wire.Context context) throws IOException {
+        Codecs.STRING.write(out, value.title, context);
+        Uuid.CODEC.write(out, value.owner, context);
+      }
+
+      @Override
+      public NewConversation read(ByteBuffer in, Wire.Context context) throws IOException {
+        return new NewConversation(Codecs.STRING.read(in, context), Uuid.CODEC.read(in, context));
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return Codecs.length(in, context, Codecs.STRING, Uuid.CODEC);
+      }
+    };
+
+    static final Serializer<NewConversation> SERIALIZER = Codecs.serializer(CODEC);
+  }
+
+  static final class TimeRange {
+
+    public final Time start;
+    public final Time end;
+
+    TimeRange(Time start, Time end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    static final Codec<TimeRange> CODEC = new Codec<TimeRange>() {
+
+      @Override
+      public void write(ByteBuffer out, TimeRange value, Wire.Context context) throws IOException {
+        Time.CODEC.write(out, value.start, context);
+        Time.CODEC.write(out, value.end, context);
+      }
+
+      @Override
+      public TimeRange read(ByteBuffer in, Wire.Context context) throws IOException {
+        return new TimeRange(Time.CODEC.read(in, context), Time.CODEC.read(in, context));
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return Codecs.length(in, context, Time.CODEC, Time.CODEC);
+      }
+    };
+
+    static final Serializer<TimeRange> SERIALIZER = Codecs.serializer(CODEC);
+  }
+
+  // The messages of one conversation within a time range.
+  static final class MessagesByTime {
+
+    public final Uuid conversation;
+    public final Time start;
+    public final Time end;
+
+    MessagesByTime(Uuid conversation, Time start, Time end) {
+      this.conversation = conversation;
+      this.start = start;
+      this.end = end;
+    }
+
+    static final Codec<MessagesByTime> CODEC = new Codec<MessagesByTime>() {
+
+      @Override
+      public void write(ByteBuffer out, MessagesByTime value, Wire.Context context) throws IOException {
+        Uuid.CODEC.write(out, value.conversation, context);
+        Time.CODEC.write(out, value.start, context);
+        Time.CODEC.write(out, value.end, context);
+      }
+
+      @Override
+      public MessagesByTime read(ByteBuffer in, Wire.Context context) throws IOException {
+        return new MessagesByTime(Uuid.CODEC.read(in, context),
+                                  Time.CODEC.read(in, context),
+                                  Time.CODEC.read(in, context));
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return Codecs.length(in, context, Uuid.CODEC, Time.CODEC, Time.CODEC);
+      }
+    };
+
+    static final Serializer<MessagesByTime> SERIALIZER = Codecs.serializer(CODEC);
+  }
+
+  // The messages within "range" of "root".
+  static final class MessagesByRange {
+
+    public final Uuid root;
+    public final int range;
+
+    MessagesByRange(Uuid root, int range) {
+      this.root = root;
+      this.range = range;
+    }
+
+    static final Codec<MessagesByRange> CODEC = new Codec<MessagesByRange>() {
+
+      @Override
+      public void write(ByteBuffer out, MessagesByRange value, Wire.Context context) throws IOException {
+        Uuid.CODEC.write(out, value.root, context);
+        Codecs.writeInt(out, value.range, context);
+      }
+
+      @Override
+      public MessagesByRange read(ByteBuffer in, Wire.Context context) throws IOException {
+        return new MessagesByRange(Uuid.CODEC.read(in, context), Codecs.readInt(in, context));
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return Codecs.length(in, context, Uuid.CODEC, Codecs.INTEGER);
+      }
+    };
+
+    static final Serializer<MessagesByRange> SERIALIZER = Codecs.serializer(CODEC);
+  }
+
+  // The messages of one conversation found by their position in it.
+  static final class MessagesByIndex {
+
+    public final Uuid conversation;
+    public final int offset;
+    public final int count;
+
+    MessagesByIndex(Uuid conversation, int offset, int count) {
+      this.conversation = conversation;
+      this.offset = offset;
+      this.count = count;
+    }
+
+    static final Codec<MessagesByIndex> CODEC = new Codec<MessagesByIndex>() {
+
+      @Override
+      public void write(ByteBuffer out, MessagesByIndex value, Wire.Context context) throws IOException {
+        Uuid.CODEC.write(out, value.conversation, context);
+        Codecs.writeInt(out, value.offset, context);
+        Codecs.writeInt(out, value.count, context);
+      }
+
+      @Override
+      public MessagesByIndex read(ByteBuffer in, Wire.Context context) throws IOException {
+        return new MessagesByIndex(Uuid.CODEC.read(in, context),
+                                   Codecs.readInt(in, context),
+                                   Codecs.readInt(in, context));
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return Codecs.length(in, context, Uuid.CODEC, Codecs.INTEGER, Codecs.INTEGER);
+      }
+    };
+
+    static final Serializer<MessagesByIndex> SERIALIZER = Codecs.serializer(CODEC);
+  }
+
+  // A search of the messages of one conversation, or of every conversation
+  // when the conversation is Uuid.NULL.
+  static final class SearchMessages {
+
+    public final Uuid conversation;
+    public final String query;
+    public final int limit;
+
+    SearchMessages(Uuid conversation, String query, int limit) {
+      this.conversation = conversation;
+      this.query = query;
+      this.limit = limit;
+    }
+
+    static final Codec<SearchMessages> CODEC = new Codec<SearchMessages>() {
+
+      @Override
+      public void write(ByteBuffer out, SearchMessages value, Wire.Context context) throws IOException {
+        Uuid.CODEC.write(out, value.conversation, context);
+        Codecs.STRING.write(out, value.query, context);
+        Codecs.writeInt(out, value.limit, context);
+      }
+
+      @Override
+      public SearchMessages read(ByteBuffer in, Wire.Context context) throws IOException {
+        return new SearchMessages(Uuid.CODEC.read(in, context),
+                                  Codecs.STRING.read(in, context),
+                                  Codecs.readInt(in, context));
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return Codecs.length(in, context, Uuid.CODEC, Codecs.STRING, Codecs.INTEGER);
+      }
+    };
+
+    static final Serializer<SearchMessages> SERIALIZER = Codecs.serializer(CODEC);
+  }
+
+  // The requests in a batch and the wire version they are written in, which
+  // is the version of the batch.
+  static final class Batch {
+
+    private static final Codec<Collection<byte[]>> REQUESTS = Codecs.collection(Codecs.BYTES);
+
+    public final Collection<byte[]> requests;
+    public final int version;
+
+    Batch(Collection<byte[]> requests, int version) {
+      this.requests = requests;
+      this.version = version;
+    }
+
+    static final Codec<Batch> CODEC = new Codec<Batch>() {
+
+      @Override
+      public void write(ByteBuffer out, Batch value, Wire.Context context) throws IOException {
+        REQUESTS.write(out, value.requests, context);
+      }
+
+      @Override
+      public Batch read(ByteBuffer in, Wire.Context context) throws IOException {
+        return new Batch(REQUESTS.read(in, context), context.version);
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+        return REQUESTS.length(in, context);
+      }
+    };
+
+    static final Serializer<Batch> SERIALIZER = Codecs.serializer(CODEC);
+  }
+}
@@ -15,16 +15,23 @@
 
 package codeu.chat.server;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Generations;
 import codeu.chat.common.LinearUuidGenerator;
 import codeu.chat.common.Message;
 import codeu.chat.common.NetworkCode;
@@ -33,30 +40,152 @@ import codeu.chat.util.Time;
 import codeu.chat.util.Timeline;
 import codeu.chat.common.User;
 import codeu.chat.util.Uuid;
+import codeu.chat.util.Codecs;
+import codeu.chat.util.Deflation;
+import codeu.chat.util.Limits;
 import codeu.chat.util.Logger;
 import codeu.chat.util.Serializers;
+import codeu.chat.util.Wire;
 import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Frames;
 
 public final class Server {
 
   private static final Logger.Log LOG = Logger.newLog(Server.class);
   private static final int RELAY_REFRESH_MS = 5000;  // 5 seconds
+
+  // How much of a request "readRequest" makes room for before it knows more.
+  private static final int REQUEST_BUFFER_SIZE = 256;
+
   private final Timeline timeline = new Timeline();
+  private final Dispatcher dispatcher;
+  private final Admission admission;
+  private final Deflation deflation;
 
   private final Uuid id;
   private final byte[] secret;
 
   private final Model model = new Model();
   private final View view = new View(model);
+  private final Subscriptions subscriptions = new Subscriptions();
+  private final ChangeWaiters waiters;
   private final Controller controller;
   private final Relay relay;
   private Uuid lastSeen = Uuid.NULL;
 
-  public Server(final Uuid id, final byte[] secret, final Relay relay, Database database) {
+  // The encoded bytes of the values requests send most, kept so that they
+  // do not have to be encoded again (see EncodedCache). Conversations are not
+  // cached as every new message changes them.
+  private final EncodedCache<User> userCache;
+  private final EncodedCache<ConversationSummary> summaryCache;
+  private final EncodedCache<Message> messageCache;
+
+  private final Handlers handlers;
+  private final Sessions sessions = new Sessions(this);
+  private final Pipelines pipelines = new Pipelines(this);
+
+  // OPTIONS
+  //
+  // How a server is set up, beyond what every server needs. Each option starts
+  // at its default and is changed by calling its method, which returns the
+  // options so that calls can be chained.
+  public static final class Options {
+
+    private int readerThreads = Runtime.getRuntime().availableProcessors();
+    private Admission admission = null;
+    private int cacheSize = EncodedCache.DEFAULT_MAX_SIZE;
+    private Deflation deflation = null;
+
+    // The number of threads that serve read-only requests (see Dispatcher).
+    // Defaults to one per core.
+    public Options readerThreads(int readerThreads) {
+      this.readerThreads = readerThreads;
+      return this;
+    }
+
+    // How much work the server takes on before it answers SERVER_BUSY.
+    // Defaults to a new Admission with its default limits.
+    public Options admission(Admission admission) {
+      this.admission = admission;
+      return this;
+    }
+
+    // How many encoded values of each kind are kept (see EncodedCache).
+    public Options cacheSize(int cacheSize) {
+      this.cacheSize = cacheSize;
+      return this;
+    }
+
+    // How responses are deflated for clients that accept it. Defaults to a
+    // new Deflation with its default level and threshold.
+    public Options deflation(Deflation deflation) {
+      this.deflation = deflation;
+      return this;
+    }
+  }
+
+  public Server(final Uuid id,
+                final byte[] secret,
+                final Relay relay,
+                Database database,
+                Options options) {
 
     this.id = id;
+    this.userCache = new EncodedCache<>(User.SERIALIZER, new EncodedCache.Key<User>() {
+      @Override
+      public Uuid of(User user) { return user.id; }
+    }, options.cacheSize);
+    this.summaryCache = new EncodedCache<>(ConversationSummary.SERIALIZER, new EncodedCache.Key<ConversationSummary>() {
+      @Override
+      public Uuid of(ConversationSummary summary) { return summary.id; }
+    }, options.cacheSize);
+    this.messageCache = new EncodedCache<>(Message.SERIALIZER, new EncodedCache.Key<Message>() {
+      @Override
+      public Uuid of(Message message) { return message.id; }
+    }, options.cacheSize);
     this.secret = Arrays.copyOf(secret, secret.length);
-    this.controller = new Controller(id, model, database);
+    this.dispatcher = new Dispatcher(timeline, options.readerThreads);
+    this.admission = options.admission == null ? new Admission() : options.admission;
+    this.deflation = options.deflation == null ? new Deflation() : options.deflation;
+    this.waiters = new ChangeWaiters(view, dispatcher, timeline);
+    this.controller = new Controller(id, model, database, new Controller.Listener() {
+      @Override
+      public void onNewUser(User user) {
+        subscriptions.onNewUser(user);
+        waiters.onChange();
+      }
+      @Override
+      public void onNewConversation(Conversation conversation) {
+        subscriptions.onNewConversation(conversation);
+        waiters.onChange();
+      }
+      @Override
+      public void onNewMessage(Uuid conversation, Message message) {
+        subscriptions.onNewMessage(conversation, message);
+        waiters.onChange();
+      }
+      @Override
+      public void onChangedMessage(Message message) {
+        messageCache.invalidate(message.id);
+      }
+    });
+    this.handlers = new Handlers(view, controller, userCache, summaryCache, messageCache, new Handlers.Listener() {
+      @Override
+      public void onNewMessage(User author, Conversation conversation, Message message) {
+        timeline.scheduleNow(createSendToRelayEvent(author, conversation, message));
+      }
+      @Override
+      public void report(Map<String, Long> stats) {
+        admission.report(stats);
+        stats.put("subscribers", (long) subscriptions.size());
+        stats.put("waiters", (long) waiters.size());
+        userCache.report("cache.users", stats);
+        summaryCache.report("cache.conversations", stats);
+        messageCache.report("cache.messages", stats);
+        deflation.report(stats);
+        Limits.report(stats);
+      }
+    });
     controller.loadFromDatabase();
     this.relay = relay;
     timeline.scheduleNow(new Runnable() {
@@ -64,10 +193,16 @@ public final class Server {
       public void run() {
         try {
           LOG.info("Reading update from relay...");
-          for (final Relay.Bundle bundle : relay.read(id, secret, lastSeen, 32)) {
-            onBundle(bundle);
-            lastSeen = bundle.id();
-          }
+          final Collection<Relay.Bundle> bundles = relay.read(id, secret, lastSeen, 32);
+          dispatcher.write(new Runnable() {
+            @Override
+            public void run() {
+              for (final Relay.Bundle bundle : bundles) {
+                onBundle(bundle);
+                lastSeen = bundle.id();
+              }
+            }
+          });
         } catch (Exception ex) {
           LOG.error(ex, "Failed to read update from relay.");
         }
@@ -76,164 +211,619 @@ public final class Server {
     });
   }
 
-  public void handleConnection(final Connection connection) {
+  public void handleConnection(Connection accepted) {
+
+    final Connection connection = enter(accepted);
+
+    if (connection == null) {
+      return;
+    }
+
+    // The connection waits on the timeline until it can be read, so it counts
+    // as pending until then.
+    if (!admission.admit(NetworkCode.NO_MESSAGE)) {
+      turnAway(connection);
+      return;
+    }
+
     timeline.scheduleNow(new Runnable() {
       @Override
       public void run() {
+        admission.done();
+        boolean keepOpen = false;
         try {
           LOG.info("Handling connection...");
-          final boolean success = onMessage(
-            connection.in(),
-            connection.out());
-          LOG.info("Connection handled: %s", success ? "ACCEPTED" : "REJECTED");
+          // All of the request is read before it is dispatched, so that it is
+          // only ever decoded from memory under the dispatcher's lock (see
+          // "readRequest").
+          final byte[] request = readRequest(connection.in());
+          final Exchange exchange =
+              Exchange.open(new RequestInputStream(request), connection.out(), deflation, true);
+          if (exchange == null) {
+            connection.out().flush();
+            LOG.info("Connection handled: VERSION NOT SUPPORTED");
+            close(connection);
+            return;
+          }
+          final int type = exchange.type;
+          if (type == NetworkCode.SESSION_START_REQUEST) {
+            Serializers.writeInt(connection.out(), NetworkCode.SESSION_START_RESPONSE);
+            connection.out().flush();
+            sessions.start(connection);
+            keepOpen = true;
+            LOG.info("Connection handled: SESSION STARTED");
+          } else if (type == NetworkCode.PIPELINE_START_REQUEST) {
+            Serializers.writeInt(connection.out(), NetworkCode.PIPELINE_START_RESPONSE);
+            connection.out().flush();
+            pipelines.start(connection);
+            keepOpen = true;
+            LOG.info("Connection handled: PIPELINE STARTED");
+          } else if (type == NetworkCode.SUBSCRIBE_CONVERSATION_REQUEST) {
+            ConnectionSubscriber.start(connection, Uuid.SERIALIZER.read(exchange.in), subscriptions, dispatcher);
+            keepOpen = true;
+            LOG.info("Connection handled: SUBSCRIPTION STARTED");
+          } else if (type == NetworkCode.WAIT_FOR_CHANGE_REQUEST) {
+            final WaitRequest wait = WaitRequest.read(exchange.in);
+            // When dispatched, the answer will close the connection.
+            keepOpen = dispatchWait(wait, connection.remoteAddress(), exchange.out, new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  exchange.finish();
+                } catch (Exception ex) {
+                  LOG.error(ex, "Exception while answering wait.");
+                }
+                close(connection);  // Closing flushes the answer.
+              }
+            });
+            if (!keepOpen) {
+              LOG.info("Connection handled: BUSY");
+              Serializers.writeInt(exchange.out, NetworkCode.SERVER_BUSY);
+              exchange.finish();
+              connection.out().flush();
+            }
+          } else {
+            // When dispatched, the request will close the connection. The
+            // response is made under the lock and sent once it is let go.
+            final Answer answer = new Answer(exchange, handlers, dispatcher);
+            keepOpen = dispatch(type, answer, new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  answer.send(connection);
+                  LOG.info("Connection handled: ACCEPTED");
+                } catch (Exception ex) {
+                  LOG.error(ex, "Exception while handling connection.");
+                }
+                close(connection);
+              }
+            });
+            if (!keepOpen) {
+              LOG.info("Connection handled: BUSY");
+              Serializers.writeInt(exchange.out, NetworkCode.SERVER_BUSY);
+              exchange.finish();
+              connection.out().flush();
+            }
+          }
         } catch (Exception ex) {
           LOG.error(ex, "Exception while handling connection.");
         }
-        try {
-          connection.close();
-        } catch (Exception ex) {
-          LOG.error(ex, "Exception while closing connection.");
+        if (!keepOpen) {
+          close(connection);
         }
       }
     });
   }
 
-  private boolean onMessage(InputStream in, OutputStream out) throws IOException {
+  // RESPONSE
+  //
+  // Receives the result of a request given to "handleRequest".
+  public interface Response {
 
-    final int type = Serializers.INTEGER.read(in);
+    // DONE
+    //
+    // Called once the request has been handled. "response" holds the encoded
+    // response. If the request bytes ended before the whole request could be
+    // read, "response" is null and the request has had no effect.
+    void done(byte[] response);
 
-    if (type == NetworkCode.NEW_MESSAGE_REQUEST) {
+  }
 
-      final Uuid author = Uuid.SERIALIZER.read(in);
-      final Uuid conversation = Uuid.SERIALIZER.read(in);
-      final String content = Serializers.STRING.read(in);
+  // HANDLE REQUEST
+  //
+  // Handle a request whose bytes were already read off of a connection from
+  // "address" by a transport (sessions and the non-blocking front end). The
+  // request is dispatched like every other request.
+  public void handleRequest(final byte[] request, String address, final Response callback) {
+
+    if (typeOf(request) == NetworkCode.WAIT_FOR_CHANGE_REQUEST) {
+
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final Exchange exchange;
+      final WaitRequest wait;
+      try {
+        exchange = Exchange.open(new RequestInputStream(request), out, deflation);
+        wait = WaitRequest.read(exchange.in);
+      } catch (IOException ex) {
+        callback.done(null);
+        return;
+      }
 
-      final Message message = controller.newMessage(author, conversation, content);
+      final boolean dispatched = dispatchWait(wait, address, exchange.out, new Runnable() {
+        @Override
+        public void run() {
+          callback.done(out.toByteArray());
+        }
+      });
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_MESSAGE_RESPONSE);
-      Serializers.nullable(Message.SERIALIZER).write(out, message);
+      if (!dispatched) {
+        callback.done(encode(NetworkCode.SERVER_BUSY));
+      }
+      return;
+    }
 
-      timeline.scheduleNow(createSendToRelayEvent(author, conversation, message.id));
+    final boolean dispatched = dispatch(typeOf(request), new Runnable() {
+      @Override
+      public void run() {
+        callback.done(respond(request));
+      }
+    });
 
-    } else if (type == NetworkCode.NEW_USER_REQUEST) {
+    if (!dispatched) {
+      callback.done(encode(NetworkCode.SERVER_BUSY));
+    }
+  }
 
-      final String name = Serializers.STRING.read(in);
+  // SERVE CONNECTION
+  //
+  // Serve a connection entirely on the calling thread, for transports that give
+  // every connection a thread of its own. Requests still take the dispatcher's
+  // lock so they see the model the same way as requests from the timeline and
+  // the reader threads. This is a blocking call and it closes the connection
+  // before it returns.
+  public void serveConnection(Connection accepted) {
 
-      final User user = controller.newUser(name);
+    final Connection connection = enter(accepted);
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_USER_RESPONSE);
-      Serializers.nullable(User.SERIALIZER).write(out, user);
+    if (connection == null) {
+      return;
+    }
 
-    } else if (type == NetworkCode.NEW_CONVERSATION_REQUEST) {
+    try {
+      LOG.info("Serving connection...");
+      // As on the timeline, the request is all read before it is dispatched
+      // (see "readRequest"): "writeNow" must not wait on the client.
+      final byte[] request = readRequest(connection.in());
+      final Exchange exchange =
+          Exchange.open(new RequestInputStream(request), connection.out(), deflation, true);
+      if (exchange == null) {
+        connection.out().flush();
+        LOG.info("Connection served: VERSION NOT SUPPORTED");
+        close(connection);
+        return;
+      }
+      final int type = exchange.type;
+      if (type == NetworkCode.SESSION_START_REQUEST) {
+        Serializers.writeInt(connection.out(), NetworkCode.SESSION_START_RESPONSE);
+        connection.out().flush();
+        LOG.info("Connection served: SESSION STARTED");
+        sessions.serve(connection, true);
+        return;  // The session closes the connection when it ends.
+      }
+      if (type == NetworkCode.PIPELINE_START_REQUEST) {
+        Serializers.writeInt(connection.out(), NetworkCode.PIPELINE_START_RESPONSE);
+        connection.out().flush();
+        LOG.info("Connection served: PIPELINE STARTED");
+        pipelines.serve(connection);
+        return;  // The pipeline closes the connection when it ends.
+      }
+      if (type == NetworkCode.SUBSCRIBE_CONVERSATION_REQUEST) {
+        LOG.info("Connection served: SUBSCRIPTION STARTED");
+        ConnectionSubscriber.serve(connection, Uuid.SERIALIZER.read(exchange.in), subscriptions, dispatcher);
+        return;  // The subscription closes the connection when it ends.
+      }
+      if (type == NetworkCode.WAIT_FOR_CHANGE_REQUEST) {
+        final WaitRequest wait = WaitRequest.read(exchange.in);
+        final BlockingQueue<Boolean> done = new LinkedBlockingQueue<>();
+        final boolean dispatched = dispatchWait(wait, connection.remoteAddress(), exchange.out, new Runnable() {
+          @Override
+          public void run() {
+            done.offer(true);
+          }
+        });
+        if (dispatched) {
+          done.take();
+          LOG.info("Connection served: WAIT ANSWERED");
+        } else {
+          LOG.info("Connection served: BUSY");
+          Serializers.writeInt(exchange.out, NetworkCode.SERVER_BUSY);
+        }
+        exchange.finish();
+        connection.out().flush();
+      } else {
+        // The response is made under the lock and sent once it is let go.
+        final Answer answer = new Answer(exchange, handlers, dispatcher);
+        final boolean dispatched = dispatchNow(type, answer);
+        if (dispatched) {
+          answer.send(connection);
+          LOG.info("Connection served: ACCEPTED");
+        } else {
+          LOG.info("Connection served: BUSY");
+          Serializers.writeInt(exchange.out, NetworkCode.SERVER_BUSY);
+          exchange.finish();
+          connection.out().flush();
+        }
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while serving connection.");
+    }
+    close(connection);
+  }
 
-      final String title = Serializers.STRING.read(in);
-      final Uuid owner = Uuid.SERIALIZER.read(in);
+  // RESPOND
+  //
+  // Run a whole request that is in memory and return the encoded response, or
+  // null if the request bytes ended before the whole request could be read.
+  // The caller must already hold the dispatcher's lock.
+  byte[] respond(byte[] request) {
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      final Exchange exchange = Exchange.open(new RequestInputStream(request), out, deflation);
+      if (exchange != null) {
+        final boolean success = handlers.onMessage(exchange.type, exchange.in, exchange.out);
+        exchange.finish();
+        LOG.info("Request handled: %s", success ? "ACCEPTED" : "REJECTED");
+      }
+      return out.toByteArray();
+    } catch (EOFException ex) {
+      return null;
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while handling request.");
+      return encode(NetworkCode.NO_MESSAGE);
+    }
+  }
 
-      final Conversation conversation = controller.newConversation(title, owner);
+  // A request too short to hold its type can only fail to be read, which
+  // changes nothing, so it is safe to treat it as a read. So can a request in a
+  // version this server does not know, as it is never run.
+  static int typeOf(byte[] request) {
+    try {
+      final Exchange exchange = Exchange.open(new RequestInputStream(request), new ByteArrayOutputStream(), null);
+      return exchange == null ? NetworkCode.NO_MESSAGE : exchange.type;
+    } catch (IOException ex) {
+      return NetworkCode.NO_MESSAGE;
+    }
+  }
 
-      Serializers.INTEGER.write(out, NetworkCode.NEW_CONVERSATION_RESPONSE);
-      Serializers.nullable(Conversation.SERIALIZER).write(out, conversation);
+  // REQUEST LENGTH
+  //
+  // The length of the whole request at the position of "in", from its type to
+  // the end of its body, in the same way as Codec.length. A request that comes
+  // on a connection of its own has no frame around it, so this is how a
+  // transport knows that all of it has arrived. The header says the type and
+  // the wire version (see Exchange) and the type says how long the rest is. A
+  // type with no handler has nothing after it, as it is answered without being
+  // read, and so does a version this server does not know.
+  int requestLength(ByteBuffer in) throws IOException {
+
+    final ByteBuffer view = in.duplicate();
+
+    if (view.remaining() < Frames.HEADER_SIZE) {
+      return Frames.HEADER_SIZE;
+    }
 
-    } else if (type == NetworkCode.GET_USERS_BY_ID_REQUEST) {
+    int type = view.getInt();
+    Wire.Context context = new Wire.Context(Wire.V1, Limits.REQUESTS);
 
-      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+    if (type == NetworkCode.VERSIONED_REQUEST) {
 
-      final Collection<User> users = view.getUsers(ids);
+      if (view.remaining() < Frames.HEADER_SIZE) {
+        return view.position() - in.position() + Frames.HEADER_SIZE;
+      }
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USERS_BY_ID_RESPONSE);
-      Serializers.collection(User.SERIALIZER).write(out, users);
+      final int version = view.getInt();
 
-    } else if (type == NetworkCode.GET_ALL_CONVERSATIONS_REQUEST) {
+      if (!Wire.supports(version)) {
+        return view.position() - in.position();
+      }
 
-      final Collection<ConversationSummary> conversations = view.getAllConversations();
+      if (version >= Wire.V4) {
+        if (view.remaining() < Frames.HEADER_SIZE) {
+          return view.position() - in.position() + Frames.HEADER_SIZE;
+        }
+        view.getInt();  // The flags.
+      }
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_ALL_CONVERSATIONS_RESPONSE);
-      Serializers.collection(ConversationSummary.SERIALIZER).write(out, conversations);
+      context = new Wire.Context(version, Limits.REQUESTS);
 
-    } else if (type == NetworkCode.GET_CONVERSATIONS_BY_ID_REQUEST) {
+      final int typeLength = Codecs.INTEGER.length(view, context);
+      if (typeLength > view.remaining()) {
+        return view.position() - in.position() + typeLength;
+      }
+      type = Codecs.readInt(view, context);
+    }
 
-      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+    return view.position() - in.position() + bodyLength(type, view, context);
+  }
 
-      final Collection<Conversation> conversations = view.getConversations(ids);
+  private int bodyLength(int type, ByteBuffer in, Wire.Context context) throws IOException {
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_ID_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+    final Handler<?, ?> handler = handlers.handlerFor(type);
 
-    } else if (type == NetworkCode.GET_MESSAGES_BY_ID_REQUEST) {
+    if (handler != null) {
+      return handler.requestLength(in, context);
+    }
 
-      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+    if (type == NetworkCode.WAIT_FOR_CHANGE_REQUEST) {
+      return WaitRequest.length(in, context);
+    }
 
-      final Collection<Message> messages = view.getMessages(ids);
+    if (type == NetworkCode.SUBSCRIBE_CONVERSATION_REQUEST) {
+      return Uuid.CODEC.length(in, context);
+    }
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_ID_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+    return 0;
+  }
 
-    } else if (type == NetworkCode.GET_USER_GENERATION_REQUEST) {
+  // READ REQUEST
+  //
+  // Read one whole request from "in" (see "requestLength") and nothing after
+  // it, checking its length against Limits.REQUESTS as soon as it is known.
+  // Whatever has arrived is read at once and asked about, in the same way as
+  // Codecs.serializer, so a big request costs a few asks rather than one for
+  // each value in it. Throws an EOFException if the stream ends first.
+  byte[] readRequest(InputStream in) throws IOException {
+
+    // A stream that can go back lets what has arrived be read ahead of
+    // knowing how much of it is the request. Otherwise only the bytes the
+    // request is known to need can be read each time.
+    final boolean ahead = in.markSupported();
+
+    if (ahead) {
+      in.mark(Limits.REQUESTS.maxFrameSize);
+    }
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USER_GENERATION_RESPONSE);
-      Uuid.SERIALIZER.write(out, view.getUserGeneration());
+    ByteBuffer buffer = ByteBuffer.allocate(REQUEST_BUFFER_SIZE);
+    buffer.limit(0);
 
-    } else if (type == NetworkCode.GET_USERS_EXCLUDING_REQUEST) {
+    int length;
 
-      final Collection<Uuid> ids = Serializers.collection(Uuid.SERIALIZER).read(in);
+    while ((length = requestLength(buffer)) > buffer.limit()) {
 
-      final Collection<User> users = view.getUsersExcluding(ids);
+      Limits.REQUESTS.checkFrameSize(length);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_USERS_EXCLUDING_RESPONSE);
-      Serializers.collection(User.SERIALIZER).write(out, users);
+      if (length > buffer.capacity()) {
+        final ByteBuffer bigger = ByteBuffer.allocate(
+            Math.min(Math.max(length, buffer.capacity() * 2), Limits.REQUESTS.maxFrameSize));
+        bigger.put(buffer);
+        bigger.flip();
+        buffer = bigger;
+      }
 
-    } else if (type == NetworkCode.GET_CONVERSATIONS_BY_TIME_REQUEST) {
+      if (ahead) {
+        final int count = in.read(buffer.array(), buffer.limit(), buffer.capacity() - buffer.limit());
+        if (count < 0) {
+          throw new EOFException();
+        }
+        buffer.limit(buffer.limit() + count);
+      } else {
+        Serializers.readFully(in, buffer.array(), buffer.limit(), length - buffer.limit());
+        buffer.limit(length);
+      }
+    }
 
-      final Time startTime = Time.SERIALIZER.read(in);
-      final Time endTime = Time.SERIALIZER.read(in);
+    if (ahead) {
+      in.reset();
+      Serializers.readFully(in, buffer.array(), 0, length);
+      in.mark(0);  // Let the stream forget what it kept for "reset".
+    }
 
-      final Collection<Conversation> conversations = view.getConversations(startTime, endTime);
+    return Arrays.copyOf(buffer.array(), length);
+  }
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TIME_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+  // DISPATCH
+  //
+  // Send read-only requests to the reader threads and everything else to the
+  // writer (the timeline). Returns false, and runs nothing, if the server is
+  // too busy to take the request on (see Admission).
+  private boolean dispatch(int type, Runnable task) {
+    return dispatch(type, task, null);
+  }
 
-    } else if (type == NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST) {
+  // DISPATCH
+  //
+  // The same as "dispatch(type, task)", then run "then" once the lock has been
+  // let go (see Dispatcher).
+  private boolean dispatch(int type, Runnable task, Runnable then) {
 
-      final String filter = Serializers.STRING.read(in);
+    if (!admission.admit(type)) {
+      return false;
+    }
 
-      final Collection<Conversation> conversations = view.getConversations(filter);
+    if (handlers.isReadOnly(type)) {
+      dispatcher.read(admitted(task), then);
+    } else {
+      dispatcher.write(admitted(task), then);
+    }
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE);
-      Serializers.collection(Conversation.SERIALIZER).write(out, conversations);
+    return true;
+  }
 
-    } else if (type == NetworkCode.GET_MESSAGES_BY_TIME_REQUEST) {
+  // DISPATCH NOW
+  //
+  // Run a request on the calling thread under the same lock "dispatch" would
+  // use for it. Returns false, and runs nothing, if the server is too busy to
+  // take the request on.
+  boolean dispatchNow(int type, Runnable task) {
 
-      final Uuid conversation = Uuid.SERIALIZER.read(in);
-      final Time startTime = Time.SERIALIZER.read(in);
-      final Time endTime = Time.SERIALIZER.read(in);
+    if (!admission.admit(type)) {
+      return false;
+    }
 
-      final Collection<Message> messages = view.getMessages(conversation, startTime, endTime);
+    if (handlers.isReadOnly(type)) {
+      dispatcher.readNow(admitted(task));
+    } else {
+      dispatcher.writeNow(admitted(task));
+    }
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+    return true;
+  }
 
-    } else if (type == NetworkCode.GET_MESSAGES_BY_RANGE_REQUEST) {
+  // Wrap an admitted task so that it stops being counted once it has run.
+  private Runnable admitted(final Runnable task) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          task.run();
+        } finally {
+          admission.done();
+        }
+      }
+    };
+  }
 
-      final Uuid rootMessage = Uuid.SERIALIZER.read(in);
-      final int range = Serializers.INTEGER.read(in);
+  // ENTER
+  //
+  // Count a new connection against the limit for its address. If the address
+  // already has too many connections open, the connection is told that the
+  // server is busy and closed, and null is returned.
+  private Connection enter(Connection connection) {
 
-      final Collection<Message> messages = view.getMessages(rootMessage, range);
+    final Connection entered = admission.track(connection);
 
-      Serializers.INTEGER.write(out, NetworkCode.GET_MESSAGES_BY_RANGE_RESPONSE);
-      Serializers.collection(Message.SERIALIZER).write(out, messages);
+    if (entered == null) {
+      turnAway(connection);
+    }
 
-    } else {
+    return entered;
+  }
 
-      // In the case that the message was not handled make a dummy message with
-      // the type "NO_MESSAGE" so that the client still gets something.
+  private static void turnAway(Connection connection) {
+    try {
+      Serializers.writeInt(connection.out(), NetworkCode.SERVER_BUSY);
+      connection.out().flush();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while turning connection away.");
+    }
+    close(connection);
+  }
 
-      Serializers.INTEGER.write(out, NetworkCode.NO_MESSAGE);
+  Admission admission() {
+    return admission;
+  }
+
+  // STOP
+  //
+  // Stop the timeline, so that a server made for a test does not keep the
+  // program running. This is a non-blocking call.
+  void stop() {
+    timeline.stop();
+  }
+
+  // DISPATCH WAIT
+  //
+  // Check "wait" on a reader thread like any other read, and leave it waiting
+  // if nothing has changed yet (see "waitForChange"). Returns false, and runs
+  // nothing, if the server is too busy to take it on or "address" already has
+  // too many requests waiting (see Admission).
+  private boolean dispatchWait(final WaitRequest wait,
+                               final String address,
+                               final OutputStream out,
+                               final Runnable done) {
+
+    if (!admission.admit(NetworkCode.WAIT_FOR_CHANGE_REQUEST)) {
+      return false;
+    }
 
+    if (!admission.park(address)) {
+      admission.done();
+      return false;
     }
 
+    dispatcher.read(admitted(new Runnable() {
+      @Override
+      public void run() {
+        waitForChange(wait, out, new Runnable() {
+          @Override
+          public void run() {
+            admission.unpark(address);
+            done.run();
+          }
+        });
+      }
+    }));
+
     return true;
   }
 
+  // WAIT FOR CHANGE
+  //
+  // Answer "wait" once the generations it knows about are out of date, or once
+  // its time is up. No thread is held while waiting. The answer is written to
+  // "out" and then "done" is run, from whichever thread answered, once that
+  // thread has let go of the dispatcher's lock (see ChangeWaiters). The caller
+  // must already hold the dispatcher's read lock.
+  private void waitForChange(WaitRequest wait, final OutputStream out, final Runnable done) {
+    waiters.add(wait.known, wait.conversation, wait.timeoutMs, new ChangeWaiters.Callback() {
+      @Override
+      public void done(Generations current) {
+        try {
+          Serializers.writeInt(out, NetworkCode.WAIT_FOR_CHANGE_RESPONSE);
+          Generations.SERIALIZER.write(out, current);
+        } catch (IOException ex) {
+          LOG.error(ex, "Exception while answering wait.");
+        }
+        done.run();
+      }
+    });
+  }
+
+  // SUBSCRIBE
+  //
+  // Start a subscription for a transport that reads requests itself (the
+  // non-blocking front end). "request" holds the whole
+  // SUBSCRIBE_CONVERSATION_REQUEST (see "requestLength"). Returns the encoded
+  // response, or null if the request can not be read, in which case nothing
+  // has changed. Every push is given to
+  // "subscriber" until "unsubscribe" is called.
+  public byte[] subscribe(byte[] request, Subscriptions.Subscriber subscriber) {
+    try {
+      final InputStream in = new RequestInputStream(request);
+      Serializers.readInt(in);
+      subscriptions.add(subscriber, Uuid.SERIALIZER.read(in));
+      return encode(NetworkCode.SUBSCRIBE_CONVERSATION_RESPONSE);
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  public void unsubscribe(Subscriptions.Subscriber subscriber) {
+    subscriptions.remove(subscriber);
+  }
+
+  static boolean isSessionEnd(byte[] request) {
+    return request.length >= 4 && Frames.header(request, 0) == NetworkCode.SESSION_END_REQUEST;
+  }
+
+  static byte[] encode(int code) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      Serializers.writeInt(out, code);
+    } catch (IOException ex) {
+      // Writing to memory can not fail.
+    }
+    return out.toByteArray();
+  }
+
+  static void close(Connection connection) {
+    try {
+      connection.close();
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while closing connection.");
+    }
+  }
+
   private void onBundle(Relay.Bundle bundle) {
 
     final Relay.Bundle.Component relayUser = bundle.user();
@@ -270,13 +860,12 @@ public final class Server {
     }
   }
 
-  private Runnable createSendToRelayEvent(final Uuid userId, final Uuid conversationId, final Uuid messageId) {
+  private Runnable createSendToRelayEvent(final User user,
+                                         final Conversation conversation,
+                                         final Message message) {
     return new Runnable() {
       @Override
       public void run() {
-        final User user = view.findUser(userId);
-        final Conversation conversation = view.findConversation(conversationId);
-        final Message message = view.findMessage(messageId);
         relay.write(
           id,
           secret,
@@ -286,4 +875,4 @@ public final class Server {
       }
     };
   }
-}
\ No newline at end of file
+}
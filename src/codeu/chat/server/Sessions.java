@@ -0,0 +1,126 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Limits;
+import codeu.chat.util.Logger;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.Frames;
+
+// SESSIONS
+//
+// Serves connections that carry many requests, one after the other, each in a
+// frame of its own (see SESSION_START_REQUEST). The requests are dispatched by
+// the server like every other request.
+final class Sessions {
+
+  private static final Logger.Log LOG = Logger.newLog(Sessions.class);
+
+  // Handed between threads in place of a null response from
+  // Server.handleRequest.
+  private static final byte[] INCOMPLETE = new byte[0];
+
+  private final Server server;
+
+  public Sessions(Server server) {
+    this.server = server;
+  }
+
+  // START
+  //
+  // Serve a session on a thread of its own. The thread waits for each request
+  // frame to arrive so that an idle client never holds up the server. Once a
+  // whole frame has arrived it is dispatched like any other request and the
+  // session thread writes the response frame back. The session ends when the
+  // client sends SESSION_END_REQUEST or closes its end of the connection.
+  public void start(final Connection connection) {
+
+    final Thread session = new Thread() {
+      @Override
+      public void run() {
+        serve(connection, false);
+      }
+    };
+
+    session.setDaemon(true);
+    session.start();
+  }
+
+  // SERVE
+  //
+  // The session loop. When "inline" is set each request runs on the calling
+  // thread, otherwise it is dispatched and the calling thread waits for it.
+  public void serve(Connection connection, boolean inline) {
+    try {
+      for (byte[] request = Frames.read(connection.in(), Limits.REQUESTS);
+           request != null && !Server.isSessionEnd(request);
+           request = Frames.read(connection.in(), Limits.REQUESTS)) {
+
+        // A wait can not be answered inline as the answer comes later, from
+        // whichever thread makes the change or ends the wait.
+        final byte[] response = inline && Server.typeOf(request) != NetworkCode.WAIT_FOR_CHANGE_REQUEST ?
+                                respondNow(request) :
+                                handle(request, connection);
+
+        if (response == INCOMPLETE) {
+          LOG.error("Session request frame did not hold a whole request.");
+          break;
+        }
+
+        Frames.write(connection.out(), response);
+      }
+    } catch (Exception ex) {
+      LOG.error(ex, "Exception while handling session.");
+    }
+    LOG.info("Session ended.");
+    Server.close(connection);
+  }
+
+  private byte[] handle(byte[] request, Connection connection) throws InterruptedException {
+
+    final BlockingQueue<byte[]> done = new LinkedBlockingQueue<>();
+
+    server.handleRequest(request, connection.remoteAddress(), new Server.Response() {
+      @Override
+      public void done(byte[] response) {
+        done.offer(response == null ? INCOMPLETE : response);
+      }
+    });
+
+    return done.take();
+  }
+
+  private byte[] respondNow(final byte[] request) {
+
+    final byte[][] response = new byte[1][];
+
+    final boolean dispatched = server.dispatchNow(Server.typeOf(request), new Runnable() {
+      @Override
+      public void run() {
+        response[0] = server.respond(request);
+      }
+    });
+
+    if (!dispatched) {
+      return Server.encode(NetworkCode.SERVER_BUSY);
+    }
+
+    return response[0] == null ? INCOMPLETE : response[0];
+  }
+}
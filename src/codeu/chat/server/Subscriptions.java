@@ -0,0 +1,128 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Logger;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+
+// SUBSCRIPTIONS
+//
+// Keeps track of the clients that asked to be told about changes instead of
+// polling for them. Each subscriber follows one conversation and is pushed
+// every new message in it. A subscriber that follows Uuid.NULL is pushed every
+// new message, user and conversation on the server.
+//
+// The controller calls in while the model is being changed, so pushes are
+// encoded once and handed to each subscriber without waiting on the network.
+public final class Subscriptions implements Controller.Listener {
+
+  private final static Logger.Log LOG = Logger.newLog(Subscriptions.class);
+
+  // SUBSCRIBER
+  //
+  // Somewhere to send pushes. "push" is given the encoded push (its type
+  // followed by its body) and must not block.
+  public interface Subscriber {
+    void push(byte[] push);
+  }
+
+  private final Map<Subscriber, Uuid> subscribers = new ConcurrentHashMap<>();
+
+  // ADD
+  //
+  // Start pushing changes in "conversation" to "subscriber". Use Uuid.NULL to
+  // be pushed every change.
+  public void add(Subscriber subscriber, Uuid conversation) {
+    subscribers.put(subscriber, conversation);
+    LOG.info("Subscriber added for %s (%d subscribers).", conversation, subscribers.size());
+  }
+
+  // REMOVE
+  //
+  // Stop pushing changes to "subscriber".
+  public void remove(Subscriber subscriber) {
+    if (subscribers.remove(subscriber) != null) {
+      LOG.info("Subscriber removed (%d subscribers).", subscribers.size());
+    }
+  }
+
+  public int size() {
+    return subscribers.size();
+  }
+
+  @Override
+  public void onNewUser(User user) {
+    try {
+      final ByteArrayOutputStream push = new ByteArrayOutputStream();
+      Serializers.writeInt(push, NetworkCode.NEW_USER_PUSH);
+      User.SERIALIZER.write(push, user);
+      pushTo(Uuid.NULL, push.toByteArray());
+    } catch (IOException ex) {
+      // Writing to memory can not fail.
+    }
+  }
+
+  @Override
+  public void onNewConversation(Conversation conversation) {
+    try {
+      final ByteArrayOutputStream push = new ByteArrayOutputStream();
+      Serializers.writeInt(push, NetworkCode.NEW_CONVERSATION_PUSH);
+      ConversationSummary.SERIALIZER.write(push, conversation.summary);
+      pushTo(Uuid.NULL, push.toByteArray());
+    } catch (IOException ex) {
+      // Writing to memory can not fail.
+    }
+  }
+
+  @Override
+  public void onNewMessage(Uuid conversation, Message message) {
+    try {
+      final ByteArrayOutputStream push = new ByteArrayOutputStream();
+      Serializers.writeInt(push, NetworkCode.NEW_MESSAGE_PUSH);
+      Uuid.SERIALIZER.write(push, conversation);
+      Message.SERIALIZER.write(push, message);
+      pushTo(conversation, push.toByteArray());
+    } catch (IOException ex) {
+      // Writing to memory can not fail.
+    }
+  }
+
+  @Override
+  public void onChangedMessage(Message message) {
+    // Followers were sent the message when it was new. They can tell that its
+    // "next" has changed from the push for the message after it.
+  }
+
+  // Push to everyone following "conversation" and everyone following
+  // everything.
+  private void pushTo(Uuid conversation, byte[] push) {
+    for (final Map.Entry<Subscriber, Uuid> entry : subscribers.entrySet()) {
+      if (Uuid.equals(entry.getValue(), Uuid.NULL) || Uuid.equals(entry.getValue(), conversation)) {
+        entry.getKey().push(push);
+      }
+    }
+  }
+}
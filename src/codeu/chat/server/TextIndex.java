@@ -0,0 +1,250 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Uuid;
+
+// TEXT INDEX
+//
+// An inverted index of the words in every message, for searching messages by
+// what they say. A message's content is split into terms - runs of letters
+// and digits, lower cased - and the message is added to the posting list of
+// each of its terms.
+//
+// Messages are numbered in the order they are added and a posting list holds
+// those numbers. As they only ever go up, a list is written as the gaps
+// between them, each as a varint, so most take one byte. The words
+// themselves are only kept once each, however many messages use them.
+//
+// A query is a list of terms. A message matches if it has every one of them.
+// A term that ends in "*" matches any term that starts with it. The matches
+// come back newest first, so asking for the top "limit" of them gives the
+// most recent ones.
+final class TextIndex {
+
+  private static final int FIRST_CAPACITY = 16;
+
+  // The words of every message, each with the messages that use it.
+  private final NavigableMap<String, Postings> terms = new TreeMap<>();
+
+  // The messages and their conversations, by number.
+  private Message[] messages = new Message[FIRST_CAPACITY];
+  private Uuid[] conversations = new Uuid[FIRST_CAPACITY];
+  private int size = 0;
+
+  public void add(Uuid conversation, Message message) {
+
+    if (size == messages.length) {
+      messages = Arrays.copyOf(messages, size * 2);
+      conversations = Arrays.copyOf(conversations, size * 2);
+    }
+
+    final int number = size++;
+
+    messages[number] = message;
+    conversations[number] = conversation;
+
+    final String content = message.content == null ? "" : message.content;
+
+    for (int start = nextTerm(content, 0); start < content.length(); ) {
+
+      final int end = termEnd(content, start);
+      final String term = content.substring(start, end).toLowerCase(Locale.ROOT);
+
+      Postings postings = terms.get(term);
+      if (postings == null) {
+        postings = new Postings();
+        terms.put(term, postings);
+      }
+      postings.add(number);
+
+      start = nextTerm(content, end);
+    }
+  }
+
+  // SEARCH
+  //
+  // The newest "limit" messages that match "query", newest first. If
+  // "conversation" is not Uuid.NULL only messages in that conversation count.
+  public List<Message> search(Uuid conversation, String query, int limit) {
+
+    final List<Message> found = new ArrayList<>();
+
+    if (limit <= 0) {
+      return found;
+    }
+
+    final List<int[]> matches = new ArrayList<>();
+
+    for (int start = nextTerm(query, 0); start < query.length(); ) {
+
+      final int end = termEnd(query, start);
+      final String term = query.substring(start, end).toLowerCase(Locale.ROOT);
+      final boolean prefix = end < query.length() && query.charAt(end) == '*';
+
+      matches.add(prefix ? prefixMatches(term) : exactMatches(term));
+
+      start = nextTerm(query, end);
+    }
+
+    if (matches.isEmpty()) {
+      return found;
+    }
+
+    final int[] all = intersect(matches);
+
+    final boolean anyConversation = Uuid.equals(conversation, Uuid.NULL);
+
+    for (int i = all.length - 1; i >= 0 && found.size() < limit; i--) {
+      if (anyConversation || Uuid.equals(conversations[all[i]], conversation)) {
+        found.add(messages[all[i]]);
+      }
+    }
+
+    return found;
+  }
+
+  private int[] exactMatches(String term) {
+    final Postings postings = terms.get(term);
+    return postings == null ? new int[0] : postings.decode();
+  }
+
+  private int[] prefixMatches(String prefix) {
+
+    final BitSet union = new BitSet(size);
+
+    for (final Postings postings : terms.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values()) {
+      for (final int number : postings.decode()) {
+        union.set(number);
+      }
+    }
+
+    final int[] numbers = new int[union.cardinality()];
+    for (int i = 0, number = union.nextSetBit(0); number >= 0; number = union.nextSetBit(number + 1)) {
+      numbers[i++] = number;
+    }
+    return numbers;
+  }
+
+  // The numbers that are in every one of "lists", each of which is sorted.
+  // The shortest list is walked and the others are searched.
+  private static int[] intersect(List<int[]> lists) {
+
+    int[] shortest = lists.get(0);
+    for (final int[] list : lists) {
+      if (list.length < shortest.length) {
+        shortest = list;
+      }
+    }
+
+    final int[] both = new int[shortest.length];
+    int count = 0;
+
+    outer:
+    for (final int number : shortest) {
+      for (final int[] list : lists) {
+        if (list != shortest && Arrays.binarySearch(list, number) < 0) {
+          continue outer;
+        }
+      }
+      both[count++] = number;
+    }
+
+    return Arrays.copyOf(both, count);
+  }
+
+  // The start of the first term at or after "from", or the length of "text"
+  // if there are no more terms.
+  private static int nextTerm(String text, int from) {
+    while (from < text.length() && !Character.isLetterOrDigit(text.charAt(from))) {
+      from++;
+    }
+    return from;
+  }
+
+  // The end of the term that starts at "start".
+  private static int termEnd(String text, int start) {
+    while (start < text.length() && Character.isLetterOrDigit(text.charAt(start))) {
+      start++;
+    }
+    return start;
+  }
+
+  // POSTINGS
+  //
+  // The numbers of the messages that use one term, in order, written as the
+  // gaps between them. Each gap is a varint: seven bits to a byte, low bits
+  // first, with the top bit set on every byte but the last.
+  private static final class Postings {
+
+    private byte[] bytes = new byte[4];
+    private int length = 0;
+    private int count = 0;
+    private int last = -1;
+
+    public void add(int number) {
+
+      // A message that uses a term more than once is only listed once.
+      if (number == last) {
+        return;
+      }
+
+      if (length + 5 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+
+      int gap = number - last;
+      while ((gap & ~0x7F) != 0) {
+        bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+        gap >>>= 7;
+      }
+      bytes[length++] = (byte) gap;
+
+      last = number;
+      count++;
+    }
+
+    public int[] decode() {
+
+      final int[] numbers = new int[count];
+
+      int number = -1;
+      int at = 0;
+
+      for (int i = 0; i < count; i++) {
+        int gap = 0;
+        int shift = 0;
+        byte b;
+        do {
+          b = bytes[at++];
+          gap |= (b & 0x7F) << shift;
+          shift += 7;
+        } while ((b & 0x80) != 0);
+        number += gap;
+        numbers[i] = number;
+      }
+
+      return numbers;
+    }
+  }
+}
@@ -24,12 +24,14 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.regex.Pattern;
 
 import codeu.chat.common.BasicView;
 import codeu.chat.common.Conversation;
 import codeu.chat.common.ConversationSummary;
+import codeu.chat.common.Generations;
 import codeu.chat.common.LogicalView;
 import codeu.chat.common.Message;
 import codeu.chat.common.SinglesView;
@@ -57,15 +59,40 @@ public final class View implements BasicView, LogicalView, SinglesView {
 
   @Override
   public Collection<ConversationSummary> getAllConversations() {
+    return drain(streamAllConversations());
+  }
 
-    final Collection<ConversationSummary> summaries = new ArrayList<>();
-
-    for (final Conversation conversation : model.conversationById().all()) {
-      summaries.add(conversation.summary);
-    }
+  // STREAM ALL CONVERSATIONS
+  //
+  // The same as "getAllConversations" but found one at a time as the iterator
+  // is used, so that they can be sent as they are found (see Streams). The
+  // model must not change while the iterator is being used, but it may change
+  // in between: conversations are only ever added, so the iterator goes on
+  // from where it was. It stops at the conversation that was last, by id, when
+  // it was made, so a conversation added in between is only included if its id
+  // falls after where the iterator is and before that one. The rest are left
+  // for the next request.
+  public Iterator<ConversationSummary> streamAllConversations() {
+
+    final Iterator<Conversation> conversations = model.conversationById().all().iterator();
+
+    return new Iterator<ConversationSummary>() {
+
+      @Override
+      public boolean hasNext() {
+        return conversations.hasNext();
+      }
 
-    return summaries;
+      @Override
+      public ConversationSummary next() {
+        return conversations.next().summary;
+      }
 
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 
   @Override
@@ -83,6 +110,25 @@ public final class View implements BasicView, LogicalView, SinglesView {
     return model.userGeneration();
   }
 
+  public Uuid getConversationGeneration() {
+    return model.conversationGeneration();
+  }
+
+  public Uuid getMessageGeneration(Uuid conversation) {
+    return model.messageGeneration(conversation);
+  }
+
+  // GET GENERATIONS
+  //
+  // Get the current generations of the users, the conversations and the
+  // messages in "conversation".
+  public Generations getGenerations(Uuid conversation) {
+    return new Generations(
+        model.userGeneration(),
+        model.conversationGeneration(),
+        model.messageGeneration(conversation));
+  }
+
   @Override
   public Collection<User> getUsersExcluding(Collection<Uuid> ids) {
 
@@ -127,25 +173,46 @@ public final class View implements BasicView, LogicalView, SinglesView {
 
   @Override
   public Collection<Message> getMessages(Uuid conversation, Time start, Time end) {
+    return drain(streamMessages(conversation, start, end));
+  }
 
-    final Conversation foundConversation = model.conversationById().first(conversation);
+  // STREAM MESSAGES
+  //
+  // The same as "getMessages" for a conversation and a time range, but each
+  // message is found in the conversation's messages as the iterator is used.
+  // The first one is found with a binary search of the conversation's times,
+  // so the messages before the range are not looked at. The model must not
+  // change while the iterator is being used, but it may change in between:
+  // messages are only ever added to the end of a conversation, so the
+  // iterator goes on from where it was, including any added in the range.
+  public Iterator<Message> streamMessages(Uuid conversation, final Time start, final Time end) {
 
-    final List<Message> foundMessages = new ArrayList<>();
+    final List<Message> messages = model.messages(conversation);
 
-    Message current = (foundConversation == null) ?
-      null :
-      model.messageById().first(foundConversation.firstMessage);
+    final int firstInRange = model.firstMessageFrom(conversation, start);
 
-    while (current != null && current.creation.compareTo(start) < 0) {
-      current = model.messageById().first(current.next);
-    }
+    return new Iterator<Message>() {
 
-    while (current != null && current.creation.compareTo(end) <= 0) {
-      foundMessages.add(current);
-      current = model.messageById().first(current.next);
-    }
+      private int current = firstInRange;
+
+      @Override
+      public boolean hasNext() {
+        return current < messages.size() && messages.get(current).creation.compareTo(end) <= 0;
+      }
 
-    return foundMessages;
+      @Override
+      public Message next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return messages.get(current++);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
   }
 
   @Override
@@ -182,6 +249,32 @@ public final class View implements BasicView, LogicalView, SinglesView {
     return found;
   }
 
+  @Override
+  public Collection<Message> getMessages(Uuid conversation, int offset, int count) {
+
+    final List<Message> messages = model.messages(conversation);
+
+    // Work in longs so that offsets and counts near the int limits can not
+    // wrap around.
+    final long at = offset < 0 ? (long) messages.size() + offset : offset;
+    final long from = Math.max(0, count < 0 ? at + count + 1 : at);
+    final long to = Math.min(messages.size(), count < 0 ? at + 1 : at + count);
+
+    return from < to ?
+        new ArrayList<>(messages.subList((int) from, (int) to)) :
+        new ArrayList<Message>();
+  }
+
+  @Override
+  public int getMessageCount(Uuid conversation) {
+    return model.messages(conversation).size();
+  }
+
+  @Override
+  public Collection<Message> searchMessages(Uuid conversation, String query, int limit) {
+    return model.searchMessages(conversation, query, limit);
+  }
+
   @Override
   public User findUser(Uuid id) { return model.userById().first(id); }
 
@@ -191,6 +284,14 @@ public final class View implements BasicView, LogicalView, SinglesView {
   @Override
   public Message findMessage(Uuid id) { return model.messageById().first(id); }
 
+  private static <T> Collection<T> drain(Iterator<T> iterator) {
+    final Collection<T> all = new ArrayList<>();
+    while (iterator.hasNext()) {
+      all.add(iterator.next());
+    }
+    return all;
+  }
+
   private static <T> Collection<T> intersect(StoreAccessor<Uuid, T> store, Collection<Uuid> ids) {
 
     // Use a set to hold the found users as this will prevent duplicate ids from
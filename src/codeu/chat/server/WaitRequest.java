@@ -0,0 +1,57 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import codeu.chat.common.Generations;
+import codeu.chat.util.Codecs;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
+
+// WAIT REQUEST
+//
+// The body of a WAIT_FOR_CHANGE_REQUEST: the generations the client knows
+// about, the conversation whose messages it is watching and how long it is
+// willing to wait.
+final class WaitRequest {
+
+  // The longest a WAIT_FOR_CHANGE_REQUEST may wait before it is answered.
+  private static final int MAX_WAIT_MS = 60000;  // 1 minute
+
+  public final Generations known;
+  public final Uuid conversation;
+  public final long timeoutMs;
+
+  private WaitRequest(Generations known, Uuid conversation, long timeoutMs) {
+    this.known = known;
+    this.conversation = conversation;
+    this.timeoutMs = timeoutMs;
+  }
+
+  public static int length(ByteBuffer in, Wire.Context context) throws IOException {
+    return Codecs.length(in, context, Uuid.CODEC, Uuid.CODEC, Uuid.CODEC, Uuid.CODEC, Codecs.INTEGER);
+  }
+
+  public static WaitRequest read(InputStream in) throws IOException {
+    final Generations known = Generations.SERIALIZER.read(in);
+    final Uuid conversation = Uuid.SERIALIZER.read(in);
+    final int timeoutMs = Serializers.readInt(in);
+    return new WaitRequest(known, conversation, Math.max(0, Math.min(timeoutMs, MAX_WAIT_MS)));
+  }
+}
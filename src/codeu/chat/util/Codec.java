@@ -0,0 +1,51 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// CODEC
+//
+// Writes values straight into a ByteBuffer and reads them straight out of
+// one, in the same format as the serializers. This lets a value be written
+// into a direct buffer or one of many buffers for a gathering write without
+// going through a stream first. The context gives the wire version and
+// anything written or read earlier that the value depends on (see Wire).
+//
+// All three methods start at the buffer's position. "write" and "read" move
+// it past the value, "length" leaves it where it is.
+public interface Codec<T> {
+
+  // WRITE
+  //
+  // Throws a BufferOverflowException if "out" fills up first. What was
+  // written before then is left in "out". Throws an IOException if "value"
+  // can not be written at all.
+  void write(ByteBuffer out, T value, Wire.Context context) throws IOException;
+
+  // READ
+  //
+  // Throws a BufferUnderflowException if "in" ends first.
+  T read(ByteBuffer in, Wire.Context context) throws IOException;
+
+  // LENGTH
+  //
+  // The number of bytes the value at the position of "in" takes up. If "in"
+  // does not hold enough of the value to tell, returns more than
+  // "in.remaining()": the number of bytes needed before asking again.
+  int length(ByteBuffer in, Wire.Context context) throws IOException;
+
+}
@@ -0,0 +1,426 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+
+// CODECS
+//
+// Codecs for the values the serializers in Serializers handle, in exactly the
+// same format, and a way to turn any codec into a serializer.
+public final class Codecs {
+
+  private Codecs() { }
+
+  public static final Codec<Integer> INTEGER = new Codec<Integer>() {
+
+    @Override
+    public void write(ByteBuffer out, Integer value, Wire.Context context) {
+      writeInt(out, value, context);
+    }
+
+    @Override
+    public Integer read(ByteBuffer in, Wire.Context context) throws IOException {
+      return readInt(in, context);
+    }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+      return context.version >= Wire.V2 ? Wire.varintLength(in) : 4;
+    }
+  };
+
+  public static final Codec<Long> LONG = new Codec<Long>() {
+
+    @Override
+    public void write(ByteBuffer out, Long value, Wire.Context context) {
+      writeLong(out, value, context);
+    }
+
+    @Override
+    public Long read(ByteBuffer in, Wire.Context context) throws IOException {
+      return readLong(in, context);
+    }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+      return context.version >= Wire.V2 ? Wire.varintLength(in) : 8;
+    }
+  };
+
+  // PRIMITIVES
+  //
+  // The same as INTEGER and LONG but without boxing (see Serializers.writeInt).
+
+  public static void writeInt(ByteBuffer out, int value, Wire.Context context) {
+    if (context.version >= Wire.V2) {
+      Wire.writeVarint(out, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+    } else {
+      out.putInt(value);
+    }
+  }
+
+  public static int readInt(ByteBuffer in, Wire.Context context) throws IOException {
+    if (context.version >= Wire.V2) {
+      final int zigzag = (int) Wire.readVarint(in);
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+    return in.getInt();
+  }
+
+  public static void writeLong(ByteBuffer out, long value, Wire.Context context) {
+    if (context.version >= Wire.V2) {
+      Wire.writeVarint(out, (value << 1) ^ (value >> 63));
+    } else {
+      out.putLong(value);
+    }
+  }
+
+  public static long readLong(ByteBuffer in, Wire.Context context) throws IOException {
+    if (context.version >= Wire.V2) {
+      final long zigzag = Wire.readVarint(in);
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+    return in.getLong();
+  }
+
+  public static final Codec<byte[]> BYTES = new Codec<byte[]>() {
+
+    @Override
+    public void write(ByteBuffer out, byte[] value, Wire.Context context) throws IOException {
+      writeInt(out, value.length, context);
+      out.put(value);
+    }
+
+    @Override
+    public byte[] read(ByteBuffer in, Wire.Context context) throws IOException {
+      final byte[] value = new byte[sizeOf(in, context)];
+      in.get(value);
+      return value;
+    }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+      return prefixedLength(in, context);
+    }
+  };
+
+  // STRING
+  //
+  // Strings are encoded straight into the buffer rather than through
+  // "String.getBytes". Bad characters become '?' in the same way.
+  public static final Codec<String> STRING = new Codec<String>() {
+
+    @Override
+    public void write(ByteBuffer out, String value, Wire.Context context) throws IOException {
+
+      if (context.version >= Wire.V2) {
+        writeInt(out, utf8Length(value), context);
+        encode(out, value, UTF8_ENCODER.get());
+        return;
+      }
+
+      // Version 1 uses the platform's charset, whose length is only known
+      // once the string is written, so the length is filled in afterwards.
+      final int start = out.position();
+      out.putInt(0);
+      encode(out, value, DEFAULT_ENCODER.get());
+      out.putInt(start, out.position() - start - 4);
+    }
+
+    @Override
+    public String read(ByteBuffer in, Wire.Context context) throws IOException {
+
+      final int size = sizeOf(in, context);
+      final Charset charset = context.version >= Wire.V2 ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+
+      final String value;
+
+      if (in.hasArray()) {
+        value = new String(in.array(), in.arrayOffset() + in.position(), size, charset);
+        in.position(in.position() + size);
+      } else {
+        final ByteBuffer bytes = in.slice();
+        bytes.limit(size);
+        value = charset.decode(bytes).toString();
+        in.position(in.position() + size);
+      }
+
+      return value;
+    }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+      return prefixedLength(in, context);
+    }
+  };
+
+  public static <T> Codec<Collection<T>> collection(final Codec<T> codec) {
+
+    return new Codec<Collection<T>>() {
+
+      @Override
+      public void write(ByteBuffer out, Collection<T> value, Wire.Context context) throws IOException {
+        writeInt(out, value.size(), context);
+        for (final T x : value) {
+          codec.write(out, x, context);
+        }
+      }
+
+      @Override
+      public Collection<T> read(ByteBuffer in, Wire.Context context) throws IOException {
+        final int size = sizeOf(in, context);
+        // Every value takes at least a byte, so no more can be in the buffer.
+        final Collection<T> list = new ArrayList<>(Math.min(size, in.remaining()));
+        for (int i = 0; i < size; i++) {
+          list.add(codec.read(in, context));
+        }
+        return list;
+      }
+
+      @Override
+      public int length(ByteBuffer in, Wire.Context context) throws IOException {
+
+        final int prefix = INTEGER.length(in, context);
+
+        if (prefix > in.remaining()) {
+          return prefix;
+        }
+
+        final ByteBuffer view = in.duplicate();
+        final int size = sizeOf(view, context);
+
+        for (int i = 0; i < size; i++) {
+          final int length = codec.length(view, context);
+          if (length > view.remaining()) {
+            return view.position() - in.position() + length;
+          }
+          view.position(view.position() + length);
+        }
+
+        return view.position() - in.position();
+      }
+    };
+  }
+
+  // LENGTH
+  //
+  // The length of a value made up of "fields" one after the other, in the
+  // same way as Codec.length.
+  public static int length(ByteBuffer in, Wire.Context context, Codec<?>... fields) throws IOException {
+
+    final ByteBuffer view = in.duplicate();
+
+    for (final Codec<?> field : fields) {
+      final int length = field.length(view, context);
+      if (length > view.remaining()) {
+        return view.position() - in.position() + length;
+      }
+      view.position(view.position() + length);
+    }
+
+    return view.position() - in.position();
+  }
+
+  // SERIALIZER
+  //
+  // A serializer that writes and reads through "codec". Each value is written
+  // into a buffer and handed to the stream in one write. Reading asks the
+  // codec how long the value is and reads exactly that much, so nothing after
+  // the value is taken from the stream.
+  public static <T> Serializer<T> serializer(final Codec<T> codec) {
+
+    return new Serializer<T>() {
+
+      @Override
+      public void write(OutputStream out, T value) throws IOException {
+
+        final Wire.Context context = Wire.context(out);
+
+        ByteBuffer buffer = WRITE_BUFFER.get();
+        context.mark();
+
+        while (true) {
+          buffer.clear();
+          try {
+            codec.write(buffer, value, context);
+            break;
+          } catch (BufferOverflowException ex) {
+            // What was written to the context belongs to the failed try.
+            context.reset();
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            keep(WRITE_BUFFER, buffer);
+          }
+        }
+
+        out.write(buffer.array(), 0, buffer.position());
+      }
+
+      @Override
+      public T read(InputStream in) throws IOException {
+
+        final Wire.Context context = Wire.context(in);
+
+        // A stream that can go back lets the value be read in a few big
+        // reads: read whatever is there, and once the codec knows how long
+        // the value is, go back and read exactly that much. Otherwise only
+        // the bytes the codec says it needs can be read each time.
+        final boolean ahead = in.markSupported();
+
+        if (ahead) {
+          in.mark(Integer.MAX_VALUE);
+        }
+
+        ByteBuffer buffer = READ_BUFFER.get();
+        buffer.clear();
+        buffer.limit(0);
+
+        int length;
+
+        while ((length = codec.length(buffer, context)) > buffer.limit()) {
+
+          if (length > buffer.capacity()) {
+            final ByteBuffer bigger = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+            bigger.put(buffer);
+            bigger.flip();
+            buffer = bigger;
+            keep(READ_BUFFER, buffer);
+          }
+
+          if (ahead) {
+            final int count = in.read(buffer.array(), buffer.limit(), buffer.capacity() - buffer.limit());
+            if (count < 0) {
+              throw new EOFException();
+            }
+            buffer.limit(buffer.limit() + count);
+          } else {
+            Serializers.readFully(in, buffer.array(), buffer.limit(), length - buffer.limit());
+            buffer.limit(length);
+          }
+        }
+
+        if (ahead) {
+          in.reset();
+          Serializers.readFully(in, buffer.array(), 0, length);
+          buffer.limit(length);
+          in.mark(0);  // Let the stream forget what it kept for "reset".
+        }
+
+        return codec.read(buffer, context);
+      }
+    };
+  }
+
+  private static final int BUFFER_SIZE = 256;
+
+  // Buffers larger than this are not kept for the next value.
+  private static final int MAX_KEPT_BUFFER_SIZE = 64 * 1024;
+
+  private static final ThreadLocal<ByteBuffer> WRITE_BUFFER = newBuffer();
+  private static final ThreadLocal<ByteBuffer> READ_BUFFER = newBuffer();
+
+  private static ThreadLocal<ByteBuffer> newBuffer() {
+    return new ThreadLocal<ByteBuffer>() {
+      @Override
+      protected ByteBuffer initialValue() {
+        return ByteBuffer.allocate(BUFFER_SIZE);
+      }
+    };
+  }
+
+  private static void keep(ThreadLocal<ByteBuffer> kept, ByteBuffer buffer) {
+    if (buffer.capacity() <= MAX_KEPT_BUFFER_SIZE) {
+      kept.set(buffer);
+    }
+  }
+
+  private static final ThreadLocal<CharsetEncoder> UTF8_ENCODER = newEncoder(StandardCharsets.UTF_8);
+  private static final ThreadLocal<CharsetEncoder> DEFAULT_ENCODER = newEncoder(Charset.defaultCharset());
+
+  private static ThreadLocal<CharsetEncoder> newEncoder(final Charset charset) {
+    return new ThreadLocal<CharsetEncoder>() {
+      @Override
+      protected CharsetEncoder initialValue() {
+        return charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      }
+    };
+  }
+
+  private static void encode(ByteBuffer out, String value, CharsetEncoder encoder) {
+    encoder.reset();
+    if (encoder.encode(CharBuffer.wrap(value), out, true).isOverflow() ||
+        encoder.flush(out).isOverflow()) {
+      throw new BufferOverflowException();
+    }
+  }
+
+  // The number of bytes "value" takes in UTF-8, counting a surrogate that is
+  // not part of a pair as the one '?' it is replaced with.
+  private static int utf8Length(String value) {
+
+    int length = 0;
+
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) &&
+                 i + 1 < value.length() &&
+                 Character.isLowSurrogate(value.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        length += 1;
+      } else {
+        length += 3;
+      }
+    }
+
+    return length;
+  }
+
+  // Read the size that starts a collection or array of bytes.
+  private static int sizeOf(ByteBuffer in, Wire.Context context) throws IOException {
+    return context.limits.checkFieldSize(readInt(in, context));
+  }
+
+  // The length of a size followed by that many bytes.
+  private static int prefixedLength(ByteBuffer in, Wire.Context context) throws IOException {
+
+    final int prefix = INTEGER.length(in, context);
+
+    if (prefix > in.remaining()) {
+      return prefix;
+    }
+
+    return prefix + sizeOf(in.duplicate(), context);
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// DEFLATION
+//
+// Deflates response bodies that are at least "threshold" bytes long and
+// inflates them again on the other end (in the zlib format).
+//
+// Making a Deflater or Inflater sets aside a good deal of memory outside of
+// the heap, which is only given back when it is ended or collected. So rather
+// than making one for every response, a few are kept and reused.
+//
+// Safe to use from many threads at once.
+public final class Deflation {
+
+  // Fast, and on chat text most of what the slower levels would get.
+  public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+
+  // Below this, a response is sent as it is. The bytes saved would not be
+  // worth the time.
+  public static final int DEFAULT_THRESHOLD = 4096;
+
+  // The most Deflaters or Inflaters kept for reuse by each pool.
+  private static final int MAX_POOLED = 16;
+
+  private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(MAX_POOLED);
+
+  private final int level;
+  private final int threshold;
+  private final BlockingQueue<Deflater> deflaters = new ArrayBlockingQueue<>(MAX_POOLED);
+
+  private final AtomicLong deflated = new AtomicLong();
+  private final AtomicLong bytesIn = new AtomicLong();
+  private final AtomicLong bytesOut = new AtomicLong();
+
+  public Deflation() {
+    this(DEFAULT_LEVEL, DEFAULT_THRESHOLD);
+  }
+
+  public Deflation(int level, int threshold) {
+    if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException(String.format("Invalid deflate level %d.", level));
+    }
+    this.level = level;
+    this.threshold = threshold;
+  }
+
+  // DEFLATE
+  //
+  // Deflate "length" bytes of "bytes" from "offset". Returns null if there are
+  // fewer than "threshold" of them or if deflating them does not make them
+  // any smaller, in which case they should be sent as they are.
+  public byte[] deflate(byte[] bytes, int offset, int length) {
+
+    if (length < threshold) {
+      return null;
+    }
+
+    Deflater deflater = deflaters.poll();
+    if (deflater == null) {
+      deflater = new Deflater(level);
+    }
+
+    try {
+
+      deflater.setInput(bytes, offset, length);
+      deflater.finish();
+
+      // Never bigger than what is being deflated, past that it is not worth it.
+      byte[] out = new byte[Math.min(length, Math.max(64, length / 4))];
+      int written = 0;
+
+      while (!deflater.finished()) {
+        if (written == out.length) {
+          if (out.length == length) {
+            return null;
+          }
+          out = Arrays.copyOf(out, (int) Math.min(length, 2L * out.length));
+        }
+        written += deflater.deflate(out, written, out.length - written);
+      }
+
+      deflated.incrementAndGet();
+      bytesIn.addAndGet(length);
+      bytesOut.addAndGet(written);
+
+      return Arrays.copyOf(out, written);
+
+    } finally {
+      deflater.reset();
+      if (!deflaters.offer(deflater)) {
+        deflater.end();
+      }
+    }
+  }
+
+  // INFLATE
+  //
+  // Inflate "compressed", which must give exactly "length" bytes.
+  public static byte[] inflate(byte[] compressed, int length) throws IOException {
+
+    if (length < 0) {
+      throw new IOException(String.format("Invalid inflated length %d.", length));
+    }
+
+    Inflater inflater = INFLATERS.poll();
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+
+    try {
+
+      inflater.setInput(compressed);
+
+      // One byte more than expected so that too much can be told from enough.
+      final byte[] out = new byte[length + 1];
+      int read = 0;
+
+      while (!inflater.finished() && read < out.length) {
+        final int count = inflater.inflate(out, read, out.length - read);
+        if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += count;
+      }
+
+      if (!inflater.finished() || read != length) {
+        throw new IOException(String.format("Deflated bytes did not inflate to %d bytes.", length));
+      }
+
+      return Arrays.copyOf(out, length);
+
+    } catch (DataFormatException ex) {
+      throw new IOException("Invalid deflated bytes.", ex);
+    } finally {
+      inflater.reset();
+      if (!INFLATERS.offer(inflater)) {
+        inflater.end();
+      }
+    }
+  }
+
+  // REPORT
+  //
+  // Add how many responses were deflated and how many bytes they were before
+  // and after to "stats".
+  public void report(Map<String, Long> stats) {
+    stats.put("deflate.responses", deflated.get());
+    stats.put("deflate.bytesIn", bytesIn.get());
+    stats.put("deflate.bytesOut", bytesOut.get());
+  }
+}
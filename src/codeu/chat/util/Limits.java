@@ -0,0 +1,190 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// LIMITS
+//
+// The most that the other end of a connection can make this process read at
+// once. Sizes that arrive on the wire are checked against these before
+// anything is allocated for them, so a bad request costs an exception rather
+// than however much memory it asked for.
+//
+//   - A field, meaning an array of bytes or a string, can be at most
+//     "maxFieldSize" bytes. A list, a map or a chunk of a stream can hold at
+//     most that many values.
+//
+//   - A frame, or a whole request on a connection that does not use frames,
+//     can be at most "maxFrameSize" bytes.
+//
+// There are two sets. REQUESTS is what the server and the relay accept from
+// anyone that connects, set with "-Dcodeu.chat.maxFieldSize=<bytes>" and
+// "-Dcodeu.chat.maxFrameSize=<bytes>". RESPONSES is what a client accepts from
+// the server it chose to talk to. Responses can be far bigger than any request
+// (a whole conversation, or a batch of them), so by default they are only
+// checked for sizes that make no sense, but they can be limited with
+// "-Dcodeu.chat.client.maxFieldSize=<bytes>" and
+// "-Dcodeu.chat.client.maxFrameSize=<bytes>".
+//
+// Values read from a stream are checked against the limits of its context
+// (see Wire.Context), which are RESPONSES unless the stream was made by
+// "limit" or by Wire.in with other limits.
+public final class Limits {
+
+  private final static Logger.Log LOG = Logger.newLog(Limits.class);
+
+  public static final int DEFAULT_MAX_FIELD_SIZE = 1 << 20;  // 1 MB
+  public static final int DEFAULT_MAX_FRAME_SIZE = 16 << 20;  // 16 MB
+
+  public static final Limits REQUESTS = new Limits(
+      Integer.getInteger("codeu.chat.maxFieldSize", DEFAULT_MAX_FIELD_SIZE),
+      Integer.getInteger("codeu.chat.maxFrameSize", DEFAULT_MAX_FRAME_SIZE));
+
+  public static final Limits RESPONSES = new Limits(
+      Integer.getInteger("codeu.chat.client.maxFieldSize", Integer.MAX_VALUE),
+      Integer.getInteger("codeu.chat.client.maxFrameSize", Integer.MAX_VALUE));
+
+  private static final AtomicLong rejectedFields = new AtomicLong();
+  private static final AtomicLong rejectedFrames = new AtomicLong();
+
+  public final int maxFieldSize;
+  public final int maxFrameSize;
+
+  public Limits(int maxFieldSize, int maxFrameSize) {
+    this.maxFieldSize = maxFieldSize;
+    this.maxFrameSize = maxFrameSize;
+  }
+
+  // OF
+  //
+  // The limits that values read from "in" are checked against.
+  public static Limits of(InputStream in) {
+    return Wire.context(in).limits;
+  }
+
+  // CHECK FIELD SIZE
+  //
+  // Return "size" if it is a valid size for a field or list, otherwise throw.
+  public int checkFieldSize(int size) throws IOException {
+    if (size < 0) {
+      rejectedFields.incrementAndGet();
+      throw new IOException(String.format("Invalid size %d.", size));
+    }
+    if (size > maxFieldSize) {
+      rejectedFields.incrementAndGet();
+      LOG.warning("Rejected a field of %d, the limit is %d.", size, maxFieldSize);
+      throw new IOException(String.format("Size %d is over the limit of %d.", size, maxFieldSize));
+    }
+    return size;
+  }
+
+  // CHECK FRAME SIZE
+  //
+  // Return "length" if it is a valid length for a frame, otherwise throw.
+  public int checkFrameSize(int length) throws IOException {
+    if (length < 0) {
+      rejectedFrames.incrementAndGet();
+      throw new IOException(String.format("Invalid frame length %d.", length));
+    }
+    if (length > maxFrameSize) {
+      rejectedFrames.incrementAndGet();
+      LOG.warning("Rejected a frame of %d, the limit is %d.", length, maxFrameSize);
+      throw new IOException(String.format("Frame length %d is over the limit of %d.", length, maxFrameSize));
+    }
+    return length;
+  }
+
+  // LIMIT
+  //
+  // Wrap "in" for a request on a connection that does not use frames, so that
+  // reading more than "maxFrameSize" bytes from it fails and the values read
+  // from it are checked against these limits. It is a version 1 stream; wrap
+  // it again with Wire.in, giving these limits, for another version.
+  public InputStream limit(InputStream in) {
+    return Wire.in(new LimitedInputStream(in), Wire.V1, this);
+  }
+
+  // REPORT
+  //
+  // Add how many fields and frames have been turned away to "stats".
+  public static void report(Map<String, Long> stats) {
+    stats.put("limits.rejectedFields", rejectedFields.get());
+    stats.put("limits.rejectedFrames", rejectedFrames.get());
+  }
+
+  private final class LimitedInputStream extends FilterInputStream {
+
+    private long read = 0;
+    private long marked = 0;
+
+    public LimitedInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      count(1);
+      final int b = in.read();
+      if (b < 0) {
+        read--;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      // Never read past the limit, so going over it is only noticed when the
+      // caller really asks for more.
+      final int allowed = (int) Math.min(length, Math.max(1, maxFrameSize - read));
+      count(allowed);
+      final int count = in.read(bytes, offset, allowed);
+      read -= allowed - Math.max(count, 0);
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      final long skipped = in.skip(Math.min(n, Math.max(0, maxFrameSize - read)));
+      read += skipped;
+      return skipped;
+    }
+
+    @Override
+    public synchronized void mark(int limit) {
+      in.mark(limit);
+      marked = read;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+      in.reset();
+      read = marked;
+    }
+
+    private void count(int length) throws IOException {
+      if (read + length > maxFrameSize) {
+        rejectedFrames.incrementAndGet();
+        LOG.warning("Rejected a request of more than %d bytes.", maxFrameSize);
+        throw new IOException(String.format("Request is over the limit of %d bytes.", maxFrameSize));
+      }
+      read += length;
+    }
+  }
+}
@@ -14,14 +14,21 @@
 
 package codeu.chat.util;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public final class Serializers {
 
+  // The most room a list is given before any of its values are read.
+  private static final int INITIAL_CAPACITY = 1024;
+
   public static final Serializer<Boolean> BOOLEAN = new Serializer<Boolean>() {
 
     @Override
@@ -39,58 +46,102 @@ public final class Serializers {
 
     @Override
     public void write(OutputStream out, Integer value) throws IOException {
+      writeInt(out, value);
+    }
 
-      for (int i = 24; i >= 0; i -= 8) {
-        out.write(0xFF & (value >>> i));
-      }
+    @Override
+    public Integer read(InputStream in) throws IOException {
+      return readInt(in);
+    }
+  };
+
+  public static final Serializer<Long> LONG = new Serializer<Long>() {
 
+    @Override
+    public void write(OutputStream out, Long value) throws IOException {
+      writeLong(out, value);
     }
 
     @Override
-    public Integer read(InputStream in) throws IOException {
+    public Long read(InputStream in) throws IOException {
+      return readLong(in);
+    }
+  };
 
-      int value = 0;
+  // WRITE INT
+  //
+  // The same as INTEGER but without boxing, for the ints written on every
+  // request: network codes, sizes and Uuid links.
+  public static void writeInt(OutputStream out, int value) throws IOException {
 
-      for (int i = 0; i < 4; i++) {
-        value = (value << 8) | in.read();
-      }
+    if (Wire.version(out) >= Wire.V2) {
+      // Zigzag so that small negative values are small too.
+      Wire.writeVarint(out, ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL);
+      return;
+    }
+
+    for (int i = 24; i >= 0; i -= 8) {
+      out.write(0xFF & (value >>> i));
+    }
+
+  }
 
-      return value;
+  public static int readInt(InputStream in) throws IOException {
 
+    if (Wire.version(in) >= Wire.V2) {
+      final int zigzag = (int) Wire.readVarint(in);
+      return (zigzag >>> 1) ^ -(zigzag & 1);
     }
-  };
 
-  public static final Serializer<Long> LONG = new Serializer<Long>() {
+    int value = 0;
 
-    @Override
-    public void write(OutputStream out, Long value) throws IOException {
+    for (int i = 0; i < 4; i++) {
+      value = (value << 8) | in.read();
+    }
 
-      for (int i = 56; i >= 0; i -= 8) {
-        out.write((int)(0xFF & (value >>> i)));
-      }
+    return value;
 
+  }
+
+  // WRITE LONG
+  //
+  // The same as LONG but without boxing.
+  public static void writeLong(OutputStream out, long value) throws IOException {
+
+    if (Wire.version(out) >= Wire.V2) {
+      Wire.writeVarint(out, (value << 1) ^ (value >> 63));
+      return;
     }
 
-    @Override
-    public Long read(InputStream in) throws IOException {
+    for (int i = 56; i >= 0; i -= 8) {
+      out.write((int)(0xFF & (value >>> i)));
+    }
 
-      long value = 0;
+  }
 
-      for (int i = 0; i < 8; i++) {
-        value = (value << 8) | in.read();
-      }
+  public static long readLong(InputStream in) throws IOException {
 
-      return value;
+    if (Wire.version(in) >= Wire.V2) {
+      final long zigzag = Wire.readVarint(in);
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    long value = 0;
 
+    for (int i = 0; i < 8; i++) {
+      value = (value << 8) | in.read();
     }
-  };
+
+    return value;
+
+  }
 
   public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
 
     @Override
     public void write(OutputStream out, byte[] value) throws IOException {
 
-      INTEGER.write(out, value.length);
+      writeInt(out, value.length);
       out.write(value);
 
     }
@@ -98,12 +149,10 @@ public final class Serializers {
     @Override
     public byte[] read(InputStream input) throws IOException {
 
-      final int length = INTEGER.read(input);
+      final int length = Limits.of(input).checkFieldSize(readInt(input));
       final byte[] array = new byte[length];
 
-      for (int i = 0; i < length; i++) {
-        array[i] = (byte)input.read();
-      }
+      readFully(input, array);
 
       return array;
 
@@ -115,25 +164,51 @@ public final class Serializers {
     @Override
     public void write(OutputStream out, String value) throws IOException {
 
-      BYTES.write(out, value.getBytes());
+      // Version 1 uses whatever charset the platform defaults to, which only
+      // works if both ends agree on it.
+      BYTES.write(out, Wire.version(out) >= Wire.V2 ?
+                       value.getBytes(StandardCharsets.UTF_8) :
+                       value.getBytes());
 
     }
 
     @Override
     public String read(InputStream input) throws IOException {
 
-      return new String(BYTES.read(input));
+      return Wire.version(input) >= Wire.V2 ?
+             new String(BYTES.read(input), StandardCharsets.UTF_8) :
+             new String(BYTES.read(input));
 
     }
   };
 
+  // READ FULLY
+  //
+  // Fill "bytes" from "in", asking for as many bytes as are still needed on
+  // every read instead of reading them one at a time. Throws an EOFException
+  // if the stream ends first.
+  public static void readFully(InputStream in, byte[] bytes) throws IOException {
+    readFully(in, bytes, 0, bytes.length);
+  }
+
+  // Fill "length" bytes of "bytes" starting at "offset".
+  public static void readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+    for (int read = 0; read < length; ) {
+      final int count = in.read(bytes, offset + read, length - read);
+      if (count < 0) {
+        throw new EOFException();
+      }
+      read += count;
+    }
+  }
+
   public static <T> Serializer<Collection<T>> collection(final Serializer<T> serializer) {
 
     return new Serializer<Collection<T>>() {
 
       @Override
       public void write(OutputStream out, Collection<T> value) throws IOException {
-        INTEGER.write(out, value.size());
+        writeInt(out, value.size());
         for (final T x : value) {
           serializer.write(out, x);
         }
@@ -141,8 +216,10 @@ public final class Serializers {
 
       @Override
       public Collection<T> read(InputStream in) throws IOException {
-        final int size = INTEGER.read(in);
-        Collection<T> list = new ArrayList<>(size);
+        final int size = Limits.of(in).checkFieldSize(readInt(in));
+        // Only as much room as values that have arrived can fill, rather than
+        // whatever the size asks for.
+        Collection<T> list = new ArrayList<>(Math.min(size, INITIAL_CAPACITY));
         for (int i = 0; i < size; i++) {
           list.add(serializer.read(in));
         }
@@ -151,6 +228,33 @@ public final class Serializers {
     };
   }
 
+  public static <K, V> Serializer<Map<K, V>> map(final Serializer<K> keys,
+                                                 final Serializer<V> values) {
+
+    return new Serializer<Map<K, V>>() {
+
+      @Override
+      public void write(OutputStream out, Map<K, V> value) throws IOException {
+        writeInt(out, value.size());
+        for (final Map.Entry<K, V> entry : value.entrySet()) {
+          keys.write(out, entry.getKey());
+          values.write(out, entry.getValue());
+        }
+      }
+
+      @Override
+      public Map<K, V> read(InputStream in) throws IOException {
+        final int size = Limits.of(in).checkFieldSize(readInt(in));
+        final Map<K, V> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+          final K key = keys.read(in);
+          map.put(key, values.read(in));
+        }
+        return map;
+      }
+    };
+  }
+
   public static <T> Serializer<T> nullable(final Serializer<T> serializer) {
 
     final int NO_VALUE = 0x00;
@@ -0,0 +1,222 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// STREAMS
+//
+// A way to send a list of values without knowing how many there are before
+// the first one is sent. "Serializers.collection" starts with the size, so the
+// whole list has to be built first. A stream is sent as chunks instead: the
+// number of values in the chunk followed by the values, ending with an empty
+// chunk. The writer only holds on to one chunk at a time and the reader can
+// hand out each value as soon as it has been read.
+public final class Streams {
+
+  private final static Logger.Log LOG = Logger.newLog(Streams.class);
+
+  // The most values a writer keeps before sending them.
+  public static final int CHUNK_SIZE = 64;
+
+  private Streams() { }
+
+  // WRITE
+  //
+  // Write every value "values" gives, followed by the end of the stream.
+  public static <T> void write(OutputStream out,
+                               Serializer<T> serializer,
+                               Iterator<? extends T> values) throws IOException {
+
+    final Writer<T> writer = new Writer<>(serializer, values);
+
+    while (writer.writeChunk(out)) {
+      // Every chunk goes to the same stream.
+    }
+  }
+
+  // WRITER
+  //
+  // Writes a stream one chunk at a time, for a caller that has something to do
+  // between chunks, such as sending each one before the next is made.
+  public static final class Writer<T> {
+
+    private final Serializer<T> serializer;
+    private final Iterator<? extends T> values;
+
+    private final List<T> chunk = new ArrayList<>(CHUNK_SIZE);
+    private boolean ended = false;
+
+    public Writer(Serializer<T> serializer, Iterator<? extends T> values) {
+      this.serializer = serializer;
+      this.values = values;
+    }
+
+    // WRITE CHUNK
+    //
+    // Write the next chunk, followed by the end of the stream if there are no
+    // values left. Returns true if there is more to write.
+    public boolean writeChunk(OutputStream out) throws IOException {
+
+      if (ended) {
+        return false;
+      }
+
+      while (chunk.size() < CHUNK_SIZE && values.hasNext()) {
+        chunk.add(values.next());
+      }
+
+      if (!chunk.isEmpty()) {
+        Serializers.writeInt(out, chunk.size());
+        for (final T value : chunk) {
+          serializer.write(out, value);
+        }
+        chunk.clear();
+      }
+
+      if (values.hasNext()) {
+        return true;
+      }
+
+      Serializers.writeInt(out, 0);
+      ended = true;
+      return false;
+    }
+  }
+
+  // SERIALIZER
+  //
+  // Writes every value an iterator gives as a stream, and reads a stream back
+  // as a Reader.
+  public static <T> StreamSerializer<T> serializer(Serializer<T> serializer) {
+    return new StreamSerializer<>(serializer);
+  }
+
+  // STREAM SERIALIZER
+  //
+  // See "serializer". It can also give a Writer, to write a stream one chunk
+  // at a time.
+  public static final class StreamSerializer<T> implements Serializer<Iterator<T>> {
+
+    private final Serializer<T> serializer;
+
+    private StreamSerializer(Serializer<T> serializer) {
+      this.serializer = serializer;
+    }
+
+    public Writer<T> writer(Iterator<? extends T> values) {
+      return new Writer<>(serializer, values);
+    }
+
+    @Override
+    public void write(OutputStream out, Iterator<T> values) throws IOException {
+      Streams.write(out, serializer, values);
+    }
+
+    @Override
+    public Iterator<T> read(InputStream in) {
+      return Streams.read(in, serializer);
+    }
+  }
+
+  // READ
+  //
+  // Read a stream from "in" one value at a time, as the reader is iterated.
+  public static <T> Reader<T> read(InputStream in, Serializer<T> serializer) {
+    return new Reader<>(in, serializer);
+  }
+
+  // READER
+  //
+  // Iterates over the values of a stream as they arrive. All reading happens
+  // in "hasNext", which reads the next value ahead so that "next" can never
+  // fail. If reading fails, the error is logged, the iteration ends early and
+  // "error" says why.
+  public static final class Reader<T> implements Iterator<T> {
+
+    private final InputStream in;
+    private final Serializer<T> serializer;
+
+    private int remaining = 0;  // Values left in the current chunk.
+    private boolean ended = false;
+    private IOException error = null;
+
+    private T next = null;
+    private boolean hasNext = false;
+
+    private Reader(InputStream in, Serializer<T> serializer) {
+      this.in = in;
+      this.serializer = serializer;
+    }
+
+    @Override
+    public boolean hasNext() {
+
+      if (hasNext || ended) {
+        return hasNext;
+      }
+
+      try {
+        if (remaining == 0) {
+          remaining = Limits.of(in).checkFieldSize(Serializers.readInt(in));
+        }
+        if (remaining == 0) {
+          ended = true;
+        } else {
+          next = serializer.read(in);
+          hasNext = true;
+          remaining--;
+        }
+      } catch (IOException ex) {
+        LOG.error(ex, "Failed to read stream.");
+        error = ex;
+        ended = true;
+      }
+
+      return hasNext;
+    }
+
+    @Override
+    public T next() {
+
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      final T value = next;
+      next = null;
+      hasNext = false;
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    // ERROR
+    //
+    // Why the stream ended early, or null if it has not (yet).
+    public IOException error() {
+      return error;
+    }
+  }
+}
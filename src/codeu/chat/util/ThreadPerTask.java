@@ -0,0 +1,77 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+// THREAD PER TASK
+//
+// Runs every task on a new thread of its own. When the JVM has virtual threads
+// (Java 21 and later) the threads are virtual, so a task that blocks on a
+// socket costs very little and tens of thousands of them can be alive at once.
+// On older JVMs each task gets a new platform thread.
+//
+// Virtual threads are found with reflection so that this still builds and runs
+// on the Java version the rest of the project targets.
+public final class ThreadPerTask implements Executor {
+
+  private final static Logger.Log LOG = Logger.newLog(ThreadPerTask.class);
+
+  private final ThreadFactory factory;
+  private final boolean virtual;
+
+  public ThreadPerTask() {
+
+    ThreadFactory found = null;
+
+    try {
+      final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      found = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+          .getMethod("factory")
+          .invoke(builder);
+    } catch (Exception ex) {
+      // Virtual threads are not available on this JVM.
+    }
+
+    if (found == null) {
+      LOG.info("Virtual threads are not available, using a platform thread per task.");
+      this.factory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          final Thread thread = new Thread(runnable);
+          thread.setDaemon(true);
+          return thread;
+        }
+      };
+      this.virtual = false;
+    } else {
+      this.factory = found;
+      this.virtual = true;
+    }
+  }
+
+  // IS VIRTUAL
+  //
+  // Check if tasks are run on virtual threads.
+  public boolean isVirtual() {
+    return virtual;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    factory.newThread(task).start();
+  }
+}
@@ -17,6 +17,7 @@ package codeu.chat.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -27,18 +28,37 @@ public final class Time implements Comparable<Time> {
     @Override
     public void write(OutputStream out, Time value) throws IOException {
 
-      Serializers.LONG.write(out, value.inMs());
+      // Version 2 writes the difference from the last time on "out" (see Wire).
+      Serializers.writeLong(out, Wire.context(out).encodeTime(value.inMs()));
 
     }
 
     @Override
     public Time read(InputStream in) throws IOException {
 
-      return Time.fromMs(Serializers.LONG.read(in));
+      return Time.fromMs(Wire.context(in).decodeTime(Serializers.readLong(in)));
 
     }
   };
 
+  public static final Codec<Time> CODEC = new Codec<Time>() {
+
+    @Override
+    public void write(ByteBuffer out, Time value, Wire.Context context) throws IOException {
+      Codecs.writeLong(out, context.encodeTime(value.inMs()), context);
+    }
+
+    @Override
+    public Time read(ByteBuffer in, Wire.Context context) throws IOException {
+      return Time.fromMs(context.decodeTime(Codecs.readLong(in, context)));
+    }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+      return Codecs.LONG.length(in, context);
+    }
+  };
+
   private static final SimpleDateFormat formatter =
       new SimpleDateFormat("dd-MMM-yyyy HH:mm:ss.SSS");
 
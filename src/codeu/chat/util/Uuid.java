@@ -15,9 +15,11 @@
 package codeu.chat.util;
 
 import java.lang.StringBuilder;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 public final class Uuid {
@@ -29,6 +31,11 @@ public final class Uuid {
     @Override
     public void write(OutputStream out, Uuid value) throws IOException {
 
+      if (Wire.version(out) >= Wire.V3) {
+        writeShared(out, value, 0);
+        return;
+      }
+
       int length = 0;
       for (Uuid current = value; current != null; current = current.root()) {
         length += 1;
@@ -37,27 +44,97 @@ public final class Uuid {
       // To make things easy, limit the max length to be 255. It should be unlikely
       // that this limit will ever be reached as most chains should be less than
       // three long.
-      if (length >= 0 && length <= 255) {
+      if (length >= 0 && length <= MAX_LENGTH) {
         out.write(length);
       } else {
         throw new IOException("Max supported Uuid chain length is 255");
       }
 
+      // Version 2 writes links unsigned: roots and generations count up from
+      // small numbers but random ids are just as likely to be negative.
+      final boolean compact = Wire.version(out) >= Wire.V2;
+
       for (Uuid current = value; current != null; current = current.root()) {
-        Serializers.INTEGER.write(out, current.id());
+        if (compact) {
+          Wire.writeVarint(out, current.id() & 0xFFFFFFFFL);
+        } else {
+          Serializers.writeInt(out, current.id());
+        }
       }
     }
 
     @Override
     public Uuid read(InputStream in) throws IOException {
 
+      if (Wire.version(in) >= Wire.V3) {
+        return readShared(in, 0);
+      }
+
       // "input.read" can only return one by of data so there is no need
       // to check that the bounds of 0 to 255 is respected.
       final int length = in.read();
+      if (length < 0) {
+        throw new EOFException();
+      }
+      final int[] chain = new int[length];
+      final boolean compact = Wire.version(in) >= Wire.V2;
+
+      for (int i = 0; i < length; i++) {
+        chain[i] = compact ? (int) Wire.readVarint(in) : Serializers.readInt(in);
+      }
+
+      Uuid head = null;
+
+      for (int i = length - 1; i >= 0; i--) {
+        head = new Uuid(head, chain[i]);
+      }
+
+      return head;
+    }
+  };
+
+  public static final Codec<Uuid> CODEC = new Codec<Uuid>() {
+
+    @Override
+    public void write(ByteBuffer out, Uuid value, Wire.Context context) throws IOException {
+
+      if (context.version >= Wire.V3) {
+        writeShared(out, value, context, 0);
+        return;
+      }
+
+      int length = 0;
+      for (Uuid current = value; current != null; current = current.root()) {
+        length += 1;
+      }
+
+      if (length > MAX_LENGTH) {
+        throw new IOException("Max supported Uuid chain length is 255");
+      }
+
+      out.put((byte) length);
+
+      for (Uuid current = value; current != null; current = current.root()) {
+        if (context.version >= Wire.V2) {
+          Wire.writeVarint(out, current.id() & 0xFFFFFFFFL);
+        } else {
+          out.putInt(current.id());
+        }
+      }
+    }
+
+    @Override
+    public Uuid read(ByteBuffer in, Wire.Context context) throws IOException {
+
+      if (context.version >= Wire.V3) {
+        return readShared(in, context, 0);
+      }
+
+      final int length = in.get() & 0xFF;
       final int[] chain = new int[length];
 
       for (int i = 0; i < length; i++) {
-        chain[i] = Serializers.INTEGER.read(in);
+        chain[i] = context.version >= Wire.V2 ? (int) Wire.readVarint(in) : in.getInt();
       }
 
       Uuid head = null;
@@ -68,8 +145,178 @@ public final class Uuid {
 
       return head;
     }
+
+    @Override
+    public int length(ByteBuffer in, Wire.Context context) throws IOException {
+
+      final ByteBuffer view = in.duplicate();
+
+      if (context.version >= Wire.V3) {
+        return sharedLength(view, in.position(), 0);
+      }
+
+      if (!view.hasRemaining()) {
+        return 1;
+      }
+
+      final int length = view.get() & 0xFF;
+
+      if (context.version < Wire.V2) {
+        return 1 + 4 * length;
+      }
+
+      for (int i = 0; i < length; i++) {
+        final int link = Wire.varintLength(view);
+        if (link > view.remaining()) {
+          return view.position() - in.position() + link;
+        }
+        view.position(view.position() + link);
+      }
+
+      return view.position() - in.position();
+    }
   };
 
+  private static final int MAX_LENGTH = 255;
+
+  // In version 3 (see Wire) each Uuid is written in full the first time it is
+  // written to a stream. After that it is written as its place among the Uuids
+  // already written to that stream. A Uuid is written in full as its root,
+  // written the same way, and then its own id, so a root that many Uuids share
+  // is only written once too. Every Uuid starts with one of these:
+  private static final int SHARED_NULL = 0;   // No Uuid.
+  private static final int SHARED_NEW = 1;    // A Uuid not written before.
+  private static final int SHARED_FIRST = 2;  // The first Uuid written; more count up from here.
+
+  private static void writeShared(OutputStream out, Uuid value, int depth) throws IOException {
+
+    if (value == null) {
+      Wire.writeVarint(out, SHARED_NULL);
+      return;
+    }
+
+    final Wire.Context context = Wire.context(out);
+    final int index = context.findUuid(value);
+
+    if (index >= 0) {
+      Wire.writeVarint(out, SHARED_FIRST + index);
+      return;
+    }
+
+    if (depth >= MAX_LENGTH) {
+      throw new IOException("Max supported Uuid chain length is 255");
+    }
+
+    Wire.writeVarint(out, SHARED_NEW);
+    writeShared(out, value.root(), depth + 1);
+    Wire.writeVarint(out, value.id() & 0xFFFFFFFFL);
+    context.addUuid(value);
+  }
+
+  private static Uuid readShared(InputStream in, int depth) throws IOException {
+
+    final long tag = Wire.readVarint(in);
+
+    if (tag == SHARED_NULL) {
+      return null;
+    }
+
+    if (tag != SHARED_NEW) {
+      return Wire.context(in).findUuid(tag - SHARED_FIRST);
+    }
+
+    if (depth >= MAX_LENGTH) {
+      throw new IOException("Max supported Uuid chain length is 255");
+    }
+
+    final Uuid root = readShared(in, depth + 1);
+    final Uuid value = new Uuid(root, (int) Wire.readVarint(in));
+    Wire.context(in).addUuid(value);
+    return value;
+  }
+
+  // The same as "writeShared" and "readShared" above, for CODEC.
+
+  private static void writeShared(ByteBuffer out, Uuid value, Wire.Context context, int depth)
+      throws IOException {
+
+    if (value == null) {
+      Wire.writeVarint(out, SHARED_NULL);
+      return;
+    }
+
+    final int index = context.findUuid(value);
+
+    if (index >= 0) {
+      Wire.writeVarint(out, SHARED_FIRST + index);
+      return;
+    }
+
+    if (depth >= MAX_LENGTH) {
+      throw new IOException("Max supported Uuid chain length is 255");
+    }
+
+    Wire.writeVarint(out, SHARED_NEW);
+    writeShared(out, value.root(), context, depth + 1);
+    Wire.writeVarint(out, value.id() & 0xFFFFFFFFL);
+    context.addUuid(value);
+  }
+
+  private static Uuid readShared(ByteBuffer in, Wire.Context context, int depth) throws IOException {
+
+    final long tag = Wire.readVarint(in);
+
+    if (tag == SHARED_NULL) {
+      return null;
+    }
+
+    if (tag != SHARED_NEW) {
+      return context.findUuid(tag - SHARED_FIRST);
+    }
+
+    if (depth >= MAX_LENGTH) {
+      throw new IOException("Max supported Uuid chain length is 255");
+    }
+
+    final Uuid root = readShared(in, context, depth + 1);
+    final Uuid value = new Uuid(root, (int) Wire.readVarint(in));
+    context.addUuid(value);
+    return value;
+  }
+
+  // The length of the shared Uuid at the position of "view", counted from
+  // "start", in the same way as Codec.length. Moves "view" past it.
+  private static int sharedLength(ByteBuffer view, int start, int depth) throws IOException {
+
+    final int tagLength = Wire.varintLength(view);
+
+    if (tagLength > view.remaining()) {
+      return view.position() - start + tagLength;
+    }
+
+    if (Wire.readVarint(view) != SHARED_NEW) {
+      return view.position() - start;
+    }
+
+    if (depth >= MAX_LENGTH) {
+      throw new IOException("Max supported Uuid chain length is 255");
+    }
+
+    final int rootLength = sharedLength(view, start, depth + 1);
+
+    if (rootLength > view.position() - start) {
+      return rootLength;
+    }
+
+    final int idLength = Wire.varintLength(view);
+
+    if (idLength > view.remaining()) {
+      return view.position() - start + idLength;
+    }
+
+    view.position(view.position() + idLength);
+    return view.position() - start;
+  }
 
   // GENERATOR
   //
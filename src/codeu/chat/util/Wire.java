@@ -0,0 +1,440 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// WIRE
+//
+// The versions of the format that values are written in.
+//
+// Version 1 is the format the chat has always used. Every int takes 4 bytes,
+// every long 8 and strings use the platform's default charset.
+//
+// Version 2 is more compact:
+//
+//   - Ints and longs are written as zigzag varints, so values near zero, either
+//     side of it, take one or two bytes.
+//   - Uuid links are written as unsigned varints, so roots and generations
+//     take a byte or two.
+//   - Strings are always UTF-8.
+//   - Each time is written as the difference from the time written before it
+//     on the same stream, so the creation times in a list of messages cost a
+//     few bytes each instead of 8.
+//
+// Version 3 is version 2, but every Uuid after the first time it is written
+// to a stream is written as a small number that says which of the Uuids
+// before it it is. Roots are shared the same way. Lists of messages name the
+// same authors, server root and neighbouring messages over and over, so most
+// of their Uuids take a byte or two, and reading them makes one Uuid for each
+// value instead of one for every time it appears.
+//
+// Version 4 writes values the same way as version 3. The difference is in
+// the header of a request (see VersionedConnectionSource), which also carries
+// flags. With ACCEPT_DEFLATE set, the server may send the response deflated
+// (see Deflation), as DEFLATED_RESPONSE followed by the length of the
+// response, the length of the deflated bytes and the deflated bytes.
+//
+// Version 5 is version 4, but each user, conversation summary and message is
+// written on its own (see Context.alone): its times and Uuids only depend on
+// what came before them in the same value, never on the values before it. A
+// value then has the same bytes wherever it is written, so the server can keep
+// them and copy them into every response (see EncodedCache). Each value is
+// bigger, as its times are written in full and its Uuids are not shared with
+// the values around it: a list of messages takes about 40% more bytes than in
+// version 4 (77 rather than 55 a message in WireSizeBenchmark). Clients only
+// use it when asked to, trading bytes on the wire for less work on the server.
+//
+// The serializers write and read whichever version the stream they are given
+// is marked with. A stream is version 1 unless it was wrapped by "out" or "in".
+// As times and Uuids depend on what came before them, both ends must use one
+// wrapped stream for all of a request or response.
+public final class Wire {
+
+  public static final int V1 = 1;
+  public static final int V2 = 2;
+  public static final int V3 = 3;
+
+  public static final int V4 = 4;
+  public static final int V5 = 5;
+
+  // The version clients ask for unless they are told otherwise.
+  public static final int LATEST = V4;
+
+  // The newest version there is. Servers answer every version up to it.
+  public static final int NEWEST = V5;
+
+  // The flags in the header of a request, from version 4.
+  public static final int ACCEPT_DEFLATE = 1;
+
+  private Wire() { }
+
+  public static boolean supports(int version) {
+    return version >= V1 && version <= NEWEST;
+  }
+
+  // OUT
+  //
+  // Mark "out" so that the serializers write "version" to it.
+  public static OutputStream out(OutputStream out, int version) {
+    return version == V1 ? out : new Output(out, version);
+  }
+
+  // IN
+  //
+  // Mark "in" so that the serializers read "version" from it, checking what
+  // they read against Limits.RESPONSES.
+  public static InputStream in(InputStream in, int version) {
+    return in(in, version, Limits.RESPONSES);
+  }
+
+  // IN
+  //
+  // Mark "in" so that the serializers read "version" from it, checking what
+  // they read against "limits".
+  public static InputStream in(InputStream in, int version, Limits limits) {
+    return version == V1 && limits == Limits.RESPONSES ? in : new Input(in, version, limits);
+  }
+
+  public static int version(OutputStream out) {
+    return context(out).version;
+  }
+
+  public static int version(InputStream in) {
+    return context(in).version;
+  }
+
+  // CONTEXT
+  //
+  // The context that values written to "out" are written in.
+  public static Context context(OutputStream out) {
+    return out instanceof Output ? ((Output) out).context : V1_CONTEXT;
+  }
+
+  public static Context context(InputStream in) {
+    return in instanceof Input ? ((Input) in).context : V1_CONTEXT;
+  }
+
+  // Version 1 does not depend on what came before, so one context does for
+  // every version 1 stream that has the default limits.
+  private static final Context V1_CONTEXT = new Context(V1);
+
+  // CONTEXT
+  //
+  // The version that one request or response is written in and what has been
+  // written or read so far that later values depend on: the last time and the
+  // Uuids already seen. Streams made by "out" and "in" each have one. Codecs
+  // (see Codec) are given one directly. A context is used either for writing
+  // or for reading, never both.
+  public static final class Context {
+
+    public final int version;
+
+    // What sizes read in this context are checked against (see Limits).
+    public final Limits limits;
+
+    private long lastTime = 0;
+
+    // The Uuids already seen, in the order they were first seen. "table"
+    // finds where one is among them without boxing or allocating: it is open
+    // addressing on each Uuid's own int, as in IdStore, and each slot holds an
+    // index into "uuids" plus one, so zero is an empty slot. Only a context
+    // that writes looks Uuids up, so the table is only made the first time
+    // that is needed, and made again after "reset" or when it is half full.
+    private Uuid[] uuids = NO_UUIDS;
+    private int uuidCount = 0;
+    private int[] table = null;
+
+    private long markedTime = 0;
+    private int markedUuids = 0;
+
+    // See "alone". Made the first time it is needed.
+    private Context alone = null;
+
+    public Context(int version) {
+      this(version, Limits.RESPONSES);
+    }
+
+    public Context(int version, Limits limits) {
+      this.version = version;
+      this.limits = limits;
+    }
+
+    // ALONE
+    //
+    // The context to write or read one whole value in so that its bytes do not
+    // depend on anything written before it. From version 5 this is an empty
+    // context of the same version, and what is written in it is not
+    // remembered afterwards. Before version 5 it is this context. Each call
+    // empties the context it returns, so one value must be finished before
+    // the next one is started.
+    public Context alone() {
+      if (version < V5) {
+        return this;
+      }
+      if (alone == null) {
+        alone = new Context(version, limits);
+      } else {
+        alone.lastTime = 0;
+        alone.clearUuids();
+      }
+      return alone;
+    }
+
+    // STANDS ALONE
+    //
+    // True if values written on their own (see "alone") in this version have
+    // the same bytes wherever they are written.
+    public static boolean standsAlone(int version) {
+      return version == V1 || version >= V5;
+    }
+
+    // MARK
+    //
+    // Remember where the context is so that "reset" can go back to it, for
+    // when something written after it is thrown away.
+    void mark() {
+      if (version == V1) {
+        return;  // Nothing to remember, and the context is shared.
+      }
+      markedTime = lastTime;
+      markedUuids = uuidCount;
+    }
+
+    void reset() {
+      if (version == V1) {
+        return;
+      }
+      lastTime = markedTime;
+      if (uuidCount > markedUuids) {
+        Arrays.fill(uuids, markedUuids, uuidCount, null);
+        uuidCount = markedUuids;
+        table = null;
+      }
+    }
+
+    // Turn a time into what is written for it.
+    long encodeTime(long ms) {
+      if (version < V2) {
+        return ms;
+      }
+      final long delta = ms - lastTime;
+      lastTime = ms;
+      return delta;
+    }
+
+    // Turn what was read for a time back into the time.
+    long decodeTime(long value) {
+      if (version < V2) {
+        return value;
+      }
+      lastTime += value;
+      return lastTime;
+    }
+
+    // FIND UUID
+    //
+    // Where "uuid" is among the Uuids already seen, or -1 if it has not been
+    // seen yet.
+    int findUuid(Uuid uuid) {
+
+      if (uuidCount == 0) {
+        return -1;
+      }
+
+      if (table == null) {
+        makeTable();
+      }
+
+      final int id = uuid.id();
+      final int mask = table.length - 1;
+
+      for (int slot = hash(id) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+        final int index = table[slot] - 1;
+        if (uuids[index].id() == id && Uuid.equals(uuids[index], uuid)) {
+          return index;
+        }
+      }
+
+      return -1;
+    }
+
+    // The Uuid at "index" among those already seen.
+    Uuid findUuid(long index) throws IOException {
+      if (index < 0 || index >= uuidCount) {
+        throw new IOException(String.format("Unknown Uuid %d.", index));
+      }
+      return uuids[(int) index];
+    }
+
+    void addUuid(Uuid uuid) {
+
+      if (uuidCount == uuids.length) {
+        uuids = Arrays.copyOf(uuids, Math.max(TABLE_SIZE, 2 * uuidCount));
+      }
+
+      uuids[uuidCount++] = uuid;
+
+      if (table != null) {
+        if (2 * uuidCount > table.length) {
+          makeTable();
+        } else {
+          put(uuidCount - 1);
+        }
+      }
+    }
+
+    private void clearUuids() {
+      Arrays.fill(uuids, 0, uuidCount, null);
+      uuidCount = 0;
+      if (table != null) {
+        Arrays.fill(table, 0);
+      }
+    }
+
+    private void makeTable() {
+      int size = TABLE_SIZE;
+      while (size < 2 * uuidCount) {
+        size *= 2;
+      }
+      table = new int[size];
+      for (int i = 0; i < uuidCount; i++) {
+        put(i);
+      }
+    }
+
+    private void put(int index) {
+      final int mask = table.length - 1;
+      int slot = hash(uuids[index].id()) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = index + 1;
+    }
+
+    // Spread ids that count up (see LinearUuidGenerator) across the table.
+    private static int hash(int id) {
+      final int h = id * 0x9E3779B9;
+      return h ^ (h >>> 16);
+    }
+  }
+
+  private static final Uuid[] NO_UUIDS = new Uuid[0];
+
+  // The smallest table, and the room made for Uuids the first time one is
+  // added. A power of two.
+  private static final int TABLE_SIZE = 16;
+
+  // WRITE VARINT
+  //
+  // Write "value" as an unsigned varint: seven bits per byte, lowest bits
+  // first, with the top bit set on every byte but the last.
+  static void writeVarint(OutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  static long readVarint(InputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final int b = in.read();
+      if (b < 0) {
+        throw new EOFException();
+      }
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Varint is too long.");
+  }
+
+  // The same as the stream versions above, for codecs.
+
+  static void writeVarint(ByteBuffer out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.put((byte) value);
+  }
+
+  static long readVarint(ByteBuffer in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      final byte b = in.get();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Varint is too long.");
+  }
+
+  // The length of the varint at the position of "in", in the same way as
+  // Codec.length.
+  static int varintLength(ByteBuffer in) throws IOException {
+    for (int i = 0; i < MAX_VARINT_LENGTH; i++) {
+      if (i >= in.remaining() || (in.get(in.position() + i) & 0x80) == 0) {
+        return i + 1;
+      }
+    }
+    throw new IOException("Varint is too long.");
+  }
+
+  private static final int MAX_VARINT_LENGTH = 10;
+
+  // OUTPUT
+  //
+  // An output stream marked with the version to write to it.
+  private static final class Output extends FilterOutputStream {
+
+    private final Context context;
+
+    public Output(OutputStream out, int version) {
+      super(out);
+      this.context = new Context(version);
+    }
+
+    // FilterOutputStream would write the bytes one at a time.
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+    }
+  }
+
+  // INPUT
+  //
+  // An input stream marked with the version to read from it.
+  private static final class Input extends FilterInputStream {
+
+    private final Context context;
+
+    public Input(InputStream in, int version, Limits limits) {
+      super(in);
+      this.context = new Context(version, limits);
+    }
+  }
+}
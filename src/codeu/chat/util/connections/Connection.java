@@ -19,9 +19,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+// CONNECTION
+//
+// A two-way stream of bytes. "out" may be buffered, so flush it once a whole
+// request or response has been written.
 public interface Connection extends Closeable {
 
   InputStream in() throws IOException;
   OutputStream out() throws IOException;
 
+  // The address of the other end, or null if it is not known.
+  String remoteAddress();
+
 }
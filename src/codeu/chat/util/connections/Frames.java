@@ -0,0 +1,127 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import codeu.chat.util.Limits;
+
+// FRAMES
+//
+// A frame is a block of bytes with its length written in front of it. Framing
+// lets the reader know when a whole request or response has arrived without
+// having to understand what is inside of it.
+public final class Frames {
+
+  // The number of bytes used to write the length of a frame.
+  public static final int HEADER_SIZE = 4;
+
+  // WRITE
+  //
+  // Write "bytes" as a single frame. The length and the bytes are handed to the
+  // stream in one write so that a socket does not send the length on its own
+  // and then wait for it to be acknowledged before sending the rest.
+  public static void write(OutputStream out, byte[] bytes) throws IOException {
+
+    final byte[] frame = new byte[HEADER_SIZE + bytes.length];
+
+    putHeader(frame, 0, bytes.length);
+
+    System.arraycopy(bytes, 0, frame, HEADER_SIZE, bytes.length);
+
+    out.write(frame);
+    out.flush();
+  }
+
+  // WRITE
+  //
+  // Write "bytes" as a single frame that starts with "id", for connections that
+  // can have more than one request waiting for its response (see
+  // PipelineConnectionSource). Read the id back with "header(frame, 0)".
+  public static void write(OutputStream out, int id, byte[] bytes) throws IOException {
+    out.write(tagged(id, bytes));
+    out.flush();
+  }
+
+  // TAGGED
+  //
+  // The whole of a frame that starts with "id", header included, as it would
+  // be written by "write(out, id, bytes)".
+  public static byte[] tagged(int id, byte[] bytes) {
+
+    final int length = HEADER_SIZE + bytes.length;
+    final byte[] frame = new byte[HEADER_SIZE + length];
+
+    putHeader(frame, 0, length);
+    putHeader(frame, HEADER_SIZE, id);
+
+    System.arraycopy(bytes, 0, frame, 2 * HEADER_SIZE, bytes.length);
+
+    return frame;
+  }
+
+  // READ
+  //
+  // Read the next frame of a response, checked against Limits.RESPONSES. See
+  // "read(in, limits)".
+  public static byte[] read(InputStream in) throws IOException {
+    return read(in, Limits.RESPONSES);
+  }
+
+  // READ
+  //
+  // Read the next frame, failing if it is longer than "limits" allow. If the
+  // stream ended cleanly before the frame started, null is returned. If the
+  // stream ended part-way through a frame an EOFException is thrown.
+  public static byte[] read(InputStream in, Limits limits) throws IOException {
+
+    final int first = in.read();
+
+    if (first < 0) {
+      return null;
+    }
+
+    final DataInputStream data = new DataInputStream(in);
+
+    final int length = (first << 24) | (data.readUnsignedByte() << 16) |
+                       (data.readUnsignedByte() << 8) | data.readUnsignedByte();
+
+    limits.checkFrameSize(length);
+
+    final byte[] bytes = new byte[length];
+    data.readFully(bytes);
+    return bytes;
+  }
+
+  // HEADER
+  //
+  // Read the frame length from the first four bytes of "bytes" starting at
+  // "offset". This is for readers that collect bytes themselves.
+  public static int header(byte[] bytes, int offset) {
+    return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16) |
+           ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+  }
+
+  private static void putHeader(byte[] bytes, int offset, int value) {
+    bytes[offset] = (byte) (value >>> 24);
+    bytes[offset + 1] = (byte) (value >>> 16);
+    bytes[offset + 2] = (byte) (value >>> 8);
+    bytes[offset + 3] = (byte) value;
+  }
+}
@@ -15,10 +15,7 @@
 package codeu.chat.util.connections;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.ServerSocket;
-import java.net.Socket;
 
 // SERVER CONNECTION SOURCE
 //
@@ -35,7 +32,7 @@ public final class ServerConnectionSource implements ConnectionSource {
 
   @Override
   public Connection connect() throws IOException {
-    return fromSocket(serverSocket.accept());
+    return new SocketConnection(serverSocket.accept());
   }
 
   @Override
@@ -43,27 +40,6 @@ public final class ServerConnectionSource implements ConnectionSource {
     serverSocket.close();
   }
 
-  private static Connection fromSocket(final Socket socket) throws IOException {
-
-    return new Connection() {
-
-      @Override
-      public InputStream in() throws IOException {
-        return socket.getInputStream();
-      }
-
-      @Override
-      public OutputStream out() throws IOException {
-        return socket.getOutputStream();
-      }
-
-      @Override
-      public void close() throws IOException {
-        socket.close();
-      }
-    };
-  }
-
   public static ConnectionSource forPort(int port) throws IOException {
     return new ServerConnectionSource(new ServerSocket(port));
   }
@@ -0,0 +1,105 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+// SOCKET CONNECTION
+//
+// A connection over a socket with buffered streams. The serializers write and
+// read a few bytes at a time, and without buffers every one of those calls
+// goes to the socket on its own.
+//
+// Whatever is written to "out" stays in memory until "out" is flushed, so
+// writers should flush once a whole request or response has been written.
+// As a safety net, "in" flushes "out" before it waits on the socket, so a
+// missing flush only costs time and can never leave both ends waiting on
+// each other. Closing the connection flushes it too.
+final class SocketConnection implements Connection {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final Socket socket;
+  private final OutputStream out;
+  private final InputStream in;
+
+  public SocketConnection(Socket socket) throws IOException {
+
+    this.socket = socket;
+
+    // Requests and responses are now handed to the socket whole, so there is
+    // nothing to gain from having it hold small writes back.
+    socket.setTcpNoDelay(true);
+
+    this.out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    this.in = new BufferedInputStream(new FlushingInputStream(socket.getInputStream(), out), BUFFER_SIZE);
+  }
+
+  @Override
+  public InputStream in() {
+    return in;
+  }
+
+  @Override
+  public OutputStream out() {
+    return out;
+  }
+
+  @Override
+  public String remoteAddress() {
+    return socket.getInetAddress().getHostAddress();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      out.flush();
+    } finally {
+      socket.close();
+    }
+  }
+
+  // FLUSHING INPUT STREAM
+  //
+  // Flushes "out" every time it is about to read from the socket. It sits under
+  // the input buffer, so it is only called when the buffer is empty.
+  private static final class FlushingInputStream extends FilterInputStream {
+
+    private final OutputStream out;
+
+    public FlushingInputStream(InputStream in, OutputStream out) {
+      super(in);
+      this.out = out;
+    }
+
+    @Override
+    public int read() throws IOException {
+      out.flush();
+      return super.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      out.flush();
+      return super.read(buffer, offset, length);
+    }
+  }
+}
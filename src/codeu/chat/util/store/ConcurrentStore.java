@@ -0,0 +1,143 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.store;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+// CONCURRENT STORE
+//
+// A store that can be read from any number of threads while another thread
+// inserts into it. Reads never take a lock and never see a value part-way
+// through being inserted.
+//
+// The keys are held in a skip list (see ConcurrentSkipListMap), which hands
+// new keys from the inserting thread to readers safely. The values of each
+// key are held in insertion order by ConcurrentValues, which does the same
+// for the values of a key that is already there.
+//
+// Iterating is weakly consistent: it never fails because of an insert, every
+// value that was there when iterating started is seen once and in order, and
+// values inserted since may or may not be seen. The values of one key are
+// the ones it had when iterating reached it.
+//
+// Inserts take the store's lock, so they happen one at a time, but they never
+// hold up reads.
+public final class ConcurrentStore<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
+
+  private final ConcurrentNavigableMap<KEY, ConcurrentValues<VALUE>> index;
+
+  private final Comparator<KEY> comparator;
+
+  public ConcurrentStore(Comparator<KEY> comparator) {
+    this.index = new ConcurrentSkipListMap<>(comparator);
+    this.comparator = comparator;
+  }
+
+  // INSERT
+  //
+  // Add "value" under "key", after every value that already has the key.
+  public synchronized void insert(KEY key, VALUE value) {
+
+    final ConcurrentValues<VALUE> values = index.get(key);
+
+    if (values == null) {
+      index.put(key, new ConcurrentValues<>(value));
+    } else {
+      values.add(value);
+    }
+  }
+
+  @Override
+  public VALUE first(KEY key) {
+    final ConcurrentValues<VALUE> values = index.get(key);
+    return values == null ? null : values.first();
+  }
+
+  @Override
+  public Iterable<VALUE> all() {
+    return flatten(index.values());
+  }
+
+  @Override
+  public Iterable<VALUE> at(final KEY key) {
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+        final ConcurrentValues<VALUE> values = index.get(key);
+        return values == null ? Collections.<VALUE>emptyIterator() : values.iterator();
+      }
+    };
+  }
+
+  @Override
+  public Iterable<VALUE> after(KEY start) {
+    return flatten(index.tailMap(start, true).values());
+  }
+
+  @Override
+  public Iterable<VALUE> before(KEY end) {
+    return flatten(index.headMap(end, true).values());
+  }
+
+  @Override
+  public Iterable<VALUE> range(KEY start, KEY end) {
+    if (comparator.compare(start, end) > 0) {
+      return Collections.emptyList();
+    }
+    return flatten(index.subMap(start, true, end, true).values());
+  }
+
+  // Every value of every key in "keys", in key order.
+  private static <VALUE> Iterable<VALUE> flatten(final Collection<ConcurrentValues<VALUE>> keys) {
+    return new Iterable<VALUE>() {
+      @Override
+      public Iterator<VALUE> iterator() {
+
+        final Iterator<ConcurrentValues<VALUE>> links = keys.iterator();
+
+        return new Iterator<VALUE>() {
+
+          private Iterator<VALUE> values = Collections.emptyIterator();
+
+          @Override
+          public boolean hasNext() {
+            while (!values.hasNext() && links.hasNext()) {
+              values = links.next().iterator();
+            }
+            return values.hasNext();
+          }
+
+          @Override
+          public VALUE next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            return values.next();
+          }
+
+          @Override
+          public void remove() {
+            throw new UnsupportedOperationException();
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,125 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.store;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// CONCURRENT VALUES
+//
+// Every value inserted into a concurrent store with one key, in the order
+// they were inserted. Values are held the same way as in a StoreLink, but
+// what one thread adds is safely published to every other thread.
+//
+// Only one thread may add at a time. Any number of threads may read while it
+// does. A new value is written to its slot first and only then counted in
+// "size", which is volatile, so a reader that sees the new size also sees
+// the value. A chunk that readers may already hold is never changed in place
+// once it holds values they can see: growing the first chunk copies it, and
+// the new chunk is put in a new array of chunks.
+final class ConcurrentValues<VALUE> implements Iterable<VALUE> {
+
+  private static final int FIRST_CHUNK_SIZE = 4;
+  private static final int CHUNK_SIZE = 256;
+
+  private final VALUE first;
+
+  // Every value after the first. Null until there is a second value.
+  private volatile Object[][] chunks = null;
+  private volatile int size = 1;
+
+  public ConcurrentValues(VALUE first) {
+    this.first = first;
+  }
+
+  public VALUE first() {
+    return first;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  // ADD
+  //
+  // Add "value" after every value there already is. Only one thread may add
+  // at a time.
+  public void add(VALUE value) {
+
+    final int at = size - 1;
+    final int chunk = at / CHUNK_SIZE;
+    final int offset = at % CHUNK_SIZE;
+
+    Object[][] current = chunks;
+
+    if (current == null) {
+      current = new Object[1][];
+    } else if (chunk == current.length) {
+      current = Arrays.copyOf(current, current.length * 2);
+    }
+
+    if (current[chunk] == null) {
+      // No reader can be looking at this slot, nothing in it has been counted.
+      current[chunk] = new Object[chunk == 0 ? FIRST_CHUNK_SIZE : CHUNK_SIZE];
+    } else if (offset == current[chunk].length) {
+      // Only the first chunk is ever short. Readers may be holding it, so the
+      // bigger copy goes into a new array of chunks.
+      current = current.clone();
+      current[chunk] = Arrays.copyOf(current[chunk], Math.min(2 * offset, CHUNK_SIZE));
+    }
+
+    current[chunk][offset] = value;
+
+    chunks = current;
+    size = at + 2;
+  }
+
+  // ITERATOR
+  //
+  // The values there are when the iterator is made. Values added after that
+  // are not seen.
+  @Override
+  public Iterator<VALUE> iterator() {
+
+    // Size first: the chunks read after it hold at least that many values.
+    final int count = size;
+    final Object[][] values = chunks;
+
+    return new Iterator<VALUE>() {
+
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return index < count;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public VALUE next() {
+        if (index >= count) {
+          throw new NoSuchElementException();
+        }
+        final int at = index++ - 1;
+        return at < 0 ? first : (VALUE) values[at / CHUNK_SIZE][at % CHUNK_SIZE];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -16,6 +16,7 @@ package codeu.chat.util.store;
 
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 final class LinkIterator<KEY, VALUE> implements Iterator<VALUE> {
 
@@ -24,6 +25,9 @@ final class LinkIterator<KEY, VALUE> implements Iterator<VALUE> {
 
   private StoreLink<KEY, VALUE> current;
 
+  // The index of the next value of "current" (see StoreLink).
+  private int index = 0;
+
   public LinkIterator(Comparator<KEY> comparator, StoreLink<KEY, VALUE> first, StoreLink<KEY, VALUE> last) {
     this.comparator = comparator;
     this.last = last;
@@ -32,14 +36,21 @@ final class LinkIterator<KEY, VALUE> implements Iterator<VALUE> {
 
   @Override
   public boolean hasNext() {
-    return current != null && comparator.compare(current.key, last.key) <= 0;
+
+    while (current != null && index >= current.size()) {
+      current = current.next;
+      index = 0;
+    }
+
+    return current != null && last != null && comparator.compare(current.key, last.key) <= 0;
   }
 
   @Override
   public VALUE next() {
-    final VALUE value = current.value;
-    current = current.next;
-    return value;
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.get(index++);
   }
 
   @Override
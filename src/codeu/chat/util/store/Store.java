@@ -35,36 +35,28 @@ public final class Store<KEY, VALUE> implements StoreAccessor<KEY, VALUE> {
     this.comparator = comparator;
   }
 
+  // INSERT
+  //
+  // Add "value" under "key". Values with equal keys are kept together in one
+  // link (see StoreLink) in the order they were inserted, so inserting costs
+  // one search of the index however many values already have the key.
   public void insert(KEY key, VALUE value) {
 
     final StoreLink<KEY, VALUE> closestLink = floor(key);
 
-    // Assume that the new value can only come after the current position. Move
-    // through the chain of links until the next link is either the end (null)
-    // or will logically come after the new value.
-    StoreLink<KEY, VALUE> current = (closestLink == null) ? (rootLink) : (closestLink);
-    while(current.next != null && comparator.compare(current.next.key, key) <= 0) {
-      current = current.next;
+    if (closestLink != null && comparator.compare(closestLink.key, key) == 0) {
+      closestLink.add(value);
+      return;
     }
 
-    // "current.next" may be null, but "current" can never be null. So it
-    // should always be safe to call to current.
+    // No two links have equal keys, so the link after the closest one always
+    // comes after the new value.
+    final StoreLink<KEY, VALUE> current = (closestLink == null) ? (rootLink) : (closestLink);
+
     final StoreLink<KEY, VALUE> newLink = new StoreLink<>(key, value, current.next);
     current.next = newLink;
 
-    // Before adding the link to the index, first check if the hint has an
-    // equal key. If it does - do not add the index.
-    //
-    // There are two reasons for this:
-    //  1. The index class does not handle duplicate keys well (as stated in
-    //     the code for the index).
-    //  2. There is no advantage to having multiple equal keys in the index as
-    //     it would not help with the interators. As long as the key will map
-    //     to the first link, the other links will always be found. This is
-    //     why the insert is always put at the end of the series.
-    if (closestLink == null || comparator.compare(newLink.key, closestLink.key) != 0) {
-      index.put(key, newLink);
-    }
+    index.put(key, newLink);
   }
 
   @Override
@@ -14,15 +14,73 @@
 
 package codeu.chat.util.store;
 
+import java.util.Arrays;
+
+// STORE LINK
+//
+// One key in a store and every value that was inserted with it, in the order
+// they were inserted. The first value is held on its own, as most keys only
+// ever have one. The rest are held in chunks of CHUNK_SIZE values so that a
+// key with many values can take another one without moving the ones it has.
+// The first chunk starts small and grows up to CHUNK_SIZE.
 final class StoreLink<KEY, VALUE> {
 
+  private static final int FIRST_CHUNK_SIZE = 4;
+  private static final int CHUNK_SIZE = 256;
+
   public final KEY key;
   public final VALUE value;
   public StoreLink<KEY, VALUE> next;
 
+  // Every value after the first. Null until there is a second value.
+  private Object[][] chunks = null;
+  private int size = 1;
+
   public StoreLink(KEY key, VALUE value, StoreLink<KEY, VALUE> next) {
     this.key = key;
     this.value = value;
     this.next = next;
   }
+
+  public int size() {
+    return size;
+  }
+
+  // ADD
+  //
+  // Add "value" after every value the link already has.
+  public void add(VALUE value) {
+
+    final int at = size - 1;
+    final int chunk = at / CHUNK_SIZE;
+    final int offset = at % CHUNK_SIZE;
+
+    if (chunks == null) {
+      chunks = new Object[1][];
+    } else if (chunk == chunks.length) {
+      chunks = Arrays.copyOf(chunks, chunks.length * 2);
+    }
+
+    if (chunks[chunk] == null) {
+      chunks[chunk] = new Object[chunk == 0 ? FIRST_CHUNK_SIZE : CHUNK_SIZE];
+    } else if (offset == chunks[chunk].length) {
+      // Only the first chunk is ever short.
+      chunks[chunk] = Arrays.copyOf(chunks[chunk], Math.min(2 * offset, CHUNK_SIZE));
+    }
+
+    chunks[chunk][offset] = value;
+    size += 1;
+  }
+
+  // GET
+  //
+  // The value that was inserted "index"th with the key, counting from zero.
+  @SuppressWarnings("unchecked")
+  public VALUE get(int index) {
+    if (index == 0) {
+      return value;
+    }
+    final int at = index - 1;
+    return (VALUE) chunks[at / CHUNK_SIZE][at % CHUNK_SIZE];
+  }
 }
@@ -44,14 +44,36 @@ public final class TestRunner {
     // Run the tests
     final Result result =
       JUnitCore.runClasses(
+        codeu.chat.client.BatchTest.class,
+        codeu.chat.common.PipelineConnectionSourceTest.class,
         codeu.chat.common.SecretTest.class,
+        codeu.chat.common.SessionConnectionSourceTest.class,
+        codeu.chat.common.VersionedConnectionSourceTest.class,
         codeu.chat.relay.ServerTest.class,
+        codeu.chat.server.AdmissionTest.class,
         codeu.chat.server.BasicControllerTest.class,
+        codeu.chat.server.ChangeWaitersTest.class,
+        codeu.chat.server.DispatcherTest.class,
+        codeu.chat.server.EncodedCacheTest.class,
+        codeu.chat.server.HandlerTest.class,
+        codeu.chat.server.IdStoreTest.class,
+        codeu.chat.server.MessageIndexTest.class,
+        codeu.chat.server.NioFrontEndTest.class,
+        codeu.chat.server.TextIndexTest.class,
+        codeu.chat.server.ViewTest.class,
+        codeu.chat.server.SubscriptionsTest.class,
         codeu.chat.server.RawControllerTest.class,
+        codeu.chat.server.ServerTest.class,
         codeu.chat.server.DatabaseTest.class,
         codeu.chat.util.TimeTest.class,
         codeu.chat.util.UuidTest.class,
-        codeu.chat.util.store.StoreTest.class
+        codeu.chat.util.WireTest.class,
+        codeu.chat.util.CodecTest.class,
+        codeu.chat.util.DeflationTest.class,
+        codeu.chat.util.LimitsTest.class,
+        codeu.chat.util.StreamsTest.class,
+        codeu.chat.util.store.StoreTest.class,
+        codeu.chat.util.store.ConcurrentStoreTest.class
       );
     if (result.wasSuccessful()) {
       System.out.println("\nAll Tests Passed");
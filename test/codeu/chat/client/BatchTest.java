@@ -0,0 +1,265 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Limits;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+public final class BatchTest {
+
+  // A connection source where each new connection replies with the next of
+  // the pre-recorded replies. It remembers what was written to each one.
+  private static final class ScriptedSource implements ConnectionSource {
+
+    private final byte[][] replies;
+    public final List<ByteArrayOutputStream> written = new ArrayList<>();
+
+    public ScriptedSource(byte[]... replies) {
+      this.replies = replies;
+    }
+
+    @Override
+    public Connection connect() {
+
+      final InputStream in = new ByteArrayInputStream(replies[written.size()]);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      written.add(out);
+
+      return new Connection() {
+        @Override
+        public InputStream in() { return in; }
+        @Override
+        public OutputStream out() { return out; }
+        @Override
+        public String remoteAddress() { return null; }
+        @Override
+        public void close() { }
+      };
+    }
+
+    @Override
+    public void close() { }
+  }
+
+  private static final User USER = new User(new Uuid(7), "user", Time.fromMs(0));
+  private static final Uuid GENERATION = new Uuid(3);
+
+  private static byte[] generationResponse() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(bytes, NetworkCode.GET_USER_GENERATION_RESPONSE);
+    Uuid.SERIALIZER.write(bytes, GENERATION);
+    return bytes.toByteArray();
+  }
+
+  private static byte[] usersResponse() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(bytes, NetworkCode.GET_USERS_BY_ID_RESPONSE);
+    Serializers.collection(User.SERIALIZER).write(bytes, Arrays.asList(USER));
+    return bytes.toByteArray();
+  }
+
+  // Add a call for the user generation and one for USER to "batch". Each
+  // result is added to "results" when it arrives.
+  private static void addCalls(Batch batch, final List<Object> results) {
+
+    batch.getUserGeneration(new Batch.Callback<Uuid>() {
+      @Override
+      public void done(Uuid generation) {
+        results.add(generation);
+      }
+    });
+
+    batch.getUsers(Arrays.asList(USER.id), new Batch.Callback<Collection<User>>() {
+      @Override
+      public void done(Collection<User> users) {
+        for (final User user : users) {
+          results.add(user.id);
+        }
+      }
+    });
+  }
+
+  @Test
+  public void testOneRoundTrip() throws IOException {
+
+    final ByteArrayOutputStream reply = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(reply, NetworkCode.BATCH_RESPONSE);
+    Serializers.collection(Serializers.BYTES).write(
+        reply,
+        Arrays.asList(generationResponse(), usersResponse()));
+
+    final ScriptedSource server = new ScriptedSource(reply.toByteArray());
+    final List<Object> results = new ArrayList<>();
+
+    final Batch batch = new View(server).batch();
+    addCalls(batch, results);
+    batch.send();
+
+    assertEquals(1, server.written.size());
+    assertEquals(Arrays.<Object>asList(GENERATION, USER.id), results);
+
+    final InputStream request = new ByteArrayInputStream(server.written.get(0).toByteArray());
+    assertEquals(NetworkCode.BATCH_REQUEST, (int) Serializers.INTEGER.read(request));
+    assertEquals(2, Serializers.collection(Serializers.BYTES).read(request).size());
+  }
+
+  @Test
+  public void testFetchThenFinish() throws IOException {
+
+    final ByteArrayOutputStream reply = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(reply, NetworkCode.BATCH_RESPONSE);
+    Serializers.collection(Serializers.BYTES).write(
+        reply,
+        Arrays.asList(generationResponse(), usersResponse()));
+
+    final ScriptedSource server = new ScriptedSource(reply.toByteArray());
+    final List<Object> results = new ArrayList<>();
+
+    final Batch batch = new View(server).batch();
+    addCalls(batch, results);
+
+    // Fetching talks to the server but leaves the callbacks to "finish".
+    batch.fetch();
+    assertEquals(1, server.written.size());
+    assertTrue(results.isEmpty());
+
+    batch.finish();
+    assertEquals(Arrays.<Object>asList(GENERATION, USER.id), results);
+
+    // The batch is empty again.
+    batch.send();
+    assertEquals(1, server.written.size());
+  }
+
+  @Test
+  public void testFallbackWithoutBatches() throws IOException {
+
+    final ByteArrayOutputStream noMessage = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(noMessage, NetworkCode.NO_MESSAGE);
+
+    final ScriptedSource server = new ScriptedSource(
+        noMessage.toByteArray(),
+        generationResponse(),
+        usersResponse());
+    final List<Object> results = new ArrayList<>();
+
+    final Batch batch = new View(server).batch();
+    addCalls(batch, results);
+    batch.send();
+
+    assertEquals(3, server.written.size());
+    assertEquals(Arrays.<Object>asList(GENERATION, USER.id), results);
+
+    final InputStream request = new ByteArrayInputStream(server.written.get(1).toByteArray());
+    assertEquals(NetworkCode.GET_USER_GENERATION_REQUEST, (int) Serializers.INTEGER.read(request));
+  }
+
+  @Test
+  public void testBatchesNotAskedForAgain() throws IOException {
+
+    final ByteArrayOutputStream noMessage = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(noMessage, NetworkCode.NO_MESSAGE);
+
+    final ScriptedSource server = new ScriptedSource(
+        noMessage.toByteArray(),
+        generationResponse(),
+        usersResponse(),
+        generationResponse(),
+        usersResponse());
+    final List<Object> results = new ArrayList<>();
+
+    final View view = new View(server);
+
+    final Batch first = view.batch();
+    addCalls(first, results);
+    first.send();
+
+    // The second batch goes straight to one call at a time.
+    final Batch second = view.batch();
+    addCalls(second, results);
+    second.send();
+
+    assertEquals(5, server.written.size());
+    assertEquals(Arrays.<Object>asList(GENERATION, USER.id, GENERATION, USER.id), results);
+
+    final InputStream request = new ByteArrayInputStream(server.written.get(3).toByteArray());
+    assertEquals(NetworkCode.GET_USER_GENERATION_REQUEST, (int) Serializers.INTEGER.read(request));
+  }
+
+  @Test
+  public void testResponseOverRequestLimits() throws IOException {
+
+    // A sub-response, and the name in it, bigger than a request may be (see
+    // Limits). Clients do not hold responses to those limits.
+    final char[] name = new char[Limits.REQUESTS.maxFieldSize + 1];
+    Arrays.fill(name, 'a');
+    final User big = new User(new Uuid(8), new String(name), Time.fromMs(0));
+
+    final ByteArrayOutputStream users = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(users, NetworkCode.GET_USERS_BY_ID_RESPONSE);
+    Serializers.collection(User.SERIALIZER).write(users, Arrays.asList(big));
+
+    final ByteArrayOutputStream reply = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(reply, NetworkCode.BATCH_RESPONSE);
+    Serializers.collection(Serializers.BYTES).write(
+        reply,
+        Arrays.asList(users.toByteArray()));
+
+    final ScriptedSource server = new ScriptedSource(reply.toByteArray());
+    final List<User> results = new ArrayList<>();
+
+    final Batch batch = new View(server).batch();
+    batch.getUsers(Arrays.asList(big.id), new Batch.Callback<Collection<User>>() {
+      @Override
+      public void done(Collection<User> found) {
+        results.addAll(found);
+      }
+    });
+    batch.send();
+
+    assertEquals(1, results.size());
+    assertEquals(name.length, results.get(0).name.length());
+  }
+
+  @Test
+  public void testEmptyBatchSendsNothing() {
+
+    final ScriptedSource server = new ScriptedSource();
+
+    new View(server).batch().send();
+
+    assertEquals(0, server.written.size());
+  }
+}
@@ -0,0 +1,202 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.Frames;
+
+public final class PipelineConnectionSourceTest {
+
+  // A server on a local port that agrees to one pipeline, reads "count"
+  // request frames and then answers them, last first, by sending each request
+  // back. With "count" at zero it closes the pipeline once it has read the
+  // first request, without answering it.
+  private static final class ReversingServer extends Thread {
+
+    private final ServerSocket socket;
+    private final int count;
+
+    public ReversingServer(int count) throws IOException {
+      this.socket = new ServerSocket(0);
+      this.count = count;
+      setDaemon(true);
+      start();
+    }
+
+    public ConnectionSource source() {
+      return new ClientConnectionSource("localhost", socket.getLocalPort());
+    }
+
+    @Override
+    public void run() {
+      try (final Socket client = socket.accept()) {
+
+        final InputStream in = client.getInputStream();
+        final OutputStream out = client.getOutputStream();
+
+        assertEquals(NetworkCode.PIPELINE_START_REQUEST, Serializers.readInt(in));
+        Serializers.writeInt(out, NetworkCode.PIPELINE_START_RESPONSE);
+
+        final List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < Math.max(count, 1); i++) {
+          frames.add(Frames.read(in));
+        }
+
+        if (count == 0) {
+          return;
+        }
+
+        for (int i = frames.size() - 1; i >= 0; i--) {
+          final byte[] frame = frames.get(i);
+          Frames.write(out,
+                       Frames.header(frame, 0),
+                       Arrays.copyOfRange(frame, Frames.HEADER_SIZE, frame.length));
+        }
+
+        // Wait for the client to end the pipeline.
+        while (in.read() >= 0) { }
+
+      } catch (IOException ex) {
+        // The test will notice.
+      } finally {
+        try {
+          socket.close();
+        } catch (IOException ex) {
+          // Nothing left to do.
+        }
+      }
+    }
+  }
+
+  // A connection source where every connection replies with the same
+  // pre-recorded int. It counts how many connections were made.
+  private static final class RefusingSource implements ConnectionSource {
+
+    public int connections = 0;
+
+    @Override
+    public Connection connect() throws IOException {
+
+      connections += 1;
+
+      final ByteArrayOutputStream reply = new ByteArrayOutputStream();
+      Serializers.writeInt(reply, NetworkCode.NO_MESSAGE);
+
+      final InputStream in = new ByteArrayInputStream(reply.toByteArray());
+      final OutputStream out = new ByteArrayOutputStream();
+
+      return new Connection() {
+        @Override
+        public InputStream in() { return in; }
+        @Override
+        public OutputStream out() { return out; }
+        @Override
+        public String remoteAddress() { return null; }
+        @Override
+        public void close() { }
+      };
+    }
+
+    @Override
+    public void close() { }
+  }
+
+  @Test
+  public void testResponsesMatchedById() throws IOException {
+
+    final ReversingServer server = new ReversingServer(3);
+
+    try (final PipelineConnectionSource source = new PipelineConnectionSource(server.source())) {
+
+      final List<Connection> calls = new ArrayList<>();
+
+      // None of these are answered until all of them have been sent.
+      for (int i = 0; i < 3; i++) {
+        final Connection call = source.connect();
+        Serializers.writeInt(call.out(), 100 + i);
+        call.out().flush();
+        calls.add(call);
+      }
+
+      for (int i = 0; i < 3; i++) {
+        try (final Connection call = calls.get(i)) {
+          assertEquals(100 + i, Serializers.readInt(call.in()));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testReadSendsUnflushedRequest() throws IOException {
+
+    final ReversingServer server = new ReversingServer(1);
+
+    try (final PipelineConnectionSource source = new PipelineConnectionSource(server.source());
+         final Connection call = source.connect()) {
+      Serializers.writeInt(call.out(), 7);
+      assertEquals(7, Serializers.readInt(call.in()));
+    }
+  }
+
+  @Test
+  public void testClosedPipelineFailsWaitingCalls() throws IOException {
+
+    final ReversingServer server = new ReversingServer(0);
+
+    try (final PipelineConnectionSource source = new PipelineConnectionSource(server.source());
+         final Connection call = source.connect()) {
+      Serializers.writeInt(call.out(), 7);
+      call.out().flush();
+      call.in().read();
+      fail("Expected the missing response to be an error.");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testFallbackWithoutPipelines() throws IOException {
+
+    final RefusingSource server = new RefusingSource();
+
+    final PipelineConnectionSource source = new PipelineConnectionSource(server);
+
+    // The pipeline is refused, then the session, then a plain connection is
+    // used.
+    source.connect().close();
+    assertEquals(3, server.connections);
+
+    // Neither is asked for again.
+    source.connect().close();
+    assertEquals(4, server.connections);
+  }
+}
@@ -0,0 +1,136 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.Serializers;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.Frames;
+
+public final class SessionConnectionSourceTest {
+
+  // A connection source where every connection replies with the same
+  // pre-recorded bytes. It counts how many connections were made.
+  private static final class ScriptedSource implements ConnectionSource {
+
+    private final byte[] reply;
+    public int connections = 0;
+
+    public ScriptedSource(byte[] reply) {
+      this.reply = reply;
+    }
+
+    @Override
+    public Connection connect() {
+
+      connections += 1;
+
+      final InputStream in = new ByteArrayInputStream(reply);
+      final OutputStream out = new ByteArrayOutputStream();
+
+      return new Connection() {
+        @Override
+        public InputStream in() { return in; }
+        @Override
+        public OutputStream out() { return out; }
+        @Override
+        public String remoteAddress() { return null; }
+        @Override
+        public void close() { }
+      };
+    }
+
+    @Override
+    public void close() { }
+  }
+
+  // Build the bytes a server would send: the answer to the start request
+  // followed by one response frame for each of "responses".
+  private static byte[] reply(int start, int... responses) throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(bytes, start);
+
+    for (final int response : responses) {
+      final ByteArrayOutputStream frame = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(frame, response);
+      Frames.write(bytes, frame.toByteArray());
+    }
+
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void testConnectionReused() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(reply(
+        NetworkCode.SESSION_START_RESPONSE,
+        NetworkCode.NO_MESSAGE,
+        NetworkCode.NO_MESSAGE));
+
+    final SessionConnectionSource source = new SessionConnectionSource(server);
+
+    for (int i = 0; i < 2; i++) {
+      try (final Connection connection = source.connect()) {
+        assertEquals(NetworkCode.NO_MESSAGE, (int) Serializers.INTEGER.read(connection.in()));
+      }
+    }
+
+    assertEquals(1, server.connections);
+  }
+
+  @Test
+  public void testFallbackWithoutSessions() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(reply(NetworkCode.NO_MESSAGE));
+
+    final SessionConnectionSource source = new SessionConnectionSource(server);
+
+    source.connect().close();
+    assertEquals(2, server.connections);
+
+    source.connect().close();
+    assertEquals(3, server.connections);
+  }
+
+  @Test
+  public void testBrokenConnectionNotReused() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(reply(NetworkCode.SESSION_START_RESPONSE));
+
+    final SessionConnectionSource source = new SessionConnectionSource(server);
+
+    try (final Connection connection = source.connect()) {
+      // The server never sends a response frame.
+      connection.in().read();
+      fail("Expected the missing response to be an error.");
+    } catch (EOFException ex) {
+      // expected
+    }
+
+    source.connect().close();
+    assertEquals(2, server.connections);
+  }
+}
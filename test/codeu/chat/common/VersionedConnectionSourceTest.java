@@ -0,0 +1,257 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.Deflation;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Wire;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+
+public final class VersionedConnectionSourceTest {
+
+  // A connection source where each connection replies with the next of a list
+  // of pre-recorded replies. It keeps what was written to every connection.
+  private static final class ScriptedSource implements ConnectionSource {
+
+    private final List<byte[]> replies;
+    public final List<ByteArrayOutputStream> requests = new ArrayList<>();
+
+    public ScriptedSource(byte[]... replies) {
+      this.replies = new ArrayList<>(Arrays.asList(replies));
+    }
+
+    @Override
+    public Connection connect() {
+
+      final InputStream in = new ByteArrayInputStream(replies.remove(0));
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+      requests.add(out);
+
+      return new Connection() {
+        @Override
+        public InputStream in() { return in; }
+        @Override
+        public OutputStream out() { return out; }
+        @Override
+        public String remoteAddress() { return null; }
+        @Override
+        public void close() { }
+      };
+    }
+
+    @Override
+    public void close() { }
+  }
+
+  // Build the bytes a server would send: "header" in version 1 and then
+  // "body" in "version".
+  private static byte[] reply(int[] header, int version, int... body) throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    for (final int value : header) {
+      Serializers.INTEGER.write(bytes, value);
+    }
+
+    final OutputStream out = Wire.out(bytes, version);
+    for (final int value : body) {
+      Serializers.INTEGER.write(out, value);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  private static int[] versioned(int version) {
+    return new int[] { NetworkCode.VERSIONED_RESPONSE, version };
+  }
+
+  @Test
+  public void testNegotiatesLatest() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(
+        reply(versioned(Wire.LATEST), Wire.LATEST, NetworkCode.NO_MESSAGE),
+        reply(versioned(Wire.LATEST), Wire.LATEST, NetworkCode.NEW_USER_RESPONSE, 300));
+
+    final VersionedConnectionSource source = new VersionedConnectionSource(server);
+
+    try (final Connection connection = source.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_REQUEST);
+      assertEquals(NetworkCode.NEW_USER_RESPONSE, (int) Serializers.INTEGER.read(connection.in()));
+      assertEquals(300, (int) Serializers.INTEGER.read(connection.in()));
+    }
+
+    assertEquals(Wire.LATEST, source.version());
+
+    // The request carries the header and then the type in the agreed version.
+    final InputStream request = new ByteArrayInputStream(server.requests.get(1).toByteArray());
+    assertEquals(NetworkCode.VERSIONED_REQUEST, (int) Serializers.INTEGER.read(request));
+    assertEquals(Wire.LATEST, (int) Serializers.INTEGER.read(request));
+    assertEquals(Wire.ACCEPT_DEFLATE, (int) Serializers.INTEGER.read(request));
+    assertEquals(NetworkCode.NEW_USER_REQUEST,
+                 (int) Serializers.INTEGER.read(Wire.in(request, Wire.LATEST)));
+  }
+
+  @Test
+  public void testFallbackWithoutVersions() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(
+        reply(new int[] { NetworkCode.NO_MESSAGE }, Wire.V1),
+        reply(new int[] { NetworkCode.NEW_USER_RESPONSE }, Wire.V1));
+
+    final VersionedConnectionSource source = new VersionedConnectionSource(server);
+
+    try (final Connection connection = source.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_REQUEST);
+      assertEquals(NetworkCode.NEW_USER_RESPONSE, (int) Serializers.INTEGER.read(connection.in()));
+    }
+
+    assertEquals(Wire.V1, source.version());
+
+    // Nothing but the request itself is sent to an old server.
+    final InputStream request = new ByteArrayInputStream(server.requests.get(1).toByteArray());
+    assertEquals(NetworkCode.NEW_USER_REQUEST, (int) Serializers.INTEGER.read(request));
+    assertEquals(-1, request.read());
+  }
+
+  @Test
+  public void testUnversionedAnswerIsVersionOne() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(
+        reply(versioned(Wire.LATEST), Wire.LATEST, NetworkCode.NO_MESSAGE),
+        reply(new int[] { NetworkCode.SERVER_BUSY }, Wire.V1));
+
+    final VersionedConnectionSource source = new VersionedConnectionSource(server);
+
+    try (final Connection connection = source.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_REQUEST);
+      assertEquals(NetworkCode.SERVER_BUSY, (int) Serializers.INTEGER.read(connection.in()));
+    }
+  }
+
+  @Test
+  public void testBusyServerAskedAgain() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(
+        reply(new int[] { NetworkCode.SERVER_BUSY }, Wire.V1),
+        reply(versioned(Wire.LATEST), Wire.LATEST, NetworkCode.NO_MESSAGE));
+
+    final VersionedConnectionSource source = new VersionedConnectionSource(server);
+
+    try {
+      source.version();
+      fail("Expected a busy server to be an error.");
+    } catch (IOException ex) {
+      // expected
+    }
+
+    assertEquals(Wire.LATEST, source.version());
+  }
+
+  @Test
+  public void testNoFlagsBeforeVersionFour() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(
+        reply(versioned(Wire.V3), Wire.V3, NetworkCode.NO_MESSAGE),
+        reply(versioned(Wire.V3), Wire.V3, NetworkCode.NEW_USER_RESPONSE));
+
+    // A server that only knows version 3 answers with it.
+    final VersionedConnectionSource source = new VersionedConnectionSource(server);
+
+    try (final Connection connection = source.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.NEW_USER_REQUEST);
+      assertEquals(NetworkCode.NEW_USER_RESPONSE, (int) Serializers.INTEGER.read(connection.in()));
+    }
+
+    assertEquals(Wire.V3, source.version());
+
+    final InputStream request = new ByteArrayInputStream(server.requests.get(1).toByteArray());
+    assertEquals(NetworkCode.VERSIONED_REQUEST, (int) Serializers.INTEGER.read(request));
+    assertEquals(Wire.V3, (int) Serializers.INTEGER.read(request));
+    assertEquals(NetworkCode.NEW_USER_REQUEST,
+                 (int) Serializers.INTEGER.read(Wire.in(request, Wire.V3)));
+  }
+
+  @Test
+  public void testDeflatedResponse() throws IOException {
+
+    // The response as the server would have written it before deflating it.
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final OutputStream bodyOut = Wire.out(body, Wire.LATEST);
+    Serializers.INTEGER.write(bodyOut, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
+    for (int i = 0; i < 1000; i++) {
+      Serializers.STRING.write(bodyOut, "hello world");
+    }
+
+    final byte[] deflated = new Deflation(Deflation.DEFAULT_LEVEL, 0)
+        .deflate(body.toByteArray(), 0, body.size());
+    assertNotNull(deflated);
+
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    Serializers.INTEGER.write(response, NetworkCode.VERSIONED_RESPONSE);
+    Serializers.INTEGER.write(response, Wire.LATEST);
+    final OutputStream out = Wire.out(response, Wire.LATEST);
+    Serializers.INTEGER.write(out, NetworkCode.DEFLATED_RESPONSE);
+    Serializers.INTEGER.write(out, body.size());
+    Serializers.INTEGER.write(out, deflated.length);
+    out.write(deflated);
+
+    final ScriptedSource server = new ScriptedSource(
+        reply(versioned(Wire.LATEST), Wire.LATEST, NetworkCode.NO_MESSAGE),
+        response.toByteArray());
+
+    final VersionedConnectionSource source = new VersionedConnectionSource(server);
+
+    try (final Connection connection = source.connect()) {
+      Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+      final InputStream in = connection.in();
+      assertEquals(NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE, (int) Serializers.INTEGER.read(in));
+      for (int i = 0; i < 1000; i++) {
+        assertEquals("hello world", Serializers.STRING.read(in));
+      }
+      assertEquals(-1, in.read());
+    }
+  }
+
+  @Test
+  public void testDeflateNotAccepted() throws IOException {
+
+    final ScriptedSource server = new ScriptedSource(
+        reply(versioned(Wire.LATEST), Wire.LATEST, NetworkCode.NO_MESSAGE));
+
+    final VersionedConnectionSource source =
+        new VersionedConnectionSource(server, Wire.LATEST, false);
+
+    source.version();
+
+    final InputStream request = new ByteArrayInputStream(server.requests.get(0).toByteArray());
+    assertEquals(NetworkCode.VERSIONED_REQUEST, (int) Serializers.INTEGER.read(request));
+    assertEquals(Wire.LATEST, (int) Serializers.INTEGER.read(request));
+    assertEquals(0, (int) Serializers.INTEGER.read(request));
+  }
+}
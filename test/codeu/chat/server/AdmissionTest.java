@@ -0,0 +1,154 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.connections.Connection;
+
+public final class AdmissionTest {
+
+  @Test
+  public void testBulkReadsShedBeforeWrites() {
+
+    final Admission admission = new Admission(8, 64);
+
+    for (int i = 0; i < 4; i++) {
+      assertTrue(admission.admit(NetworkCode.NEW_MESSAGE_REQUEST));
+    }
+
+    // Half full: bulk reads are turned away, other reads are not.
+    assertFalse(admission.admit(NetworkCode.GET_ALL_CONVERSATIONS_REQUEST));
+    assertTrue(admission.admit(NetworkCode.GET_USERS_BY_ID_REQUEST));
+    assertTrue(admission.admit(NetworkCode.GET_USERS_BY_ID_REQUEST));
+
+    // Three quarters full: only writes get in.
+    assertFalse(admission.admit(NetworkCode.GET_USERS_BY_ID_REQUEST));
+    assertTrue(admission.admit(NetworkCode.NEW_MESSAGE_REQUEST));
+    assertTrue(admission.admit(NetworkCode.NEW_MESSAGE_REQUEST));
+
+    // Full.
+    assertFalse(admission.admit(NetworkCode.NEW_MESSAGE_REQUEST));
+    assertEquals(8, admission.pending());
+
+    final Map<String, Long> stats = new HashMap<>();
+    admission.report(stats);
+
+    assertEquals(8L, (long) stats.get("admission.pending"));
+    assertEquals(8L, (long) stats.get("admission.peakPending"));
+    assertEquals(1L, (long) stats.get("admission.shedWrites"));
+    assertEquals(1L, (long) stats.get("admission.shedReads"));
+    assertEquals(1L, (long) stats.get("admission.shedBulkReads"));
+  }
+
+  @Test
+  public void testDoneMakesRoom() {
+
+    final Admission admission = new Admission(4, 64);
+
+    for (int i = 0; i < 3; i++) {
+      assertTrue(admission.admit(NetworkCode.GET_USERS_BY_ID_REQUEST));
+    }
+    assertFalse(admission.admit(NetworkCode.GET_USERS_BY_ID_REQUEST));
+
+    admission.done();
+
+    assertTrue(admission.admit(NetworkCode.GET_USERS_BY_ID_REQUEST));
+    assertEquals(3, admission.pending());
+  }
+
+  @Test
+  public void testAddressLimit() {
+
+    final Admission admission = new Admission(8, 2);
+
+    assertTrue(admission.enter("10.0.0.1"));
+    assertTrue(admission.enter("10.0.0.1"));
+    assertFalse(admission.enter("10.0.0.1"));
+
+    // Other addresses have limits of their own and unknown addresses have none.
+    assertTrue(admission.enter("10.0.0.2"));
+    assertTrue(admission.enter(null));
+
+    admission.leave("10.0.0.1");
+
+    assertTrue(admission.enter("10.0.0.1"));
+  }
+
+  @Test
+  public void testWaitLimit() {
+
+    final Admission admission = new Admission(8, 8, 2);
+
+    assertTrue(admission.park("10.0.0.1"));
+    assertTrue(admission.park("10.0.0.1"));
+    assertFalse(admission.park("10.0.0.1"));
+
+    // Waits are counted apart from connections.
+    assertTrue(admission.enter("10.0.0.1"));
+    assertTrue(admission.park("10.0.0.2"));
+    assertTrue(admission.park(null));
+
+    admission.unpark("10.0.0.1");
+
+    assertTrue(admission.park("10.0.0.1"));
+
+    final Map<String, Long> stats = new HashMap<>();
+    admission.report(stats);
+
+    assertEquals(1L, (long) stats.get("admission.rejectedWaits"));
+  }
+
+  @Test
+  public void testConnectionLeavesOnceWhenClosed() throws Exception {
+
+    final Admission admission = new Admission(8, 1);
+
+    final Connection connection = new Connection() {
+      private final InputStream in = new ByteArrayInputStream(new byte[0]);
+      private final OutputStream out = new ByteArrayOutputStream();
+      @Override
+      public InputStream in() { return in; }
+      @Override
+      public OutputStream out() { return out; }
+      @Override
+      public String remoteAddress() { return "10.0.0.1"; }
+      @Override
+      public void close() { }
+    };
+
+    final Connection first = admission.track(connection);
+
+    assertNotNull(first);
+    assertNull(admission.track(connection));
+
+    first.close();
+    first.close();
+
+    final Connection second = admission.track(connection);
+
+    assertNotNull(second);
+    assertNull(admission.track(connection));
+  }
+}
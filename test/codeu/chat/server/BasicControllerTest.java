@@ -101,4 +101,21 @@ public final class BasicControllerTest {
         "Check that the message has a valid reference",
         message == null);
   }
+
+  @Test
+  public void testMessagesLinkedBothWays() {
+
+    final User user = controller.newUser("BasicTestLinkUser");
+    final Conversation conversation = controller.newConversation("BasicTestLinkConversation", user.id);
+
+    final Message first = controller.newMessage(user.id, conversation.id, "first");
+    final Message second = controller.newMessage(user.id, conversation.id, "second");
+
+    assertEquals(Uuid.NULL, first.previous);
+    assertEquals(second.id, first.next);
+    assertEquals(first.id, second.previous);
+
+    assertEquals(2, model.messages(conversation.id).size());
+    assertSame(second, model.messages(conversation.id).get(1));
+  }
 }
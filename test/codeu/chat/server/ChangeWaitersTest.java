@@ -0,0 +1,136 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Generations;
+import codeu.chat.common.User;
+import codeu.chat.util.Time;
+import codeu.chat.util.Timeline;
+import codeu.chat.util.Uuid;
+
+public final class ChangeWaitersTest {
+
+  // Remembers every answer it is given.
+  private static final class Recorder implements ChangeWaiters.Callback {
+
+    public final BlockingQueue<Generations> answers = new LinkedBlockingQueue<>();
+
+    @Override
+    public void done(Generations current) {
+      answers.offer(current);
+    }
+  }
+
+  private Model model;
+  private View view;
+  private Timeline timeline;
+  private Dispatcher dispatcher;
+  private ChangeWaiters waiters;
+
+  @Before
+  public void doBefore() {
+    model = new Model();
+    view = new View(model);
+    timeline = new Timeline();
+    dispatcher = new Dispatcher(timeline, 1);
+    waiters = new ChangeWaiters(view, dispatcher, timeline);
+  }
+
+  @After
+  public void doAfter() {
+    dispatcher.stop();
+    timeline.stop();
+  }
+
+  @Test
+  public void testOutOfDateAnsweredRightAway() {
+
+    final Recorder recorder = new Recorder();
+
+    waiters.add(Generations.NONE, Uuid.NULL, 60000, recorder);
+
+    assertEquals(view.getGenerations(Uuid.NULL), recorder.answers.poll());
+    assertEquals(0, waiters.size());
+  }
+
+  @Test
+  public void testAnsweredOnChange() {
+
+    final Recorder recorder = new Recorder();
+
+    waiters.add(view.getGenerations(Uuid.NULL), Uuid.NULL, 60000, recorder);
+
+    assertEquals(1, waiters.size());
+    assertNull(recorder.answers.poll());
+
+    model.add(new User(new Uuid(1), "user", Time.now()));
+    waiters.onChange();
+
+    final Generations answer = recorder.answers.poll();
+
+    assertNotNull(answer);
+    assertEquals(model.userGeneration(), answer.users);
+    assertEquals(0, waiters.size());
+  }
+
+  @Test
+  public void testAnsweredAfterLettingGoOfTheLock() {
+
+    final Recorder recorder = new Recorder();
+
+    waiters.add(view.getGenerations(Uuid.NULL), Uuid.NULL, 60000, recorder);
+
+    dispatcher.writeNow(new Runnable() {
+      @Override
+      public void run() {
+        model.add(new User(new Uuid(1), "user", Time.now()));
+        waiters.onChange();
+
+        // Found, but not answered while the lock is held.
+        assertEquals(0, waiters.size());
+        assertNull(recorder.answers.poll());
+      }
+    });
+
+    assertEquals(model.userGeneration(), recorder.answers.poll().users);
+  }
+
+  @Test
+  public void testAnsweredOnTimeout() throws InterruptedException {
+
+    final Recorder recorder = new Recorder();
+    final Generations known = view.getGenerations(Uuid.NULL);
+
+    waiters.add(known, Uuid.NULL, 10, recorder);
+
+    assertEquals(known, recorder.answers.poll(5, TimeUnit.SECONDS));
+    assertEquals(0, waiters.size());
+
+    // A change after the timeout must not answer a second time.
+    model.add(new User(new Uuid(1), "user", Time.now()));
+    waiters.onChange();
+
+    assertNull(recorder.answers.poll());
+  }
+}
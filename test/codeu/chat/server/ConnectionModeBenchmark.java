@@ -0,0 +1,200 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.ThreadPerTask;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.ClientConnectionSource;
+import codeu.chat.util.connections.Connection;
+import codeu.chat.util.connections.ConnectionSource;
+import codeu.chat.util.connections.ServerConnectionSource;
+
+// CONNECTION MODE BENCHMARK
+//
+// Compares serving every connection on the server's timeline with serving every
+// connection on a thread of its own. Many fast clients send requests at the
+// same time as a few slow clients that stall part-way through every request,
+// like clients on a bad network. Only the fast clients are measured. When a
+// few threads serve every connection, a stalled request holds up the requests
+// behind it; with a thread per connection it only holds up itself.
+//
+// Run with: java codeu.chat.server.ConnectionModeBenchmark <DATABASE> [CLIENTS]
+//
+// DATABASE is the path of a SQLite database file the server can use.
+// CLIENTS is the number of fast clients and defaults to 64.
+public final class ConnectionModeBenchmark {
+
+  private static final int REQUESTS_PER_CLIENT = 20;
+  private static final int SLOW_CLIENTS = 4;
+  private static final int PAUSE_MS = 50;
+
+  public static void main(String[] args) throws Exception {
+
+    final Server server = new Server(
+        new Uuid(100),
+        new byte[] { 0x0A, 0x0B },
+        new NoOpRelay(),
+        new Database(args[0]),
+        new Server.Options());
+
+    final int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+    System.out.format("thread per connection uses %s threads\n",
+                      new ThreadPerTask().isVirtual() ? "virtual" : "platform");
+
+    run(server, false, clients);
+    run(server, true, clients);
+
+    report("timeline", run(server, false, clients), clients);
+    report("threads ", run(server, true, clients), clients);
+
+    System.exit(0);
+  }
+
+  private static void report(String name, long[] result, int clients) {
+    final int requests = clients * REQUESTS_PER_CLIENT;
+    System.out.format("%s  %8.0f requests/s  %7.2f ms mean latency\n",
+                      name,
+                      requests / (result[0] / 1e9),
+                      result[1] / 1e6 / requests);
+  }
+
+  // Returns the total time and the sum of all request latencies, both in
+  // nanoseconds.
+  private static long[] run(final Server server,
+                            final boolean threads,
+                            int clients) throws Exception {
+
+    final int port = freePort();
+    final ConnectionSource serverSource = ServerConnectionSource.forPort(port);
+    final ThreadPerTask perConnection = new ThreadPerTask();
+
+    final Thread acceptor = new Thread() {
+      @Override
+      public void run() {
+        try {
+          while (true) {
+            final Connection connection = serverSource.connect();
+            if (threads) {
+              perConnection.execute(new Runnable() {
+                @Override
+                public void run() {
+                  server.serveConnection(connection);
+                }
+              });
+            } else {
+              server.handleConnection(connection);
+            }
+          }
+        } catch (IOException ex) {
+          // The source was closed, the run is over.
+        }
+      }
+    };
+    acceptor.setDaemon(true);
+    acceptor.start();
+
+    final ConnectionSource clientSource = new ClientConnectionSource("localhost", port);
+    final CountDownLatch done = new CountDownLatch(clients);
+    final AtomicLong latency = new AtomicLong();
+    final AtomicBoolean running = new AtomicBoolean(true);
+
+    for (int c = 0; c < SLOW_CLIENTS; c++) {
+      final Thread client = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (running.get()) {
+              request(clientSource, PAUSE_MS);
+            }
+          } catch (Exception ex) {
+            // The run is over.
+          }
+        }
+      };
+      client.setDaemon(true);
+      client.start();
+    }
+
+    final long start = System.nanoTime();
+
+    for (int c = 0; c < clients; c++) {
+      final Thread client = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int r = 0; r < REQUESTS_PER_CLIENT; r++) {
+              final long sent = System.nanoTime();
+              request(clientSource, 0);
+              latency.addAndGet(System.nanoTime() - sent);
+            }
+          } catch (Exception ex) {
+            throw new RuntimeException(ex);
+          } finally {
+            done.countDown();
+          }
+        }
+      };
+      client.setDaemon(true);
+      client.start();
+    }
+
+    done.await();
+
+    final long total = System.nanoTime() - start;
+
+    running.set(false);
+    serverSource.close();
+
+    return new long[] { total, latency.get() };
+  }
+
+  private static void request(ConnectionSource source, int pauseMs) throws Exception {
+    try (final Connection connection = source.connect()) {
+
+      final OutputStream out = connection.out();
+
+      Serializers.INTEGER.write(out, NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST);
+      out.flush();
+
+      // Stall part-way through the request.
+      if (pauseMs > 0) {
+        Thread.sleep(pauseMs);
+      }
+
+      Serializers.STRING.write(out, "benchmark");
+      out.flush();
+
+      if (Serializers.INTEGER.read(connection.in()) != NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE) {
+        throw new IOException("Unexpected response.");
+      }
+    }
+  }
+
+  private static int freePort() throws IOException {
+    try (final ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+}
@@ -0,0 +1,157 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Timeline;
+import codeu.chat.util.Uuid;
+
+// DISPATCHER BENCHMARK
+//
+// Measures how many read requests per second the server can answer with one
+// reader thread compared to one reader thread per core. Each read walks a
+// whole conversation and encodes it, the same work as GET_MESSAGES_BY_TIME.
+// A write is mixed in every so often to keep the read/write lock honest.
+//
+// Run with: java codeu.chat.server.DispatcherBenchmark [READERS]
+//
+// READERS defaults to the number of cores.
+public final class DispatcherBenchmark {
+
+  private static final int CONVERSATIONS = 64;
+  private static final int MESSAGES_PER_CONVERSATION = 2000;
+  private static final int READS = 2000;
+  private static final int READS_PER_WRITE = 100;
+
+  public static void main(String[] args) throws Exception {
+
+    final Model model = new Model();
+    final View view = new View(model);
+    final Conversation[] conversations = populate(model);
+
+    final int cores = args.length > 0 ?
+                      Integer.parseInt(args[0]) :
+                      Runtime.getRuntime().availableProcessors();
+
+    // Run each once to warm up before measuring.
+    run(model, view, conversations, 1);
+    run(model, view, conversations, cores);
+
+    final double single = run(model, view, conversations, 1);
+    final double parallel = run(model, view, conversations, cores);
+
+    System.out.format("readers=1  %.0f reads/s\n", single);
+    System.out.format("readers=%d  %.0f reads/s\n", cores, parallel);
+    System.out.format("speedup    %.2fx\n", parallel / single);
+  }
+
+  private static double run(final Model model,
+                            final View view,
+                            final Conversation[] conversations,
+                            int readers) throws InterruptedException {
+
+    final Timeline timeline = new Timeline();
+    final Dispatcher dispatcher = new Dispatcher(timeline, readers);
+    final CountDownLatch done = new CountDownLatch(READS);
+
+    final long start = System.nanoTime();
+
+    for (int i = 0; i < READS; i++) {
+
+      final Conversation conversation = conversations[i % conversations.length];
+
+      dispatcher.read(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Serializers.collection(Message.SERIALIZER).write(
+                out,
+                view.getMessages(conversation.id, Time.fromMs(0), Time.fromMs(Long.MAX_VALUE)));
+          } catch (IOException ex) {
+            throw new RuntimeException(ex);
+          }
+          done.countDown();
+        }
+      });
+
+      if (i % READS_PER_WRITE == 0) {
+        final int id = i;
+        dispatcher.write(new Runnable() {
+          @Override
+          public void run() {
+            model.add(new User(new Uuid(new Uuid(2), id), "writer" + id, Time.now()));
+          }
+        });
+      }
+    }
+
+    done.await();
+
+    final double seconds = (System.nanoTime() - start) / 1e9;
+
+    dispatcher.stop();
+    timeline.stop();
+
+    return READS / seconds;
+  }
+
+  private static Conversation[] populate(Model model) {
+
+    final Uuid root = new Uuid(1);
+    final User user = new User(new Uuid(root, 1), "user", Time.fromMs(0));
+    model.add(user);
+
+    final Conversation[] conversations = new Conversation[CONVERSATIONS];
+    int next = 2;
+
+    for (int c = 0; c < CONVERSATIONS; c++) {
+
+      final Conversation conversation =
+          new Conversation(new Uuid(root, next++), user.id, Time.fromMs(c), "conversation " + c);
+      model.add(conversation);
+
+      Message last = null;
+
+      for (int m = 0; m < MESSAGES_PER_CONVERSATION; m++) {
+
+        final Message message = new Message(
+            new Uuid(root, next++), Uuid.NULL, Uuid.NULL, Time.fromMs(m), user.id, "message " + m);
+        model.add(message);
+
+        if (last == null) {
+          conversation.firstMessage = message.id;
+        } else {
+          last.next = message.id;
+        }
+
+        conversation.lastMessage = message.id;
+        last = message;
+      }
+
+      conversations[c] = conversation;
+    }
+
+    return conversations;
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.util.Timeline;
+
+public final class DispatcherTest {
+
+  private Timeline timeline;
+  private Dispatcher dispatcher;
+
+  @Before
+  public void doBefore() {
+    timeline = new Timeline();
+    dispatcher = new Dispatcher(timeline, 2);
+  }
+
+  @After
+  public void doAfter() {
+    dispatcher.stop();
+    timeline.stop();
+  }
+
+  // Stands in for a client that is slow to read its response: blocks until
+  // "release" is counted down.
+  private static Runnable slowClient(final CountDownLatch started, final CountDownLatch release) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+  }
+
+  private static Runnable offer(final BlockingQueue<String> done, final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        done.offer(name);
+      }
+    };
+  }
+
+  @Test
+  public void testWriteRunsWhileReadIsSending() throws InterruptedException {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final BlockingQueue<String> done = new LinkedBlockingQueue<>();
+
+    dispatcher.read(offer(done, "read"), slowClient(started, release));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    // The read's "then" is still running, but it does not hold the lock.
+    dispatcher.write(offer(done, "write"));
+
+    assertEquals("read", done.poll(5, TimeUnit.SECONDS));
+    assertEquals("write", done.poll(5, TimeUnit.SECONDS));
+
+    release.countDown();
+  }
+
+  @Test
+  public void testTimelineGoesOnWhileWriteIsSending() throws InterruptedException {
+
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final BlockingQueue<String> done = new LinkedBlockingQueue<>();
+
+    dispatcher.write(offer(done, "first"), slowClient(started, release));
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    // The first write's "then" is still running, but not on the timeline.
+    dispatcher.write(offer(done, "second"));
+
+    assertEquals("first", done.poll(5, TimeUnit.SECONDS));
+    assertEquals("second", done.poll(5, TimeUnit.SECONDS));
+
+    release.countDown();
+  }
+
+  @Test
+  public void testThenRunsAfterTask() throws InterruptedException {
+
+    final BlockingQueue<String> done = new LinkedBlockingQueue<>();
+
+    dispatcher.read(offer(done, "task"), offer(done, "then"));
+
+    assertEquals("task", done.poll(5, TimeUnit.SECONDS));
+    assertEquals("then", done.poll(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testAfterUnlockWaitsForTheLock() throws InterruptedException {
+
+    final BlockingQueue<String> done = new LinkedBlockingQueue<>();
+
+    dispatcher.readNow(new Runnable() {
+      @Override
+      public void run() {
+        dispatcher.afterUnlock(offer(done, "after"));
+        dispatcher.readNow(offer(done, "inner"));  // Still held by the outer read.
+        done.offer("task");
+      }
+    });
+
+    assertEquals("inner", done.poll());
+    assertEquals("task", done.poll());
+    assertEquals("after", done.poll());
+
+    // Without the lock it runs straight away.
+    dispatcher.afterUnlock(offer(done, "now"));
+
+    assertEquals("now", done.poll());
+  }
+}
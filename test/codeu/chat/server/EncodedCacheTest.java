@@ -0,0 +1,183 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Serializer;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
+
+public final class EncodedCacheTest {
+
+  private static final Uuid SERVER = new Uuid(100);
+
+  private static final EncodedCache.Key<Message> BY_ID = new EncodedCache.Key<Message>() {
+    @Override
+    public Uuid of(Message message) { return message.id; }
+  };
+
+  private static <T> byte[] write(Serializer<T> serializer, T value, int version) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    serializer.write(Wire.out(bytes, version), value);
+    return bytes.toByteArray();
+  }
+
+  private static List<Message> makeMessages(int count) {
+    final List<Message> messages = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      messages.add(new Message(new Uuid(SERVER, i),
+                               new Uuid(SERVER, i + 1),
+                               new Uuid(SERVER, i - 1),
+                               Time.fromMs(1490000000000L + 1000 * i),
+                               new Uuid(SERVER, -1),
+                               "hello " + i));
+    }
+    return messages;
+  }
+
+  @Test
+  public void testSameBytes() throws IOException {
+
+    final List<Message> messages = makeMessages(20);
+    final EncodedCache<Message> cache = new EncodedCache<>(Message.SERIALIZER, BY_ID);
+
+    final Serializer<Collection<Message>> plain = Serializers.collection(Message.SERIALIZER);
+    final Serializer<Collection<Message>> cached = Serializers.collection(cache.serializer());
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+      // Twice, so that the second time comes from the cache.
+      assertArrayEquals(write(plain, messages, version), write(cached, messages, version));
+      assertArrayEquals(write(plain, messages, version), write(cached, messages, version));
+    }
+  }
+
+  @Test
+  public void testHitsAndMisses() throws IOException {
+
+    final List<Message> messages = makeMessages(5);
+    final EncodedCache<Message> cache = new EncodedCache<>(Message.SERIALIZER, BY_ID);
+    final Serializer<Collection<Message>> cached = Serializers.collection(cache.serializer());
+
+    write(cached, messages, Wire.V1);
+    write(cached, messages, Wire.V1);
+    write(cached, messages, Wire.V1);
+
+    // Versions 2 to 4 do not use the cache at all.
+    write(cached, messages, Wire.V2);
+    write(cached, messages, Wire.V3);
+    write(cached, messages, Wire.V4);
+
+    // Version 5 has its own bytes, so misses once and then hits.
+    write(cached, messages, Wire.V5);
+    write(cached, messages, Wire.V5);
+
+    final Map<String, Long> stats = new HashMap<>();
+    cache.report("cache.messages", stats);
+
+    assertEquals(15L, (long) stats.get("cache.messages.hits"));
+    assertEquals(10L, (long) stats.get("cache.messages.misses"));
+    assertEquals(5L, (long) stats.get("cache.messages.size"));
+  }
+
+  @Test
+  public void testHitsOnNewestStream() throws IOException {
+
+    // Clients that ask for the newest version must be answered from the cache
+    // even when the values follow others on the same stream (shared Uuids and
+    // times).
+    final List<Message> messages = makeMessages(5);
+    final EncodedCache<Message> cache = new EncodedCache<>(Message.SERIALIZER, BY_ID);
+
+    final ByteArrayOutputStream plainBytes = new ByteArrayOutputStream();
+    final ByteArrayOutputStream cachedBytes = new ByteArrayOutputStream();
+    final OutputStream plainOut = Wire.out(plainBytes, Wire.NEWEST);
+    final OutputStream cachedOut = Wire.out(cachedBytes, Wire.NEWEST);
+
+    for (int round = 0; round < 3; round++) {
+      for (final Message message : messages) {
+        Message.SERIALIZER.write(plainOut, message);
+        cache.serializer().write(cachedOut, message);
+      }
+    }
+
+    assertArrayEquals(plainBytes.toByteArray(), cachedBytes.toByteArray());
+
+    final Map<String, Long> stats = new HashMap<>();
+    cache.report("cache", stats);
+
+    assertEquals(10L, (long) stats.get("cache.hits"));
+    assertEquals(5L, (long) stats.get("cache.misses"));
+  }
+
+  @Test
+  public void testInvalidate() throws IOException {
+
+    final Message message = makeMessages(1).get(0);
+    final EncodedCache<Message> cache = new EncodedCache<>(Message.SERIALIZER, BY_ID);
+
+    write(cache.serializer(), message, Wire.V1);
+
+    // What the controller does when a message is added after this one.
+    message.next = new Uuid(SERVER, 50);
+    cache.invalidate(message.id);
+
+    assertArrayEquals(write(Message.SERIALIZER, message, Wire.V1),
+                      write(cache.serializer(), message, Wire.V1));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedDropped() throws IOException {
+
+    final List<Message> messages = makeMessages(4);
+    final EncodedCache<Message> cache = new EncodedCache<>(Message.SERIALIZER, BY_ID, 3);
+
+    write(cache.serializer(), messages.get(0), Wire.V1);
+    write(cache.serializer(), messages.get(1), Wire.V1);
+    write(cache.serializer(), messages.get(2), Wire.V1);
+
+    // Use the first again so that the second is now the least recently used.
+    write(cache.serializer(), messages.get(0), Wire.V1);
+    write(cache.serializer(), messages.get(3), Wire.V1);
+
+    assertEquals(3, cache.size());
+
+    final Map<String, Long> before = new HashMap<>();
+    cache.report("cache", before);
+
+    write(cache.serializer(), messages.get(0), Wire.V1);
+    write(cache.serializer(), messages.get(1), Wire.V1);
+
+    final Map<String, Long> after = new HashMap<>();
+    cache.report("cache", after);
+
+    assertEquals(before.get("cache.hits") + 1, (long) after.get("cache.hits"));
+    assertEquals(before.get("cache.misses") + 1, (long) after.get("cache.misses"));
+    assertEquals(3, cache.size());
+  }
+}
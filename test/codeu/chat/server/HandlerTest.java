@@ -0,0 +1,218 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Codecs;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Streams;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.Wire;
+
+public final class HandlerTest {
+
+  // Answers the length of the string it is sent.
+  private static Handler<String, Integer> lengthHandler() {
+    return new Handler<String, Integer>(
+        "length",
+        NetworkCode.GET_CONVERSATIONS_BY_TITLE_REQUEST,
+        NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE,
+        Handler.READ_ONLY,
+        Codecs.STRING,
+        Serializers.INTEGER) {
+      @Override
+      Integer handle(String request) {
+        return request.length();
+      }
+    };
+  }
+
+  @Test
+  public void testRun() throws IOException {
+
+    final Handler<String, Integer> handler = lengthHandler();
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      final ByteArrayOutputStream request = new ByteArrayOutputStream();
+      Serializers.STRING.write(Wire.out(request, version), "hello");
+
+      final ByteArrayOutputStream response = new ByteArrayOutputStream();
+      handler.run(Wire.in(new ByteArrayInputStream(request.toByteArray()), version),
+                  Wire.out(response, version));
+
+      final InputStream in = Wire.in(new ByteArrayInputStream(response.toByteArray()), version);
+      assertEquals(NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE, Serializers.readInt(in));
+      assertEquals(5, Serializers.readInt(in));
+    }
+
+    final Map<String, Long> stats = new HashMap<>();
+    handler.report(stats);
+    assertEquals((long) Wire.NEWEST, (long) stats.get("requests.length.count"));
+    assertTrue(stats.containsKey("requests.length.micros"));
+  }
+
+  // Answers a stream of the numbers from zero up to the one it is sent.
+  private static Handler<Integer, Iterator<Integer>> countHandler() {
+    return new Handler<Integer, Iterator<Integer>>(
+        "count",
+        NetworkCode.STREAM_ALL_CONVERSATIONS_REQUEST,
+        NetworkCode.STREAM_ALL_CONVERSATIONS_RESPONSE,
+        Handler.READ_ONLY,
+        Codecs.INTEGER,
+        Streams.serializer(Serializers.INTEGER)) {
+      @Override
+      Iterator<Integer> handle(Integer request) {
+        final List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < request; i++) {
+          values.add(i);
+        }
+        return values.iterator();
+      }
+    };
+  }
+
+  @Test
+  public void testStartWritesOneChunk() throws IOException {
+
+    final Handler<Integer, Iterator<Integer>> handler = countHandler();
+    final int count = 3 * Streams.CHUNK_SIZE + 5;
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      final ByteArrayOutputStream request = new ByteArrayOutputStream();
+      Serializers.INTEGER.write(Wire.out(request, version), count);
+
+      final ByteArrayOutputStream whole = new ByteArrayOutputStream();
+      handler.run(Wire.in(new ByteArrayInputStream(request.toByteArray()), version),
+                  Wire.out(whole, version));
+
+      final ByteArrayOutputStream parts = new ByteArrayOutputStream();
+      final OutputStream out = Wire.out(parts, version);
+      final Streams.Writer<?> rest =
+          handler.start(Wire.in(new ByteArrayInputStream(request.toByteArray()), version), out);
+
+      // The type and the first chunk, and no more.
+      final InputStream first = Wire.in(new ByteArrayInputStream(parts.toByteArray()), version);
+      assertEquals(NetworkCode.STREAM_ALL_CONVERSATIONS_RESPONSE, Serializers.readInt(first));
+      assertEquals(Streams.CHUNK_SIZE, Serializers.readInt(first));
+      for (int i = 0; i < Streams.CHUNK_SIZE; i++) {
+        assertEquals(i, Serializers.readInt(first));
+      }
+      assertEquals(-1, first.read());
+
+      assertNotNull(rest);
+
+      int chunks = 1;
+      while (rest.writeChunk(out)) {
+        chunks++;
+      }
+
+      assertEquals(3, chunks);
+      assertArrayEquals(whole.toByteArray(), parts.toByteArray());
+    }
+  }
+
+  @Test
+  public void testStartWritesAllOfAnythingElse() throws IOException {
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.STRING.write(request, "hello");
+
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    assertNull(lengthHandler().start(new ByteArrayInputStream(request.toByteArray()), response));
+
+    final InputStream in = new ByteArrayInputStream(response.toByteArray());
+    assertEquals(NetworkCode.GET_CONVERSATIONS_BY_TITLE_RESPONSE, Serializers.readInt(in));
+    assertEquals(5, Serializers.readInt(in));
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testCutShortWritesNothing() throws IOException {
+
+    final Handler<String, Integer> handler = lengthHandler();
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.STRING.write(request, "hello");
+    final byte[] cut = new byte[request.size() - 1];
+    System.arraycopy(request.toByteArray(), 0, cut, 0, cut.length);
+
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    try {
+      handler.run(new ByteArrayInputStream(cut) {
+        @Override
+        public synchronized int read(byte[] bytes, int offset, int length) {
+          final int count = super.read(bytes, offset, length);
+          return count == 0 && length > 0 ? -1 : count;
+        }
+      }, response);
+      fail("Expected a request that was cut short to fail.");
+    } catch (EOFException ex) {
+      // expected
+    }
+
+    assertEquals(0, response.size());
+
+    final Map<String, Long> stats = new HashMap<>();
+    handler.report(stats);
+    assertEquals(0L, (long) stats.get("requests.length.count"));
+  }
+
+  @Test
+  public void testRequestsRoundTrip() throws IOException {
+
+    final Uuid conversation = new Uuid(new Uuid(100), 7);
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final OutputStream out = Wire.out(bytes, version);
+
+      Requests.MessagesByTime.SERIALIZER.write(
+          out, new Requests.MessagesByTime(conversation, Time.fromMs(1000), Time.fromMs(5000)));
+      Requests.MessagesByRange.SERIALIZER.write(out, new Requests.MessagesByRange(conversation, -3));
+
+      final InputStream in = Wire.in(new ByteArrayInputStream(bytes.toByteArray()), version);
+
+      final Requests.MessagesByTime byTime = Requests.MessagesByTime.SERIALIZER.read(in);
+      assertEquals(conversation, byTime.conversation);
+      assertEquals(1000, byTime.start.inMs());
+      assertEquals(5000, byTime.end.inMs());
+
+      final Requests.MessagesByRange byRange = Requests.MessagesByRange.SERIALIZER.read(in);
+      assertEquals(conversation, byRange.root);
+      assertEquals(-3, byRange.range);
+
+      assertEquals(-1, in.read());
+    }
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.LinearUuidGenerator;
+import codeu.chat.common.RandomUuidGenerator;
+import codeu.chat.util.Uuid;
+
+public final class IdStoreTest {
+
+  private static final Comparator<Uuid> COMPARATOR = new Comparator<Uuid>() {
+    @Override
+    public int compare(Uuid a, Uuid b) { return a.toString().compareTo(b.toString()); }
+  };
+
+  private IdStore<String> store;
+
+  @Before
+  public void doBefore() {
+    store = new IdStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testFirstFindsEveryId() {
+
+    final Uuid.Generator random = new RandomUuidGenerator(new Uuid(7), 1);
+    final Uuid.Generator linear = new LinearUuidGenerator(null, 0, Integer.MAX_VALUE);
+
+    final Uuid[] ids = new Uuid[2000];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = i % 2 == 0 ? random.make() : linear.make();
+      store.insert(ids[i], "value " + i);
+    }
+
+    for (int i = 0; i < ids.length; i++) {
+      // A copy of the id, not the same instance.
+      final Uuid copy = new Uuid(ids[i].root() == null ? null : new Uuid(ids[i].root().id()),
+                                 ids[i].id());
+      assertEquals("value " + i, store.first(copy));
+    }
+
+    assertNull(store.first(new Uuid(new Uuid(8), ids[0].id())));
+    assertNull(store.first(new Uuid(new Uuid(7), 0)));
+  }
+
+  @Test
+  public void testSameIntDifferentRoots() {
+
+    store.insert(new Uuid(new Uuid(1), 5), "one");
+    store.insert(new Uuid(new Uuid(2), 5), "two");
+    store.insert(new Uuid(5), "none");
+
+    assertEquals("one", store.first(new Uuid(new Uuid(1), 5)));
+    assertEquals("two", store.first(new Uuid(new Uuid(2), 5)));
+    assertEquals("none", store.first(new Uuid(5)));
+    assertNull(store.first(new Uuid(new Uuid(3), 5)));
+  }
+
+  @Test
+  public void testFirstValueKept() {
+
+    final Uuid id = new Uuid(new Uuid(1), 5);
+
+    store.insert(id, "first");
+    store.insert(id, "second");
+
+    assertEquals("first", store.first(id));
+
+    int count = 0;
+    for (final String value : store.at(id)) {
+      count++;
+    }
+    assertEquals(2, count);
+  }
+
+  @Test
+  public void testAllInIdOrder() {
+
+    final Random random = new Random(3);
+    for (int i = 0; i < 100; i++) {
+      final Uuid id = new Uuid(new Uuid(1), random.nextInt());
+      store.insert(id, id.toString());
+    }
+
+    int count = 0;
+    String last = "";
+    for (final String value : store.all()) {
+      assertTrue(last.compareTo(value) < 0);
+      last = value;
+      count++;
+    }
+    assertEquals(100, count);
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// MESSAGE INDEX BENCHMARK
+//
+// Measures how long it takes to find the last hour of messages in a
+// conversation with a year of history, which is what a client asks for when
+// it catches up with a busy conversation. The first message in the hour is
+// found by walking every message from the start of the conversation, as
+// streaming messages by time used to, and by the binary search of
+// MessageIndex. The search should take about the same time however many
+// messages there are.
+//
+// Run with: java -Xmx3g codeu.chat.server.MessageIndexBenchmark [MESSAGES]
+//
+// MESSAGES is the number of messages in the conversation and defaults to
+// 10000000. They are spread evenly over a year.
+public final class MessageIndexBenchmark {
+
+  private static final long YEAR_MS = 365L * 24 * 60 * 60 * 1000;
+  private static final long HOUR_MS = 60L * 60 * 1000;
+
+  private static final int QUERIES = 20;
+
+  public static void main(String[] args) {
+
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+
+    final MessageIndex index = new MessageIndex();
+
+    final long startBuild = System.nanoTime();
+
+    // Only the creation times matter, everything else is shared.
+    for (int i = 0; i < count; i++) {
+      index.add(new Message(Uuid.NULL, Uuid.NULL, Uuid.NULL,
+                            Time.fromMs(YEAR_MS / count * i), Uuid.NULL, "message"));
+    }
+
+    System.out.format("built %d messages in %d ms\n", count, (System.nanoTime() - startBuild) / 1000000);
+
+    final Time lastHour = Time.fromMs(YEAR_MS / count * (count - 1) - HOUR_MS);
+
+    // Warm up so that the numbers are not skewed by the first runs.
+    for (int i = 0; i < 3; i++) {
+      walk(index.messages(), lastHour);
+      index.firstFrom(lastHour);
+    }
+
+    long walked = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < QUERIES; i++) {
+      walked += walk(index.messages(), lastHour);
+    }
+    final long walkNanos = (System.nanoTime() - start) / QUERIES;
+
+    long searched = 0;
+    start = System.nanoTime();
+    for (int i = 0; i < QUERIES; i++) {
+      searched += index.firstFrom(lastHour);
+    }
+    final long searchNanos = (System.nanoTime() - start) / QUERIES;
+
+    if (walked != searched) {
+      throw new IllegalStateException("Walk and search found different messages.");
+    }
+
+    System.out.format("last hour starts at %d  walk %10d us  search %6d us\n",
+                      searched / QUERIES,
+                      walkNanos / 1000,
+                      searchNanos / 1000);
+  }
+
+  // The position of the first message at or after "start", found the way
+  // streaming messages by time used to find it.
+  private static int walk(List<Message> messages, Time start) {
+    int first = 0;
+    while (first < messages.size() && messages.get(first).creation.compareTo(start) < 0) {
+      first++;
+    }
+    return first;
+  }
+}
@@ -0,0 +1,100 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class MessageIndexTest {
+
+  private MessageIndex index;
+
+  @Before
+  public void doBefore() {
+    index = new MessageIndex();
+  }
+
+  @Test
+  public void testEmpty() {
+    assertEquals(0, index.messages().size());
+    assertEquals(0, index.firstFrom(Time.fromMs(0)));
+  }
+
+  @Test
+  public void testFirstFromInOrder() {
+
+    for (int i = 0; i < 100; i++) {
+      add(i, 10 * i);
+    }
+
+    assertEquals(100, index.messages().size());
+    assertEquals(0, index.firstFrom(Time.fromMs(-5)));
+    assertEquals(0, index.firstFrom(Time.fromMs(0)));
+    assertEquals(1, index.firstFrom(Time.fromMs(1)));
+    assertEquals(50, index.firstFrom(Time.fromMs(500)));
+    assertEquals(99, index.firstFrom(Time.fromMs(990)));
+    assertEquals(100, index.firstFrom(Time.fromMs(991)));
+  }
+
+  @Test
+  public void testFirstFromEqualTimes() {
+
+    add(0, 10);
+    add(1, 20);
+    add(2, 20);
+    add(3, 20);
+    add(4, 30);
+
+    assertEquals(1, index.firstFrom(Time.fromMs(20)));
+    assertEquals(4, index.firstFrom(Time.fromMs(21)));
+  }
+
+  // A message older than the one before it, as can come from a relay, does
+  // not hide later messages from the search and is found where a walk from the
+  // start would find it.
+  @Test
+  public void testFirstFromOutOfOrder() {
+
+    add(0, 10);
+    add(1, 50);
+    add(2, 20);
+    add(3, 60);
+
+    assertEquals(1, index.firstFrom(Time.fromMs(15)));
+    assertEquals(1, index.firstFrom(Time.fromMs(50)));
+    assertEquals(3, index.firstFrom(Time.fromMs(55)));
+  }
+
+  @Test
+  public void testMessagesSeeLaterAdds() {
+
+    add(0, 10);
+    final List<Message> messages = index.messages();
+    add(1, 20);
+
+    assertEquals(2, messages.size());
+    assertEquals(new Uuid(1), messages.get(1).id);
+  }
+
+  private void add(int id, long ms) {
+    index.add(new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(ms), Uuid.NULL, "message"));
+  }
+}
@@ -0,0 +1,209 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Frames;
+
+public final class NioFrontEndTest {
+
+  // How many pieces every request is split into, and how long to wait between
+  // them so that each one arrives as a read of its own.
+  private static final int PIECES = 4;
+  private static final int PAUSE_MS = 20;
+
+  private Database database;
+  private Admission admission;
+  private Server server;
+  private NioFrontEnd frontEnd;
+  private Thread selector;
+  private int port;
+
+  @Before
+  public void doBefore() throws IOException {
+
+    database = new Database(System.getProperty("TestDatabase"));
+    admission = new Admission();
+    server = new Server(new Uuid(1), new byte[] { 0x0A }, new NoOpRelay(), database,
+                        new Server.Options().readerThreads(1).admission(admission));
+
+    try (final ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    frontEnd = new NioFrontEnd(server, port);
+    selector = new Thread() {
+      @Override
+      public void run() {
+        try {
+          frontEnd.run();
+        } catch (IOException ex) {
+          // The front end was closed.
+        }
+      }
+    };
+    selector.start();
+  }
+
+  @After
+  public void doAfter() throws Exception {
+    selector.interrupt();
+    selector.join();
+    frontEnd.close();
+    server.stop();
+    database.close();
+  }
+
+  private long admitted() {
+    final Map<String, Long> stats = new HashMap<>();
+    admission.report(stats);
+    return stats.get("admission.admitted");
+  }
+
+  private static byte[] newUserRequest(String name) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.writeInt(out, NetworkCode.NEW_USER_REQUEST);
+    Serializers.STRING.write(out, name);
+    return out.toByteArray();
+  }
+
+  private static byte[] header(int value) {
+    return new byte[] {
+        (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+  }
+
+  private static byte[] join(byte[]... parts) {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (final byte[] part : parts) {
+      out.write(part, 0, part.length);
+    }
+    return out.toByteArray();
+  }
+
+  private static void writeInPieces(OutputStream out, byte[] bytes) throws Exception {
+    final int piece = (bytes.length + PIECES - 1) / PIECES;
+    for (int start = 0; start < bytes.length; start += piece) {
+      out.write(Arrays.copyOfRange(bytes, start, Math.min(bytes.length, start + piece)));
+      out.flush();
+      Thread.sleep(PAUSE_MS);
+    }
+  }
+
+  private Socket connect() throws IOException {
+    final Socket socket = new Socket("localhost", port);
+    socket.setTcpNoDelay(true);
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  @Test
+  public void testSingleRequestSplitAcrossWrites() throws Exception {
+
+    final byte[] request = newUserRequest("single");
+    final long before = admitted();
+
+    try (final Socket socket = connect()) {
+
+      writeInPieces(socket.getOutputStream(), request);
+
+      final DataInputStream in = new DataInputStream(socket.getInputStream());
+      assertEquals(NetworkCode.NEW_USER_RESPONSE, in.readInt());
+    }
+
+    assertEquals(1, admitted() - before);
+  }
+
+  @Test
+  public void testSessionRequestSplitAcrossWrites() throws Exception {
+
+    final byte[] request = newUserRequest("session");
+
+    try (final Socket socket = connect()) {
+
+      final OutputStream out = socket.getOutputStream();
+      final DataInputStream in = new DataInputStream(socket.getInputStream());
+
+      out.write(header(NetworkCode.SESSION_START_REQUEST));
+      out.flush();
+      assertEquals(NetworkCode.SESSION_START_RESPONSE, in.readInt());
+
+      final long before = admitted();
+
+      for (int i = 0; i < 2; i++) {
+        writeInPieces(out, join(header(request.length), request));
+        assertEquals(NetworkCode.NEW_USER_RESPONSE, typeOf(readFrame(in)));
+      }
+
+      assertEquals(2, admitted() - before);
+    }
+  }
+
+  @Test
+  public void testPipelineRequestSplitAcrossWrites() throws Exception {
+
+    final byte[] request = newUserRequest("pipeline");
+
+    try (final Socket socket = connect()) {
+
+      final OutputStream out = socket.getOutputStream();
+      final DataInputStream in = new DataInputStream(socket.getInputStream());
+
+      out.write(header(NetworkCode.PIPELINE_START_REQUEST));
+      out.flush();
+      assertEquals(NetworkCode.PIPELINE_START_RESPONSE, in.readInt());
+
+      final long before = admitted();
+
+      for (int id = 1; id <= 2; id++) {
+        writeInPieces(out, join(header(Frames.HEADER_SIZE + request.length), header(id), request));
+        final byte[] response = readFrame(in);
+        assertEquals(id, Frames.header(response, 0));
+        assertEquals(NetworkCode.NEW_USER_RESPONSE,
+                     typeOf(Arrays.copyOfRange(response, Frames.HEADER_SIZE, response.length)));
+      }
+
+      assertEquals(2, admitted() - before);
+    }
+  }
+
+  private static byte[] readFrame(DataInputStream in) throws IOException {
+    final byte[] frame = new byte[in.readInt()];
+    in.readFully(frame);
+    return frame;
+  }
+
+  private static int typeOf(byte[] response) throws IOException {
+    return Serializers.readInt(new ByteArrayInputStream(response));
+  }
+}
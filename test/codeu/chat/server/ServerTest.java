@@ -0,0 +1,178 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Uuid;
+import codeu.chat.util.connections.Connection;
+
+public final class ServerTest {
+
+  // A connection that has been given all of its input up front.
+  private static final class FakeConnection implements Connection {
+
+    private final InputStream in;
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    public FakeConnection(InputStream in) {
+      this.in = in;
+    }
+
+    @Override
+    public InputStream in() { return in; }
+
+    @Override
+    public OutputStream out() { return out; }
+
+    @Override
+    public String remoteAddress() { return null; }
+
+    @Override
+    public void close() { }
+
+    public int responseType() throws IOException {
+      return Serializers.readInt(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    public InputStream response() {
+      return new ByteArrayInputStream(out.toByteArray());
+    }
+  }
+
+  // Input that gives "start" and then stalls, like a client that stopped
+  // half way through a request, until it is released.
+  private static final class StalledInput extends InputStream {
+
+    private final InputStream start;
+    public final CountDownLatch stalled = new CountDownLatch(1);
+    public final CountDownLatch released = new CountDownLatch(1);
+
+    public StalledInput(byte[] start) {
+      this.start = new ByteArrayInputStream(start);
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int next = start.read();
+      if (next >= 0) {
+        return next;
+      }
+      stalled.countDown();
+      try {
+        released.await();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      return -1;
+    }
+  }
+
+  private Database database;
+  private Server server;
+
+  @Before
+  public void doBefore() {
+    database = new Database(System.getProperty("TestDatabase"));
+    server = new Server(new Uuid(1), new byte[] { 0x0A }, new NoOpRelay(), database, new Server.Options());
+  }
+
+  @After
+  public void doAfter() throws SQLException {
+    server.stop();
+    database.close();
+  }
+
+  private static byte[] newMessageRequest(String content) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Serializers.writeInt(out, NetworkCode.NEW_MESSAGE_REQUEST);
+    Requests.NewMessage.SERIALIZER.write(
+        out, new Requests.NewMessage(new Uuid(2), new Uuid(3), content));
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testStalledConnectionDoesNotHoldUpOthers() throws Exception {
+
+    // Only the type of the request arrives, the rest never does.
+    final StalledInput input = new StalledInput(
+        Arrays.copyOf(newMessageRequest("stalled"), 4));
+    final FakeConnection stalled = new FakeConnection(input);
+
+    final Thread stalledThread = new Thread() {
+      @Override
+      public void run() {
+        server.serveConnection(stalled);
+      }
+    };
+    stalledThread.start();
+
+    try {
+      assertTrue(input.stalled.await(5, TimeUnit.SECONDS));
+
+      final FakeConnection other =
+          new FakeConnection(new ByteArrayInputStream(newMessageRequest("other")));
+      final CountDownLatch served = new CountDownLatch(1);
+
+      final Thread otherThread = new Thread() {
+        @Override
+        public void run() {
+          server.serveConnection(other);
+          served.countDown();
+        }
+      };
+      otherThread.start();
+
+      assertTrue("A stalled connection held up another connection's NEW_MESSAGE",
+                 served.await(5, TimeUnit.SECONDS));
+      assertEquals(NetworkCode.NEW_MESSAGE_RESPONSE, other.responseType());
+    } finally {
+      input.released.countDown();
+      stalledThread.join();
+    }
+  }
+
+  @Test
+  public void testMessageCount() throws Exception {
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    Serializers.writeInt(request, NetworkCode.GET_MESSAGE_COUNT_REQUEST);
+    Uuid.SERIALIZER.write(request, new Uuid(3));
+
+    final FakeConnection connection =
+        new FakeConnection(new ByteArrayInputStream(request.toByteArray()));
+    server.serveConnection(connection);
+
+    final InputStream response = connection.response();
+    assertEquals(NetworkCode.GET_MESSAGE_COUNT_RESPONSE, Serializers.readInt(response));
+    assertEquals(0, Serializers.readInt(response));
+    assertEquals(-1, response.read());
+  }
+}
@@ -0,0 +1,120 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.User;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class SubscriptionsTest {
+
+  // Remembers every push it is given.
+  private static final class Recorder implements Subscriptions.Subscriber {
+
+    public final List<byte[]> pushes = new ArrayList<>();
+
+    @Override
+    public void push(byte[] push) {
+      pushes.add(push);
+    }
+
+    public int type(int index) throws IOException {
+      return Serializers.INTEGER.read(new ByteArrayInputStream(pushes.get(index)));
+    }
+  }
+
+  private static final Uuid FIRST = new Uuid(1);
+  private static final Uuid SECOND = new Uuid(2);
+
+  private static final User USER = new User(new Uuid(3), "user", Time.fromMs(0));
+  private static final Message MESSAGE =
+      new Message(new Uuid(4), Uuid.NULL, Uuid.NULL, Time.fromMs(0), USER.id, "hello");
+
+  private Subscriptions subscriptions;
+
+  @Before
+  public void doBefore() {
+    subscriptions = new Subscriptions();
+  }
+
+  @Test
+  public void testMessagePushedToFollowers() throws IOException {
+
+    final Recorder first = new Recorder();
+    final Recorder second = new Recorder();
+    final Recorder everything = new Recorder();
+
+    subscriptions.add(first, FIRST);
+    subscriptions.add(second, SECOND);
+    subscriptions.add(everything, Uuid.NULL);
+
+    subscriptions.onNewMessage(FIRST, MESSAGE);
+
+    assertEquals(1, first.pushes.size());
+    assertEquals(0, second.pushes.size());
+    assertEquals(1, everything.pushes.size());
+
+    final InputStream in = new ByteArrayInputStream(first.pushes.get(0));
+    assertEquals(NetworkCode.NEW_MESSAGE_PUSH, (int) Serializers.INTEGER.read(in));
+    assertEquals(FIRST, Uuid.SERIALIZER.read(in));
+    assertEquals(MESSAGE.id, Message.SERIALIZER.read(in).id);
+  }
+
+  @Test
+  public void testUsersAndConversationsOnlyPushedToEverything() throws IOException {
+
+    final Recorder first = new Recorder();
+    final Recorder everything = new Recorder();
+
+    subscriptions.add(first, FIRST);
+    subscriptions.add(everything, Uuid.NULL);
+
+    subscriptions.onNewUser(USER);
+    subscriptions.onNewConversation(new Conversation(FIRST, USER.id, Time.fromMs(0), "title"));
+
+    assertEquals(0, first.pushes.size());
+    assertEquals(2, everything.pushes.size());
+    assertEquals(NetworkCode.NEW_USER_PUSH, everything.type(0));
+    assertEquals(NetworkCode.NEW_CONVERSATION_PUSH, everything.type(1));
+  }
+
+  @Test
+  public void testRemovedSubscriberNotPushed() {
+
+    final Recorder first = new Recorder();
+
+    subscriptions.add(first, FIRST);
+    subscriptions.remove(first);
+
+    subscriptions.onNewMessage(FIRST, MESSAGE);
+
+    assertEquals(0, first.pushes.size());
+    assertEquals(0, subscriptions.size());
+  }
+}
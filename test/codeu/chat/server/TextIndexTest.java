@@ -0,0 +1,118 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class TextIndexTest {
+
+  private static final Uuid FIRST = new Uuid(1);
+  private static final Uuid SECOND = new Uuid(2);
+
+  private TextIndex index;
+
+  @Before
+  public void doBefore() {
+
+    index = new TextIndex();
+
+    add(FIRST, 100, "Hello world");
+    add(FIRST, 101, "hello, WORLD! hello again");
+    add(SECOND, 102, "world peace");
+    add(SECOND, 103, "Helium balloons");
+    add(FIRST, 104, "");
+  }
+
+  @Test
+  public void testOneTerm() {
+    assertIds(index.search(Uuid.NULL, "world", 10), 102, 101, 100);
+    assertIds(index.search(Uuid.NULL, "peace", 10), 102);
+    assertIds(index.search(Uuid.NULL, "missing", 10));
+  }
+
+  @Test
+  public void testCaseAndPunctuation() {
+    assertIds(index.search(Uuid.NULL, "HELLO", 10), 101, 100);
+    assertIds(index.search(Uuid.NULL, "  world!? ", 10), 102, 101, 100);
+  }
+
+  @Test
+  public void testAllTermsMustMatch() {
+    assertIds(index.search(Uuid.NULL, "hello world", 10), 101, 100);
+    assertIds(index.search(Uuid.NULL, "again world", 10), 101);
+    assertIds(index.search(Uuid.NULL, "hello peace", 10));
+  }
+
+  @Test
+  public void testPrefix() {
+    assertIds(index.search(Uuid.NULL, "hel*", 10), 103, 101, 100);
+    assertIds(index.search(Uuid.NULL, "hel* wor*", 10), 101, 100);
+    assertIds(index.search(Uuid.NULL, "hel", 10));
+  }
+
+  @Test
+  public void testLimitKeepsNewest() {
+    assertIds(index.search(Uuid.NULL, "world", 2), 102, 101);
+    assertIds(index.search(Uuid.NULL, "world", 0));
+  }
+
+  @Test
+  public void testOneConversation() {
+    assertIds(index.search(FIRST, "world", 10), 101, 100);
+    assertIds(index.search(SECOND, "world", 10), 102);
+    assertIds(index.search(FIRST, "world", 1), 101);
+  }
+
+  @Test
+  public void testEmptyQuery() {
+    assertIds(index.search(Uuid.NULL, "", 10));
+    assertIds(index.search(Uuid.NULL, " !* ", 10));
+  }
+
+  // Enough messages between two uses of a term that the gaps in its posting
+  // list take more than one byte.
+  @Test
+  public void testLargeGaps() {
+
+    for (int i = 0; i < 100000; i++) {
+      add(FIRST, 1000 + i, (i % 40000 == 0) ? "rare filler" : "filler");
+    }
+
+    assertIds(index.search(Uuid.NULL, "rare", 10), 81000, 41000, 1000);
+    assertEquals(10, index.search(Uuid.NULL, "filler", 10).size());
+  }
+
+  private void add(Uuid conversation, int id, String content) {
+    index.add(conversation,
+              new Message(new Uuid(id), Uuid.NULL, Uuid.NULL, Time.fromMs(id), Uuid.NULL, content));
+  }
+
+  private static void assertIds(Collection<Message> messages, int... ids) {
+    final Iterator<Message> iterator = messages.iterator();
+    for (final int id : ids) {
+      assertTrue(iterator.hasNext());
+      assertEquals(new Uuid(id), iterator.next().id);
+    }
+    assertFalse(iterator.hasNext());
+  }
+}
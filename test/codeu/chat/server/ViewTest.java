@@ -0,0 +1,113 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.server;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+public final class ViewTest {
+
+  private static final Uuid USER = new Uuid(1);
+  private static final Uuid CONVERSATION = new Uuid(2);
+
+  private Model model;
+  private View view;
+
+  @Before
+  public void doBefore() {
+
+    model = new Model();
+    view = new View(model);
+
+    model.add(new Conversation(CONVERSATION, USER, Time.fromMs(0), "conversation"));
+
+    // Ten messages, linked both ways, with ids 100 to 109.
+    for (int i = 0; i < 10; i++) {
+      final Message message = new Message(new Uuid(100 + i),
+                                          i < 9 ? new Uuid(101 + i) : Uuid.NULL,
+                                          i > 0 ? new Uuid(99 + i) : Uuid.NULL,
+                                          Time.fromMs(1000 * i),
+                                          USER,
+                                          "message " + i);
+      model.add(CONVERSATION, message);
+    }
+  }
+
+  @Test
+  public void testMessageCount() {
+    assertEquals(10, view.getMessageCount(CONVERSATION));
+    assertEquals(0, view.getMessageCount(new Uuid(3)));
+  }
+
+  @Test
+  public void testMessagesByIndexForward() {
+    assertIds(view.getMessages(CONVERSATION, 0, 3), 100, 101, 102);
+    assertIds(view.getMessages(CONVERSATION, 8, 5), 108, 109);
+    assertIds(view.getMessages(CONVERSATION, -2, 5), 108, 109);
+    assertIds(view.getMessages(CONVERSATION, 10, 5));
+    assertIds(view.getMessages(CONVERSATION, 0, 0));
+    assertIds(view.getMessages(CONVERSATION, 5, Integer.MAX_VALUE), 105, 106, 107, 108, 109);
+  }
+
+  @Test
+  public void testMessagesByIndexBackward() {
+    assertIds(view.getMessages(CONVERSATION, -1, -3), 107, 108, 109);
+    assertIds(view.getMessages(CONVERSATION, 1, -5), 100, 101);
+    assertIds(view.getMessages(CONVERSATION, -11, -5));
+    assertIds(view.getMessages(CONVERSATION, -1, Integer.MIN_VALUE),
+              100, 101, 102, 103, 104, 105, 106, 107, 108, 109);
+  }
+
+  @Test
+  public void testMessagesByIndexUnknownConversation() {
+    assertIds(view.getMessages(new Uuid(3), 0, 10));
+  }
+
+  @Test
+  public void testMessagesByRangeBackward() {
+    assertIds(view.getMessages(new Uuid(105), -2), 103, 104, 105);
+    assertIds(view.getMessages(new Uuid(101), -5), 100, 101);
+  }
+
+  @Test
+  public void testMessagesByTime() {
+    assertIds(view.getMessages(CONVERSATION, Time.fromMs(2500), Time.fromMs(5000)), 103, 104, 105);
+    assertIds(view.getMessages(CONVERSATION, Time.fromMs(9500), Time.fromMs(20000)));
+  }
+
+  @Test
+  public void testSearchMessages() {
+    assertIds(view.searchMessages(CONVERSATION, "message 3", 10), 103);
+    assertIds(view.searchMessages(Uuid.NULL, "mess*", 2), 109, 108);
+    assertIds(view.searchMessages(new Uuid(3), "message", 10));
+  }
+
+  private static void assertIds(Collection<Message> messages, int... ids) {
+    final Iterator<Message> iterator = messages.iterator();
+    for (final int id : ids) {
+      assertTrue(iterator.hasNext());
+      assertEquals(new Uuid(id), iterator.next().id);
+    }
+    assertFalse(iterator.hasNext());
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.RandomUuidGenerator;
+
+// ALLOCATION BENCHMARK
+//
+// Measures how many bytes are allocated to send one GET_MESSAGES_BY_TIME
+// request and its response in each wire version: the client writing the
+// request, the server reading it and writing the response, and the client
+// reading the response. The messages themselves are made once up front.
+//
+// Uses the JVM's count of bytes allocated by the current thread, so it needs
+// a JVM that has it (HotSpot does).
+//
+// Run with: java codeu.chat.util.AllocationBenchmark [MESSAGES] [REQUESTS]
+//
+// MESSAGES is the number of messages in each response and defaults to 100.
+// REQUESTS is the number of requests to measure and defaults to 2000.
+public final class AllocationBenchmark {
+
+  public static void main(String[] args) throws IOException {
+
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+    final com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long thread = Thread.currentThread().getId();
+
+    final Uuid conversation = new Uuid(new Uuid(100), 5);
+    final List<Message> messages = makeMessages(count);
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      // Warm up so that the numbers are not skewed by the first runs.
+      for (int i = 0; i < requests; i++) {
+        request(conversation, messages, version);
+      }
+
+      final long before = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < requests; i++) {
+        request(conversation, messages, version);
+      }
+      final long after = threads.getThreadAllocatedBytes(thread);
+
+      System.out.format("version %d  %8d bytes/request\n", version, (after - before) / requests);
+    }
+  }
+
+  private static void request(Uuid conversation, Collection<Message> messages, int version)
+      throws IOException {
+
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    final OutputStream client = Wire.out(request, version);
+
+    Serializers.writeInt(client, NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+    Uuid.SERIALIZER.write(client, conversation);
+    Time.SERIALIZER.write(client, Time.fromMs(0));
+    Time.SERIALIZER.write(client, Time.fromMs(Long.MAX_VALUE));
+
+    final InputStream server = Wire.in(new ByteArrayInputStream(request.toByteArray()), version);
+
+    Serializers.readInt(server);
+    Uuid.SERIALIZER.read(server);
+    Time.SERIALIZER.read(server);
+    Time.SERIALIZER.read(server);
+
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    final OutputStream out = Wire.out(response, version);
+
+    Serializers.writeInt(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
+    Serializers.collection(Message.SERIALIZER).write(out, messages);
+
+    final InputStream in = Wire.in(new ByteArrayInputStream(response.toByteArray()), version);
+
+    Serializers.readInt(in);
+    Serializers.collection(Message.SERIALIZER).read(in);
+  }
+
+  private static List<Message> makeMessages(int count) {
+
+    final Uuid.Generator ids = new RandomUuidGenerator(new Uuid(100), 2);
+    final Uuid author = ids.make();
+
+    final List<Message> messages = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      messages.add(new Message(ids.make(),
+                               ids.make(),
+                               ids.make(),
+                               Time.fromMs(1490000000000L + 1000 * i),
+                               author,
+                               "hello world hello world hello world 1234"));
+    }
+
+    return messages;
+  }
+}
@@ -0,0 +1,215 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Conversation;
+import codeu.chat.common.Message;
+import codeu.chat.common.User;
+
+public final class CodecTest {
+
+  private static final Uuid SERVER = new Uuid(100);
+
+  private static final String TEXT = "h\u00e9llo \u4e16\u754c \ud83d\ude00";
+
+  // The messages written field by field with the stream serializers, the way
+  // Message.SERIALIZER wrote them before it was made from Message.CODEC. From
+  // version 5 each message is written on its own stream (see
+  // Wire.Context.alone).
+  private static byte[] writeByFields(Collection<Message> messages, int version) throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = Wire.out(bytes, version);
+
+    Serializers.INTEGER.write(out, messages.size());
+
+    for (final Message message : messages) {
+      final ByteArrayOutputStream alone = new ByteArrayOutputStream();
+      final OutputStream fields = version >= Wire.V5 ? Wire.out(alone, version) : out;
+      Uuid.SERIALIZER.write(fields, message.id);
+      Uuid.SERIALIZER.write(fields, message.next);
+      Uuid.SERIALIZER.write(fields, message.previous);
+      Time.SERIALIZER.write(fields, message.creation);
+      Uuid.SERIALIZER.write(fields, message.author);
+      Serializers.STRING.write(fields, message.content);
+      alone.writeTo(out);
+    }
+
+    return bytes.toByteArray();
+  }
+
+  // Version 1 strings are in the platform's charset, which may not have every
+  // character in TEXT.
+  private static String text(String value, int version) {
+    return version >= Wire.V2 ? value : new String(value.getBytes());
+  }
+
+  private static <T> byte[] write(Serializer<T> serializer, T value, int version) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    serializer.write(Wire.out(bytes, version), value);
+    return bytes.toByteArray();
+  }
+
+  private static List<Message> makeMessages(int count, String content) {
+
+    final List<Message> messages = new ArrayList<>();
+
+    for (int i = 0; i < count; i++) {
+      messages.add(new Message(new Uuid(SERVER, -1000 - i),
+                               new Uuid(SERVER, -1001 - i),
+                               new Uuid(SERVER, -999 - i),
+                               Time.fromMs(1490000000000L + 1000 * i),
+                               new Uuid(SERVER, i % 3),
+                               content + i));
+    }
+
+    return messages;
+  }
+
+  @Test
+  public void testSameBytesAsStreams() throws IOException {
+
+    final List<Message> messages = makeMessages(50, TEXT);
+    final Serializer<Collection<Message>> serializer = Serializers.collection(Message.SERIALIZER);
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+      assertArrayEquals("Version " + version,
+                        writeByFields(messages, version),
+                        write(serializer, messages, version));
+    }
+  }
+
+  @Test
+  public void testLargeValues() throws IOException {
+
+    // Bigger than the buffer the serializer starts with, so it has to grow it
+    // and, in version 3, forget the Uuids from the try that did not fit.
+    final StringBuilder content = new StringBuilder();
+    while (content.length() < 100000) {
+      content.append(TEXT);
+    }
+
+    final List<Message> messages = makeMessages(3, content.toString());
+    final Serializer<Collection<Message>> serializer = Serializers.collection(Message.SERIALIZER);
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      final byte[] bytes = write(serializer, messages, version);
+      assertArrayEquals(writeByFields(messages, version), bytes);
+
+      final InputStream in = Wire.in(new ByteArrayInputStream(bytes), version);
+      final Collection<Message> read = serializer.read(in);
+
+      assertEquals(-1, in.read());
+      assertEquals(messages.size(), read.size());
+
+      int i = 0;
+      for (final Message message : read) {
+        assertEquals(messages.get(i).id, message.id);
+        assertEquals(text(messages.get(i).content, version), message.content);
+        i++;
+      }
+    }
+  }
+
+  @Test
+  public void testDirectBuffer() throws IOException {
+
+    final Conversation conversation = new Conversation(new Uuid(SERVER, 5),
+                                                       new Uuid(SERVER, 6),
+                                                       Time.fromMs(1490000000000L),
+                                                       TEXT);
+    conversation.users.add(new Uuid(SERVER, 6));
+    conversation.users.add(new Uuid(SERVER, 7));
+    conversation.firstMessage = new Uuid(SERVER, 8);
+    conversation.lastMessage = new Uuid(SERVER, 9);
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      final ByteBuffer buffer = ByteBuffer.allocateDirect(1024);
+
+      Conversation.CODEC.write(buffer, conversation, new Wire.Context(version));
+      buffer.flip();
+
+      assertEquals(buffer.remaining(), Conversation.CODEC.length(buffer, new Wire.Context(version)));
+
+      final Conversation read = Conversation.CODEC.read(buffer, new Wire.Context(version));
+
+      assertFalse(buffer.hasRemaining());
+      assertEquals(conversation.id, read.id);
+      assertEquals(conversation.owner, read.owner);
+      assertEquals(conversation.creation.inMs(), read.creation.inMs());
+      assertEquals(text(conversation.title, version), read.title);
+      assertEquals(conversation.users, read.users);
+      assertEquals(conversation.firstMessage, read.firstMessage);
+      assertEquals(conversation.lastMessage, read.lastMessage);
+    }
+  }
+
+  @Test
+  public void testLengthOfPartialValue() throws IOException {
+
+    final User user = new User(new Uuid(SERVER, -5), TEXT, Time.fromMs(1490000000000L));
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      final byte[] bytes = write(User.SERIALIZER, user, version);
+
+      // With only part of the value, the length must ask for more than there
+      // is and never for more than the whole value.
+      for (int i = 0; i < bytes.length; i++) {
+        final int length = User.CODEC.length(ByteBuffer.wrap(bytes, 0, i), new Wire.Context(version));
+        assertTrue(length > i);
+        assertTrue(length <= bytes.length);
+      }
+
+      assertEquals(bytes.length,
+                   User.CODEC.length(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length + 5)),
+                                     new Wire.Context(version)));
+    }
+  }
+
+  @Test
+  public void testLoneSurrogate() throws IOException {
+
+    final String value = "a\ud83db";
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+      final byte[] expected = write(Serializers.STRING, value, version);
+      final ByteBuffer buffer = ByteBuffer.allocate(64);
+      Codecs.STRING.write(buffer, value, new Wire.Context(version));
+      assertArrayEquals(expected, Arrays.copyOf(buffer.array(), buffer.position()));
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testNegativeSize() throws IOException {
+    Codecs.BYTES.read(ByteBuffer.wrap(new byte[] { -1, -1, -1, -1 }), new Wire.Context(Wire.V1));
+  }
+}
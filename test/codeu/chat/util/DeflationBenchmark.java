@@ -0,0 +1,138 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.common.RandomUuidGenerator;
+
+// DEFLATION BENCHMARK
+//
+// Shows what deflating a GET_MESSAGES_BY_TIME response costs and saves at
+// each deflate level, in wire versions 1 and the latest: how many bytes are
+// sent and how long the server takes to deflate the response and the client
+// takes to inflate it.
+//
+// Run with: java codeu.chat.util.DeflationBenchmark [MESSAGES] [ROUNDS]
+//
+// MESSAGES is the number of messages in the response and defaults to 2000.
+// ROUNDS is the number of times each is measured and defaults to 200.
+public final class DeflationBenchmark {
+
+  private static final String[] WORDS = {
+      "hello", "world", "the", "meeting", "is", "at", "noon", "see", "you", "there",
+      "thanks", "can", "someone", "review", "my", "change", "lunch", "?", "ok", "sounds",
+      "good", "I", "will", "be", "late", "today", "build", "is", "broken", "again" };
+
+  private static final int[] LEVELS = { 1, 3, 6, 9 };
+
+  public static void main(String[] args) throws IOException {
+
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+    final List<Message> messages = makeMessages(count);
+
+    for (final int version : new int[] { Wire.V1, Wire.LATEST }) {
+
+      final byte[] response = encode(messages, version);
+      System.out.format("version %d  %d messages  %d bytes\n", version, count, response.length);
+
+      for (final int level : LEVELS) {
+
+        final Deflation deflation = new Deflation(level, 0);
+
+        byte[] deflated = null;
+
+        // Warm up so that the numbers are not skewed by the first runs.
+        for (int i = 0; i < rounds; i++) {
+          deflated = deflation.deflate(response, 0, response.length);
+          Deflation.inflate(deflated, response.length);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+          deflated = deflation.deflate(response, 0, response.length);
+        }
+        final long deflateNs = (System.nanoTime() - start) / rounds;
+
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+          Deflation.inflate(deflated, response.length);
+        }
+        final long inflateNs = (System.nanoTime() - start) / rounds;
+
+        System.out.format("  level %d  %8d bytes (%5.1f%%)  deflate %6d us  inflate %6d us\n",
+                          level,
+                          deflated.length,
+                          100.0 * deflated.length / response.length,
+                          deflateNs / 1000,
+                          inflateNs / 1000);
+      }
+    }
+  }
+
+  private static byte[] encode(List<Message> messages, int version) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = Wire.out(bytes, version);
+    Serializers.writeInt(out, NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
+    Serializers.collection(Message.SERIALIZER).write(out, messages);
+    return bytes.toByteArray();
+  }
+
+  // A conversation between a few people, each message linked to the one
+  // before it.
+  private static List<Message> makeMessages(int count) {
+
+    final Random random = new Random(1);
+    final Uuid.Generator ids = new RandomUuidGenerator(new Uuid(100), 2);
+
+    final Uuid[] authors = { ids.make(), ids.make(), ids.make(), ids.make() };
+    final Uuid[] messageIds = new Uuid[count + 2];
+    for (int i = 0; i < messageIds.length; i++) {
+      messageIds[i] = i == 0 || i == messageIds.length - 1 ? Uuid.NULL : ids.make();
+    }
+
+    final List<Message> messages = new ArrayList<>(count);
+    long time = 1490000000000L;
+
+    for (int i = 1; i <= count; i++) {
+
+      final StringBuilder content = new StringBuilder();
+      final int words = 3 + random.nextInt(15);
+      for (int w = 0; w < words; w++) {
+        content.append(w == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+      }
+
+      time += 1000 + random.nextInt(60000);
+
+      messages.add(new Message(messageIds[i],
+                               messageIds[i + 1],
+                               messageIds[i - 1],
+                               Time.fromMs(time),
+                               authors[random.nextInt(authors.length)],
+                               content.toString()));
+    }
+
+    return messages;
+  }
+}
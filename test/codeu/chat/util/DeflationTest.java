@@ -0,0 +1,93 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class DeflationTest {
+
+  private static byte[] repetitive(int length) {
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = (byte) "hello world ".charAt(i % 12);
+    }
+    return bytes;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    final Deflation deflation = new Deflation(Deflation.DEFAULT_LEVEL, 100);
+    final byte[] bytes = repetitive(100000);
+
+    // Many times, so that pooled Deflaters and Inflaters are reused.
+    for (int i = 0; i < 50; i++) {
+      final byte[] deflated = deflation.deflate(bytes, 10, bytes.length - 20);
+      assertNotNull(deflated);
+      assertTrue(deflated.length < bytes.length / 10);
+      assertArrayEquals(Arrays.copyOfRange(bytes, 10, bytes.length - 10),
+                        Deflation.inflate(deflated, bytes.length - 20));
+    }
+
+    final Map<String, Long> stats = new HashMap<>();
+    deflation.report(stats);
+    assertEquals(50L, (long) stats.get("deflate.responses"));
+    assertEquals(50L * (bytes.length - 20), (long) stats.get("deflate.bytesIn"));
+  }
+
+  @Test
+  public void testBelowThreshold() {
+    final Deflation deflation = new Deflation(Deflation.DEFAULT_LEVEL, 100);
+    assertNull(deflation.deflate(repetitive(99), 0, 99));
+  }
+
+  @Test
+  public void testNotSmaller() {
+
+    final byte[] bytes = new byte[10000];
+    new Random(5).nextBytes(bytes);
+
+    assertNull(new Deflation(Deflation.DEFAULT_LEVEL, 0).deflate(bytes, 0, bytes.length));
+  }
+
+  @Test
+  public void testWrongLength() throws IOException {
+
+    final byte[] deflated = new Deflation(Deflation.DEFAULT_LEVEL, 0).deflate(repetitive(1000), 0, 1000);
+
+    for (final int length : new int[] { 999, 1001 }) {
+      try {
+        Deflation.inflate(deflated, length);
+        fail("Expected inflating to " + length + " bytes to fail.");
+      } catch (IOException ex) {
+        // expected
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testCorrupt() throws IOException {
+    final byte[] deflated = new Deflation(Deflation.DEFAULT_LEVEL, 0).deflate(repetitive(1000), 0, 1000);
+    deflated[deflated.length / 2] ^= 0x55;
+    Deflation.inflate(deflated, 1000);
+  }
+}
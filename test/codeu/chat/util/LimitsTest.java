@@ -0,0 +1,191 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.util.connections.Frames;
+
+public final class LimitsTest {
+
+  // A size far over any limit, as a bad request would send.
+  private static final int HUGE = Integer.MAX_VALUE - 8;
+
+  // An int in "version", followed by a few bytes that are nowhere near what
+  // it asks for, read as a request.
+  private static InputStream sizeThenLittle(int size, int version) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Serializers.writeInt(Wire.out(bytes, version), size);
+    bytes.write(new byte[16]);
+    return Wire.in(new ByteArrayInputStream(bytes.toByteArray()), version, Limits.REQUESTS);
+  }
+
+  private static long stat(String name) {
+    final Map<String, Long> stats = new HashMap<>();
+    Limits.report(stats);
+    return stats.get(name);
+  }
+
+  @Test
+  public void testFieldOverLimit() throws IOException {
+
+    final long before = stat("limits.rejectedFields");
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+      try {
+        Serializers.BYTES.read(sizeThenLittle(HUGE, version));
+        fail("Expected a field over the limit to be rejected.");
+      } catch (IOException ex) {
+        // expected
+      }
+      try {
+        Serializers.collection(Serializers.INTEGER).read(sizeThenLittle(HUGE, version));
+        fail("Expected a list over the limit to be rejected.");
+      } catch (IOException ex) {
+        // expected
+      }
+      try {
+        Serializers.STRING.read(sizeThenLittle(-1, version));
+        fail("Expected a negative size to be rejected.");
+      } catch (IOException ex) {
+        // expected
+      }
+    }
+
+    assertEquals(before + 3 * Wire.NEWEST, stat("limits.rejectedFields"));
+  }
+
+  @Test
+  public void testCodecFieldOverLimit() throws IOException {
+
+    final ByteBuffer buffer = ByteBuffer.allocate(64);
+    Codecs.INTEGER.write(buffer, HUGE, new Wire.Context(Wire.V1));
+    buffer.flip();
+
+    try {
+      Codecs.BYTES.length(buffer, new Wire.Context(Wire.V1, Limits.REQUESTS));
+      fail("Expected a field over the limit to be rejected.");
+    } catch (IOException ex) {
+      // expected
+    }
+
+    // Through a serializer, which asks the codec how much to read first.
+    try {
+      Codecs.serializer(Codecs.BYTES).read(sizeThenLittle(HUGE, Wire.V1));
+      fail("Expected a field over the limit to be rejected.");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testStreamChunkOverLimit() throws IOException {
+
+    final Streams.Reader<Integer> reader =
+        Streams.read(sizeThenLittle(HUGE, Wire.V2), Serializers.INTEGER);
+
+    assertFalse(reader.hasNext());
+    assertNotNull(reader.error());
+  }
+
+  @Test
+  public void testFrameOverLimit() throws IOException {
+
+    final long before = stat("limits.rejectedFrames");
+
+    final byte[] header = { 0x7F, 0, 0, 0, 1, 2, 3 };
+    try {
+      Frames.read(new ByteArrayInputStream(header), Limits.REQUESTS);
+      fail("Expected a frame over the limit to be rejected.");
+    } catch (IOException ex) {
+      // expected
+    }
+
+    assertEquals(before + 1, stat("limits.rejectedFrames"));
+  }
+
+  @Test
+  public void testUnframedRequestOverLimit() throws IOException {
+
+    // Never ends.
+    final InputStream endless = new InputStream() {
+      @Override
+      public int read() { return 0; }
+      @Override
+      public int read(byte[] bytes, int offset, int length) { return length; }
+    };
+
+    final InputStream in = Limits.REQUESTS.limit(endless);
+    final byte[] buffer = new byte[64 * 1024];
+
+    long read = 0;
+    try {
+      while (true) {
+        read += in.read(buffer, 0, buffer.length);
+      }
+    } catch (IOException ex) {
+      // expected
+    }
+
+    assertEquals(Limits.REQUESTS.maxFrameSize, read);
+  }
+
+  @Test
+  public void testUnderLimit() throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Serializers.BYTES.write(bytes, new byte[1000]);
+
+    final InputStream in = Limits.REQUESTS.limit(new ByteArrayInputStream(bytes.toByteArray()));
+    assertEquals(1000, Serializers.BYTES.read(in).length);
+    assertEquals(-1, in.read());
+  }
+
+  @Test
+  public void testResponsesOverRequestLimits() throws IOException {
+
+    // A client reads whatever its server sends, however much bigger than a
+    // request that is.
+    final int size = Limits.REQUESTS.maxFieldSize + 1;
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      Serializers.BYTES.write(Wire.out(bytes, version), new byte[size]);
+      Frames.write(bytes, new byte[size]);
+
+      final InputStream in = Wire.in(new ByteArrayInputStream(bytes.toByteArray()), version);
+      assertEquals(size, Serializers.BYTES.read(in).length);
+      assertEquals(size, Frames.read(in).length);
+    }
+
+    // Sizes that make no sense are still turned away.
+    try {
+      Serializers.BYTES.read(Wire.in(new ByteArrayInputStream(new byte[] { -1, -1, -1, -1 }), Wire.V1));
+      fail("Expected a negative size to be rejected.");
+    } catch (IOException ex) {
+      // expected
+    }
+  }
+}
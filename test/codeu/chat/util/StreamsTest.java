@@ -0,0 +1,104 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public final class StreamsTest {
+
+  private static byte[] write(List<Integer> values, int version) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Streams.write(Wire.out(bytes, version), Serializers.INTEGER, values.iterator());
+    return bytes.toByteArray();
+  }
+
+  private static List<Integer> range(int count) {
+    final List<Integer> values = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      values.add(i * 7 - 100);
+    }
+    return values;
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+
+    // Empty, less than a chunk, exactly a chunk and more than one chunk.
+    final int[] counts = { 0, 1, Streams.CHUNK_SIZE, Streams.CHUNK_SIZE + 1, 5 * Streams.CHUNK_SIZE - 3 };
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+      for (final int count : counts) {
+
+        final List<Integer> values = range(count);
+        final InputStream in = Wire.in(new ByteArrayInputStream(write(values, version)), version);
+        final Streams.Reader<Integer> reader = Streams.read(in, Serializers.INTEGER);
+
+        final List<Integer> read = new ArrayList<>();
+        while (reader.hasNext()) {
+          read.add(reader.next());
+        }
+
+        assertEquals(values, read);
+        assertNull(reader.error());
+        assertEquals("Every byte should be read.", -1, in.read());
+      }
+    }
+  }
+
+  @Test
+  public void testValuesArriveBeforeTheEnd() throws IOException {
+
+    // Only the first chunk has arrived so far.
+    final byte[] bytes = write(range(3 * Streams.CHUNK_SIZE), Wire.V1);
+    final byte[] firstChunk = Arrays.copyOf(bytes, 4 + 4 * Streams.CHUNK_SIZE);
+
+    final Streams.Reader<Integer> reader =
+        Streams.read(new ByteArrayInputStream(firstChunk), Serializers.INTEGER);
+
+    for (int i = 0; i < Streams.CHUNK_SIZE; i++) {
+      assertTrue(reader.hasNext());
+      assertEquals(range(1).get(0) + 7 * i, (int) reader.next());
+    }
+  }
+
+  @Test
+  public void testCutShort() throws IOException {
+
+    final byte[] bytes = write(range(100), Wire.V2);
+    final byte[] cut = Arrays.copyOf(bytes, bytes.length - 10);
+
+    final Streams.Reader<Integer> reader =
+        Streams.read(Wire.in(new ByteArrayInputStream(cut), Wire.V2), Serializers.INTEGER);
+
+    int count = 0;
+    while (reader.hasNext()) {
+      reader.next();
+      count++;
+    }
+
+    // The stream ends early instead of giving made up values.
+    assertTrue(count < 100);
+    assertNotNull(reader.error());
+  }
+}
@@ -0,0 +1,105 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.RandomUuidGenerator;
+
+// WIRE SIZE BENCHMARK
+//
+// Compares how many bytes a GET_MESSAGES_BY_TIME response takes in each wire
+// version. Messages are made the way the server makes them: ids are random
+// links under the server's id, authors are picked from a few users and each
+// message is created a few seconds after the one before it.
+//
+// Run with: java codeu.chat.util.WireSizeBenchmark [MESSAGES] [CONTENT_LENGTH]
+//
+// MESSAGES defaults to 5000 and CONTENT_LENGTH, the length of each message's
+// text, to 40.
+public final class WireSizeBenchmark {
+
+  private static final int USERS = 10;
+
+  public static void main(String[] args) throws IOException {
+
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    final int contentLength = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+
+    final Collection<Message> messages = makeMessages(count, contentLength);
+
+    final int v1 = size(messages, Wire.V1);
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+      final int size = size(messages, version);
+      System.out.format("version %d  %9d bytes  %6.1f bytes/message  %.2fx smaller than version 1\n",
+                        version,
+                        size,
+                        (double) size / count,
+                        (double) v1 / size);
+    }
+  }
+
+  private static int size(Collection<Message> messages, int version) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Serializers.collection(Message.SERIALIZER).write(Wire.out(bytes, version), messages);
+    return bytes.size();
+  }
+
+  private static Collection<Message> makeMessages(int count, int contentLength) {
+
+    final Random random = new Random(1);
+    final Uuid server = new Uuid(100);
+    final Uuid.Generator ids = new RandomUuidGenerator(server, 2);
+
+    final List<Uuid> users = new ArrayList<>();
+    for (int i = 0; i < USERS; i++) {
+      users.add(ids.make());
+    }
+
+    final StringBuilder content = new StringBuilder();
+    while (content.length() < contentLength) {
+      content.append("hello world ");
+    }
+    content.setLength(contentLength);
+
+    final List<Message> messages = new ArrayList<>(count);
+
+    long time = 1490000000000L;
+    Uuid previous = Uuid.NULL;
+    Uuid id = ids.make();
+
+    for (int i = 0; i < count; i++) {
+      final Uuid next = i + 1 < count ? ids.make() : Uuid.NULL;
+      time += random.nextInt(5000);
+      messages.add(new Message(id,
+                               next,
+                               previous,
+                               Time.fromMs(time),
+                               users.get(random.nextInt(USERS)),
+                               content.toString()));
+      previous = id;
+      id = next;
+    }
+
+    return messages;
+  }
+}
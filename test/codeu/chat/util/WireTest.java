@@ -0,0 +1,255 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import codeu.chat.common.Message;
+
+public final class WireTest {
+
+  private static <T> byte[] write(Serializer<T> serializer, T value, int version) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    serializer.write(Wire.out(bytes, version), value);
+    return bytes.toByteArray();
+  }
+
+  private static <T> T read(Serializer<T> serializer, byte[] bytes, int version) throws IOException {
+    final InputStream in = Wire.in(new ByteArrayInputStream(bytes), version);
+    final T value = serializer.read(in);
+    assertEquals("Every byte should be read.", -1, in.read());
+    return value;
+  }
+
+  private static <T> T roundTrip(Serializer<T> serializer, T value, int version) throws IOException {
+    return read(serializer, write(serializer, value, version), version);
+  }
+
+  @Test
+  public void testIntegers() throws IOException {
+
+    final int[] values = { 0, 1, -1, 63, -64, 64, 127, 128, 300, -300,
+                           Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+    for (final int value : values) {
+      assertEquals(value, (int) roundTrip(Serializers.INTEGER, value, Wire.V1));
+      assertEquals(value, (int) roundTrip(Serializers.INTEGER, value, Wire.V2));
+    }
+
+    assertEquals(4, write(Serializers.INTEGER, 1, Wire.V1).length);
+    assertEquals(1, write(Serializers.INTEGER, 1, Wire.V2).length);
+    assertEquals(1, write(Serializers.INTEGER, -1, Wire.V2).length);
+    assertEquals(5, write(Serializers.INTEGER, Integer.MIN_VALUE, Wire.V2).length);
+  }
+
+  @Test
+  public void testLongs() throws IOException {
+
+    final long[] values = { 0, 1, -1, 1L << 35, -(1L << 35), Long.MAX_VALUE, Long.MIN_VALUE };
+
+    for (final long value : values) {
+      assertEquals(value, (long) roundTrip(Serializers.LONG, value, Wire.V1));
+      assertEquals(value, (long) roundTrip(Serializers.LONG, value, Wire.V2));
+    }
+
+    assertEquals(8, write(Serializers.LONG, 5L, Wire.V1).length);
+    assertEquals(1, write(Serializers.LONG, 5L, Wire.V2).length);
+    assertEquals(10, write(Serializers.LONG, Long.MIN_VALUE, Wire.V2).length);
+  }
+
+  @Test
+  public void testStringsAreUtf8() throws IOException {
+
+    final String value = "h\u00e9llo \u4e16\u754c \ud83d\ude00";
+
+    final byte[] bytes = write(Serializers.STRING, value, Wire.V2);
+
+    assertEquals(value, read(Serializers.STRING, bytes, Wire.V2));
+    // A one byte length followed by the UTF-8 bytes.
+    assertEquals(1 + value.getBytes("UTF-8").length, bytes.length);
+  }
+
+  @Test
+  public void testUuids() throws IOException {
+
+    final Uuid[] values = { Uuid.NULL,
+                            new Uuid(new Uuid(100), 7),
+                            new Uuid(new Uuid(100), -123456789),
+                            new Uuid(new Uuid(new Uuid(1), Integer.MIN_VALUE), Integer.MAX_VALUE) };
+
+    for (final Uuid value : values) {
+      for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+        assertEquals(value, roundTrip(Uuid.SERIALIZER, value, version));
+      }
+    }
+
+    assertEquals(9, write(Uuid.SERIALIZER, values[1], Wire.V1).length);
+    assertEquals(3, write(Uuid.SERIALIZER, values[1], Wire.V2).length);
+  }
+
+  @Test
+  public void testUuidsAreShared() throws IOException {
+
+    final Uuid server = new Uuid(100);
+    final Uuid first = new Uuid(server, -123456789);
+    final Uuid second = new Uuid(server, 987654321);
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = Wire.out(bytes, Wire.V3);
+
+    Uuid.SERIALIZER.write(out, first);
+    final int firstSize = bytes.size();
+
+    Uuid.SERIALIZER.write(out, second);
+    final int secondSize = bytes.size() - firstSize;
+
+    Uuid.SERIALIZER.write(out, new Uuid(new Uuid(100), -123456789));
+    Uuid.SERIALIZER.write(out, null);
+    final int repeatSize = bytes.size() - firstSize - secondSize;
+
+    // The root is only written with the first Uuid, and a repeat is just its
+    // place in the stream.
+    assertEquals(firstSize - 2, secondSize);
+    assertEquals(2, repeatSize);
+
+    final InputStream in = Wire.in(new ByteArrayInputStream(bytes.toByteArray()), Wire.V3);
+
+    final Uuid readFirst = Uuid.SERIALIZER.read(in);
+    final Uuid readSecond = Uuid.SERIALIZER.read(in);
+    final Uuid readRepeat = Uuid.SERIALIZER.read(in);
+
+    assertEquals(first, readFirst);
+    assertEquals(second, readSecond);
+    assertSame(readFirst, readRepeat);
+    assertSame(readFirst.root(), readSecond.root());
+    assertNull(Uuid.SERIALIZER.read(in));
+  }
+
+  @Test
+  public void testManySharedUuids() throws IOException {
+
+    // Enough Uuids for the table of those already written to grow a few
+    // times, with ids that count up as well as random ones.
+    final Random random = new Random(7);
+    final List<Uuid> uuids = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      uuids.add(new Uuid(new Uuid(100), i % 2 == 0 ? i : random.nextInt()));
+    }
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = Wire.out(bytes, Wire.V3);
+
+    for (final Uuid uuid : uuids) {
+      Uuid.SERIALIZER.write(out, uuid);
+    }
+    final int firstSize = bytes.size();
+
+    // Equal Uuids, not the same objects, are still found.
+    for (final Uuid uuid : uuids) {
+      Uuid.SERIALIZER.write(out, new Uuid(new Uuid(100), uuid.id()));
+    }
+
+    // Every repeat is its place among the 1001 Uuids seen, two bytes at most.
+    assertTrue(bytes.size() - firstSize <= 2 * uuids.size());
+
+    final InputStream in = Wire.in(new ByteArrayInputStream(bytes.toByteArray()), Wire.V3);
+
+    for (int round = 0; round < 2; round++) {
+      for (final Uuid uuid : uuids) {
+        assertEquals(uuid, Uuid.SERIALIZER.read(in));
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownSharedUuid() throws IOException {
+    // Refers to the tenth Uuid on a stream that has none.
+    read(Uuid.SERIALIZER, new byte[] { 11 }, Wire.V3);
+  }
+
+  @Test
+  public void testTimesAreDeltas() throws IOException {
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final OutputStream out = Wire.out(bytes, Wire.V2);
+
+    final long start = 1490000000000L;
+
+    Time.SERIALIZER.write(out, Time.fromMs(start));
+    final int first = bytes.size();
+
+    Time.SERIALIZER.write(out, Time.fromMs(start + 20));
+    Time.SERIALIZER.write(out, Time.fromMs(start + 10));
+
+    // Only the first time is written in full.
+    assertEquals(first + 2, bytes.size());
+
+    final InputStream in = Wire.in(new ByteArrayInputStream(bytes.toByteArray()), Wire.V2);
+
+    assertEquals(start, Time.SERIALIZER.read(in).inMs());
+    assertEquals(start + 20, Time.SERIALIZER.read(in).inMs());
+    assertEquals(start + 10, Time.SERIALIZER.read(in).inMs());
+  }
+
+  @Test
+  public void testMessages() throws IOException {
+
+    final Collection<Message> messages = new ArrayList<>();
+    final Uuid server = new Uuid(100);
+
+    for (int i = 0; i < 50; i++) {
+      messages.add(new Message(new Uuid(server, 1000 + i),
+                               new Uuid(server, 1001 + i),
+                               new Uuid(server, 999 + i),
+                               Time.fromMs(1490000000000L + 1000 * i),
+                               new Uuid(server, 7),
+                               "message " + i));
+    }
+
+    final Serializer<Collection<Message>> serializer = Serializers.collection(Message.SERIALIZER);
+
+    for (int version = Wire.V1; version <= Wire.NEWEST; version++) {
+
+      final Iterator<Message> expected = messages.iterator();
+
+      for (final Message actual : roundTrip(serializer, messages, version)) {
+        final Message message = expected.next();
+        assertEquals(message.id, actual.id);
+        assertEquals(message.next, actual.next);
+        assertEquals(message.previous, actual.previous);
+        assertEquals(message.creation.inMs(), actual.creation.inMs());
+        assertEquals(message.author, actual.author);
+        assertEquals(message.content, actual.content);
+      }
+
+      assertFalse(expected.hasNext());
+    }
+
+    assertTrue(write(serializer, messages, Wire.V2).length * 2 < write(serializer, messages, Wire.V1).length);
+    assertTrue(write(serializer, messages, Wire.V3).length < write(serializer, messages, Wire.V2).length);
+  }
+}
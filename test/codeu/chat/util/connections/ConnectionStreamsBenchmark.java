@@ -0,0 +1,223 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.connections;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicReference;
+
+import codeu.chat.common.Message;
+import codeu.chat.common.NetworkCode;
+import codeu.chat.util.Serializers;
+import codeu.chat.util.Time;
+import codeu.chat.util.Uuid;
+
+// CONNECTION STREAMS BENCHMARK
+//
+// Compares sending large GET_MESSAGES_BY_TIME responses over the raw socket
+// streams (how connections used to work) with sending them over the buffered
+// streams of SocketConnection. Both ends of the connection use the same kind
+// of stream and the same serializers as the client and server.
+//
+// Run with: java codeu.chat.util.connections.ConnectionStreamsBenchmark [MESSAGES] [REQUESTS]
+//
+// MESSAGES is the number of messages in each response and defaults to 5000.
+// REQUESTS is the number of requests to time and defaults to 50.
+public final class ConnectionStreamsBenchmark {
+
+  private static final int CONTENT_LENGTH = 100;
+
+  // MAKER
+  //
+  // Turns an accepted or opened socket into a connection.
+  private interface Maker {
+    Connection make(Socket socket) throws IOException;
+  }
+
+  private static final Maker RAW = new Maker() {
+    @Override
+    public Connection make(final Socket socket) {
+      return new Connection() {
+        @Override
+        public InputStream in() throws IOException {
+          return socket.getInputStream();
+        }
+
+        @Override
+        public OutputStream out() throws IOException {
+          return socket.getOutputStream();
+        }
+
+        @Override
+        public String remoteAddress() {
+          return socket.getInetAddress().getHostAddress();
+        }
+
+        @Override
+        public void close() throws IOException {
+          socket.close();
+        }
+      };
+    }
+  };
+
+  private static final Maker BUFFERED = new Maker() {
+    @Override
+    public Connection make(Socket socket) throws IOException {
+      return new SocketConnection(socket);
+    }
+  };
+
+  public static void main(String[] args) throws Exception {
+
+    final int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    final int requests = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+    final Collection<Message> response = makeMessages(messages);
+
+    // Warm up both before timing either.
+    run(RAW, response, requests / 5 + 1);
+    run(BUFFERED, response, requests / 5 + 1);
+
+    report("raw     ", run(RAW, response, requests), messages);
+    report("buffered", run(BUFFERED, response, requests), messages);
+  }
+
+  private static void report(String name, long nsPerRequest, int messages) {
+    System.out.format("%s  %8.2f ms per response  %8.0f messages/ms\n",
+                      name,
+                      nsPerRequest / 1e6,
+                      messages / (nsPerRequest / 1e6));
+  }
+
+  // Serve "requests" requests for "response" and return the mean time from
+  // sending a request to having read all of its response. If the server end
+  // fails, it stops accepting and the run fails with what went wrong there.
+  private static long run(final Maker maker,
+                          final Collection<Message> response,
+                          final int requests) throws Exception {
+
+    final AtomicReference<IOException> failure = new AtomicReference<>();
+
+    try (final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+
+      final Thread server = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < requests; i++) {
+            try (final Connection connection = maker.make(serverSocket.accept())) {
+              Serializers.INTEGER.read(connection.in());
+              Uuid.SERIALIZER.read(connection.in());
+              Time.SERIALIZER.read(connection.in());
+              Time.SERIALIZER.read(connection.in());
+              Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE);
+              Serializers.collection(Message.SERIALIZER).write(connection.out(), response);
+              connection.out().flush();
+            } catch (IOException ex) {
+              if (serverSocket.isClosed()) {
+                // The client end failed first and closed it.
+                return;
+              }
+              failure.set(ex);
+              // Refuse the client's next connection rather than leave it waiting.
+              try {
+                serverSocket.close();
+              } catch (IOException closeEx) {
+                ex.addSuppressed(closeEx);
+              }
+              return;
+            }
+          }
+        }
+      };
+
+      server.start();
+
+      final long start = System.nanoTime();
+
+      try {
+        request(maker, serverSocket, response, requests);
+      } catch (IOException ex) {
+        // Stop the server end if it is still waiting for the next request.
+        serverSocket.close();
+        server.join();
+        if (failure.get() != null) {
+          final IOException serverFailure = new IOException("Server failed.", failure.get());
+          serverFailure.addSuppressed(ex);
+          throw serverFailure;
+        }
+        throw ex;
+      }
+
+      final long elapsed = System.nanoTime() - start;
+
+      server.join();
+
+      if (failure.get() != null) {
+        throw new IOException("Server failed.", failure.get());
+      }
+
+      return elapsed / requests;
+    }
+  }
+
+  // Send "requests" requests and check that each gets all of "response".
+  private static void request(Maker maker,
+                              ServerSocket serverSocket,
+                              Collection<Message> response,
+                              int requests) throws IOException {
+
+    for (int i = 0; i < requests; i++) {
+      try (final Connection connection =
+               maker.make(new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort()))) {
+        Serializers.INTEGER.write(connection.out(), NetworkCode.GET_MESSAGES_BY_TIME_REQUEST);
+        Uuid.SERIALIZER.write(connection.out(), Uuid.NULL);
+        Time.SERIALIZER.write(connection.out(), Time.fromMs(0));
+        Time.SERIALIZER.write(connection.out(), Time.fromMs(Long.MAX_VALUE));
+        connection.out().flush();
+
+        if (Serializers.INTEGER.read(connection.in()) != NetworkCode.GET_MESSAGES_BY_TIME_RESPONSE ||
+            Serializers.collection(Message.SERIALIZER).read(connection.in()).size() != response.size()) {
+          throw new IOException("Bad response.");
+        }
+      }
+    }
+  }
+
+  private static Collection<Message> makeMessages(int count) {
+
+    final StringBuilder content = new StringBuilder();
+    while (content.length() < CONTENT_LENGTH) {
+      content.append("hello world ");
+    }
+
+    final Collection<Message> messages = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      messages.add(new Message(new Uuid(i + 1),
+                               new Uuid(i + 2),
+                               new Uuid(i),
+                               Time.fromMs(i),
+                               new Uuid(100),
+                               content.toString()));
+    }
+    return messages;
+  }
+}
@@ -0,0 +1,190 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// CONCURRENT STORE BENCHMARK
+//
+// Measures how reads scale with the number of reading threads while another
+// thread keeps inserting, as happens when the server answers queries while
+// messages are being added. Each reader asks for short ranges of keys over
+// and over, while the writer adds keys after all of them, the way new
+// messages are added after older ones. The same is done with a Store behind a read-write lock, which is
+// how the server shares its stores between threads (see Dispatcher), and with
+// a ConcurrentStore that is read without any lock. Reads from a concurrent
+// store should keep scaling where the locked store stops.
+//
+// Run with: java codeu.chat.util.store.ConcurrentStoreBenchmark [KEYS] [MS]
+//
+// KEYS is the number of keys in the store before the run and defaults to
+// 100000. MS is how long each run lasts and defaults to 1000.
+public final class ConcurrentStoreBenchmark {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  // The number of keys each read asks for.
+  private static final int RANGE = 20;
+
+  // The store under test and how to get to it.
+  private interface Subject {
+    void insert(int key);
+    long read(int start);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+
+    final int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    final long ms = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+
+    final int cores = Runtime.getRuntime().availableProcessors();
+
+    // Warm up so that the numbers are not skewed by the first runs.
+    run("locked", locked(keys), keys, 2, ms / 2);
+    run("concurrent", concurrent(keys), keys, 2, ms / 2);
+
+    for (int readers = 1; readers <= Math.max(cores, 2); readers *= 2) {
+      run("locked", locked(keys), keys, readers, ms);
+      run("concurrent", concurrent(keys), keys, readers, ms);
+    }
+  }
+
+  private static Subject locked(int keys) {
+
+    final Store<Integer, Integer> store = new Store<>(COMPARATOR);
+    final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    for (int i = 0; i < keys; i++) {
+      store.insert(2 * i, i);
+    }
+
+    return new Subject() {
+      @Override
+      public void insert(int key) {
+        lock.writeLock().lock();
+        try {
+          store.insert(key, key);
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+      @Override
+      public long read(int start) {
+        lock.readLock().lock();
+        try {
+          return sum(store.range(start, start + 2 * RANGE));
+        } finally {
+          lock.readLock().unlock();
+        }
+      }
+    };
+  }
+
+  private static Subject concurrent(int keys) {
+
+    final ConcurrentStore<Integer, Integer> store = new ConcurrentStore<>(COMPARATOR);
+
+    for (int i = 0; i < keys; i++) {
+      store.insert(2 * i, i);
+    }
+
+    return new Subject() {
+      @Override
+      public void insert(int key) {
+        store.insert(key, key);
+      }
+      @Override
+      public long read(int start) {
+        return sum(store.range(start, start + 2 * RANGE));
+      }
+    };
+  }
+
+  private static long sum(Iterable<Integer> values) {
+    long sum = 0;
+    for (final Integer value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+
+  private static void run(String name,
+                          final Subject subject,
+                          final int keys,
+                          int readerCount,
+                          long ms) throws InterruptedException {
+
+    final AtomicBoolean running = new AtomicBoolean(true);
+    final AtomicLong reads = new AtomicLong();
+    final AtomicLong inserts = new AtomicLong();
+
+    final List<Thread> threads = new ArrayList<>();
+
+    threads.add(new Thread() {
+      @Override
+      public void run() {
+        long count = 0;
+        for (int key = 2 * keys; running.get(); key++) {
+          subject.insert(key);
+          count++;
+        }
+        inserts.addAndGet(count);
+      }
+    });
+
+    for (int r = 0; r < readerCount; r++) {
+      final int seed = r;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          long count = 0;
+          long sink = 0;
+          int start = seed * 7919 % keys;
+          while (running.get()) {
+            sink += subject.read(2 * start);
+            start = (start + 104729) % keys;
+            count++;
+          }
+          reads.addAndGet(count + (sink == 42 ? 1 : 0));
+        }
+      });
+    }
+
+    for (final Thread thread : threads) {
+      thread.start();
+    }
+
+    Thread.sleep(ms);
+    running.set(false);
+
+    for (final Thread thread : threads) {
+      thread.join();
+    }
+
+    System.out.format("%-10s %2d readers  %10d reads/s  %10d inserts/s\n",
+                      name,
+                      readerCount,
+                      reads.get() * 1000 / ms,
+                      inserts.get() * 1000 / ms);
+  }
+}
@@ -0,0 +1,207 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package codeu.chat.util.store;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.junit.Before;
+
+public final class ConcurrentStoreTest {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  // For the stress test every value is its key times SPREAD plus how many
+  // values the key had before it.
+  private static final int SPREAD = 1000;
+
+  private ConcurrentStore<Integer, Integer> store;
+
+  @Before
+  public void doBefore() {
+    store = new ConcurrentStore<>(COMPARATOR);
+  }
+
+  @Test
+  public void testOrderRandomInsert() {
+
+    store.insert(3, 30);
+    store.insert(0, 0);
+    store.insert(4, 40);
+    store.insert(1, 10);
+    store.insert(2, 20);
+
+    final int[] order = { 0, 10, 20, 30, 40 };
+    assertOrder(store.all(), order);
+  }
+
+  @Test
+  public void testEqualKeysKeepInsertOrder() {
+
+    for (int i = 0; i < 1000; i++) {
+      store.insert(i % 2, i);
+    }
+
+    assertEquals(0, (int) store.first(0));
+    assertEquals(1, (int) store.first(1));
+    assertNull(store.first(2));
+
+    int expected = 1;
+    for (final int value : store.at(1)) {
+      assertEquals(expected, value);
+      expected += 2;
+    }
+    assertEquals(1001, expected);
+  }
+
+  @Test
+  public void testRanges() {
+
+    for (int i = 0; i < 10; i++) {
+      store.insert(i, i * 10);
+    }
+
+    assertOrder(store.range(3, 5), new int[] { 30, 40, 50 });
+    assertOrder(store.after(8), new int[] { 80, 90 });
+    assertOrder(store.before(1), new int[] { 0, 10 });
+    assertOrder(store.range(5, 3), new int[] { });
+    assertOrder(store.at(11), new int[] { });
+  }
+
+  @Test
+  public void testIteratorSeesLaterKeys() {
+
+    store.insert(1, 10);
+
+    final Iterator<Integer> iterator = store.all().iterator();
+
+    store.insert(2, 20);
+
+    assertEquals(10, (int) iterator.next());
+    assertEquals(20, (int) iterator.next());
+    assertFalse(iterator.hasNext());
+  }
+
+  // Readers iterate the store while a writer inserts into it. No reader should
+  // ever see a value out of order, miss a value that was there when it started
+  // or see a value of a key without the values inserted before it.
+  @Test
+  public void testReadWhileInserting() throws InterruptedException {
+
+    final int keys = 500;
+    final int valuesPerKey = 40;
+
+    final List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < keys * valuesPerKey; i++) {
+      order.add(i % keys);
+    }
+    Collections.shuffle(order, new Random(1));
+
+    final AtomicReference<String> error = new AtomicReference<>();
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        final int[] counts = new int[keys];
+        for (final int key : order) {
+          store.insert(key, key * SPREAD + counts[key]++);
+        }
+      }
+    };
+
+    final List<Thread> readers = new ArrayList<>();
+    for (int r = 0; r < 4; r++) {
+      final boolean ranged = r % 2 == 1;
+      readers.add(new Thread() {
+        @Override
+        public void run() {
+          int seen = 0;
+          while (error.get() == null) {
+            final boolean finished = !writer.isAlive();
+            final int count = check(ranged ? store.range(keys / 4, keys / 2) : store.all(), error);
+            if (count < seen) {
+              error.compareAndSet(null, "Saw " + count + " values after seeing " + seen);
+            }
+            seen = count;
+            if (finished) {
+              return;
+            }
+          }
+        }
+      });
+    }
+
+    for (final Thread reader : readers) {
+      reader.start();
+    }
+    writer.start();
+
+    writer.join();
+    for (final Thread reader : readers) {
+      reader.join();
+    }
+
+    assertNull(error.get());
+    assertEquals(keys * valuesPerKey, check(store.all(), error));
+    assertNull(error.get());
+  }
+
+  // Check that "values" are in key order and that the values of each key are
+  // the first ones inserted, in order. Returns how many there were.
+  private static int check(Iterable<Integer> values, AtomicReference<String> error) {
+
+    int count = 0;
+    int last = -1;
+
+    for (final Integer value : values) {
+
+      if (value == null) {
+        error.compareAndSet(null, "Saw a null value.");
+        return count;
+      }
+
+      final boolean sameKey = last >= 0 && value / SPREAD == last / SPREAD;
+      final boolean fine = sameKey ? value == last + 1 : value % SPREAD == 0 && value > last;
+
+      if (!fine) {
+        error.compareAndSet(null, "Saw " + value + " after " + last);
+        return count;
+      }
+
+      last = value;
+      count++;
+    }
+
+    return count;
+  }
+
+  private static void assertOrder(Iterable<Integer> values, int[] order) {
+    int i = 0;
+    for (final int value : values) {
+      assertTrue(i < order.length);
+      assertEquals(order[i++], value);
+    }
+    assertEquals(order.length, i);
+  }
+}
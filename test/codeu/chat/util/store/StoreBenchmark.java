@@ -0,0 +1,80 @@
+// Copyright 2017 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package codeu.chat.util.store;
+
+import java.util.Comparator;
+
+// STORE BENCHMARK
+//
+// Measures how long a store takes to insert many values under one key, as
+// happens to the message stores when many messages share a creation time or
+// a body, and to read them back with "at". For comparison the same number of
+// values is also inserted under keys that are all different. Inserting under
+// one key should take no longer than inserting under different keys.
+//
+// Run with: java codeu.chat.util.store.StoreBenchmark [VALUES]
+//
+// VALUES is the number of values to insert and defaults to 1000000.
+public final class StoreBenchmark {
+
+  private static final Comparator<Integer> COMPARATOR = new Comparator<Integer>() {
+    @Override
+    public int compare(Integer a, Integer b) { return a.compareTo(b); }
+  };
+
+  public static void main(String[] args) {
+
+    final int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+    // Warm up so that the numbers are not skewed by the first runs.
+    for (int i = 0; i < 5; i++) {
+      run(count / 10, true);
+      run(count / 10, false);
+    }
+
+    run(count, true);
+    run(count, false);
+  }
+
+  private static void run(int count, boolean equalKeys) {
+
+    final Store<Integer, Integer> store = new Store<>(COMPARATOR);
+
+    final long start = System.nanoTime();
+
+    for (int i = 0; i < count; i++) {
+      store.insert(equalKeys ? 0 : i, i);
+    }
+
+    final long inserted = System.nanoTime();
+
+    long sum = 0;
+    for (final Integer value : equalKeys ? store.at(0) : store.all()) {
+      sum += value;
+    }
+
+    final long read = System.nanoTime();
+
+    if (sum != (long) count * (count - 1) / 2) {
+      throw new IllegalStateException("Store lost values.");
+    }
+
+    System.out.format("%-10s %8d values  insert %6d ms  read %6d ms\n",
+                      equalKeys ? "equal" : "different",
+                      count,
+                      (inserted - start) / 1000000,
+                      (read - inserted) / 1000000);
+  }
+}
@@ -147,6 +147,44 @@ public final class StoreTest {
     assertTrue(store.first(4) == 40);
   }
 
+  @Test
+  public void testManyEqualKeys() {
+
+    // Enough values to fill more than one chunk of a link.
+    final int count = 1000;
+
+    store.insert(3, -3);
+    for (int i = 0; i < count; i++) {
+      store.insert(2, i);
+    }
+    store.insert(1, -1);
+
+    final int[] at = new int[count];
+    for (int i = 0; i < count; i++) {
+      at[i] = i;
+    }
+    assertOrder(store.at(2), at);
+
+    final int[] all = new int[count + 2];
+    all[0] = -1;
+    System.arraycopy(at, 0, all, 1, count);
+    all[count + 1] = -3;
+    assertOrder(store.all(), all);
+    assertOrder(store.range(1, 3), all);
+
+    assertTrue(store.first(2) == 0);
+  }
+
+  @Test
+  public void testBeforeFirstKey() {
+    store.insert(1, 10);
+    store.insert(2, 20);
+
+    assertOrder(store.before(0), new int[0]);
+    assertOrder(store.at(0), new int[0]);
+    assertOrder(store.range(3, 4), new int[0]);
+  }
+
   private static void assertOrder(Iterable<Integer> actual, int[] expected) {
 
     int at = 0;